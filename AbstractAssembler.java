@@ -17,6 +17,7 @@ public interface AbstractAssembler {
 	/**
 	*	Assembles a source file
 	*	@param filename	File name of source file to assemble
+	*	@param outFileName File name of output file, or null to only assemble to memory
 	*	@return Error code indicating level of success of assembly. 
 	*	A 1 indicates error, and a 0 indicates success.
 	*	@throws IOException on error while reading file
@@ -34,5 +35,9 @@ public interface AbstractAssembler {
 	*	Sets an ascii translation mode for the target architecture
 	*/
 	public abstract void setAsciiTranslation (int mode);
+	/**
+	*	Turns warnings on page boundary crossings on or off
+	*/
+	public abstract void setPageWarnings (boolean warnings);
 }
 
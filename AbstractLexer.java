@@ -79,6 +79,18 @@ public interface AbstractLexer {
 	*/
 	public abstract int getRememberLineNum ();
 	/**
+	*	Returns the column number at the last mark
+	*/
+	public abstract int getRememberColNum ();
+	/**
+	*	Returns number of tokens lexed, including peeked tokens
+	*/
+	public abstract int getTokenCount ();
+	/**
+	*	Sets the statistics to count in, or null to not count
+	*/
+	public abstract void setStats (Stats6502 stats);
+	/**
 	*	Returns symbol table with identifiers
 	*/
 	public abstract SymbolTable getSymbolTable ();
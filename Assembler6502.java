@@ -16,21 +16,31 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 	private SymbolTable mKeywords = null;
 	private SymbolTable mIdentifiers = null;
 	private String mCommentChars = "!;";
-	private RandomAccessFile mFile = null;
+	private String mFilename = null;
+	private Image6502 mImage = null;
+	private DebugMap6502 mDebugMap = null;
+	private Vector mOutputs = new Vector ();
+	private Stats6502 mStats = null;
+	private long mIncludeStart = 0;
+	private AssemblyListener6502[] mListeners = null;
+	private Placement6502 mPlacement = null;
+	private int mCartridgeType = -1;
+	private Segment6502 mSegment = null;
+	private FlightRecorder6502 mRecorder = null;
 	private int mPass = 1;
 	private int mAsciiMode = 0;
+	private boolean mPageWarnings = false;
+	private int[] mLabelAddresses = new int [0];
+	private int mEndAddress = 0;
+	private Vector mLabels = new Vector ();
+	// regions marked with .compress, as int[] {start address, end address}
+	private Vector mCompressRegions = new Vector ();
+	// strings of .ptext packed with one dictionary, and the next .ptext of the pass
+	private TextPacker6502 mText = null;
+	private int mTextIndex = 0;
 	
-	/*
-	// variables for object files (Not supported yet)
-	private int mObjectOffset = 0;
-	private Vector mReloc = null;
-	// Exported symbols table	(Not implemented)
-	private Vector mExports = null;
-	// Unresolved references table	(Not implemented)
-	private Vector mUnresolved = null;
-	// pointer to current Segment
-	private Vector mSegment = null;
-	*/
+	// object module written in object mode
+	private ObjectFile6502 mObject = null;
 
 	/**
 	*	Output format mode.
@@ -38,6 +48,14 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 	*	0 = output assembly to screen for debugging
 	*	1 = raw output to disk (no file format)
 	*	2 = Commodore 64 .prg file (16bit header with start address)
+	*	3 = raw output without the gaps between origins, after a load table
+	*	4 = relocatable object module, see ObjectFile6502
+	*	5 = C64 cartridge of the segments in banks
+	*	6 = segments in banks one after the other in bank order
+	*	7 = C64 .prg file written into a 1541 disk image, see DiskImage6502
+	*	8 = Intel HEX records without the gaps between origins, see HexExport6502
+	*	9 = Motorola S-records without the gaps between origins, see HexExport6502
+	*	10 = self-extracting compressed C64 .prg file, see Compressor6502
 	*	99 = Secret test mode for evaluator (Only Accept expressions on each line and output them on screen)
 	*/
 	private int mMode = MODE_SCREEN;
@@ -55,12 +73,6 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		mOrgLexer = new Lexer6502 (mKeywords, mIdentifiers, mCommentChars);
 		mLexer = mOrgLexer;
 		mParser = new Parser6502 (mLexer);
-		/*
-		mReloc = new Vector ();
-		mExports = new Vector ();
-		mUnresolved = new Vector ();
-		mSegment = new Vector ();
-		*/
 	}
 
 	/**
@@ -159,6 +171,19 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 			new Symbol (".scope", PROC, NULL),
 			new Symbol (".endproc", ENDPROC, NULL),
 			new Symbol (".endscope", ENDPROC, NULL),
+			new Symbol (".align", ALIGN, NULL),
+			new Symbol ("align", ALIGN, NULL),
+			new Symbol (".page", PAGE, NULL),
+			new Symbol (".endpage", ENDPAGE, NULL),
+			new Symbol (".segment", SEGMENT, NULL),
+			new Symbol (".res", RESERVE, NULL),
+			new Symbol (".compress", COMPRESS, NULL),
+			new Symbol (".endcompress", ENDCOMPRESS, NULL),
+			new Symbol (".ptext", PTEXT, NULL),
+			new Symbol (".ptextdict", PTEXTDICT, NULL),
+			new Symbol (".table", TABLE, NULL),
+			new Symbol (".rept", REPT, NULL),
+			new Symbol (".endrept", ENDREPT, NULL),
 			new Symbol ("@", TEMPLABEL, NULL),
 			new Symbol ("@:", TEMPLABEL, NULL),
 			new Symbol ("@f", FORWARDJUMP, NULL),
@@ -194,29 +219,6 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		}
 	}
 	
-	/**
-	*	Formats and prints an integer in range 0-0xFF as two digit number
-	*/
-	protected void printHexByte (int b)
-	{
-		String out = Integer.toHexString (b);
-		if (b < 10 && b >= 0) System.out.print ("0" + out);
-		else System.out.print (out);
-	}
-	
-	/**
-	*	Formats and prints an integer in range 0-0xFFFF as four digit number
-	*/
-	protected void printHexWord (int w)
-	{
-		if (w < 0x100) printHexByte (w);
-		else {
-			String out = Integer.toHexString (w);
-			if (w < 0x1000) System.out.print ("0" + out);
-			else System.out.print (out);
-		}
-	}
-	
 	/**
 	*	Creates the machine code from opcode number, and addressing mode constant.
 	*	By indexing into machinCodeTab (SymbolConstant6502) with opcode number as first index, and
@@ -249,10 +251,12 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 	*	@param mc MachineCode6502 object returned by Parser6502, containing machine code data
 	*	@param ip Current instruction pointer in assembly
 	*
+	*	Package private, so the benchmarks in bench/ can measure it.
+	*
 	*	@see SymbolConstant6502
 	*	@return true for success
 	*/
-	private int constructMachineCode (MachineCode6502 mc6502, int ip) throws ParserException, RuntimeException
+	int constructMachineCode (MachineCode6502 mc6502, int ip) throws ParserException, RuntimeException
 	{
 		int addrMode = mc6502.getAddrMode ();
 		Symbol opcode = mc6502.getOpcode ();
@@ -289,10 +293,7 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		if (mPass == 2) {
 			int lo = operand & 0xFF;
 			int hi = (operand >> 8) & 0xFF;
-			int outLen = mcLen;
 			if (mc6502.getAddrMode () == REL) {
-				// patch output for screen when relative addressing, that's why outLen is 3
-				outLen = 3;
 				// must be within 126 bytes before the branch or 128 bytes after the brach instruction
 				// (A branch to itself is in fact a branch -2 because the branch is counted from the address of
 				// the following opcode, and not from the address of the branch-opcode)
@@ -315,41 +316,29 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 					if (operand - ip >= 129) throw new ParserException ("Branch too far (max 128 bytes forward)", mLexer);
 					operand -= nip;
 				}
+				if (mPageWarnings && (nip & 0xFF00) != (mc6502.getOperand () & 0xFF00)) {
+					warning ("Branch to $" + Integer.toHexString (mc6502.getOperand ()) +
+						" crosses page boundary (1 extra cycle when taken)");
+				}
+			}
+			else if (mPageWarnings && (addrMode == ABSX || addrMode == ABSY) && 
+				mParser.getRelocatable () != ABSOLUTE && Cpu6502.hasPageCrossPenalty (opcode.getType ())) {
+				checkIndexedTable (operand);
 			}
 
-			if (mMode == MODE_SCREEN) {
-				// output to screen
-				printHexWord (ip);
-				System.out.print (" ");
-				printHexByte (op);
-				System.out.print (" ");
-				if (mcLen >= 2) printHexByte (operand & 0xFF);
-				System.out.print (" ");
-				if (mcLen == 3) printHexByte ((operand >> 8) & 0xFF);
-				System.out.print ("\n");
+			if (mObject != null) {
+				if (addrMode == REL) mObject.addBranch (ip - mObject.getBase (), mc6502.getOperand () - mObject.getBase ());
+				else if (mcLen > 1) addRelocation (mParser.getRelocation (), ip + 1, mcLen - 1);
 			}
-			/*
-			else if (mMode == MODE_OBJECT) {
-				// output to object file
-				toObjectFile (op, mcLen, operand, mParser.getRelocatable ());
+			// output to memory image
+			mImage.writeByte (op);
+			if (mcLen == 2) {
+				mImage.writeByte (operand & 0xFF);
 			}
-			*/
-			else {
-				try {
-					// output to executable binary
-					mFile.writeByte (op);
-					if (mcLen == 2) {
-						mFile.writeByte (operand & 0xFF);
-					}
-					else if (mcLen == 3) {
-						// little endian
-						mFile.writeByte (operand & 0xFF);
-						mFile.writeByte ((operand >> 8) & 0xFF);
-					}
-				}
-				catch (IOException e) {
-					System.out.println (e);
-				}
+			else if (mcLen == 3) {
+				// little endian
+				mImage.writeByte (operand & 0xFF);
+				mImage.writeByte ((operand >> 8) & 0xFF);
 			}
 		}
 		
@@ -372,105 +361,181 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 	}
 	
 	
-	/*
-	// Not implemented
-	private void toObjectFile (int op, int mcLen, int operand, int reloc)
+	/**
+	*	Sets the pass, and the image pass 2 writes to, without assembling a file.
+	*	Package private, so the benchmarks in bench/ can measure constructMachineCode in pass 2.
+	*	@param pass 1 or 2
+	*	@param image image to write to
+	*/
+	void setPass (int pass, Image6502 image)
 	{
-		mSegment.addElement (new Integer (op));
-		if (mcLen == 2) {
-			mSegment.addElement (new Integer (operand & 0xFF));
-		}
-		else if (mcLen == 3) {
-			// little endian
-			mSegment.addElement (new Integer (operand & 0xFF));
-			mSegment.addElement (new Integer ((operand >> 8) & 0xFF));
-		}
-		
-		if (reloc == RELOC) {
-			mReloc.addElement (new Integer (mObjectOffset + 1));
-			mReloc.addElement (new Integer (RELOC));
+		mPass = pass;
+		mParser.setPass (pass);
+		mImage = image;
+	}
+
+	/**
+	*	Records the relocation of the bytes at an address in the object module.
+	*	@param reloc relocation from the parser, or null if the value does not move
+	*	@param address address of the bytes
+	*	@param size number of bytes of the value, 1 or 2
+	*/
+	private void addRelocation (Relocation6502 reloc, int address, int size) throws ParserException
+	{
+		if (reloc == null) return;
+		if (reloc.getType () == RELOC_COMPLEX || reloc.getSize () != size) {
+			throw new ParserException ("Expression cannot be relocated, use an address plus or minus a constant, " +
+				"or the low or high byte of one", mLexer);
 		}
-		else if (reloc == RELOC_LOBYTE) {
-			mReloc.addElement (new Integer (mObjectOffset + 1));
-			mReloc.addElement (new Integer (RELOC_LOBYTE));
+		reloc.setOffset (address - mObject.getBase ());
+		mObject.addRelocation (reloc);
+	}
+	
+	/**
+	*	Warns if the table an indexed instruction refers to straddles a page boundary.
+	*	The table is taken to be the span from the closest label at or below the address,
+	*	up to the next label (or end of assembly).
+	*	@param address the base address of the indexed instruction
+	*/
+	private void checkIndexedTable (int address)
+	{
+		// binary search for the closest label at or below address
+		int lo = 0;
+		int hi = mLabelAddresses.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (mLabelAddresses[mid] <= address) {
+				found = mid;
+				lo = mid + 1;
+			}
+			else hi = mid - 1;
 		}
-		else if (reloc == RELOC_HIBYTE) {
-			mReloc.addElement (new Integer (mObjectOffset + 1));
-			mReloc.addElement (new Integer (RELOC_HIBYTE));
+		if (found < 0) return;
+		int start = mLabelAddresses[found];
+		int end = (found + 1 < mLabelAddresses.length) ? mLabelAddresses[found + 1] : mEndAddress;
+		if (end > start && (start & 0xFF00) != ((end - 1) & 0xFF00)) {
+			warning ("Table at $" + Integer.toHexString (start) + "-$" + Integer.toHexString (end - 1) +
+				" straddles a page boundary (1 extra cycle when index crosses it)");
 		}
-
-		mObjectOffset += mcLen;
 	}
+	
+	/**
+	*	Prints a warning for the statement currently being assembled.
+	*/
+	private void warning (String message)
+	{
+		System.err.println ("Warning: " + message + " in file " + mLexer.getFilename () + ", line " +
+			mLexer.getRememberLineNum () + ":\n" + mLexer.xtractLine (mLexer.getRememberLineNum ()));
+		if (mRecorder != null)
+			mRecorder.diagnostic ("warning", message, mLexer.getFilename (), mLexer.getRememberLineNum ());
+	}
+	
+	/**
+	*	Tells listeners about a new origin address.
+	*/
+	private void fireOriginChanged (int ip)
+	{
+		if (mListeners == null) return;
+		for (int i = 0; i < mListeners.length; ++i) mListeners[i].originChanged (ip);
+	}
+	
+	/**
+	*	Tells listeners about written data bytes.
+	*/
+	private void fireBytesEmitted (int ip, int len)
+	{
+		if (mListeners == null) return;
+		for (int i = 0; i < mListeners.length; ++i) mListeners[i].bytesEmitted (ip, len);
+	}
+	
+	/**
+	*	Prints an error for the statement currently being assembled.
+	*/
+	private void error (String message)
+	{
+		System.err.println (message);
+		if (mRecorder != null)
+			mRecorder.diagnostic ("error", message, mLexer.getFilename (), mLexer.getRememberLineNum ());
+	}
+	
+	/**
+	*	Records the source file, line and column of the current statement in the debug map, 
+	*	for the bytes written at ip.
+	*	@param ip address of first byte
+	*	@param len number of bytes
+	*/
+	private void mapSource (int ip, int len)
+	{
+		mDebugMap.add (ip, len, mDebugMap.addFile (mLexer.getFilename ()),
+			mLexer.getRememberLineNum (), mLexer.getRememberColNum ());
+	}
+	
+	/**
+	*	Returns the instruction pointer aligned upwards to a multiple of alignment.
 	*/
+	private int align (int ip, int alignment)
+	{
+		return ((ip + alignment - 1) / alignment) * alignment;
+	}
 	
 	/**
 	*	Write sequence of bytes to machine code
 	*/
-	private void byteSequenceToMachineCode (int ip, Vector seq)
+	private void byteSequenceToMachineCode (int ip, Vector seq) throws ParserException
 	{
-		try {
-			int i = seq.size ();
-			int j = 0;
-			do {
-				int val = ((Integer) seq.elementAt (j++)).intValue ();
-				if (mMode == MODE_SCREEN) {
-					printHexWord (ip++);
-					System.out.print (" ");
-					printHexByte (val & 0xFF);
-					System.out.println ("");
-				}
-				/*
-				else if (mMode == MODE_OBJECT) {
-					mSegment.addElement (new Integer (val & 0xFF));
-					// add getting a vector of reloc values from parser and scan it here
-				}
-				*/
-				else mFile.writeByte (val);
-			} while (--i != 0);
-		}
-		catch (IOException e) {
-			System.err.println (e);
-			System.exit (1);
+		int i = seq.size ();
+		int j = 0;
+		do {
+			int val = ((Integer) seq.elementAt (j++)).intValue ();
+			mImage.writeByte (val);
+		} while (--i != 0);
+		if (mObject != null) addSequenceRelocations (ip, 1);
+	}
+	
+	/**
+	*	Writes the entries of a table, evaluated for each index straight into the image.
+	*	Entries are bytes, signed or unsigned.
+	*/
+	private void tableToMachineCode (Evaluator table, int length) throws ParserException, LexerException
+	{
+		for (int i = 0; i < length; ++i) {
+			int val = table.valueAt (i);
+			if (val < -0x80 || val > 0xFF)
+				throw new ParserException ("Table entry " + i + " is out of range: " + val, mLexer);
+			if (mObject != null && (table.isRelocatable () != ABSOLUTE || table.getExternal () != null))
+				throw new ParserException ("Table entries cannot be relocated in an object module", mLexer);
+			mImage.writeByte (val & 0xFF);
 		}
 	}
 	
 	/**
 	*	Write a sequence of words to machine code
 	*/
-	private void wordSequenceToMachineCode (int ip, Vector seq)
-	{
-		try {
-			int i = seq.size ();
-			int j = 0;
-			do {
-				int val = ((Integer) seq.elementAt (j++)).intValue ();
-				if (mMode == MODE_SCREEN) {
-					printHexWord (ip++);
-					System.out.print (" ");
-					printHexByte (val & 0xFF);
-					System.out.println ("");
-					printHexWord (ip++);
-					System.out.print (" ");
-					printHexByte ((val >> 8) & 0xFF);
-				}
-				/*
-				else if (mMode == MODE_OBJECT) {
-					mSegment.addElement (new Integer (val & 0xFF));
-					mSegment.addElement (new Integer ((val >> 8) & 0xFF));
-					// add getting a vector of reloc values from parser and scan it here
-				}
-				*/
-				else {
-					// little endian
-					mFile.writeByte (val & 0xFF);
-					mFile.writeByte ((val >> 8) & 0xFF);
-				}
-
-			} while (--i != 0);
-		}
-		catch (IOException e) {
-			System.err.println (e);
-			System.exit (1);
+	private void wordSequenceToMachineCode (int ip, Vector seq) throws ParserException
+	{
+		int i = seq.size ();
+		int j = 0;
+		do {
+			int val = ((Integer) seq.elementAt (j++)).intValue ();
+			// little endian
+			mImage.writeByte (val & 0xFF);
+			mImage.writeByte ((val >> 8) & 0xFF);
+		} while (--i != 0);
+		if (mObject != null) addSequenceRelocations (ip, 2);
+	}
+	
+	/**
+	*	Records the relocations of the elements of a byte or word sequence in the object module.
+	*	@param ip address of the sequence
+	*	@param size size of an element, 1 or 2
+	*/
+	private void addSequenceRelocations (int ip, int size) throws ParserException
+	{
+		Vector relocs = mParser.getSequenceRelocations ();
+		for (int i = 0; i < relocs.size (); ++i) {
+			Relocation6502 reloc = (Relocation6502) relocs.elementAt (i);
+			addRelocation (reloc, ip + reloc.getOffset () * size, size);
 		}
 	}
 	
@@ -478,22 +543,20 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 	*	Zero fill memory
 	*	@param oldIp instruction pointer to begin fill zeros from.
 	*	@param newIp instruction pointer where we end fill zeros.
+	*	@param hole true if the zeros are a gap between origins, which sparse outputs leave out
 	*/
-	private void zeroFill (int oldIp, int newIp) throws ParserException, RuntimeException
+	private void zeroFill (int oldIp, int newIp, boolean hole) throws ParserException, RuntimeException
 	{
-		try {
-			if (newIp >= oldIp + 1) {
+		if (newIp >= oldIp + 1) {
+			if (hole) mImage.fillHole (newIp - oldIp);
+			else {
 				for (int i = oldIp; i < newIp; ++i) {
-					mFile.writeByte (0);
+					mImage.writeByte (0);
 				}
 			}
-			else if (newIp < oldIp)
-				throw new ParserException ("Cannot set new origin backwards in memory", mLexer);
-		}
-		catch (IOException e) {
-			System.out.println (e);
-			System.exit (1);
 		}
+		else if (newIp < oldIp)
+			throw new ParserException ("Cannot set new origin backwards in memory", mLexer);
 	}
 	
 	/**
@@ -525,12 +588,92 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		if (!file.exists ()) 
 			throw new ParserException ("Cannot open file " + fileName, mLexer);
 		AbstractLexer newLexer = new Lexer6502 (mKeywords, mIdentifiers, mCommentChars);
+		newLexer.setStats (mStats);
+		if (mStats != null) {
+			mStats.addInclude ();
+			// time spent in included files is counted from entering the outermost include
+			if (stack.size () == 1) mIncludeStart = System.nanoTime ();
+		}
+		if (mRecorder != null) mRecorder.beginInclude (fileName, file.length ());
+		if (mListeners != null && mPass == 2) {
+			for (int i = 0; i < mListeners.length; ++i) mListeners[i].includeEntered (fileName);
+		}
 		newLexer.attachInput (fileName);
 		mParser.setLexer (newLexer);
 		mLexer = newLexer;
 		stack.push (newLexer);
 	}
 	
+	/**
+	*	Collects the strings of all .ptext directives in a source file and the files it includes,
+	*	and packs them with one dictionary. The sources are read with a lexer of their own, so the
+	*	symbol table of the assembly is not touched. Strings are translated like .byt strings.
+	*/
+	private TextPacker6502 scanText (String filename) throws ParserException, LexerException
+	{
+		Vector strings = new Vector ();
+		scanText (filename, new SymbolTable (), strings);
+		TextPacker6502 text = new TextPacker6502 (strings);
+		text.pack ();
+		return text;
+	}
+
+	private void scanText (String filename, SymbolTable symbols, Vector strings) throws ParserException, LexerException
+	{
+		AbstractLexer lexer = new Lexer6502 (mKeywords, symbols, mCommentChars);
+		lexer.attachInput (filename);
+		AsciiTranslator translator = null;
+		if (mAsciiMode == 1) translator = new C64UpperCaseTranslator ();
+		else if (mAsciiMode == 2) translator = new C64LowerCaseTranslator ();
+		while (true) {
+			int type;
+			try {
+				type = lexer.getNext ().getType ();
+			}
+			catch (LexerException e) {
+				// the assembly reports it
+				continue;
+			}
+			if (type == EOF) break;
+			if (type == INCLUDE) {
+				if (lexer.getNext ().getType () == CHARSEQUENCE && new File (lexer.getCharSequence ()).exists ())
+					scanText (lexer.getCharSequence (), symbols, strings);
+			}
+			else if (type == PTEXT) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+				try {
+					collectText (lexer, translator, bytes);
+				}
+				catch (LexerException e) {
+					// the assembly reports it, the string keeps its place
+				}
+				strings.addElement (bytes.toByteArray ());
+			}
+		}
+	}
+
+	/**
+	*	Reads the operands of a .ptext directive.
+	*/
+	private void collectText (AbstractLexer lexer, AsciiTranslator translator, ByteArrayOutputStream bytes)
+		throws ParserException, LexerException
+	{
+		while (true) {
+			Symbol symbol = lexer.getNext ();
+			if (symbol.getType () == CHARSEQUENCE) {
+				String str = lexer.getCharSequence ();
+				for (int i = 0; i < str.length (); ++i)
+					bytes.write ((translator != null) ? translator.translate (str.charAt (i)) : str.charAt (i));
+			}
+			else if (symbol.getType () == CONSTANT) bytes.write (symbol.getValue ());
+			else throw new ParserException ("Packed text takes strings and numbers only", lexer);
+			symbol = lexer.getNext ();
+			if (symbol.getType () == LINEFEED || symbol.getType () == EOF) break;
+			if (symbol.getType () != DELIMITER)
+				throw new ParserException ("Unexpected end of statement", lexer);
+		}
+	}
+	
 	/**
 	*	Installs a label into symbol table
 	*/
@@ -545,6 +688,33 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		}
 		Symbol installLabel = new Symbol (label.getName (), LABEL, ip);
 		mIdentifiers.install (installLabel);
+		if (mPageWarnings) mLabels.addElement (Integer.valueOf (ip));
+		if (mSegment != null) {
+			// labels of floating segments are moved by the layout stage
+			mSegment.addLabel (installLabel);
+			if (mPageWarnings) mSegment.addAddress (mLabels, mLabels.size () - 1);
+		}
+	}
+	
+	/**
+	*	Returns a segment of the placement by name. If no placement is set, the default placement
+	*	is used.
+	*/
+	private Segment6502 findSegment (String name) throws ParserException
+	{
+		if (mPlacement == null) mPlacement = Placement6502.createDefault ();
+		Segment6502 segment = mPlacement.getSegment (name);
+		if (segment == null) throw new ParserException ("Segment " + name + " is not in the placement", mLexer);
+		return segment;
+	}
+	
+	/**
+	*	Throws an exception if the current segment only reserves space.
+	*/
+	private void checkData () throws ParserException
+	{
+		if (mSegment != null && mSegment.isBss ())
+			throw new ParserException ("Segment " + mSegment.getName () + " only reserves space, use .res", mLexer);
 	}
 
 	/**
@@ -554,6 +724,12 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 	{
 		int error = 0;
 		int numOpcodes = 0;
+		long startTime = (mStats != null) ? System.nanoTime () : 0;
+		mFilename = filename;
+		mText = null;
+		mTextIndex = 0;
+		mRecorder = FlightRecorder6502.isRecording () ? new FlightRecorder6502 () : null;
+		if (mRecorder != null) mRecorder.beginJob (filename, outFileName, mMode);
 		
 		Vector tempIdentifiers = new Vector ();
 		Vector[] tempLabels = new Vector [mIdentifiers.getLevelLimit ()];
@@ -587,48 +763,155 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		int startAddress = ip;
 		
 		// PASS 1 - parse labels & parse assigns 
+		long phaseTime = (mStats != null) ? System.nanoTime () : 0;
 		mPass = 1;
+		if (mRecorder != null) mRecorder.beginPass (mPass);
 		mParser.setPass (mPass);
 		Stack lexerStack = new Stack ();
 		lexerStack.push (mLexer);
+		// instruction pointer and opcode count outside segments, while in a segment
+		int defaultIp = ip;
+		int defaultOpcodes = 0;
+		boolean textDecoder = false;
+		boolean textScanned = false;
+		// address ranges of the code outside segments, between origins
+		Vector defaultRanges = new Vector ();
+		int rangeStart = ip;
+		mSegment = null;
+		if (mPlacement != null) mPlacement.reset ();
 		while (true) {
 			try {
 				mParser.setInstructionPointer (ip);
 				int result = mParser.doNonTerminal ();
 				if (result == PARSERESULT_EOF) {
-					lexerStack.pop ();
+					AbstractLexer done = (AbstractLexer) lexerStack.pop ();
 					if (lexerStack.size () == 0)
 						break;
+					// the end of a .rept block is not the end of an include file
+					if (!(done instanceof RepeatLexer6502)) {
+						if (mRecorder != null) mRecorder.endInclude (done.getTokenCount ());
+						if (mStats != null && lexerStack.size () == 1)
+							mStats.addTime (Stats6502.PHASE_INCLUDES, System.nanoTime () - mIncludeStart);
+					}
 					mLexer = (AbstractLexer) lexerStack.peek ();
 					mParser.setLexer (mLexer);
 				}
 				else if (result == PARSERESULT_OPCODE) {
+					checkData ();
 					ip += constructMachineCode (mParser.getMachineCode (), ip);
 					++numOpcodes;
 				}
 				else if (result == PARSERESULT_NEW_ORIGIN) {
+					if (mSegment != null)
+						throw new ParserException ("Cannot set origin inside segment " + mSegment.getName (), mLexer);
+					if (mMode == MODE_OBJECT)
+						throw new ParserException ("Cannot set origin in an object module, the linker places it", mLexer);
+					if (ip > rangeStart) defaultRanges.addElement (new int[] {rangeStart, ip});
 					ip = mParser.getNewOrigin ();
+					rangeStart = ip;
 					if (ip < 0x100) {
-						System.err.println ("Assembly to zero page not supported.");
+						error ("Assembly to zero page not supported.");
 						System.exit (1);
 					}
 					if (numOpcodes == 0) startAddress = ip;
 				}
+				else if (result == PARSERESULT_ALIGN) {
+					ip = align (ip, mParser.getAlignment ());
+					if (numOpcodes == 0) {
+						startAddress = ip;
+						rangeStart = ip;
+					}
+					if (mSegment != null) mSegment.addAlignment (mParser.getAlignment ());
+				}
+				else if (result == PARSERESULT_SEGMENT) {
+					if (mMode == MODE_OBJECT)
+						throw new ParserException ("Segments are not supported in object modules", mLexer);
+					Segment6502 segment = findSegment (mParser.getSymbol ().getName ());
+					if (mSegment == null) {
+						defaultIp = ip;
+						defaultOpcodes = numOpcodes;
+					}
+					else mSegment.setIp (ip);
+					mSegment = segment;
+					mSegment.setUsed ();
+					ip = mSegment.getIp ();
+					// inside segments there is no start address to find, and .align fills
+					numOpcodes = 1;
+				}
+				else if (result == PARSERESULT_RESERVE) {
+					ip += mParser.getReserve ();
+					++numOpcodes;
+				}
+				else if (result == PARSERESULT_PAGE || result == PARSERESULT_ENDPAGE) {
+					// page blocks are checked in pass 2
+				}
+				else if (result == PARSERESULT_COMPRESS || result == PARSERESULT_ENDCOMPRESS) {
+					if (mMode == MODE_OBJECT)
+						throw new ParserException ("Compressed regions are not supported in object modules", mLexer);
+				}
+				else if (result == PARSERESULT_PTEXT || result == PARSERESULT_PTEXTDICT) {
+					checkData ();
+					if (mMode == MODE_OBJECT)
+						throw new ParserException ("Packed text is not supported in object modules", mLexer);
+					// the strings are collected from the source, once
+					if (result == PARSERESULT_PTEXT && mLexer instanceof RepeatLexer6502)
+						throw new ParserException ("Packed text is not allowed in a .rept block", mLexer);
+					// the dictionary is made from all strings, before the length of the first is known
+					if (!textScanned) {
+						textScanned = true;
+						mText = scanText (filename);
+					}
+					if (mText == null) {
+						// the scan failed and is reported once
+					}
+					else if (result == PARSERESULT_PTEXT) {
+						if (mTextIndex >= mText.getCount ())
+							throw new ParserException ("Packed text was not found in the sources, check the strings before it", mLexer);
+						ip += mText.getPacked (mTextIndex++).length;
+					}
+					else {
+						if (textDecoder)
+							throw new ParserException ("Packed text decoder is already written, only one .ptextdict is allowed", mLexer);
+						textDecoder = true;
+						ip += mText.getDecoderLength ();
+					}
+					++numOpcodes;
+				}
 				else if (result == PARSERESULT_INCLUDE) {
 					includeFile (mParser.getSymbol ().getName (), lexerStack);
 				}
+				else if (result == PARSERESULT_REPT) {
+					// the block is replayed by a lexer of its own, like an included file
+					mLexer = mParser.getRepeat ();
+					mLexer.setStats (mStats);
+					lexerStack.push (mLexer);
+					mParser.setLexer (mLexer);
+				}
 				else if (result == PARSERESULT_UNDEF_STATEMENT) {
 					throw new ParserException ("Undefined statement", mLexer);
 				}
 				else if (result == PARSERESULT_TEMPORARY_LABEL) {
-					tempLabels[mIdentifiers.getLexLevel ()].addElement (new Integer (ip));
+					Vector temps = tempLabels[mIdentifiers.getLexLevel ()];
+					temps.addElement (Integer.valueOf (ip));
+					if (mSegment != null) mSegment.addAddress (temps, temps.size () - 1);
+					if (mPageWarnings) {
+						mLabels.addElement (Integer.valueOf (ip));
+						if (mSegment != null) mSegment.addAddress (mLabels, mLabels.size () - 1);
+					}
 				}
 				else if (result == PARSERESULT_BYTE_SEQ) {
+					checkData ();
 					Vector v = mParser.getSequence ();
 					ip += v.size ();
 					++numOpcodes;
 				}
+				else if (result == PARSERESULT_TABLE) {
+					checkData ();
+					ip += mParser.getTableLength ();
+					++numOpcodes;
+				}
 				else if (result == PARSERESULT_WORD_SEQ) {
+					checkData ();
 					Vector v = mParser.getSequence ();
 					ip += (v.size () << 1);
 					++numOpcodes;
@@ -672,29 +955,60 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 				}
 			}
 			catch (LexerException e) {
-				System.err.println (e.getMessage ());
+				error (e.getMessage ());
 				error = 1;
 			}
 			catch (ParserException e) {
-				System.err.println (e.getMessage ());
+				error (e.getMessage ());
 				error = 1;
 			}
 			catch (Exception e) {
-				System.err.println (e);
+				error (e.toString ());
 				e.printStackTrace ();
 				error = 1;
 			}
 		}
 		
 		if (mIdentifiers.getLexLevel () != 0) {
-			System.err.println ("Scope is not zero after pass 1, did you forget end a procedure?");
+			error ("Scope is not zero after pass 1, did you forget end a procedure?");
+			error = 1;
+		}
+		if (mText != null && !textDecoder) {
+			error ("Packed text has no decoder, did you forget .ptextdict?");
 			error = 1;
 		}
 		
+		if (mSegment != null) {
+			mSegment.setIp (ip);
+			mSegment = null;
+			ip = defaultIp;
+			numOpcodes = defaultOpcodes;
+		}
+		if (mPlacement != null && mPlacement.isUsed ()) {
+			// layout stage, place the segments and move their labels
+			if (ip > rangeStart) defaultRanges.addElement (new int[] {rangeStart, ip});
+			Vector errors = mPlacement.layout (defaultRanges, ip);
+			for (int i = 0; i < errors.size (); ++i) {
+				error ((String) errors.elementAt (i));
+				error = 1;
+			}
+		}
+		
+		if (mRecorder != null) mRecorder.endPass ();
 		if (error != 0) {
+			if (mRecorder != null) mRecorder.endJob (error, 0);
 			System.exit (error);
 		}
 		
+		// Sort the label addresses for table lookups in pass 2
+		mEndAddress = ip;
+		mLabelAddresses = new int [mLabels.size ()];
+		for (int i = 0; i < mLabelAddresses.length; ++i) {
+			mLabelAddresses[i] = ((Integer) mLabels.elementAt (i)).intValue ();
+		}
+		Arrays.sort (mLabelAddresses);
+		mLabels.clear ();
+		
 		// Now remove all identifiers from symbol table
 		for (int i = 0; i < tempIdentifiers.size (); ++i) {
 			Symbol identifier = (Symbol) tempIdentifiers.elementAt (i);
@@ -702,6 +1016,11 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		}
 		
 		
+		if (mStats != null) {
+			mStats.addTime (Stats6502.PHASE_PASS1, System.nanoTime () - phaseTime);
+			phaseTime = System.nanoTime ();
+		}
+		
 		// PASS 2
 		
 			// pass reader to lexer
@@ -711,25 +1030,47 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 		mParser.setLexer (mLexer);
 		mPass = 2;
 		mParser.setPass (mPass);
+		if (mRecorder != null) mRecorder.beginPass (mPass);
 		
 		if (mAsciiMode == 1) mParser.setC64UpperCaseMode (true);
 		else if (mAsciiMode == 2) mParser.setC64LowerCaseMode (true);
 		
 		ip = 0x1000;
 		numOpcodes = 0;
+		Stack pageBlocks = new Stack ();
+		int compressStart = -1;
+		mCompressRegions.clear ();
+		mTextIndex = 0;
 		
 		
-		if (mFile != null) mFile.close ();
-		File remove = new File (outFileName);
-		if (remove.exists ()) remove.delete ();
-		remove = null;
-
-		mFile = new RandomAccessFile (outFileName, "rw");
-		if (mMode == MODE_C64) {
-			// write start address header, for .prg (commodore 64)
-			mFile.writeByte (startAddress & 0xFF);
-			mFile.writeByte ((startAddress >> 8) & 0xFF);
+		mImage = new Image6502 (startAddress);
+		// in object mode undefined identifiers are references to other modules
+		mObject = (mMode == MODE_OBJECT) ? new ObjectFile6502 (filename, startAddress) : null;
+		mParser.setExternals (mObject != null);
+		String procName = null;
+		int procStart = 0;
+		mDebugMap = new DebugMap6502 ();
+		Image6502 defaultImage = mImage;
+		if (mPlacement != null) mPlacement.beginPass2 ();
+		
+		// all outputs are fed from this pass, listings start listening here
+		Vector outputs = new Vector ();
+		if (mMode == MODE_SCREEN) outputs.addElement (new OutputSink6502 (OutputSink6502.SCREEN, null));
+		else if (outFileName != null) {
+			int type = OutputSink6502.RAW;
+			if (mMode == MODE_C64) type = OutputSink6502.PRG;
+			else if (mMode == MODE_SPARSE) type = OutputSink6502.SPARSE;
+			else if (mMode == MODE_OBJECT) type = OutputSink6502.OBJECT;
+			else if (mMode == MODE_CRT) type = OutputSink6502.CRT;
+			else if (mMode == MODE_BANKS) type = OutputSink6502.BANKS;
+			else if (mMode == MODE_D64) type = OutputSink6502.D64;
+			else if (mMode == MODE_HEX) type = OutputSink6502.HEX;
+			else if (mMode == MODE_SREC) type = OutputSink6502.SREC;
+			else if (mMode == MODE_PACKED) type = OutputSink6502.PACKED;
+			outputs.addElement (new OutputSink6502 (type, outFileName));
 		}
+		outputs.addAll (mOutputs);
+		for (int i = 0; i < outputs.size (); ++i) ((OutputSink6502) outputs.elementAt (i)).open (this);
 		
 		while (true) {
 			try {
@@ -737,27 +1078,125 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 				mParser.setTempLabels (tempLabels[mIdentifiers.getLexLevel ()]);
 				int result = mParser.doNonTerminal ();
 				if (result == PARSERESULT_EOF) {
-					lexerStack.pop ();
+					AbstractLexer done = (AbstractLexer) lexerStack.pop ();
 					if (lexerStack.size () == 0)
 						break;
+					if (!(done instanceof RepeatLexer6502)) {
+						if (mRecorder != null) mRecorder.endInclude (done.getTokenCount ());
+						if (mListeners != null) {
+							for (int i = 0; i < mListeners.length; ++i) mListeners[i].includeExited (done.getFilename ());
+						}
+						if (mStats != null && lexerStack.size () == 1)
+							mStats.addTime (Stats6502.PHASE_INCLUDES, System.nanoTime () - mIncludeStart);
+					}
 					mLexer = (AbstractLexer) lexerStack.peek ();
 					mParser.setLexer (mLexer);
 				}
 				else if (result == PARSERESULT_OPCODE) {
-					ip += constructMachineCode (mParser.getMachineCode (), ip);
+					checkData ();
+					MachineCode6502 code = mParser.getMachineCode ();
+					int len = constructMachineCode (code, ip);
+					mapSource (ip, len);
+					if (mListeners != null) {
+						for (int i = 0; i < mListeners.length; ++i) mListeners[i].instructionEmitted (ip, len, code);
+					}
+					ip += len;
 					++numOpcodes;
 				}
 				else if (result == PARSERESULT_NEW_ORIGIN) {
+					if (mSegment != null)
+						throw new ParserException ("Cannot set origin inside segment " + mSegment.getName (), mLexer);
 					int newIp = mParser.getNewOrigin ();
 					// zero fill here
 					if (numOpcodes != 0) {
-						zeroFill (ip, newIp);
+						zeroFill (ip, newIp, true);
 					}
 					ip = newIp;
+					fireOriginChanged (ip);
+				}
+				else if (result == PARSERESULT_ALIGN) {
+					int newIp = align (ip, mParser.getAlignment ());
+					if (numOpcodes != 0) {
+						zeroFill (ip, newIp, false);
+					}
+					if (mObject != null) mObject.addAlignment (mParser.getAlignment ());
+					ip = newIp;
+					fireOriginChanged (ip);
+				}
+				else if (result == PARSERESULT_SEGMENT) {
+					Segment6502 segment = findSegment (mParser.getSymbol ().getName ());
+					if (mSegment == null) {
+						defaultIp = ip;
+						defaultOpcodes = numOpcodes;
+					}
+					else mSegment.setIp (ip);
+					mSegment = segment;
+					ip = mSegment.getIp ();
+					numOpcodes = 1;
+					mImage = mSegment.getImage ();
+					fireOriginChanged (ip);
+				}
+				else if (result == PARSERESULT_RESERVE) {
+					int newIp = ip + mParser.getReserve ();
+					// reserved space is zero filled, except in segments that only reserve space
+					if (mSegment != null && mSegment.isBss ()) fireOriginChanged (newIp);
+					else if (newIp > ip) {
+						zeroFill (ip, newIp, false);
+						mapSource (ip, newIp - ip);
+						fireBytesEmitted (ip, newIp - ip);
+					}
+					ip = newIp;
+					++numOpcodes;
+				}
+				else if (result == PARSERESULT_PAGE) {
+					pageBlocks.push (Integer.valueOf (ip));
+				}
+				else if (result == PARSERESULT_ENDPAGE) {
+					if (pageBlocks.empty ())
+						throw new ParserException ("Found unmatched end of page block", mLexer);
+					int start = ((Integer) pageBlocks.pop ()).intValue ();
+					if (ip > start && (start & 0xFF00) != ((ip - 1) & 0xFF00))
+						throw new ParserException ("Page block $" + Integer.toHexString (start) + "-$" +
+							Integer.toHexString (ip - 1) + " crosses a page boundary", mLexer);
+				}
+				else if (result == PARSERESULT_COMPRESS) {
+					if (compressStart >= 0)
+						throw new ParserException ("Compressed regions cannot be nested", mLexer);
+					compressStart = ip;
+				}
+				else if (result == PARSERESULT_ENDCOMPRESS) {
+					if (compressStart < 0)
+						throw new ParserException ("Found unmatched end of compressed region", mLexer);
+					if (ip > compressStart) mCompressRegions.addElement (new int[] {compressStart, ip});
+					compressStart = -1;
+				}
+				else if (result == PARSERESULT_PTEXT || result == PARSERESULT_PTEXTDICT) {
+					checkData ();
+					byte[] bytes;
+					if (result == PARSERESULT_PTEXT) bytes = mText.getPacked (mTextIndex++);
+					else {
+						Vector v = mParser.getSequence ();
+						int zp = (v.size () > 1) ? ((Integer) v.elementAt (1)).intValue () : 0xfb;
+						if (zp > 0xfe)
+							throw new ParserException ("Packed text decoder needs two bytes in zero page", mLexer);
+						bytes = mText.getDecoder (ip, ((Integer) v.elementAt (0)).intValue (), zp);
+					}
+					for (int i = 0; i < bytes.length; ++i) mImage.writeByte (bytes[i]);
+					++numOpcodes;
+					mapSource (ip, bytes.length);
+					fireBytesEmitted (ip, bytes.length);
+					ip += bytes.length;
 				}
 				else if (result == PARSERESULT_INCLUDE) {
 					includeFile (mParser.getSymbol ().getName (), lexerStack);
 				}
+				else if (result == PARSERESULT_REPT) {
+					// the block is replayed by a lexer of its own, like an included file
+					mLexer = mParser.getRepeat ();
+					mLexer.setStats (mStats);
+					lexerStack.push (mLexer);
+					mParser.setLexer (mLexer);
+				}
 				else if (result == PARSERESULT_UNDEF_STATEMENT) {
 					throw new ParserException ("Undefined statement", mLexer);
 				}
@@ -765,36 +1204,68 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 					// do nothing in pass 2
 				}
 				else if (result == PARSERESULT_BYTE_SEQ) {
+					checkData ();
 					Vector v = mParser.getSequence ();
 					int newIp = ip + v.size ();
 					++numOpcodes;
 					byteSequenceToMachineCode (ip, v);
+					mapSource (ip, newIp - ip);
+					fireBytesEmitted (ip, newIp - ip);
 					ip = newIp;
 				}
+				else if (result == PARSERESULT_TABLE) {
+					checkData ();
+					int length = mParser.getTableLength ();
+					tableToMachineCode (mParser.getTable (), length);
+					++numOpcodes;
+					mapSource (ip, length);
+					fireBytesEmitted (ip, length);
+					ip += length;
+				}
 				else if (result == PARSERESULT_WORD_SEQ) {
+					checkData ();
 					Vector v = mParser.getSequence ();
 					int newIp = ip + (v.size () << 1);
 					++numOpcodes;
 					wordSequenceToMachineCode (ip, v);
+					mapSource (ip, newIp - ip);
+					fireBytesEmitted (ip, newIp - ip);
 					ip = newIp;
 				}
 				else if (result == PARSERESULT_LABEL) {
-					// Skip labels in pass 2
+					// labels are installed in pass 1, only tell listeners
+					if (mListeners != null) {
+						String name = mParser.getSymbol ().getName ();
+						for (int i = 0; i < mListeners.length; ++i) mListeners[i].labelDefined (name, ip);
+					}
 				}
 				else if (result == PARSERESULT_ASSIGN) {
 					// install into symbol table
 					Symbol identifier = mParser.getSymbol ();
+					if (mObject != null && (mParser.getExternal () != null ||
+						(mParser.getRelocatable () != ABSOLUTE && mParser.getRelocatable () != RELOC)))
+						throw new ParserException ("Only constants and addresses in the module can be assigned in an object module", mLexer);
 					mIdentifiers.remove (identifier.getName ());
 					mIdentifiers.install (identifier);
 				}
 				else if (result == PARSERESULT_PROC) {
 					Symbol procLabel = mParser.getSymbol ();
+					if (mListeners != null) {
+						for (int i = 0; i < mListeners.length; ++i) mListeners[i].labelDefined (procLabel.getName (), ip);
+					}
+					// outermost procs are recorded in object modules, for the linker to strip
+					if (mIdentifiers.getLexLevel () == 0) {
+						procName = procLabel.getName ();
+						procStart = ip;
+					}
 					if (!mIdentifiers.stepIntoNamespace (procLabel.getName ())) 
 						throw new ParserException ("Lexical max level is reached", mLexer);
 				}
 				else if (result == PARSERESULT_ENDPROC) {
 					if (!mIdentifiers.stepOut ())
 						throw new ParserException ("Found unmatched end of procedure", mLexer);
+					if (mObject != null && mIdentifiers.getLexLevel () == 0)
+						mObject.addProc (procName, procStart - mObject.getBase (), ip - mObject.getBase ());
 				}			
 				else {
 					System.err.println ("Unexpected return from mParser in Assembler6502.assemble");
@@ -802,41 +1273,357 @@ public class Assembler6502 implements SymbolConstant6502, AbstractAssembler {
 				}
 			}
 			catch (LexerException e) {
-				System.err.println (e.getMessage ());
+				error (e.getMessage ());
 				error = 1;
 			}
 			catch (ParserException e) {
-				System.err.println (e.getMessage ());
+				error (e.getMessage ());
 				error = 1;
 			}
 			catch (Exception e) {
-				System.err.println (e);
+				error (e.toString ());
 				e.printStackTrace ();
 				error = 1;
 			}
 		}
 
-		mFile.close ();
-		mFile = null;
-		if (error != 0) {
-			// delete output file if errors were encountered.
-			File file = new File (outFileName);
-			file.delete ();
+		if (mSegment != null) {
+			mSegment.setIp (ip);
+			mSegment = null;
 		}
+		mImage = defaultImage;
+		if (mPlacement != null && mPlacement.isUsed ()) mImage = mPlacement.merge (defaultImage);
+		if (mObject != null) finishObject ();
+
+		if (!pageBlocks.empty ()) {
+			error ("Page block is not closed after pass 2, did you forget .endpage?");
+			error = 1;
+		}
+		if (compressStart >= 0) {
+			error ("Compressed region is not closed after pass 2, did you forget .endcompress?");
+			error = 1;
+		}
+
+		if (mRecorder != null) mRecorder.endPass ();
+		if (mStats != null) {
+			mStats.addTime (Stats6502.PHASE_PASS2, System.nanoTime () - phaseTime);
+			phaseTime = System.nanoTime ();
+		}
+
+		// only write output files if no errors were encountered.
+		// every output is closed, so one that fails does not leave the temporary files of the others
+		IOException failure = null;
+		for (int i = 0; i < outputs.size (); ++i) {
+			OutputSink6502 output = (OutputSink6502) outputs.elementAt (i);
+			try {
+				if (output.close (this, error == 0)) countWritten (output.getFilename ());
+			}
+			catch (IOException e) {
+				if (failure == null) failure = e;
+			}
+		}
+		if (failure != null) throw failure;
+
+		if (mStats != null) {
+			long now = System.nanoTime ();
+			mStats.addTime (Stats6502.PHASE_OUTPUT, now - phaseTime);
+			mStats.addTime (Stats6502.PHASE_TOTAL, now - startTime);
+		}
+		if (mRecorder != null) mRecorder.endJob (error, mImage.getLength ());
 
 		return error;
 	}
+	
+	/**
+	*	Puts the code in the object module, and exports the global labels.
+	*/
+	private void finishObject ()
+	{
+		mObject.setCode (mImage.toByteArray ());
+		Vector symbols = new Vector ();
+		Vector paths = new Vector ();
+		mIdentifiers.collectSymbols (symbols, paths);
+		for (int i = 0; i < symbols.size (); ++i) {
+			Symbol symbol = (Symbol) symbols.elementAt (i);
+			if (symbol.getType () == LABEL && ((String[]) paths.elementAt (i)).length == 0)
+				mObject.addExport (symbol.getName (), symbol.getValue ());
+		}
+	}
+	
+	/**
+	*	Returns the object module of the last assembly in object mode, or null.
+	*/
+	public ObjectFile6502 getObject ()
+	{
+		return mObject;
+	}
+	
+	/**
+	*	Counts the size of a written file in statistics, if turned on.
+	*/
+	private void countWritten (String filename)
+	{
+		if (mStats != null) mStats.addBytesWritten (new File (filename).length ());
+	}
+	
+	/**
+	*	Returns the memory image from the last assembly, or null if nothing has been assembled.
+	*/
+	public Image6502 getImage ()
+	{
+		return mImage;
+	}
+	
+	/**
+	*	Returns the regions marked with .compress in the last assembly, as int[] {start address,
+	*	end address}.
+	*/
+	public Vector getCompressRegions ()
+	{
+		return mCompressRegions;
+	}
+	
+	/**
+	*	Returns the strings of .ptext packed in the last assembly, or null if it had none.
+	*/
+	public TextPacker6502 getPackedText ()
+	{
+		return mText;
+	}
+	
+	/**
+	*	Returns the name of the main source file of the last assembly.
+	*/
+	public String getFilename ()
+	{
+		return mFilename;
+	}
+	
+	/**
+	*	Returns the name of the source file that produced the byte at an address, or null if
+	*	no source produced it.
+	*/
+	public String getSourceFile (int address)
+	{
+		int i = (mDebugMap == null) ? -1 : mDebugMap.find (address);
+		return (i < 0) ? null : mDebugMap.getFileName (mDebugMap.getFileId (i));
+	}
+	
+	/**
+	*	Returns the line number in source file that produced the byte at an address, or 0 if
+	*	no source produced it.
+	*/
+	public int getSourceLine (int address)
+	{
+		int i = (mDebugMap == null) ? -1 : mDebugMap.find (address);
+		return (i < 0) ? 0 : mDebugMap.getLine (i);
+	}
+	
+	/**
+	*	Returns the map from addresses to source from the last assembly, or null if nothing
+	*	has been assembled.
+	*/
+	public DebugMap6502 getDebugMap ()
+	{
+		return mDebugMap;
+	}
+	
+	/**
+	*	Sets the placement of segments. Without a placement, sources that use segments are
+	*	placed with the default placement. @see Placement6502
+	*/
+	public void setPlacement (Placement6502 placement)
+	{
+		mPlacement = placement;
+	}
+	
+	/**
+	*	Returns the placement of segments, or null if no source used segments and none was set.
+	*/
+	public Placement6502 getPlacement ()
+	{
+		return mPlacement;
+	}
+	
+	/**
+	*	Sets the hardware type written in cartridge output, -1 chooses by the number of banks.
+	*	@see Placement6502.writeCrtTo
+	*/
+	public void setCartridgeType (int type)
+	{
+		mCartridgeType = type;
+	}
+	
+	public int getCartridgeType ()
+	{
+		return mCartridgeType;
+	}
+	
+	/**
+	*	Adds an output, which is written from the result of pass 2 of each assembly, together with
+	*	the output given to assemble.
+	*	@param type one of the output types of OutputSink6502
+	*	@param filename name of file to write, null for the screen
+	*/
+	public void addOutput (int type, String filename)
+	{
+		mOutputs.addElement (new OutputSink6502 (type, filename));
+	}
+	
+	/**
+	*	Replaces the outputs of a type with one output, or removes them.
+	*	@param filename name of file to write, or null to remove outputs of the type
+	*/
+	private void setOutput (int type, String filename)
+	{
+		for (int i = mOutputs.size () - 1; i >= 0; --i) {
+			if (((OutputSink6502) mOutputs.elementAt (i)).getType () == type) mOutputs.removeElementAt (i);
+		}
+		if (filename != null) addOutput (type, filename);
+	}
+	
+	/**
+	*	Returns the symbol table with the labels and identifiers of the last assembly.
+	*/
+	public SymbolTable getIdentifiers ()
+	{
+		return mIdentifiers;
+	}
+	
+	/**
+	*	Sets the name of the listing file, which is written during pass 2. @see Listing6502
+	*	@param filename name of file, or null to not write a listing
+	*/
+	public void setListingFile (String filename)
+	{
+		setOutput (OutputSink6502.LISTING, filename);
+	}
+	
+	/**
+	*	Sets the name of the debug map file, which is written after a successful assembly.
+	*	@param filename name of file, or null to not write a debug map
+	*/
+	public void setDebugMapFile (String filename)
+	{
+		setOutput (OutputSink6502.DEBUG_MAP, filename);
+	}
+	
+	/**
+	*	Adds a listener that is called as pass 2 writes the machine code. @see AssemblyListener6502
+	*/
+	public void addListener (AssemblyListener6502 listener)
+	{
+		int n = (mListeners == null) ? 0 : mListeners.length;
+		AssemblyListener6502[] listeners = new AssemblyListener6502 [n + 1];
+		if (n != 0) System.arraycopy (mListeners, 0, listeners, 0, n);
+		listeners[n] = listener;
+		mListeners = listeners;
+	}
+	
+	/**
+	*	Removes a listener added with addListener.
+	*/
+	public void removeListener (AssemblyListener6502 listener)
+	{
+		if (mListeners == null) return;
+		int n = 0;
+		AssemblyListener6502[] listeners = new AssemblyListener6502 [mListeners.length];
+		for (int i = 0; i < mListeners.length; ++i) {
+			if (mListeners[i] != listener) listeners[n++] = mListeners[i];
+		}
+		if (n == 0) mListeners = null;
+		else {
+			mListeners = new AssemblyListener6502 [n];
+			System.arraycopy (listeners, 0, mListeners, 0, n);
+		}
+	}
+	
+	/**
+	*	Turns statistics on or off. When on, the assembly counts its work and measures the time
+	*	of each phase in the statistics object. @see Stats6502
+	*	@param stats statistics to count in, or null to turn statistics off
+	*/
+	public void setStats (Stats6502 stats)
+	{
+		mStats = stats;
+		mOrgLexer.setStats (stats);
+		mIdentifiers.setStats (stats);
+		mParser.setStats (stats);
+	}
+	
+	/**
+	*	Sets the name of the file that labels and identifiers are exported to in VICE monitor 
+	*	label format, after a successful assembly.
+	*	@param filename name of file, or null to not export
+	*/
+	public void setSymbolFile (String filename)
+	{
+		setOutput (OutputSink6502.VICE, filename);
+	}
+	
+	/**
+	*	Sets the name of the file that labels and identifiers are exported to as a sorted binary
+	*	index, after a successful assembly. @see SymbolExport6502
+	*	@param filename name of file, or null to not export
+	*/
+	public void setSymbolIndexFile (String filename)
+	{
+		setOutput (OutputSink6502.INDEX, filename);
+	}
+	
+	/**
+	*	Returns all labels and identifiers after assembly, qualified with the names of the 
+	*	procedures they are defined in (for instance "proc.label").
+	*	@return Vector of Symbol objects
+	*/
+	public Vector getSymbols ()
+	{
+		return mIdentifiers.getQualifiedSymbols (".");
+	}
+	
+	/**
+	*	Returns the address of a global label or identifier after assembly.
+	*	@param name name of label
+	*	@return the address, or -1 if the label is not defined.
+	*/
+	public int getLabelAddress (String name)
+	{
+		Symbol s = mIdentifiers.getSymbol (name.toLowerCase ());
+		if (s == null || s.getValue () == NULL) return -1;
+		if (s.getType () != LABEL && s.getType () != IDENTIFIER) return -1;
+		return s.getValue ();
+	}
 	/**
 	*	Sets output mode.
-	*	@param mode to set, can be one of following:
-	*		0 = output to screen
-	*		1 = output to raw binary to disk
+	*	@param mode to set, one of the MODE constants of SymbolConstant6502:
+	*		0 = MODE_SCREEN, output to screen
+	*		1 = MODE_RAW, output to raw binary to disk
+	*		2 = MODE_C64, Commodore 64 .prg file
+	*		3 = MODE_SPARSE, raw binary without the gaps between origins, after a load table
+	*		4 = MODE_OBJECT, relocatable object module
+	*		5 = MODE_CRT, C64 cartridge of the segments in banks
+	*		6 = MODE_BANKS, segments in banks one after the other in bank order
+	*		7 = MODE_D64, C64 .prg file written into a 1541 disk image
+	*		8 = MODE_HEX, Intel HEX records
+	*		9 = MODE_SREC, Motorola S-records
+	*		10 = MODE_PACKED, self-extracting compressed C64 .prg file
+	*		99 = MODE_SECRET, test mode for the evaluator
 	*/
 	public void setMode (int mode)
 	{
 		mMode = mode;
 	}
 	
+	/**
+	*	Turns warnings on page boundary crossings on or off.
+	*	When on, branches that cross a page and tables that straddle a page while being 
+	*	read by absolute indexed instructions, are reported on stderr.
+	*/
+	public void setPageWarnings (boolean warnings)
+	{
+		mPageWarnings = warnings;
+	}
+	
 	/**
 	*	Sets ascii translation mode when assembling for Commodore 64.
 	*	@param asciiMode Determines the mode, can be one of the following:
@@ -0,0 +1,30 @@
+/**
+*	Assembly listener with empty methods, to extend by listeners that only need some of them.
+*
+*	@author David Schager
+*/
+public class AssemblyAdapter6502 implements AssemblyListener6502 {
+	public void instructionEmitted (int address, int length, MachineCode6502 code)
+	{
+	}
+
+	public void bytesEmitted (int address, int length)
+	{
+	}
+
+	public void labelDefined (String name, int address)
+	{
+	}
+
+	public void originChanged (int address)
+	{
+	}
+
+	public void includeEntered (String filename)
+	{
+	}
+
+	public void includeExited (String filename)
+	{
+	}
+}
@@ -0,0 +1,47 @@
+/**
+*	Observes what Assembler6502 does in pass 2, when the machine code is written to the image.
+*	Register a listener with Assembler6502.addListener. The bytes of an instruction or data
+*	statement are in the image when the listener is called, read them with
+*	Assembler6502.getImage ().byteAt (address). The source of the statement is found with
+*	Assembler6502.getSourceFile and getSourceLine.
+*	Extend AssemblyAdapter6502 to only implement some of the methods.
+*
+*	@author David Schager
+*/
+public interface AssemblyListener6502 {
+	/**
+	*	Called after an instruction is written.
+	*	@param address address of the opcode
+	*	@param length length of instruction in bytes
+	*	@param code the instruction
+	*/
+	public void instructionEmitted (int address, int length, MachineCode6502 code);
+	/**
+	*	Called after a sequence of bytes or words is written.
+	*	@param address address of first byte
+	*	@param length number of bytes
+	*/
+	public void bytesEmitted (int address, int length);
+	/**
+	*	Called when a label, or the label of a .proc, is defined.
+	*	@param name name of label, without the procedures it is defined in
+	*	@param address value of label
+	*/
+	public void labelDefined (String name, int address);
+	/**
+	*	Called when the origin address is set, or aligned.
+	*	Memory between the previous and the new address is filled with zeroes.
+	*	@param address new origin address
+	*/
+	public void originChanged (int address);
+	/**
+	*	Called when the assembler starts reading an included file.
+	*	@param filename file name of included file
+	*/
+	public void includeEntered (String filename);
+	/**
+	*	Called when the assembler reaches the end of an included file.
+	*	@param filename file name of included file
+	*/
+	public void includeExited (String filename);
+}
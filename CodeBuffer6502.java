@@ -0,0 +1,127 @@
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+*	Machine code with labels, for the routines the assembler writes itself, like the decompressor
+*	of a compressed program and the decoder of packed text. Instructions are added as opcode and
+*	operand, and branches and jumps to labels are patched when the code is taken out, so a label
+*	may come after the instructions that refer to it.
+*
+*	@author David Schager
+*/
+public class CodeBuffer6502 {
+	private int mAddress;
+	private ByteArrayOutputStream mBytes = new ByteArrayOutputStream ();
+	private HashMap mLabels = new HashMap ();
+	// references to labels, as Object[] {label, Integer offset, Boolean branch, Integer added}
+	private Vector mFixups = new Vector ();
+
+	/**
+	*	Constructor
+	*	@param address address of the first byte of the code
+	*/
+	public CodeBuffer6502 (int address)
+	{
+		mAddress = address;
+	}
+
+	/**
+	*	Returns the number of bytes in the code.
+	*/
+	public int size ()
+	{
+		return mBytes.size ();
+	}
+
+	/**
+	*	Defines a label at the next byte.
+	*/
+	public void label (String name)
+	{
+		mLabels.put (name, Integer.valueOf (mBytes.size ()));
+	}
+
+	/**
+	*	Adds an instruction without operand, or a byte of data.
+	*/
+	public void op (int opcode)
+	{
+		mBytes.write (opcode);
+	}
+
+	/**
+	*	Adds an instruction with a byte operand, immediate or zero page.
+	*/
+	public void imm (int opcode, int value)
+	{
+		mBytes.write (opcode);
+		mBytes.write (value);
+	}
+
+	/**
+	*	Adds an instruction with an absolute address.
+	*/
+	public void abs (int opcode, int address)
+	{
+		mBytes.write (opcode);
+		mBytes.write (address & 0xff);
+		mBytes.write ((address >> 8) & 0xff);
+	}
+
+	/**
+	*	Adds an instruction with the absolute address of a label.
+	*/
+	public void abs (int opcode, String label)
+	{
+		abs (opcode, label, 0);
+	}
+
+	/**
+	*	Adds an instruction with the absolute address of a label plus a number, like table - $80.
+	*/
+	public void abs (int opcode, String label, int added)
+	{
+		mBytes.write (opcode);
+		mFixups.addElement (new Object[] {label, Integer.valueOf (mBytes.size ()), Boolean.FALSE, Integer.valueOf (added)});
+		mBytes.write (0);
+		mBytes.write (0);
+	}
+
+	/**
+	*	Adds a branch to a label.
+	*/
+	public void branch (int opcode, String label)
+	{
+		mBytes.write (opcode);
+		mFixups.addElement (new Object[] {label, Integer.valueOf (mBytes.size ()), Boolean.TRUE, Integer.valueOf (0)});
+		mBytes.write (0);
+	}
+
+	/**
+	*	Returns the address of a label.
+	*/
+	public int getAddress (String label)
+	{
+		return mAddress + ((Integer) mLabels.get (label)).intValue ();
+	}
+
+	/**
+	*	Returns the code, with the references to labels patched.
+	*/
+	public byte[] toByteArray ()
+	{
+		byte[] bytes = mBytes.toByteArray ();
+		for (int i = 0; i < mFixups.size (); ++i) {
+			Object[] fixup = (Object[]) mFixups.elementAt (i);
+			int target = ((Integer) mLabels.get (fixup[0])).intValue () + ((Integer) fixup[3]).intValue ();
+			int offset = ((Integer) fixup[1]).intValue ();
+			if (((Boolean) fixup[2]).booleanValue ()) bytes[offset] = (byte) (target - offset - 1);
+			else {
+				bytes[offset] = (byte) (mAddress + target);
+				bytes[offset + 1] = (byte) ((mAddress + target) >> 8);
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,491 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+*	Compresses a memory image into a self-extracting Commodore 64 .prg, which loads faster from
+*	disk or tape and unpacks itself in memory before the program starts.
+*
+*	The image is cut into blocks at its holes, and at the regions marked with .compress and
+*	.endcompress if there are any. Then only the marked regions are compressed and the rest is
+*	stored, else every block is compressed. Blocks are compressed on their own, so they are
+*	compressed in parallel on a pool of threads, and each unpacks to its own address.
+*
+*	The compression is LZ77 with tokens a 6502 decodes in a few instructions:
+*	<pre>
+*	$00-$7f	literal run, the next token + 1 bytes are copied
+*	$80-$fe	match, (token & $7f) + 4 bytes are copied from the output a distance back, the
+*			distance follows in two little endian bytes
+*	$ff		end of block
+*	</pre>
+*	A block is its address in two little endian bytes, then its tokens.
+*
+*	The .prg starts at $0801 with a BASIC line SYS 2061. The code there copies the decompressor
+*	and the blocks up to the pages below $d000, starting from the top since the areas may
+*	overlap, and jumps to the decompressor. That unpacks the blocks to their addresses, with only
+*	RAM switched in and interrupts off, and jumps to the program. The program starts at the SYS of
+*	a BASIC line at $0801, else at the start of the image. The decompressor uses zero page
+*	$f8-$fe, and the program must end below the pages it was copied to.
+*
+*	@author David Schager
+*/
+public class Compressor6502 {
+	public static final int MIN_MATCH = 4;
+	public static final int MAX_MATCH = 0x7e + MIN_MATCH;
+	public static final int MAX_LITERALS = 0x80;
+	public static final int END = 0xff;
+	/** Load address of the .prg */
+	public static final int LOAD_ADDRESS = 0x0801;
+	/** The decompressor and the blocks are copied to the pages below this address */
+	public static final int TOP = 0xd000;
+
+	// matches are searched this many positions back for a hash
+	private static final int MAX_CHAIN = 256;
+	private static final int HASH_BITS = 14;
+
+	// zero page used by the copy and the decompressor
+	private static final int ZP_COUNT = 0xf8;
+	private static final int ZP_SRC = 0xf9;
+	private static final int ZP_IN = 0xfb;
+	private static final int ZP_OUT = 0xfd;
+
+	private Image6502 mImage;
+	private Vector mRegions;
+	private int mThreads = Runtime.getRuntime ().availableProcessors ();
+	// blocks as int[] {address, length, 1 if compressed}
+	private Vector mBlocks = null;
+	private byte[][] mPacked = null;
+
+	/**
+	*	Constructor
+	*	@param image memory image to compress
+	*	@param regions Vector of int[] {start address, end address} to compress, empty to compress all
+	*/
+	public Compressor6502 (Image6502 image, Vector regions)
+	{
+		mImage = image;
+		mRegions = regions;
+	}
+
+	/**
+	*	Sets the number of threads that compress blocks, 1 compresses in the calling thread.
+	*/
+	public void setThreads (int threads)
+	{
+		mThreads = Math.max (1, threads);
+	}
+
+	/**
+	*	Compresses bytes into tokens, ending with the end token.
+	*/
+	public static byte[] compress (byte[] data, int offset, int length)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream (length / 2 + 16);
+		int[] head = new int [1 << HASH_BITS];
+		int[] prev = new int [length];
+		Arrays.fill (head, -1);
+		int literals = 0;
+		int i = 0;
+		while (i < length) {
+			int best = 0;
+			int distance = 0;
+			if (i + MIN_MATCH <= length) {
+				int h = hash (data, offset + i);
+				int max = Math.min (MAX_MATCH, length - i);
+				int chain = 0;
+				for (int j = head[h]; j >= 0 && chain < MAX_CHAIN && i - j <= 0xffff; j = prev[j], ++chain) {
+					int n = 0;
+					while (n < max && data[offset + j + n] == data[offset + i + n]) ++n;
+					if (n > best) {
+						best = n;
+						distance = i - j;
+						if (n == max) break;
+					}
+				}
+			}
+			if (best >= MIN_MATCH) {
+				writeLiterals (out, data, offset + i - literals, literals);
+				literals = 0;
+				out.write (0x80 | (best - MIN_MATCH));
+				out.write (distance & 0xff);
+				out.write (distance >> 8);
+				for (int end = i + best; i < end; ++i) insert (data, offset, i, length, head, prev);
+			}
+			else {
+				insert (data, offset, i, length, head, prev);
+				++literals;
+				++i;
+			}
+		}
+		writeLiterals (out, data, offset + i - literals, literals);
+		out.write (END);
+		return out.toByteArray ();
+	}
+
+	/**
+	*	Stores bytes as literal runs, ending with the end token.
+	*/
+	public static byte[] store (byte[] data, int offset, int length)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream (length + length / MAX_LITERALS + 2);
+		writeLiterals (out, data, offset, length);
+		out.write (END);
+		return out.toByteArray ();
+	}
+
+	/**
+	*	Unpacks tokens, as the 6502 decompressor does.
+	*	@return the unpacked bytes
+	*/
+	public static byte[] decompress (byte[] packed, int offset)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		byte[] buffer = new byte [0x10000];
+		int length = 0;
+		while (true) {
+			int token = packed[offset++] & 0xff;
+			if (token == END) break;
+			if (token < 0x80) {
+				System.arraycopy (packed, offset, buffer, length, token + 1);
+				offset += token + 1;
+				length += token + 1;
+			}
+			else {
+				int distance = (packed[offset] & 0xff) | ((packed[offset + 1] & 0xff) << 8);
+				offset += 2;
+				// byte by byte, a match may overlap the bytes it makes
+				for (int n = (token & 0x7f) + MIN_MATCH; n > 0; --n, ++length) buffer[length] = buffer[length - distance];
+			}
+		}
+		out.write (buffer, 0, length);
+		return out.toByteArray ();
+	}
+
+	private static int hash (byte[] data, int i)
+	{
+		int h = (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | ((data[i + 3] & 0xff) << 24);
+		return (h * 0x9e3779b1) >>> (32 - HASH_BITS);
+	}
+
+	private static void insert (byte[] data, int offset, int i, int length, int[] head, int[] prev)
+	{
+		if (i + MIN_MATCH > length) return;
+		int h = hash (data, offset + i);
+		prev[i] = head[h];
+		head[h] = i;
+	}
+
+	private static void writeLiterals (ByteArrayOutputStream out, byte[] data, int offset, int length)
+	{
+		while (length > 0) {
+			int n = Math.min (MAX_LITERALS, length);
+			out.write (n - 1);
+			out.write (data, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	*	Cuts the image into blocks at its holes and at the marked regions.
+	*/
+	private Vector cut ()
+	{
+		Vector blocks = new Vector ();
+		Vector regions = new Vector (mRegions);
+		// regions in segments are not in address order
+		Collections.sort (regions, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				return ((int[]) a)[0] - ((int[]) b)[0];
+			}
+		});
+		Vector parts = mImage.getBlocks (1);
+		for (int i = 0; i < parts.size (); ++i) {
+			int[] part = (int[]) parts.elementAt (i);
+			int start = part[0];
+			int end = part[0] + part[1];
+			if (regions.size () == 0) {
+				blocks.addElement (new int[] {start, end - start, 1});
+				continue;
+			}
+			for (int j = 0; j < regions.size () && start < end; ++j) {
+				int[] region = (int[]) regions.elementAt (j);
+				int from = Math.max (start, region[0]);
+				int to = Math.min (end, region[1]);
+				if (from >= to) continue;
+				if (from > start) blocks.addElement (new int[] {start, from - start, 0});
+				blocks.addElement (new int[] {from, to - from, 1});
+				start = to;
+			}
+			if (start < end) blocks.addElement (new int[] {start, end - start, 0});
+		}
+		return blocks;
+	}
+
+	/**
+	*	Compresses the blocks, in parallel if there is more than one thread.
+	*/
+	public void compress ()
+	{
+		mBlocks = cut ();
+		final byte[] data = mImage.toByteArray ();
+		final int base = mImage.getStartAddress ();
+		mPacked = new byte [mBlocks.size ()][];
+		Vector calls = new Vector ();
+		for (int i = 0; i < mBlocks.size (); ++i) {
+			final int[] block = (int[]) mBlocks.elementAt (i);
+			calls.addElement (new Callable () {
+				public Object call ()
+				{
+					if (block[2] == 0) return store (data, block[0] - base, block[1]);
+					return compress (data, block[0] - base, block[1]);
+				}
+			});
+		}
+		int threads = Math.min (mThreads, calls.size ());
+		if (threads <= 1) {
+			for (int i = 0; i < mPacked.length; ++i) mPacked[i] = (byte[]) call ((Callable) calls.elementAt (i));
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool (threads);
+		try {
+			List futures = pool.invokeAll (calls);
+			for (int i = 0; i < mPacked.length; ++i) mPacked[i] = (byte[]) ((Future) futures.get (i)).get ();
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException ("Compressor interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException (e.getCause ());
+		}
+		finally {
+			pool.shutdown ();
+		}
+	}
+
+	private static Object call (Callable call)
+	{
+		try {
+			return call.call ();
+		}
+		catch (Exception e) {
+			throw new RuntimeException (e);
+		}
+	}
+
+	/**
+	*	Returns the blocks, as int[] {address, length, 1 if compressed}, after compress.
+	*/
+	public Vector getBlocks ()
+	{
+		return mBlocks;
+	}
+
+	/**
+	*	Returns the number of bytes of the blocks after compress, with their addresses.
+	*/
+	public int getPackedLength ()
+	{
+		int length = 0;
+		for (int i = 0; i < mPacked.length; ++i) length += 2 + mPacked[i].length;
+		return length;
+	}
+
+	/**
+	*	Returns the address the program starts at, the SYS of a BASIC line at $0801, or the start
+	*	of the image.
+	*/
+	public int getEntry ()
+	{
+		int start = mImage.getStartAddress ();
+		// link, line number, then the SYS token
+		if (start == LOAD_ADDRESS && mImage.byteAt (start + 4) == 0x9e) {
+			int entry = 0;
+			int address = start + 5;
+			while (mImage.byteAt (address) == ' ') ++address;
+			for (int c = mImage.byteAt (address); c >= '0' && c <= '9'; c = mImage.byteAt (++address))
+				entry = entry * 10 + c - '0';
+			if (entry > 0 && entry <= 0xffff) return entry;
+		}
+		return start;
+	}
+
+	/**
+	*	Writes the self-extracting .prg, load address first. Compresses the blocks if not done.
+	*/
+	public void writeTo (OutputStream out) throws IOException
+	{
+		if (mPacked == null) compress ();
+		if (mBlocks.size () == 0) throw new IOException ("Nothing to compress");
+		if (mBlocks.size () > 255) throw new IOException ("Too many blocks to compress: " + mBlocks.size ());
+
+		// the decompressor does not move with the length of the blocks, only its address does
+		int length = decompressor (0, 0).length + getPackedLength ();
+		int pages = (length + 0xff) >> 8;
+		int dest = TOP - (pages << 8);
+		byte[] copy = copier (0, pages, dest);
+		int source = LOAD_ADDRESS + 12 + copy.length;
+		if (dest < source)
+			throw new IOException ("Compressed program is too large to unpack, " + length + " bytes");
+		int[] first = (int[]) mBlocks.elementAt (0);
+		int[] last = (int[]) mBlocks.elementAt (mBlocks.size () - 1);
+		if (first[0] < 0x200 || last[0] + last[1] > dest)
+			throw new IOException ("Compressed program must be in $0200-$" + Integer.toHexString (dest - 1) +
+				" to unpack below its decompressor");
+
+		out.write (LOAD_ADDRESS & 0xff);
+		out.write (LOAD_ADDRESS >> 8);
+		// 10 SYS 2061
+		out.write (new byte[] {0x0b, 0x08, 0x0a, 0x00, (byte) 0x9e, '2', '0', '6', '1', 0, 0, 0});
+		out.write (copier (source, pages, dest));
+		out.write (decompressor (dest, getEntry ()));
+		for (int i = 0; i < mPacked.length; ++i) {
+			int address = ((int[]) mBlocks.elementAt (i))[0];
+			out.write (address & 0xff);
+			out.write (address >> 8);
+			out.write (mPacked[i]);
+		}
+	}
+
+	/**
+	*	Returns the code at $080d that copies the decompressor and blocks up, pages from the top.
+	*	@param source address of the decompressor in the .prg
+	*	@param pages pages to copy
+	*	@param dest address to copy to, at a page
+	*/
+	private static byte[] copier (int source, int pages, int dest)
+	{
+		int top = source + ((pages - 1) << 8);
+		CodeBuffer6502 code = new CodeBuffer6502 (0x080d);
+		code.op (0x78);							// sei
+		code.imm (0xa9, top & 0xff);			// lda #<source top page
+		code.imm (0x85, ZP_IN);					// sta in
+		code.imm (0xa9, top >> 8);
+		code.imm (0x85, ZP_IN + 1);
+		code.imm (0xa9, 0);						// lda #<dest top page
+		code.imm (0x85, ZP_OUT);
+		code.imm (0xa9, (dest >> 8) + pages - 1);
+		code.imm (0x85, ZP_OUT + 1);
+		code.imm (0xa2, pages);					// ldx #pages
+		code.imm (0xa0, 0);						// ldy #0
+		code.label ("copy");
+		code.op (0x88);							// dey
+		code.imm (0xb1, ZP_IN);					// lda (in),y
+		code.imm (0x91, ZP_OUT);				// sta (out),y
+		code.imm (0xc0, 0);						// cpy #0
+		code.branch (0xd0, "copy");				// bne copy
+		code.imm (0xc6, ZP_IN + 1);				// dec in+1
+		code.imm (0xc6, ZP_OUT + 1);			// dec out+1
+		code.op (0xca);							// dex
+		code.branch (0xd0, "copy");				// bne copy
+		code.abs (0x4c, dest);					// jmp dest
+		return code.toByteArray ();
+	}
+
+	/**
+	*	Returns the decompressor, which unpacks the blocks that follow it.
+	*	@param address address of the decompressor
+	*	@param entry address the program starts at
+	*/
+	private byte[] decompressor (int address, int entry)
+	{
+		CodeBuffer6502 code = new CodeBuffer6502 (address);
+		code.imm (0xa9, 0);						// lda #<blocks
+		int blocks = code.size () - 1;
+		code.imm (0x85, ZP_IN);					// sta in
+		code.imm (0xa9, 0);						// lda #>blocks
+		code.imm (0x85, ZP_IN + 1);				// sta in+1
+		code.imm (0xa9, mPacked.length & 0xff);	// lda #count
+		code.imm (0x85, ZP_COUNT);				// sta count
+		code.imm (0xa9, 0x34);					// lda #$34, all RAM
+		code.imm (0x85, 0x01);					// sta $01
+		code.label ("block");
+		code.imm (0xa0, 0);						// ldy #0
+		code.imm (0xb1, ZP_IN);					// lda (in),y
+		code.imm (0x85, ZP_OUT);				// sta out
+		code.op (0xc8);							// iny
+		code.imm (0xb1, ZP_IN);					// lda (in),y
+		code.imm (0x85, ZP_OUT + 1);			// sta out+1
+		code.imm (0xa9, 2);						// lda #2
+		code.abs (0x20, "addin");				// jsr addin
+		code.label ("token");
+		code.imm (0xa0, 0);						// ldy #0
+		code.imm (0xb1, ZP_IN);					// lda (in),y
+		code.op (0xaa);							// tax
+		code.imm (0xa9, 1);						// lda #1
+		code.abs (0x20, "addin");				// jsr addin
+		code.op (0x8a);							// txa
+		code.imm (0xc9, END);					// cmp #END
+		code.branch (0xf0, "end");				// beq end
+		code.imm (0xc9, 0x80);					// cmp #$80
+		code.branch (0xb0, "match");			// bcs match
+		code.imm (0xa0, 0);						// ldy #0
+		code.label ("literal");
+		code.imm (0xb1, ZP_IN);					// lda (in),y
+		code.imm (0x91, ZP_OUT);				// sta (out),y
+		code.op (0xc8);							// iny
+		code.op (0xca);							// dex
+		code.branch (0x10, "literal");			// bpl literal
+		code.op (0x98);							// tya
+		code.abs (0x20, "addin");				// jsr addin
+		code.op (0x98);							// tya
+		code.abs (0x20, "addout");				// jsr addout
+		code.abs (0x4c, "token");				// jmp token
+		code.label ("match");
+		code.imm (0x29, 0x7f);					// and #$7f
+		code.op (0x18);							// clc
+		code.imm (0x69, MIN_MATCH);				// adc #MIN_MATCH
+		code.op (0xaa);							// tax
+		code.imm (0xa0, 0);						// ldy #0
+		code.imm (0xa5, ZP_OUT);				// lda out
+		code.op (0x38);							// sec
+		code.imm (0xf1, ZP_IN);					// sbc (in),y
+		code.imm (0x85, ZP_SRC);				// sta src
+		code.op (0xc8);							// iny
+		code.imm (0xa5, ZP_OUT + 1);			// lda out+1
+		code.imm (0xf1, ZP_IN);					// sbc (in),y
+		code.imm (0x85, ZP_SRC + 1);			// sta src+1
+		code.imm (0xa9, 2);						// lda #2
+		code.abs (0x20, "addin");				// jsr addin
+		code.imm (0xa0, 0);						// ldy #0
+		code.label ("copy");
+		code.imm (0xb1, ZP_SRC);				// lda (src),y
+		code.imm (0x91, ZP_OUT);				// sta (out),y
+		code.op (0xc8);							// iny
+		code.op (0xca);							// dex
+		code.branch (0xd0, "copy");				// bne copy
+		code.op (0x98);							// tya
+		code.abs (0x20, "addout");				// jsr addout
+		code.abs (0x4c, "token");				// jmp token
+		code.label ("end");
+		code.imm (0xc6, ZP_COUNT);				// dec count
+		code.branch (0xd0, "block");			// bne block
+		code.imm (0xa9, 0x37);					// lda #$37, BASIC, I/O and KERNAL
+		code.imm (0x85, 0x01);					// sta $01
+		code.op (0x58);							// cli
+		code.abs (0x4c, entry);					// jmp entry
+		code.label ("addin");
+		code.op (0x18);							// clc
+		code.imm (0x65, ZP_IN);					// adc in
+		code.imm (0x85, ZP_IN);					// sta in
+		code.branch (0x90, "addin2");			// bcc +
+		code.imm (0xe6, ZP_IN + 1);				// inc in+1
+		code.label ("addin2");
+		code.op (0x60);							// rts
+		code.label ("addout");
+		code.op (0x18);							// clc
+		code.imm (0x65, ZP_OUT);				// adc out
+		code.imm (0x85, ZP_OUT);				// sta out
+		code.branch (0x90, "addout2");			// bcc +
+		code.imm (0xe6, ZP_OUT + 1);			// inc out+1
+		code.label ("addout2");
+		code.op (0x60);							// rts
+		byte[] bytes = code.toByteArray ();
+		// the blocks follow the code
+		int start = address + bytes.length;
+		bytes[blocks] = (byte) start;
+		bytes[blocks + 4] = (byte) (start >> 8);
+		return bytes;
+	}
+}
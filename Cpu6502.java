@@ -0,0 +1,634 @@
+/**
+*	A cycle counting 6502 cpu emulator, for executing assembled programs in-process.
+*	The opcodes are decoded with the same tables the assembler uses to encode them
+*	(machineCodeMatrix, addrModeLen and machineCycleMatrix in SymbolConstant6502), so the
+*	emulator understands exactly the instruction set that jasm6502 can assemble.
+*	Undocumented opcodes stop execution.
+*
+*	A routine is executed with run, which returns when the routine executes its final rts,
+*	when a brk is executed, or when a cycle limit is reached. Decimal mode is emulated as on the NMOS 6502.
+*	Interrupts and hardware registers are not emulated, memory is plain 64 kb of ram.
+*
+*	Usage:
+*	Cpu6502 cpu = new Cpu6502 ();
+*	cpu.load (assembler.getImage ());
+*	cpu.run (assembler.getLabelAddress ("routine"), 1000000);
+*
+*	@see SymbolConstant6502
+*	@author David Schager
+*/
+public class Cpu6502 implements SymbolConstant6502 {
+	public static final int STOP_RTS = 0;
+	public static final int STOP_BRK = 1;
+	public static final int STOP_CYCLES = 2;
+	public static final int STOP_ILLEGAL = 3;
+
+	// processor status flags
+	public static final int FLAG_C = 0x01;
+	public static final int FLAG_Z = 0x02;
+	public static final int FLAG_I = 0x04;
+	public static final int FLAG_D = 0x08;
+	public static final int FLAG_B = 0x10;
+	public static final int FLAG_U = 0x20;
+	public static final int FLAG_V = 0x40;
+	public static final int FLAG_N = 0x80;
+
+	/**
+	*	Decoding tables indexed by machine code byte, built from the assembler tables.
+	*	sOpType holds the opcode define (or -1 for undocumented), sAddrMode the addressing mode bit,
+	*	sLength the instruction length, and sCycles the base cycle count.
+	*/
+	private static final int[] sOpType = new int [256];
+	private static final int[] sAddrMode = new int [256];
+	private static final int[] sLength = new int [256];
+	private static final int[] sCycles = new int [256];
+	private static final boolean[] sPenalty = new boolean [256];
+
+	static {
+		for (int i = 0; i < 256; ++i) {
+			sOpType[i] = -1;
+			sLength[i] = 1;
+		}
+		for (int type = 0; type < machineCodeMatrix.length; ++type) {
+			for (int index = 0; index < addrModeLen.length; ++index) {
+				int op = machineCodeMatrix[type][index];
+				if (op < 0) continue;
+				sOpType[op] = type;
+				sAddrMode[op] = 1 << index;
+				sLength[op] = addrModeLen[index];
+				sCycles[op] = machineCycleMatrix[type][index];
+				sPenalty[op] = hasPageCrossPenalty (type) &&
+					((1 << index) == ABSX || (1 << index) == ABSY || (1 << index) == INDY);
+			}
+		}
+	}
+
+	private int[] mMemory = new int [0x10000];
+	private int mA = 0;
+	private int mX = 0;
+	private int mY = 0;
+	private int mS = 0xFF;
+	private int mP = FLAG_I | FLAG_U;
+	private int mPC = 0;
+	private long mCycles = 0;
+	private long mInstructions = 0;
+	private Profiler6502 mProfiler = null;
+
+	/**
+	*	Constructor
+	*/
+	public Cpu6502 ()
+	{
+	}
+
+	/**
+	*	Returns true if opcode takes an extra cycle when its indexed address crosses a page boundary.
+	*	Stores and read-modify-write opcodes always take the extra cycle, so they are not included.
+	*	@param type opcode define from SymbolConstant6502
+	*/
+	public static boolean hasPageCrossPenalty (int type)
+	{
+		return type == ADC || type == AND || type == CMP || type == EOR || type == LDA ||
+			type == LDX || type == LDY || type == ORA || type == SBC;
+	}
+
+	/**
+	*	Returns the base number of cycles for a machine code byte, or 0 if undocumented.
+	*/
+	public static int getBaseCycles (int op)
+	{
+		return sCycles[op & 0xFF];
+	}
+
+	/**
+	*	Returns the length in bytes of the instruction starting with machine code byte op.
+	*/
+	public static int getInstructionLength (int op)
+	{
+		return sLength[op & 0xFF];
+	}
+
+	/**
+	*	Loads a memory image produced by the assembler into memory, at the image's start address.
+	*/
+	public void load (Image6502 image)
+	{
+		int address = image.getStartAddress ();
+		byte[] bytes = image.toByteArray ();
+		for (int i = 0; i < bytes.length; ++i) {
+			mMemory[(address + i) & 0xFFFF] = bytes[i] & 0xFF;
+		}
+	}
+
+	/**
+	*	Clears memory and resets the registers.
+	*/
+	public void reset ()
+	{
+		for (int i = 0; i < mMemory.length; ++i) mMemory[i] = 0;
+		mA = mX = mY = 0;
+		mS = 0xFF;
+		mP = FLAG_I | FLAG_U;
+		mPC = 0;
+		mCycles = mInstructions = 0;
+	}
+
+	/**
+	*	Reads a byte from memory
+	*/
+	public int read (int address)
+	{
+		return mMemory[address & 0xFFFF];
+	}
+
+	/**
+	*	Writes a byte to memory
+	*/
+	public void write (int address, int value)
+	{
+		mMemory[address & 0xFFFF] = value & 0xFF;
+	}
+
+	/**
+	*	Reads a little endian 16 bit word from memory
+	*/
+	public int readWord (int address)
+	{
+		return mMemory[address & 0xFFFF] | (mMemory[(address + 1) & 0xFFFF] << 8);
+	}
+
+	/**
+	*	Executes a routine, as if it was called with jsr.
+	*	Execution stops when the routine returns with rts (the rts is included in the cycle count),
+	*	when brk is executed, when an undocumented opcode is found, or when the cycle limit is reached.
+	*	The registers are kept from the previous run, except the program counter.
+	*	@param address address of the routine
+	*	@param maxCycles cycle limit
+	*	@return the reason execution stopped, one of STOP_RTS, STOP_BRK, STOP_CYCLES or STOP_ILLEGAL
+	*/
+	public int run (int address, long maxCycles)
+	{
+		final int[] mem = mMemory;
+		int a = mA;
+		int x = mX;
+		int y = mY;
+		int s = mS;
+		int p = mP;
+		int pc = address & 0xFFFF;
+		final int stopS = s;
+		final Profiler6502 profiler = mProfiler;
+		long cycles = 0;
+		long instructions = 0;
+		int stop = STOP_CYCLES;
+
+		while (cycles < maxCycles) {
+			int op = mem[pc];
+			int type = sOpType[op];
+			if (type < 0) {
+				stop = STOP_ILLEGAL;
+				break;
+			}
+			int mode = sAddrMode[op];
+			int next = (pc + sLength[op]) & 0xFFFF;
+			int ea = 0;
+			int n = sCycles[op];
+			int penalty = 0;
+			++instructions;
+
+			// calculate effective address
+			switch (mode) {
+				case IMM:
+					ea = (pc + 1) & 0xFFFF;
+					break;
+				case ZP:
+					ea = mem[(pc + 1) & 0xFFFF];
+					break;
+				case ZPX:
+					ea = (mem[(pc + 1) & 0xFFFF] + x) & 0xFF;
+					break;
+				case ZPY:
+					ea = (mem[(pc + 1) & 0xFFFF] + y) & 0xFF;
+					break;
+				case ABS:
+					ea = mem[(pc + 1) & 0xFFFF] | (mem[(pc + 2) & 0xFFFF] << 8);
+					break;
+				case ABSX: {
+					int base = mem[(pc + 1) & 0xFFFF] | (mem[(pc + 2) & 0xFFFF] << 8);
+					ea = (base + x) & 0xFFFF;
+					if (sPenalty[op] && (base & 0xFF00) != (ea & 0xFF00)) ++penalty;
+					break;
+				}
+				case ABSY: {
+					int base = mem[(pc + 1) & 0xFFFF] | (mem[(pc + 2) & 0xFFFF] << 8);
+					ea = (base + y) & 0xFFFF;
+					if (sPenalty[op] && (base & 0xFF00) != (ea & 0xFF00)) ++penalty;
+					break;
+				}
+				case REL:
+					ea = (next + (byte) mem[(pc + 1) & 0xFFFF]) & 0xFFFF;
+					break;
+				case INDX: {
+					int zp = (mem[(pc + 1) & 0xFFFF] + x) & 0xFF;
+					ea = mem[zp] | (mem[(zp + 1) & 0xFF] << 8);
+					break;
+				}
+				case INDY: {
+					int zp = mem[(pc + 1) & 0xFFFF];
+					int base = mem[zp] | (mem[(zp + 1) & 0xFF] << 8);
+					ea = (base + y) & 0xFFFF;
+					if (sPenalty[op] && (base & 0xFF00) != (ea & 0xFF00)) ++penalty;
+					break;
+				}
+				case IND: {
+					int ptr = mem[(pc + 1) & 0xFFFF] | (mem[(pc + 2) & 0xFFFF] << 8);
+					// the NMOS 6502 does not carry into the high byte of the pointer
+					ea = mem[ptr] | (mem[(ptr & 0xFF00) | ((ptr + 1) & 0xFF)] << 8);
+					break;
+				}
+				default:
+					// accumulator or implied
+					break;
+			}
+
+			// execute
+			boolean branch = false;
+			switch (type) {
+				case ADC: {
+					int v = mem[ea];
+					int c = p & FLAG_C;
+					if ((p & FLAG_D) == 0) {
+						int sum = a + v + c;
+						p &= ~(FLAG_C | FLAG_V | FLAG_N | FLAG_Z);
+						if (sum > 0xFF) p |= FLAG_C;
+						if ((~(a ^ v) & (a ^ sum) & 0x80) != 0) p |= FLAG_V;
+						a = sum & 0xFF;
+						p |= (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					}
+					else {
+						int t = (a & 0x0F) + (v & 0x0F) + c;
+						if (t > 0x09) t += 0x06;
+						if (t <= 0x0F) t = (t & 0x0F) + (a & 0xF0) + (v & 0xF0);
+						else t = (t & 0x0F) + (a & 0xF0) + (v & 0xF0) + 0x10;
+						p &= ~(FLAG_C | FLAG_V | FLAG_N | FLAG_Z);
+						if (((a + v + c) & 0xFF) == 0) p |= FLAG_Z;
+						p |= t & FLAG_N;
+						if (((a ^ t) & 0x80) != 0 && ((a ^ v) & 0x80) == 0) p |= FLAG_V;
+						if ((t & 0x1F0) > 0x90) t += 0x60;
+						if ((t & 0xFF0) > 0xF0) p |= FLAG_C;
+						a = t & 0xFF;
+					}
+					break;
+				}
+				case SBC: {
+					int v = mem[ea];
+					int borrow = (p & FLAG_C) ^ FLAG_C;
+					int diff = a - v - borrow;
+					int r = diff & 0xFF;
+					int nextA = r;
+					if ((p & FLAG_D) != 0) {
+						int t = (a & 0x0F) - (v & 0x0F) - borrow;
+						if ((t & 0x10) != 0) t = ((t - 6) & 0x0F) | ((a & 0xF0) - (v & 0xF0) - 0x10);
+						else t = (t & 0x0F) | ((a & 0xF0) - (v & 0xF0));
+						if ((t & 0x100) != 0) t -= 0x60;
+						nextA = t & 0xFF;
+					}
+					p &= ~(FLAG_C | FLAG_V | FLAG_N | FLAG_Z);
+					if (diff >= 0) p |= FLAG_C;
+					if (((a ^ v) & (a ^ r) & 0x80) != 0) p |= FLAG_V;
+					p |= (r & FLAG_N) | (r == 0 ? FLAG_Z : 0);
+					a = nextA;
+					break;
+				}
+				case AND:
+					a &= mem[ea];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				case ORA:
+					a |= mem[ea];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				case EOR:
+					a ^= mem[ea];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				case ASL:
+				case LSR:
+				case ROL:
+				case ROR: {
+					int v = (mode == ACC) ? a : mem[ea];
+					int c = p & FLAG_C;
+					int r;
+					if (type == ASL) {
+						c = v >> 7;
+						r = (v << 1) & 0xFF;
+					}
+					else if (type == LSR) {
+						c = v & 1;
+						r = v >> 1;
+					}
+					else if (type == ROL) {
+						r = ((v << 1) | c) & 0xFF;
+						c = v >> 7;
+					}
+					else {
+						r = (v >> 1) | (c << 7);
+						c = v & 1;
+					}
+					p = (p & ~(FLAG_N | FLAG_Z | FLAG_C)) | (r & FLAG_N) | (r == 0 ? FLAG_Z : 0) | c;
+					if (mode == ACC) a = r;
+					else mem[ea] = r;
+					break;
+				}
+				case BIT: {
+					int v = mem[ea];
+					p = (p & ~(FLAG_N | FLAG_V | FLAG_Z)) | (v & (FLAG_N | FLAG_V)) | ((a & v) == 0 ? FLAG_Z : 0);
+					break;
+				}
+				case BCC:
+					branch = (p & FLAG_C) == 0;
+					break;
+				case BCS:
+					branch = (p & FLAG_C) != 0;
+					break;
+				case BEQ:
+					branch = (p & FLAG_Z) != 0;
+					break;
+				case BNE:
+					branch = (p & FLAG_Z) == 0;
+					break;
+				case BMI:
+					branch = (p & FLAG_N) != 0;
+					break;
+				case BPL:
+					branch = (p & FLAG_N) == 0;
+					break;
+				case BVC:
+					branch = (p & FLAG_V) == 0;
+					break;
+				case BVS:
+					branch = (p & FLAG_V) != 0;
+					break;
+				case BRK:
+					stop = STOP_BRK;
+					break;
+				case CLC:
+					p &= ~FLAG_C;
+					break;
+				case CLD:
+					p &= ~FLAG_D;
+					break;
+				case CLI:
+					p &= ~FLAG_I;
+					break;
+				case CLV:
+					p &= ~FLAG_V;
+					break;
+				case SEC:
+					p |= FLAG_C;
+					break;
+				case SED:
+					p |= FLAG_D;
+					break;
+				case SEI:
+					p |= FLAG_I;
+					break;
+				case CMP:
+				case CPX:
+				case CPY: {
+					int r = (type == CMP) ? a : (type == CPX) ? x : y;
+					int v = mem[ea];
+					int t = (r - v) & 0xFF;
+					p = (p & ~(FLAG_N | FLAG_Z | FLAG_C)) | (t & FLAG_N) | (t == 0 ? FLAG_Z : 0) | (r >= v ? FLAG_C : 0);
+					break;
+				}
+				case DEC: {
+					int r = (mem[ea] - 1) & 0xFF;
+					mem[ea] = r;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (r & FLAG_N) | (r == 0 ? FLAG_Z : 0);
+					break;
+				}
+				case INC: {
+					int r = (mem[ea] + 1) & 0xFF;
+					mem[ea] = r;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (r & FLAG_N) | (r == 0 ? FLAG_Z : 0);
+					break;
+				}
+				case DEX:
+					x = (x - 1) & 0xFF;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (x & FLAG_N) | (x == 0 ? FLAG_Z : 0);
+					break;
+				case DEY:
+					y = (y - 1) & 0xFF;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (y & FLAG_N) | (y == 0 ? FLAG_Z : 0);
+					break;
+				case INX:
+					x = (x + 1) & 0xFF;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (x & FLAG_N) | (x == 0 ? FLAG_Z : 0);
+					break;
+				case INY:
+					y = (y + 1) & 0xFF;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (y & FLAG_N) | (y == 0 ? FLAG_Z : 0);
+					break;
+				case JMP:
+					next = ea;
+					break;
+				case JSR: {
+					int ret = (next - 1) & 0xFFFF;
+					mem[0x100 | s] = ret >> 8;
+					s = (s - 1) & 0xFF;
+					mem[0x100 | s] = ret & 0xFF;
+					s = (s - 1) & 0xFF;
+					next = ea;
+					break;
+				}
+				case RTS:
+					if (s == stopS) {
+						stop = STOP_RTS;
+						break;
+					}
+					s = (s + 1) & 0xFF;
+					next = mem[0x100 | s];
+					s = (s + 1) & 0xFF;
+					next = ((next | (mem[0x100 | s] << 8)) + 1) & 0xFFFF;
+					break;
+				case RTI:
+					s = (s + 1) & 0xFF;
+					p = (mem[0x100 | s] & ~FLAG_B) | FLAG_U;
+					s = (s + 1) & 0xFF;
+					next = mem[0x100 | s];
+					s = (s + 1) & 0xFF;
+					next |= mem[0x100 | s] << 8;
+					break;
+				case LDA:
+					a = mem[ea];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				case LDX:
+					x = mem[ea];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (x & FLAG_N) | (x == 0 ? FLAG_Z : 0);
+					break;
+				case LDY:
+					y = mem[ea];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (y & FLAG_N) | (y == 0 ? FLAG_Z : 0);
+					break;
+				case STA:
+					mem[ea] = a;
+					break;
+				case STX:
+					mem[ea] = x;
+					break;
+				case STY:
+					mem[ea] = y;
+					break;
+				case NOP:
+					break;
+				case PHA:
+					mem[0x100 | s] = a;
+					s = (s - 1) & 0xFF;
+					break;
+				case PHP:
+					mem[0x100 | s] = p | FLAG_B | FLAG_U;
+					s = (s - 1) & 0xFF;
+					break;
+				case PLA:
+					s = (s + 1) & 0xFF;
+					a = mem[0x100 | s];
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				case PLP:
+					s = (s + 1) & 0xFF;
+					p = (mem[0x100 | s] & ~FLAG_B) | FLAG_U;
+					break;
+				case TAX:
+					x = a;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (x & FLAG_N) | (x == 0 ? FLAG_Z : 0);
+					break;
+				case TAY:
+					y = a;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (y & FLAG_N) | (y == 0 ? FLAG_Z : 0);
+					break;
+				case TSX:
+					x = s;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (x & FLAG_N) | (x == 0 ? FLAG_Z : 0);
+					break;
+				case TXA:
+					a = x;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				case TXS:
+					s = x;
+					break;
+				case TYA:
+					a = y;
+					p = (p & ~(FLAG_N | FLAG_Z)) | (a & FLAG_N) | (a == 0 ? FLAG_Z : 0);
+					break;
+				default:
+					throw new RuntimeException ("Unexpected opcode type in Cpu6502.run");
+			}
+
+			if (branch) {
+				// taken branches cost one cycle, and one more if the target is on another page
+				++n;
+				if ((next & 0xFF00) != (ea & 0xFF00)) ++penalty;
+				next = ea;
+			}
+			cycles += n + penalty;
+			if (profiler != null) profiler.record (pc, n + penalty, penalty, branch);
+			if (stop != STOP_CYCLES) break;
+			pc = next;
+		}
+
+		mA = a;
+		mX = x;
+		mY = y;
+		mS = s;
+		mP = p;
+		mPC = pc;
+		mCycles = cycles;
+		mInstructions = instructions;
+		return stop;
+	}
+
+	/**
+	*	Sets a profiler that is told about every executed instruction, or null to turn profiling off.
+	*/
+	public void setProfiler (Profiler6502 profiler)
+	{
+		mProfiler = profiler;
+	}
+
+	/**
+	*	Returns number of cycles executed by last call to run
+	*/
+	public long getCycles ()
+	{
+		return mCycles;
+	}
+
+	/**
+	*	Returns number of instructions executed by last call to run
+	*/
+	public long getInstructions ()
+	{
+		return mInstructions;
+	}
+
+	/**
+	*	Returns the program counter. After run has returned, it is the address of the
+	*	instruction that stopped execution, or the next instruction if the cycle limit was reached.
+	*/
+	public int getPC ()
+	{
+		return mPC;
+	}
+
+	public int getA ()
+	{
+		return mA;
+	}
+
+	public int getX ()
+	{
+		return mX;
+	}
+
+	public int getY ()
+	{
+		return mY;
+	}
+
+	public int getS ()
+	{
+		return mS;
+	}
+
+	public int getP ()
+	{
+		return mP;
+	}
+
+	public void setA (int a)
+	{
+		mA = a & 0xFF;
+	}
+
+	public void setX (int x)
+	{
+		mX = x & 0xFF;
+	}
+
+	public void setY (int y)
+	{
+		mY = y & 0xFF;
+	}
+
+	public void setS (int s)
+	{
+		mS = s & 0xFF;
+	}
+
+	public void setP (int p)
+	{
+		mP = (p & ~FLAG_B) | FLAG_U;
+	}
+}
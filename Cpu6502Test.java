@@ -0,0 +1,115 @@
+import junit.framework.*;
+import java.io.*;
+
+/**
+*	@test Runs a test case on Cpu6502.java.
+*	<p>
+*	Requiers that JUnit is installed.
+*	The routines in test/emu.asm are assembled to memory with Assembler6502, and executed
+*	by the emulator. The results and the cycle counts are compared with hardcoded ones.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner Cpu6502Test
+*	</p>
+*	@author David Schager
+*/
+public class Cpu6502Test extends TestCase implements SymbolConstant6502 {
+	private Assembler6502 mAsm = null;
+	private Cpu6502 mCpu = null;
+
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public Cpu6502Test (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Sets up Test
+	*	Assembles test/emu.asm to memory, and loads the image into a new cpu.
+	*/
+	public void setUp () throws IOException
+	{
+		mAsm = new Assembler6502 ();
+		mAsm.setMode (MODE_RAW);
+		assertEquals (0, mAsm.assemble ("test/emu.asm", null));
+		mCpu = new Cpu6502 ();
+		mCpu.load (mAsm.getImage ());
+	}
+
+	/**
+	*	Runs a routine from a label until it returns.
+	*/
+	private void call (String label)
+	{
+		int address = mAsm.getLabelAddress (label);
+		assertTrue ("label " + label, address >= 0);
+		assertEquals (Cpu6502.STOP_RTS, mCpu.run (address, 10000000));
+	}
+
+	/**
+	*	Test 8 bit multiplication
+	*/
+	public void testMultiply ()
+	{
+		mCpu.write (0xfb, 13);
+		mCpu.write (0xfc, 11);
+		call ("mul8");
+		assertEquals (143, mCpu.readWord (0xfd));
+		mCpu.write (0xfb, 255);
+		mCpu.write (0xfc, 255);
+		call ("mul8");
+		assertEquals (65025, mCpu.readWord (0xfd));
+	}
+
+	/**
+	*	Test cycle counting of a loop with taken and not taken branches.
+	*/
+	public void testDelayCycles ()
+	{
+		call ("delay");
+		assertEquals (57, mCpu.getCycles ());
+		assertEquals (22, mCpu.getInstructions ());
+	}
+
+	/**
+	*	Test decimal mode addition
+	*/
+	public void testDecimalMode ()
+	{
+		call ("bcdadd");
+		assertEquals (0x47, mCpu.getA ());
+	}
+
+	/**
+	*	Test jsr/rts nesting and the extra cycle when an indexed load crosses a page.
+	*/
+	public void testPageCrossing ()
+	{
+		call ("tabsum");
+		assertEquals (10, mCpu.read (0xfd));
+		assertEquals (102, mCpu.getCycles ());
+	}
+
+	/**
+	*	Test the stop conditions brk and cycle limit.
+	*/
+	public void testStop ()
+	{
+		assertEquals (Cpu6502.STOP_BRK, mCpu.run (mAsm.getLabelAddress ("stop"), 1000));
+		assertEquals (mAsm.getLabelAddress ("stop"), mCpu.getPC ());
+		assertEquals (Cpu6502.STOP_CYCLES, mCpu.run (mAsm.getLabelAddress ("forever"), 3000));
+		assertEquals (3000, mCpu.getCycles ());
+	}
+
+	/**
+	*	Test the instruction count of nested loops. The speed of the emulator on them is measured by
+	*	EmulatorBenchmark in bench.
+	*/
+	public void testSpin ()
+	{
+		call ("spin");
+		assertEquals (2 + 256 * 256 * 2 + 256 * 2 + 1, mCpu.getInstructions ());
+	}
+}
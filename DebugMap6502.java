@@ -0,0 +1,269 @@
+import java.io.*;
+import java.util.*;
+
+/**
+*	Maps addresses back to the source that produced them.
+*	Pass 2 of Assembler6502 adds one address range per statement that emits bytes, with the file,
+*	line and column of the statement. The ranges are kept in parallel int arrays sorted by start
+*	address, so an address is looked up with a binary search.
+*
+*	The map can be written to and read from a text file, one line per source file and per range:
+*	<pre>
+*	file 0 test/emu.asm
+*	1000 1002 0 12 2
+*	</pre>
+*	A range line holds the first address and the address following the range in hex, followed by
+*	file id, line and column.
+*
+*	@author David Schager
+*/
+public class DebugMap6502 {
+	private int[] mStart = new int [256];
+	private int[] mEnd = new int [256];
+	private int[] mFile = new int [256];
+	private int[] mLine = new int [256];
+	private int[] mCol = new int [256];
+	private int mSize = 0;
+	private boolean mSorted = true;
+	private Vector mFiles = new Vector ();
+	private HashMap mFileIds = new HashMap ();
+
+	/**
+	*	Returns the id of a source file, adding it if it is not known.
+	*/
+	public int addFile (String filename)
+	{
+		Integer id = (Integer) mFileIds.get (filename);
+		if (id == null) {
+			id = Integer.valueOf (mFiles.size ());
+			mFiles.addElement (filename);
+			mFileIds.put (filename, id);
+		}
+		return id.intValue ();
+	}
+
+	/**
+	*	Adds an address range.
+	*	@param address first address of range
+	*	@param length number of bytes, empty ranges are ignored
+	*	@param fileId id of source file, @see addFile
+	*	@param line line number in source file
+	*	@param col column number in source file
+	*/
+	public void add (int address, int length, int fileId, int line, int col)
+	{
+		if (length <= 0) return;
+		if (mSize == mStart.length) {
+			mStart = grow (mStart);
+			mEnd = grow (mEnd);
+			mFile = grow (mFile);
+			mLine = grow (mLine);
+			mCol = grow (mCol);
+		}
+		if (mSize > 0 && address < mStart[mSize - 1]) mSorted = false;
+		mStart[mSize] = address;
+		mEnd[mSize] = address + length;
+		mFile[mSize] = fileId;
+		mLine[mSize] = line;
+		mCol[mSize] = col;
+		++mSize;
+	}
+
+	/**
+	*	Returns a copy of array with the double size
+	*/
+	private static int[] grow (int[] a)
+	{
+		int[] b = new int [a.length << 1];
+		System.arraycopy (a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	*	Sorts the ranges by start address, if they were not added in order.
+	*	This only happens when origin is moved backwards.
+	*/
+	private void sort ()
+	{
+		if (mSorted) return;
+		Integer[] order = new Integer [mSize];
+		for (int i = 0; i < mSize; ++i) order[i] = Integer.valueOf (i);
+		Arrays.sort (order, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				return mStart[((Integer) a).intValue ()] - mStart[((Integer) b).intValue ()];
+			}
+		});
+		int[] start = new int [mStart.length];
+		int[] end = new int [mStart.length];
+		int[] file = new int [mStart.length];
+		int[] line = new int [mStart.length];
+		int[] col = new int [mStart.length];
+		for (int i = 0; i < mSize; ++i) {
+			int j = order[i].intValue ();
+			start[i] = mStart[j];
+			end[i] = mEnd[j];
+			file[i] = mFile[j];
+			line[i] = mLine[j];
+			col[i] = mCol[j];
+		}
+		mStart = start;
+		mEnd = end;
+		mFile = file;
+		mLine = line;
+		mCol = col;
+		mSorted = true;
+	}
+
+	/**
+	*	Finds the range containing an address.
+	*	@return index of range, or -1 if no range contains the address
+	*/
+	public int find (int address)
+	{
+		sort ();
+		// find the last range starting at or below address
+		int low = 0;
+		int high = mSize - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (mStart[mid] <= address) {
+				found = mid;
+				low = mid + 1;
+			}
+			else high = mid - 1;
+		}
+		if (found >= 0 && address < mEnd[found]) return found;
+		return -1;
+	}
+
+	/**
+	*	Returns the number of ranges
+	*/
+	public int getRangeCount ()
+	{
+		return mSize;
+	}
+
+	/**
+	*	Returns the first address of a range
+	*/
+	public int getStart (int index)
+	{
+		sort ();
+		return mStart[index];
+	}
+
+	/**
+	*	Returns the address following a range
+	*/
+	public int getEnd (int index)
+	{
+		sort ();
+		return mEnd[index];
+	}
+
+	/**
+	*	Returns the source file id of a range
+	*/
+	public int getFileId (int index)
+	{
+		sort ();
+		return mFile[index];
+	}
+
+	/**
+	*	Returns the source line of a range
+	*/
+	public int getLine (int index)
+	{
+		sort ();
+		return mLine[index];
+	}
+
+	/**
+	*	Returns the source column of a range
+	*/
+	public int getColumn (int index)
+	{
+		sort ();
+		return mCol[index];
+	}
+
+	/**
+	*	Returns the number of source files
+	*/
+	public int getFileCount ()
+	{
+		return mFiles.size ();
+	}
+
+	/**
+	*	Returns the name of a source file
+	*/
+	public String getFileName (int fileId)
+	{
+		return (String) mFiles.elementAt (fileId);
+	}
+
+	/**
+	*	Writes the map as text.
+	*/
+	public void write (Writer out) throws IOException
+	{
+		sort ();
+		for (int i = 0; i < mFiles.size (); ++i) {
+			out.write ("file " + i + " " + mFiles.elementAt (i) + "\n");
+		}
+		for (int i = 0; i < mSize; ++i) {
+			out.write (Integer.toHexString (mStart[i]) + " " + Integer.toHexString (mEnd[i]) + " " +
+				mFile[i] + " " + mLine[i] + " " + mCol[i] + "\n");
+		}
+	}
+
+	/**
+	*	Writes the map to a file.
+	*/
+	public void write (String filename) throws IOException
+	{
+		Writer out = new BufferedWriter (new FileWriter (filename));
+		try {
+			write (out);
+		}
+		finally {
+			out.close ();
+		}
+	}
+
+	/**
+	*	Reads a map written by write.
+	*	@throws IOException on read errors or malformed lines
+	*/
+	public static DebugMap6502 read (Reader in) throws IOException
+	{
+		DebugMap6502 map = new DebugMap6502 ();
+		BufferedReader reader = new BufferedReader (in);
+		String s;
+		while ((s = reader.readLine ()) != null) {
+			if (s.length () == 0) continue;
+			try {
+				if (s.startsWith ("file ")) {
+					int n = s.indexOf (' ', 5);
+					map.addFile (s.substring (n + 1));
+				}
+				else {
+					StringTokenizer t = new StringTokenizer (s);
+					int start = Integer.parseInt (t.nextToken (), 16);
+					int end = Integer.parseInt (t.nextToken (), 16);
+					map.add (start, end - start, Integer.parseInt (t.nextToken ()),
+						Integer.parseInt (t.nextToken ()), Integer.parseInt (t.nextToken ()));
+				}
+			}
+			catch (RuntimeException e) {
+				throw new IOException ("Malformed debug map line: " + s);
+			}
+		}
+		return map;
+	}
+}
@@ -0,0 +1,190 @@
+import junit.framework.*;
+import java.io.*;
+
+/**
+*	@test Runs a test case on the tools that show what an assembly did and where the time goes:
+*	Profiler6502, DebugMap6502, Stats6502, the AssemblyListener6502 interface and Listing6502.
+*	<p>
+*	Requiers that JUnit is installed.
+*	The routines in test/emu.asm are assembled to memory, and what the tools report about them
+*	is compared with hardcoded addresses, lines and counts.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner DebugTest
+*	</p>
+*	@author David Schager
+*/
+public class DebugTest extends TestCase implements SymbolConstant6502 {
+	private static final String SOURCE = "test/emu.asm";
+
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public DebugTest (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Returns an assembler that assembles to memory.
+	*/
+	private Assembler6502 create ()
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		return asm;
+	}
+
+	/**
+	*	Assembles a source file with an assembler set up by the test, and checks that there are no errors.
+	*/
+	private Assembler6502 assemble (Assembler6502 asm, String filename) throws IOException
+	{
+		assertEquals (filename, 0, asm.assemble (filename, null));
+		return asm;
+	}
+
+	/**
+	*	Test that the profiler sums up the cycles of each instruction, and the page crossing penalties.
+	*/
+	public void testProfile () throws IOException
+	{
+		Assembler6502 asm = assemble (create (), SOURCE);
+		Cpu6502 cpu = new Cpu6502 ();
+		cpu.load (asm.getImage ());
+		Profiler6502 profiler = new Profiler6502 ();
+		cpu.setProfiler (profiler);
+		assertEquals (Cpu6502.STOP_RTS, cpu.run (asm.getLabelAddress ("tabsum"), 10000000));
+		assertEquals (cpu.getCycles (), profiler.getTotalCycles ());
+		assertTrue ("page crossing penalty", profiler.getTotalPenalty () > 0);
+		assertEquals (1, profiler.getCount (asm.getLabelAddress ("tabsum")));
+		ByteArrayOutputStream report = new ByteArrayOutputStream ();
+		profiler.report (new PrintStream (report), asm, 10);
+		assertTrue (report.toString ().indexOf ("tabsum") >= 0);
+		assertTrue (report.toString ().indexOf ("test/emu.asm:") >= 0);
+	}
+
+	/**
+	*	Test that the debug map finds the source of an address, also after being written and read back.
+	*/
+	public void testDebugMap () throws IOException
+	{
+		Assembler6502 asm = assemble (create (), SOURCE);
+		int address = asm.getLabelAddress ("mul8");
+		DebugMap6502 map = asm.getDebugMap ();
+		int i = map.find (address + 1);
+		assertTrue (i >= 0);
+		assertEquals (address, map.getStart (i));
+		assertEquals (address + 2, map.getEnd (i));
+		assertEquals ("test/emu.asm", map.getFileName (map.getFileId (i)));
+		assertEquals (8, map.getLine (i));
+		assertEquals (7, map.getColumn (i));
+		assertEquals (-1, map.find (address - 1));
+		StringWriter out = new StringWriter ();
+		map.write (out);
+		DebugMap6502 copy = DebugMap6502.read (new StringReader (out.toString ()));
+		assertEquals (map.getRangeCount (), copy.getRangeCount ());
+		i = copy.find (address + 1);
+		assertEquals (9, copy.getLine (i + 1));
+		assertEquals (3, copy.getColumn (i + 1));
+	}
+
+	/**
+	*	Test that statistics count the work of an assembly, and give the same image.
+	*/
+	public void testStats () throws IOException
+	{
+		Assembler6502 plain = assemble (create (), SOURCE);
+		Assembler6502 asm = create ();
+		Stats6502 stats = new Stats6502 ();
+		asm.setStats (stats);
+		assemble (asm, SOURCE);
+		assertTrue (java.util.Arrays.equals (plain.getImage ().toByteArray (), asm.getImage ().toByteArray ()));
+		assertTrue (stats.getTokens () > 0);
+		assertTrue (stats.getBytesRead () >= new File (SOURCE).length ());
+		assertTrue (stats.getLookups () >= stats.getHits ());
+		assertTrue (stats.getHits () > 0);
+		assertTrue (stats.getTime (Stats6502.PHASE_TOTAL) >= stats.getTime (Stats6502.PHASE_PASS1));
+		assertEquals (0, stats.getBytesWritten ());
+	}
+
+	/**
+	*	Test that a listener sees every written byte once, and the labels and procs at their addresses.
+	*/
+	public void testListener () throws IOException
+	{
+		final int[] written = new int [0x10000];
+		final int[] labels = {-1, 0};
+		AssemblyListener6502 listener = new AssemblyAdapter6502 () {
+			public void instructionEmitted (int address, int length, MachineCode6502 code)
+			{
+				for (int i = 0; i < length; ++i) ++written[address + i];
+			}
+
+			public void bytesEmitted (int address, int length)
+			{
+				for (int i = 0; i < length; ++i) ++written[address + i];
+			}
+
+			public void labelDefined (String name, int address)
+			{
+				if (name.equals ("mul8")) labels[0] = address;
+				++labels[1];
+			}
+		};
+		Assembler6502 asm = create ();
+		asm.addListener (listener);
+		assemble (asm, SOURCE);
+		assertEquals (asm.getLabelAddress ("mul8"), labels[0]);
+		assertTrue (labels[1] > 1);
+		// the space reserved before table is written as zeroes
+		int table = asm.getLabelAddress ("table");
+		for (int address = table - 254; address < table; ++address) assertEquals (1, written[address]);
+		assertEquals (table - 254, asm.getDebugMap ().getStart (asm.getDebugMap ().find (table - 1)));
+		Image6502 image = asm.getImage ();
+		for (int address = 0; address < written.length; ++address) {
+			assertTrue (written[address] <= 1);
+			boolean inImage = address >= image.getStartAddress () && address < image.getEndAddress ();
+			if (written[address] != 0) assertTrue (inImage);
+			// the rest of the image is filled with zeroes between origins
+			else if (inImage) assertEquals (0, image.byteAt (address));
+		}
+		asm.removeListener (listener);
+
+		// a proc is a label at its first byte
+		final int[] proc = {-1};
+		asm = create ();
+		asm.addListener (new AssemblyAdapter6502 () {
+			public void labelDefined (String name, int address)
+			{
+				if (name.equals ("print")) proc[0] = address;
+			}
+		});
+		assemble (asm, "test/proc.asm");
+		assertEquals (0xc018, proc[0]);
+	}
+
+	/**
+	*	Test that the listing lists every source line once, with address, bytes and cycles, and
+	*	lines with only a label with its address.
+	*/
+	public void testListing () throws IOException
+	{
+		Assembler6502 asm = create ();
+		StringWriter out = new StringWriter ();
+		Listing6502 listing = new Listing6502 (asm, out);
+		asm.addListener (listing);
+		assemble (asm, SOURCE);
+		listing.finish ();
+		String[] lines = out.toString ().split ("\n");
+		assertEquals ("                    ; routines executed by Cpu6502Test", lines[0]);
+		assertEquals ("1000  a9 00     2   mul8:\tlda #0", lines[7]);
+		assertEquals ("1006                mulloop:", lines[10]);
+		assertEquals ("1008  90 03     2+  \t\tbcc mulskip", lines[12]);
+		BufferedReader in = new BufferedReader (new FileReader (SOURCE));
+		int sourceLines = 0;
+		while (in.readLine () != null) ++sourceLines;
+		in.close ();
+		assertTrue (lines.length >= sourceLines);
+	}
+}
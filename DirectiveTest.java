@@ -0,0 +1,176 @@
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+/**
+*	@test Runs a test case on the directives that make code and data for the program: alignment
+*	and page blocks, packed text, tables and repeated blocks.
+*	<p>
+*	Requiers that JUnit is installed.
+*	The sources in test are assembled to memory, the bytes are compared with hardcoded or
+*	computed ones, and the code they make is run in Cpu6502.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner DirectiveTest
+*	</p>
+*	@author David Schager
+*/
+public class DirectiveTest extends TestCase implements SymbolConstant6502 {
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public DirectiveTest (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Assembles a source file to memory, and checks that there are no errors.
+	*/
+	private Assembler6502 assemble (String filename) throws IOException
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		assertEquals (filename, 0, asm.assemble (filename, null));
+		return asm;
+	}
+
+	/**
+	*	Assembles a source file to memory with an assembler set up by the test, and returns the
+	*	errors and warnings printed.
+	*	@param error the error code the assembly is expected to return
+	*/
+	private String assembleMessages (Assembler6502 asm, String filename, int error) throws IOException
+	{
+		PrintStream err = System.err;
+		ByteArrayOutputStream messages = new ByteArrayOutputStream ();
+		System.setErr (new PrintStream (messages));
+		try {
+			asm.setMode (MODE_RAW);
+			assertEquals (filename, error, asm.assemble (filename, null));
+		}
+		finally {
+			System.setErr (err);
+		}
+		return messages.toString ();
+	}
+
+	/**
+	*	Loads an image into a new cpu, and runs it from an address until it returns.
+	*/
+	private Cpu6502 run (Image6502 image, int address)
+	{
+		Cpu6502 cpu = new Cpu6502 ();
+		cpu.load (image);
+		assertEquals (Cpu6502.STOP_RTS, cpu.run (address, 100000));
+		return cpu;
+	}
+
+	/**
+	*	Test that .align pads with zeroes up to the next page, and that a table in a .page block
+	*	that does not cross a page assembles without messages.
+	*/
+	public void testAlign () throws IOException
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		assertEquals ("", assembleMessages (asm, "test/align.asm", 0));
+		assertEquals (0x1100, asm.getLabelAddress ("table"));
+		assertEquals (0x1108, asm.getLabelAddress ("straddle"));
+		Image6502 image = asm.getImage ();
+		assertEquals (0x60, image.byteAt (0x10fb));
+		for (int address = 0x10fc; address < 0x1100; ++address) assertEquals (0, image.byteAt (address));
+		for (int i = 0; i < 8; ++i) assertEquals (1 << i, image.byteAt (0x1100 + i));
+	}
+
+	/**
+	*	Test that with page warnings on, a branch to another page and an indexed load of a table
+	*	that straddles a page are reported, and nothing else.
+	*/
+	public void testPageWarnings () throws IOException
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setPageWarnings (true);
+		String messages = assembleMessages (asm, "test/align.asm", 0);
+		assertEquals (2, messages.split ("Warning: ", -1).length - 1);
+		assertTrue (messages, messages.indexOf ("Warning: Table at $11fc-$1203 straddles a page boundary") >= 0);
+		assertTrue (messages, messages.indexOf ("Warning: Branch to $12fd crosses page boundary") >= 0);
+		assertTrue (messages, messages.indexOf ("test/align.asm, line 28") >= 0);
+	}
+
+	/**
+	*	Test that a .page block that crosses a page fails the assembly.
+	*/
+	public void testPageBlock () throws IOException
+	{
+		String messages = assembleMessages (new Assembler6502 (), "test/page.asm", 1);
+		assertTrue (messages, messages.indexOf ("Page block $10fc-$1103 crosses a page boundary") >= 0);
+	}
+
+	/**
+	*	Test that packed strings unpack to the strings given, and that the decoder assembled with
+	*	.ptextdict prints them.
+	*/
+	public void testPackedText () throws IOException
+	{
+		Assembler6502 asm = assemble ("test/ptext.asm");
+		TextPacker6502 text = asm.getPackedText ();
+		assertEquals (3, text.getCount ());
+		assertTrue (text.getCodeCount () > 0);
+		assertTrue (text.getPackedLength () < text.getTextLength ());
+		StringBuffer expected = new StringBuffer ();
+		for (int i = 0; i < text.getCount (); ++i) {
+			byte[] string = text.getString (i);
+			assertTrue (Arrays.equals (Arrays.copyOf (string, string.length - 1), text.unpack (text.getPacked (i))));
+			for (int j = 0; j < string.length - 1; ++j) expected.append ((char) (string[j] & 0xff));
+		}
+		// the character above $7f is escaped
+		assertEquals (0xc1, text.getString (2)[20] & 0xff);
+
+		Cpu6502 cpu = run (asm.getImage (), 0x1000);
+		for (int i = 0; i < expected.length (); ++i) assertEquals (expected.charAt (i), cpu.read (0x2000 + i));
+	}
+
+	/**
+	*	Test that the table directive writes an entry for each index, and the functions of
+	*	expressions.
+	*/
+	public void testTable () throws IOException
+	{
+		Image6502 image = assemble ("test/table.asm").getImage ();
+		for (int i = 0; i < 256; ++i) {
+			assertEquals ((int) Math.round (127 * Math.sin (2 * Math.PI * i / 256)) + 128, image.byteAt (0x1000 + i));
+			assertEquals ((i * i / 4) & 0xff, image.byteAt (0x1140 + i));
+			assertEquals ((i * i / 4) >> 8, image.byteAt (0x1240 + i));
+		}
+		for (int i = 0; i < 64; ++i) {
+			assertEquals ((int) Math.round (31 * Math.cos (2 * Math.PI * i / 64)) & 0xff, image.byteAt (0x1100 + i));
+		}
+		assertEquals (0xff, image.byteAt (0x1340));
+		assertEquals (0x80, image.byteAt (0x1342));
+		int[] reversed = {0, 4, 2, 6, 1, 5, 3, 7};
+		for (int i = 0; i < 8; ++i) assertEquals (reversed[i], image.byteAt (0x1350 + i));
+		assertEquals (0x28, image.byteAt (0x1359));
+		// outside of tables i is an identifier
+		int[] bytes = {0x00, 0x10, 0x02, 0x03, 0x03, 0x01, 0xbd, 0x03, 0x10, 0xb6, 0xc0};
+		for (int i = 0; i < bytes.length; ++i) assertEquals (bytes[i], image.byteAt (0x1371 + i));
+	}
+
+	/**
+	*	Test that .rept blocks are replayed with their variable, nested and with identifiers
+	*	assigned in the block, and that the unrolled loop runs.
+	*/
+	public void testRepeat () throws IOException
+	{
+		Image6502 image = assemble ("test/rept.asm").getImage ();
+		for (int row = 0; row < 4; ++row) {
+			assertEquals (0x9d, image.byteAt (0x1004 + row * 3));
+			assertEquals (0x04 + row, image.byteAt (0x1006 + row * 3));
+		}
+		int[] table = {0x00, 1, 0x01, 2, 0x10, 3, 0x11, 4, 0x20, 5, 0x21, 6, 0xea, 0xea, 'o', 'k', 3};
+		for (int i = 0; i < table.length; ++i) assertEquals (table[i], image.byteAt (0x1014 + i));
+		assertEquals (0x1014 + table.length, image.getEndAddress ());
+
+		Cpu6502 cpu = run (image, 0x1000);
+		for (int i = 0; i < 0x400; ++i) assertEquals (0x20, cpu.read (0x0400 + i));
+	}
+}
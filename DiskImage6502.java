@@ -0,0 +1,334 @@
+import java.io.*;
+import java.util.Vector;
+
+/**
+*	A 1541 disk image (.d64) with 35 tracks, which assembled programs are written into as PRG
+*	files, so a disk for an emulator or a real drive is made without another tool.
+*
+*	Sectors are 256 bytes. The first two bytes of a sector of a file link to the next sector by
+*	track and sector, the last sector has track 0 and the index of its last byte instead. Track 18
+*	holds the BAM in sector 0, with the free sectors of each track as a count and a bitmap, and
+*	the directory from sector 1, 8 entries of 32 bytes per sector.
+*
+*	Files are added in one pass: an allocation cursor moves out from the directory track, first
+*	down to track 1 then up to track 35, and each file takes the next free sectors from it with
+*	the interleave of the drive. All programs of a batch are laid out without scanning the disk
+*	again for each one, and the image is written in one write.
+*
+*	@author David Schager
+*/
+public class DiskImage6502 {
+	public static final int TRACKS = 35;
+	public static final int SECTOR_SIZE = 256;
+	/** Size of an image of 35 tracks without error bytes */
+	public static final int SIZE = 174848;
+	public static final int DIRECTORY_TRACK = 18;
+	/** Sectors between two sectors of a file, so the drive reads the next one without a revolution */
+	public static final int INTERLEAVE = 10;
+	/** Sectors between two sectors of the directory */
+	public static final int DIRECTORY_INTERLEAVE = 3;
+	/** File type of a closed PRG file */
+	public static final int TYPE_PRG = 0x82;
+
+	private static final int PAD = 0xa0;
+
+	private byte[] mData;
+	// allocation cursor
+	private int mTrack = DIRECTORY_TRACK - 1;
+	private int mSector = 0;
+
+	/**
+	*	Creates a formatted, empty disk.
+	*	@param name disk name, up to 16 characters
+	*	@param id disk id, 2 characters
+	*/
+	public DiskImage6502 (String name, String id)
+	{
+		mData = new byte [SIZE];
+		int bam = offset (DIRECTORY_TRACK, 0);
+		mData[bam] = DIRECTORY_TRACK;
+		mData[bam + 1] = 1;
+		// DOS version
+		mData[bam + 2] = 0x41;
+		for (int track = 1; track <= TRACKS; ++track) {
+			for (int sector = 0; sector < getSectors (track); ++sector) setFree (track, sector, true);
+		}
+		for (int i = 0x90; i < 0xab; ++i) mData[bam + i] = (byte) PAD;
+		writeName (bam + 0x90, name);
+		mData[bam + 0xa2] = (byte) id.charAt (0);
+		mData[bam + 0xa3] = (byte) id.charAt (1);
+		mData[bam + 0xa5] = '2';
+		mData[bam + 0xa6] = 'A';
+		setFree (DIRECTORY_TRACK, 0, false);
+		setFree (DIRECTORY_TRACK, 1, false);
+		int dir = offset (DIRECTORY_TRACK, 1);
+		mData[dir + 1] = (byte) 0xff;
+	}
+
+	/**
+	*	Reads a disk image, error bytes after the sectors are dropped.
+	*/
+	private DiskImage6502 (byte[] data)
+	{
+		mData = data;
+	}
+
+	/**
+	*	Reads a disk image file.
+	*/
+	public static DiskImage6502 read (String filename) throws IOException
+	{
+		File file = new File (filename);
+		if (file.length () < SIZE) throw new IOException (filename + " is not a 35 track disk image");
+		byte[] data = new byte [SIZE];
+		DataInputStream in = new DataInputStream (new FileInputStream (file));
+		try {
+			in.readFully (data);
+		}
+		finally {
+			in.close ();
+		}
+		return new DiskImage6502 (data);
+	}
+
+	/**
+	*	Returns the number of sectors on a track.
+	*/
+	public static int getSectors (int track)
+	{
+		if (track <= 17) return 21;
+		if (track <= 24) return 19;
+		if (track <= 30) return 18;
+		return 17;
+	}
+
+	/**
+	*	Returns the offset of a sector in the image.
+	*/
+	public static int offset (int track, int sector)
+	{
+		int offset = 0;
+		for (int t = 1; t < track; ++t) offset += getSectors (t);
+		return (offset + sector) * SECTOR_SIZE;
+	}
+
+	/**
+	*	Returns true if a sector is free in the BAM.
+	*/
+	public boolean isFree (int track, int sector)
+	{
+		int entry = offset (DIRECTORY_TRACK, 0) + 4 * track;
+		return (mData[entry + 1 + (sector >> 3)] & (1 << (sector & 7))) != 0;
+	}
+
+	/**
+	*	Marks a sector free or used in the BAM, and counts the free sectors of its track.
+	*/
+	private void setFree (int track, int sector, boolean free)
+	{
+		if (isFree (track, sector) == free) return;
+		int entry = offset (DIRECTORY_TRACK, 0) + 4 * track;
+		mData[entry + 1 + (sector >> 3)] ^= (byte) (1 << (sector & 7));
+		mData[entry] += free ? 1 : -1;
+	}
+
+	/**
+	*	Returns the number of free sectors, not counting the directory track.
+	*/
+	public int getFreeSectors ()
+	{
+		int free = 0;
+		for (int track = 1; track <= TRACKS; ++track) {
+			if (track != DIRECTORY_TRACK) free += mData[offset (DIRECTORY_TRACK, 0) + 4 * track] & 0xff;
+		}
+		return free;
+	}
+
+	/**
+	*	Writes a name padded with shifted spaces, as the directory and BAM keep names.
+	*/
+	private void writeName (int offset, String name)
+	{
+		for (int i = 0; i < 16; ++i) mData[offset + i] = (byte) ((i < name.length ()) ? name.charAt (i) : PAD);
+	}
+
+	/**
+	*	Converts a file name to a disk name, upper case and cut to 16 characters.
+	*/
+	public static String toDiskName (String name)
+	{
+		name = name.toUpperCase ();
+		return (name.length () > 16) ? name.substring (0, 16) : name;
+	}
+
+	/**
+	*	Returns the offset of the directory entry of a file, or -1 if there is none.
+	*/
+	private int findEntry (String name)
+	{
+		byte[] padded = new byte [16];
+		for (int i = 0; i < 16; ++i) padded[i] = (byte) ((i < name.length ()) ? name.charAt (i) : PAD);
+		int track = DIRECTORY_TRACK;
+		int sector = 1;
+		while (track != 0) {
+			int dir = offset (track, sector);
+			for (int i = 0; i < 8; ++i) {
+				int entry = dir + i * 32;
+				if (mData[entry + 2] == 0) continue;
+				boolean same = true;
+				for (int j = 0; j < 16 && same; ++j) same = mData[entry + 5 + j] == padded[j];
+				if (same) return entry;
+			}
+			track = mData[dir] & 0xff;
+			sector = mData[dir + 1] & 0xff;
+		}
+		return -1;
+	}
+
+	/**
+	*	Returns the offset of a free directory entry, adding a directory sector if all are used.
+	*/
+	private int freeEntry () throws IOException
+	{
+		int track = DIRECTORY_TRACK;
+		int sector = 1;
+		while (true) {
+			int dir = offset (track, sector);
+			for (int i = 0; i < 8; ++i) {
+				if (mData[dir + i * 32 + 2] == 0) return dir + i * 32;
+			}
+			if (mData[dir] == 0) break;
+			track = mData[dir] & 0xff;
+			sector = mData[dir + 1] & 0xff;
+		}
+		int next = -1;
+		for (int i = 1; i < getSectors (DIRECTORY_TRACK) && next < 0; ++i) {
+			int candidate = (sector - 1 + i * DIRECTORY_INTERLEAVE) % (getSectors (DIRECTORY_TRACK) - 1) + 1;
+			if (isFree (DIRECTORY_TRACK, candidate)) next = candidate;
+		}
+		if (next < 0) throw new IOException ("Directory is full");
+		setFree (DIRECTORY_TRACK, next, false);
+		int dir = offset (DIRECTORY_TRACK, sector);
+		mData[dir] = DIRECTORY_TRACK;
+		mData[dir + 1] = (byte) next;
+		int added = offset (DIRECTORY_TRACK, next);
+		for (int i = 0; i < SECTOR_SIZE; ++i) mData[added + i] = 0;
+		mData[added + 1] = (byte) 0xff;
+		return added;
+	}
+
+	/**
+	*	Removes a file, and frees its sectors.
+	*/
+	private void delete (int entry)
+	{
+		int track = mData[entry + 3] & 0xff;
+		int sector = mData[entry + 4] & 0xff;
+		// a broken chain ends at a sector that is already free
+		while (track != 0 && track <= TRACKS && !isFree (track, sector)) {
+			setFree (track, sector, true);
+			int s = offset (track, sector);
+			track = mData[s] & 0xff;
+			sector = mData[s + 1] & 0xff;
+		}
+		mData[entry + 2] = 0;
+	}
+
+	/**
+	*	Takes the next free sector from the allocation cursor.
+	*	@return int[] {track, sector}
+	*/
+	private int[] allocate () throws IOException
+	{
+		while (mTrack >= 1 && mTrack <= TRACKS) {
+			int sectors = getSectors (mTrack);
+			for (int i = 0; i < sectors; ++i) {
+				int sector = (mSector + i) % sectors;
+				if (isFree (mTrack, sector)) {
+					setFree (mTrack, sector, false);
+					mSector = (sector + INTERLEAVE) % sectors;
+					return new int[] {mTrack, sector};
+				}
+			}
+			// down to track 1, then up from the directory to track 35
+			if (mTrack < DIRECTORY_TRACK) mTrack = (mTrack == 1) ? DIRECTORY_TRACK + 1 : mTrack - 1;
+			else ++mTrack;
+			mSector = 0;
+		}
+		throw new IOException ("Disk full");
+	}
+
+	/**
+	*	Adds PRG files in one pass, replacing files with the same names.
+	*	@param names Vector of String file names
+	*	@param programs Vector of byte[] contents, load address first
+	*/
+	public void addFiles (Vector names, Vector programs) throws IOException
+	{
+		for (int i = 0; i < names.size (); ++i) {
+			int entry = findEntry ((String) names.elementAt (i));
+			if (entry >= 0) delete (entry);
+		}
+		mTrack = DIRECTORY_TRACK - 1;
+		mSector = 0;
+		for (int i = 0; i < names.size (); ++i) {
+			byte[] program = (byte[]) programs.elementAt (i);
+			int blocks = Math.max (1, (program.length + 253) / 254);
+			if (blocks > getFreeSectors ())
+				throw new IOException ("Disk full, " + names.elementAt (i) + " needs " + blocks + " blocks");
+			int[] first = allocate ();
+			int[] current = first;
+			for (int block = 0; block < blocks; ++block) {
+				int s = offset (current[0], current[1]);
+				int start = block * 254;
+				int length = Math.min (254, program.length - start);
+				System.arraycopy (program, start, mData, s + 2, length);
+				if (block == blocks - 1) {
+					mData[s] = 0;
+					mData[s + 1] = (byte) (length + 1);
+				}
+				else {
+					int[] next = allocate ();
+					mData[s] = (byte) next[0];
+					mData[s + 1] = (byte) next[1];
+					current = next;
+				}
+			}
+			int entry = freeEntry ();
+			mData[entry + 2] = (byte) TYPE_PRG;
+			mData[entry + 3] = (byte) first[0];
+			mData[entry + 4] = (byte) first[1];
+			writeName (entry + 5, (String) names.elementAt (i));
+			for (int j = 21; j < 30; ++j) mData[entry + j] = 0;
+			mData[entry + 30] = (byte) blocks;
+			mData[entry + 31] = (byte) (blocks >> 8);
+		}
+	}
+
+	/**
+	*	Returns the contents of a file, or null if the disk has no file of that name.
+	*/
+	public byte[] getFile (String name)
+	{
+		int entry = findEntry (name);
+		if (entry < 0) return null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		int track = mData[entry + 3] & 0xff;
+		int sector = mData[entry + 4] & 0xff;
+		while (track != 0) {
+			int s = offset (track, sector);
+			track = mData[s] & 0xff;
+			sector = mData[s + 1] & 0xff;
+			out.write (mData, s + 2, (track == 0) ? sector - 1 : 254);
+		}
+		return out.toByteArray ();
+	}
+
+	/**
+	*	Writes the image in one write.
+	*/
+	public void writeTo (OutputStream out) throws IOException
+	{
+		out.write (mData);
+	}
+}
@@ -2,6 +2,16 @@
 *	A evaluator for expressions.
 *	It first transforms the expression from infix to postfix form, then 
 *	use a stack to evaluate the expression. (Reverse polish calculator)
+*
+*	Next to each value the evaluator keeps how it moves when the code is relocated: not at all
+*	(ABSOLUTE), with the code (RELOC), as the low or high byte of such an address, or in a way
+*	that can not be patched (RELOC_COMPLEX). The difference of two addresses does not move, an
+*	address plus or minus a constant moves with the address. With the tags the evaluator keeps
+*	the address of the label each value is computed from, so the linker can tell the label from
+*	the constant added to it.
+*
+*	Functions are evaluated like operators, see InfixToPostfix. An expression for the entries of
+*	a table is translated once with compile, and valueAt evaluates it for each index.
 *	@author David Schager
 */
 import java.util.Stack;
@@ -12,6 +22,17 @@ public class Evaluator implements SymbolConstant6502 {
 	private AbstractLexer mLexer = null;
 	private InfixToPostfix mInfixToPostfix = null;
 	private int mValReloc = ABSOLUTE;
+	private Stack mTags = new Stack ();
+	private Stack mTargets = new Stack ();
+	private int mRelocTarget = 0;
+	private int mRelocAddend = 0;
+	private String mExternal = null;
+	// expression of a table, and the index of the entry evaluated
+	private Vector mPostfix = null;
+	private int mPass = 1;
+	private int mIndex = 0;
+	/** Flag in tags of values that depend on an external symbol */
+	private static final int EXTERNAL = 0x10;
 	
 	/**
 	*	Constructor
@@ -38,13 +59,22 @@ public class Evaluator implements SymbolConstant6502 {
 	{
 		int binVal = binaryOp.getValue ();
 		int a = ((Integer) mStack.pop ()).intValue ();
+		int tagA = ((Integer) mTags.pop ()).intValue ();
+		int targetA = ((Integer) mTargets.pop ()).intValue ();
 		int b = 0;
+		int tagB = ABSOLUTE;
+		int targetB = 0;
 		
 		// don't pop two operands if unary operator
-		if (binVal != '\\' && binVal != '<' && binVal != '>' && binVal != '~')
+		if (binVal != '\\' && binVal != '<' && binVal != '>' && binVal != '~') {
 			b = ((Integer) mStack.pop ()).intValue ();
+			tagB = ((Integer) mTags.pop ()).intValue ();
+			targetB = ((Integer) mTargets.pop ()).intValue ();
+		}
 			
 		int result = 0;
+		int tag = (tagA == ABSOLUTE && tagB == ABSOLUTE) ? ABSOLUTE : RELOC_COMPLEX;
+		int target = 0;
 		switch (binaryOp.getValue ()) {
 			// +++++++ priority three, highest precedence. (unary operators) +++++++++++++
 			// unary minus (using backslash symbol to discern it from binary minus)
@@ -54,18 +84,14 @@ public class Evaluator implements SymbolConstant6502 {
 			// 16bit low byte operator
 			case '<': 
 				result = a & 0xFF;
-				if (mValReloc != ABSOLUTE) {
-					if (mValReloc == RELOC_HIBYTE) throw new ParserException ("Low byte of high byte is ambiguous", mLexer);
-					mValReloc = RELOC_LOBYTE;
-				}
+				tag = byteOf (tagA, RELOC_LOBYTE, a, targetA);
+				target = targetA;
 				break;
 			// 16bit high byte operator
 			case '>': 
 				result = (a >> 8) & 0xFF;
-				if (mValReloc != ABSOLUTE) {
-					if (mValReloc == RELOC_LOBYTE) throw new ParserException ("High byte of low byte is ambiguous", mLexer);
-					mValReloc = RELOC_HIBYTE;
-				}
+				tag = byteOf (tagA, RELOC_HIBYTE, a, targetA);
+				target = targetA;
 				break;
 			// unary bitwise not
 			case '~': 
@@ -104,10 +130,24 @@ public class Evaluator implements SymbolConstant6502 {
 			// binary plus
 			case '+': 
 				result = b + a; 
+				if (tagA == ABSOLUTE) {
+					tag = tagB;
+					target = targetB;
+				}
+				else if (tagB == ABSOLUTE) {
+					tag = tagA;
+					target = targetA;
+				}
 				break;
 			// binary minus
 			case '-': 
 				result = b - a; 
+				if (tagA == ABSOLUTE) {
+					tag = tagB;
+					target = targetB;
+				}
+				// distance between two addresses
+				else if (tagA == RELOC && tagB == RELOC) tag = ABSOLUTE;
 				break;
 			// bitwise or
 			case '|': 
@@ -117,8 +157,90 @@ public class Evaluator implements SymbolConstant6502 {
 			default:
 				throw new ParserException ("Evaluate.calculate: fatal, unexpected binaryOp", mLexer);
 		}
+		mTags.push (Integer.valueOf (tag));
+		mTargets.push (Integer.valueOf (target));
 		return new Integer (result);
 	}
+
+	/**
+	*	Calls a function with the arguments on the stack.
+	*	@param function Symbol of type FUNCTION
+	*	@return Integer object containing the result.
+	*/
+	private Integer function (Symbol function) throws ParserException
+	{
+		int count = function.getValue () & 0xFF;
+		int[] args = new int [count];
+		int[] tags = new int [count];
+		int[] targets = new int [count];
+		int tag = ABSOLUTE;
+		int target = 0;
+		for (int i = count - 1; i >= 0; --i) {
+			args[i] = ((Integer) mStack.pop ()).intValue ();
+			tags[i] = ((Integer) mTags.pop ()).intValue ();
+			targets[i] = ((Integer) mTargets.pop ()).intValue ();
+			if (tags[i] != ABSOLUTE) tag = RELOC_COMPLEX;
+		}
+		int result = args[0];
+		switch (function.getValue () >> 8) {
+			case InfixToPostfix.FUNCTION_LO:
+				result = args[0] & 0xFF;
+				tag = byteOf (tags[0], RELOC_LOBYTE, args[0], targets[0]);
+				target = targets[0];
+				break;
+			case InfixToPostfix.FUNCTION_HI:
+				result = (args[0] >> 8) & 0xFF;
+				tag = byteOf (tags[0], RELOC_HIBYTE, args[0], targets[0]);
+				target = targets[0];
+				break;
+			case InfixToPostfix.FUNCTION_MIN:
+				for (int i = 1; i < count; ++i) result = Math.min (result, args[i]);
+				break;
+			case InfixToPostfix.FUNCTION_MAX:
+				for (int i = 1; i < count; ++i) result = Math.max (result, args[i]);
+				break;
+			case InfixToPostfix.FUNCTION_CLAMP:
+				if (args[1] > args[2]) throw new ParserException ("Clamp range is empty", mLexer);
+				result = Math.min (Math.max (args[0], args[1]), args[2]);
+				break;
+			case InfixToPostfix.FUNCTION_SIN:
+			case InfixToPostfix.FUNCTION_COS:
+				// the angle in steps of a period, 256 by default, and the result scaled to the amplitude
+				int amplitude = (count > 1) ? args[1] : 127;
+				int period = (count > 2) ? args[2] : 256;
+				if (period <= 0) throw new ParserException ("Period of " + function.getName () + " must be positive", mLexer);
+				double angle = 2 * Math.PI * args[0] / period;
+				double value = ((function.getValue () >> 8) == InfixToPostfix.FUNCTION_SIN) ? Math.sin (angle) : Math.cos (angle);
+				result = (int) Math.round (amplitude * value);
+				break;
+			default:
+				throw new ParserException ("Evaluate.function: fatal, unexpected function", mLexer);
+		}
+		mTags.push (Integer.valueOf (tag));
+		mTargets.push (Integer.valueOf (target));
+		return Integer.valueOf (result);
+	}
+
+	/**
+	*	Returns the tag of the low or high byte of a value.
+	*	@param tag tag of value
+	*	@param type RELOC_LOBYTE or RELOC_HIBYTE
+	*	@param a value
+	*	@param target address of the label the value is computed from
+	*/
+	private int byteOf (int tag, int type, int a, int target) throws ParserException
+	{
+		int kind = tag & ~EXTERNAL;
+		if (kind == ABSOLUTE || kind == type || kind == RELOC_COMPLEX) return tag;
+		if (kind == RELOC) {
+			// the linker needs the whole address, a carry from the low byte changes the high byte
+			mRelocTarget = target;
+			mRelocAddend = a - target;
+			return type | (tag & EXTERNAL);
+		}
+		if (type == RELOC_LOBYTE) throw new ParserException ("Low byte of high byte is ambiguous", mLexer);
+		throw new ParserException ("High byte of low byte is ambiguous", mLexer);
+	}
 	
 	/**
 	*	Evaluates an expression.
@@ -127,9 +249,44 @@ public class Evaluator implements SymbolConstant6502 {
 	*/
 	public Symbol evaluate (int pass, int ip, int exprEndTerminalType) throws ParserException, LexerException
 	{
-		mStack.clear ();
 		Vector postfix = mInfixToPostfix.xform (pass, ip, exprEndTerminalType);
-		mValReloc = mInfixToPostfix.isRelocatable ();
+		return new Symbol ("", CONSTANT, run (pass, postfix));
+	}
+
+	/**
+	*	Translates an expression with the index variable of a table, to evaluate it with valueAt.
+	*	@param index name of the index variable
+	*/
+	public void compile (int pass, int ip, int exprEndTerminalType, String index) throws ParserException, LexerException
+	{
+		mInfixToPostfix.setIndex (index);
+		try {
+			mPostfix = new Vector (mInfixToPostfix.xform (pass, ip, exprEndTerminalType));
+		}
+		finally {
+			mInfixToPostfix.setIndex (null);
+		}
+		mPass = pass;
+	}
+
+	/**
+	*	Evaluates the expression given to compile for an index.
+	*/
+	public int valueAt (int index) throws ParserException, LexerException
+	{
+		mIndex = index;
+		return run (mPass, mPostfix);
+	}
+
+	/**
+	*	Evaluates a postfix expression, and sets the relocatable state from it.
+	*/
+	private int run (int pass, Vector postfix) throws ParserException, LexerException
+	{
+		mStack.clear ();
+		mTags.clear ();
+		mTargets.clear ();
+		mExternal = null;
 		int len = postfix.size ();
 
 		int i = 0;
@@ -140,10 +297,33 @@ public class Evaluator implements SymbolConstant6502 {
 			Symbol m = (Symbol) postfix.elementAt (i++);
 			if (m.getType () == CONSTANT) {
 				mStack.push (new Integer (m.getValue ()));
+				mTags.push (Integer.valueOf (ABSOLUTE));
+				mTargets.push (Integer.valueOf (0));
+			}
+			else if (m.getType () == LABEL) {
+				mStack.push (Integer.valueOf (m.getValue ()));
+				mTags.push (Integer.valueOf (RELOC));
+				mTargets.push (Integer.valueOf (m.getValue ()));
+			}
+			else if (m.getType () == IDENTIFIER) {
+				// external symbol, only one can be patched in by the linker
+				boolean other = mExternal != null && !mExternal.equals (m.getName ());
+				mExternal = m.getName ();
+				mStack.push (Integer.valueOf (m.getValue ()));
+				mTags.push (Integer.valueOf (other ? RELOC_COMPLEX : RELOC | EXTERNAL));
+				mTargets.push (Integer.valueOf (0));
+			}
+			else if (m.getType () == INDEX) {
+				mStack.push (Integer.valueOf (mIndex));
+				mTags.push (Integer.valueOf (ABSOLUTE));
+				mTargets.push (Integer.valueOf (0));
 			}
 			else if (m.getType () == OPERATOR) {
 				mStack.push (calculate (pass, m));
 			}
+			else if (m.getType () == FUNCTION) {
+				mStack.push (function (m));
+			}
 		}
 		
 		// Stack should now have exactly one element.
@@ -157,9 +337,14 @@ public class Evaluator implements SymbolConstant6502 {
 		
 		// The final top of stack is the result.
 		int result = ((Integer) mStack.pop ()).intValue ();
+		mValReloc = ((Integer) mTags.pop ()).intValue () & ~EXTERNAL;
+		int target = ((Integer) mTargets.pop ()).intValue ();
+		if (mValReloc == RELOC) {
+			mRelocTarget = target;
+			mRelocAddend = result - target;
+		}
 
-		// Return result
-		return new Symbol ("", CONSTANT, result);
+		return result;
 	}
 	
 	/**
@@ -168,9 +353,44 @@ public class Evaluator implements SymbolConstant6502 {
 	*		1 == 16bit relocatable
 	*		2 == 8bit relocatable low byte
 	*		3 == 8bit relocatable high byte
+	*		4 == relocatable, but not by a linker
 	*/
 	public int isRelocatable ()
 	{
 		return mValReloc;
 	}
+
+	/**
+	*	Returns the address of the label a relocatable result is computed from, the result is the
+	*	address, low byte or high byte of target + addend.
+	*/
+	public int getRelocationTarget ()
+	{
+		return mRelocTarget;
+	}
+
+	/**
+	*	Returns the constant added to the relocation target.
+	*/
+	public int getRelocationAddend ()
+	{
+		return mRelocAddend;
+	}
+
+	/**
+	*	Returns the name of the external symbol in the expression, or null if none.
+	*/
+	public String getExternal ()
+	{
+		return mExternal;
+	}
+
+	/**
+	*	Makes undefined identifiers in pass 2 references to external symbols.
+	*	@see InfixToPostfix.setExternals
+	*/
+	public void setExternals (boolean externals)
+	{
+		mInfixToPostfix.setExternals (externals);
+	}
 }
@@ -0,0 +1,199 @@
+import java.util.Stack;
+import jdk.jfr.*;
+
+/**
+*	Emits JDK Flight Recorder events for an assembly, so a slow assembly can be diagnosed from a
+*	recording without adding logging. The events are in category jasm6502:
+*	- jasm6502.Assembly, one per assembly job, with source, output, mode, errors and image size
+*	- jasm6502.Pass, one per pass
+*	- jasm6502.Include, one per included file and pass, with path, bytes and tokens lexed
+*	- jasm6502.Diagnostic, one per error or warning printed
+*
+*	Assembler6502 only creates a recorder when a recording is running, see isRecording, so an
+*	assembly without a recording loads jdk.jfr.FlightRecorder to ask, and none of the event
+*	classes.
+*
+*	@author David Schager
+*/
+public class FlightRecorder6502 {
+	private AssemblyEvent mJob = null;
+	private PassEvent mPass = null;
+	private Stack mIncludes = new Stack ();
+
+	@Name ("jasm6502.Assembly")
+	@Label ("Assembly")
+	@Category ("jasm6502")
+	@Description ("Assembly of a source file, both passes and output")
+	@StackTrace (false)
+	static class AssemblyEvent extends Event {
+		@Label ("Source")
+		String source;
+		@Label ("Output")
+		String output;
+		@Label ("Mode")
+		int mode;
+		@Label ("Errors")
+		int errors;
+		@Label ("Image Size")
+		@DataAmount
+		int imageBytes;
+	}
+
+	@Name ("jasm6502.Pass")
+	@Label ("Pass")
+	@Category ("jasm6502")
+	@Description ("One pass of the assembler over the source")
+	@StackTrace (false)
+	static class PassEvent extends Event {
+		@Label ("Pass")
+		int pass;
+		@Label ("Source")
+		String source;
+	}
+
+	@Name ("jasm6502.Include")
+	@Label ("Include")
+	@Category ("jasm6502")
+	@Description ("Processing of an included file in one pass, until its end of file")
+	@StackTrace (false)
+	static class IncludeEvent extends Event {
+		@Label ("Path")
+		String path;
+		@Label ("Pass")
+		int pass;
+		@Label ("Size")
+		@DataAmount
+		long bytes;
+		@Label ("Tokens")
+		int tokens;
+	}
+
+	@Name ("jasm6502.Diagnostic")
+	@Label ("Diagnostic")
+	@Category ("jasm6502")
+	@Description ("Error or warning printed by the assembler")
+	@StackTrace (false)
+	static class DiagnosticEvent extends Event {
+		@Label ("Severity")
+		String severity;
+		@Label ("Message")
+		String message;
+		@Label ("File")
+		String file;
+		@Label ("Line")
+		int line;
+	}
+
+	/**
+	*	Returns true if the flight recorder of the java runtime is recording, or has been started
+	*	by -XX:StartFlightRecording or jcmd. The flight recorder is looked up by reflection, so that
+	*	only its class is loaded, and this returns false on a runtime without it.
+	*/
+	public static boolean isRecording ()
+	{
+		try {
+			Class recorder = Class.forName ("jdk.jfr.FlightRecorder");
+			return ((Boolean) recorder.getMethod ("isInitialized").invoke (null)).booleanValue ();
+		}
+		catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	*	Begins the event of an assembly job.
+	*	@param source file name of main source
+	*	@param output file name of output, or null if not written
+	*	@param mode output mode, one of the MODE constants
+	*/
+	public void beginJob (String source, String output, int mode)
+	{
+		mJob = new AssemblyEvent ();
+		mJob.source = source;
+		mJob.output = output;
+		mJob.mode = mode;
+		mJob.begin ();
+	}
+
+	/**
+	*	Ends and commits the event of an assembly job, and any pass or include still open.
+	*	@param errors error code of the assembly, 0 if no errors
+	*	@param imageBytes length of the assembled image
+	*/
+	public void endJob (int errors, int imageBytes)
+	{
+		while (!mIncludes.empty ()) endInclude (0);
+		endPass ();
+		if (mJob == null) return;
+		mJob.errors = errors;
+		mJob.imageBytes = imageBytes;
+		mJob.commit ();
+		mJob = null;
+	}
+
+	/**
+	*	Begins the event of a pass.
+	*/
+	public void beginPass (int pass)
+	{
+		mPass = new PassEvent ();
+		mPass.pass = pass;
+		if (mJob != null) mPass.source = mJob.source;
+		mPass.begin ();
+	}
+
+	/**
+	*	Ends and commits the event of the current pass.
+	*/
+	public void endPass ()
+	{
+		if (mPass == null) return;
+		mPass.commit ();
+		mPass = null;
+	}
+
+	/**
+	*	Begins the event of an included file. Includes nest, each begin is ended by endInclude.
+	*	@param path file name of included file
+	*	@param bytes size of file
+	*/
+	public void beginInclude (String path, long bytes)
+	{
+		IncludeEvent include = new IncludeEvent ();
+		include.path = path;
+		include.bytes = bytes;
+		if (mPass != null) include.pass = mPass.pass;
+		include.begin ();
+		mIncludes.push (include);
+	}
+
+	/**
+	*	Ends and commits the event of the innermost included file.
+	*	@param tokens number of tokens lexed from the file
+	*/
+	public void endInclude (int tokens)
+	{
+		if (mIncludes.empty ()) return;
+		IncludeEvent include = (IncludeEvent) mIncludes.pop ();
+		include.tokens = tokens;
+		include.commit ();
+	}
+
+	/**
+	*	Commits a diagnostic event.
+	*	@param severity "error" or "warning"
+	*	@param message message as printed
+	*	@param file file name of the source being assembled
+	*	@param line line number of the statement
+	*/
+	public void diagnostic (String severity, String message, String file, int line)
+	{
+		DiagnosticEvent event = new DiagnosticEvent ();
+		if (!event.isEnabled ()) return;
+		event.severity = severity;
+		event.message = message;
+		event.file = file;
+		event.line = line;
+		event.commit ();
+	}
+}
@@ -0,0 +1,159 @@
+import java.io.*;
+import java.util.Vector;
+
+/**
+*	Writes a memory image as Intel HEX or Motorola S-records, the text formats EPROM programmers
+*	and flash tools read. Each record holds the address of its bytes, so the holes between origins
+*	are left out instead of padded, and the programmer leaves those bytes as they are.
+*
+*	Records are written one after the other while the blocks of the image are walked. The hex
+*	digits and the checksum of a record are made in one pass over its bytes, into a line buffer
+*	that is reused for every record, and lines end with CR LF.
+*
+*	Intel HEX records are ":llaaaatt" then the data and the checksum, the two's complement of the
+*	sum of the bytes. An image past $ffff gets extended linear address records. S-records are
+*	"Stll" then address, data and the one's complement of the sum, with an S0 header, an S5 record
+*	count and an S9 record with the start address. Images past $ffff use S2 and S8 records, with
+*	24 bit addresses.
+*
+*	@author David Schager
+*/
+public class HexExport6502 {
+	/** Number of data bytes in a record */
+	public static final int RECORD_LENGTH = 16;
+
+	private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+	private Image6502 mImage;
+	// record being written
+	private byte[] mLine = new byte [2 * (RECORD_LENGTH + 8) + 4];
+	private int mLength;
+	private int mSum;
+
+	/**
+	*	Constructor
+	*	@param image memory image to write
+	*/
+	public HexExport6502 (Image6502 image)
+	{
+		mImage = image;
+	}
+
+	/**
+	*	Starts a record with its prefix.
+	*/
+	private void begin (String prefix)
+	{
+		mLength = 0;
+		mSum = 0;
+		for (int i = 0; i < prefix.length (); ++i) mLine[mLength++] = (byte) prefix.charAt (i);
+	}
+
+	/**
+	*	Adds a byte to the record, as two hex digits, and to the checksum.
+	*/
+	private void add (int b)
+	{
+		b &= 0xFF;
+		mLine[mLength++] = HEX[b >> 4];
+		mLine[mLength++] = HEX[b & 0xF];
+		mSum += b;
+	}
+
+	/**
+	*	Ends a record with its checksum, and writes it.
+	*/
+	private void end (int checksum, OutputStream out) throws IOException
+	{
+		add (checksum);
+		mLine[mLength++] = '\r';
+		mLine[mLength++] = '\n';
+		out.write (mLine, 0, mLength);
+	}
+
+	/**
+	*	Writes an Intel HEX record.
+	*/
+	private void writeIntelRecord (int type, int address, int offset, int length, OutputStream out) throws IOException
+	{
+		begin (":");
+		add (length);
+		add (address >> 8);
+		add (address);
+		add (type);
+		for (int i = 0; i < length; ++i) add (mImage.byteAt (offset + i));
+		end (-mSum, out);
+	}
+
+	/**
+	*	Writes the image as Intel HEX, data records without the holes and an end of file record.
+	*/
+	public void writeIntelHex (OutputStream out) throws IOException
+	{
+		Vector blocks = mImage.getBlocks (1);
+		int upper = 0;
+		for (int i = 0; i < blocks.size (); ++i) {
+			int[] block = (int[]) blocks.elementAt (i);
+			for (int address = block[0]; address < block[0] + block[1]; ) {
+				// a record does not cross a 64K boundary
+				int length = Math.min (RECORD_LENGTH, Math.min (block[0] + block[1], (address | 0xFFFF) + 1) - address);
+				if ((address >> 16) != upper) {
+					upper = address >> 16;
+					begin (":");
+					add (2);
+					add (0);
+					add (0);
+					add (4);
+					add (upper >> 8);
+					add (upper);
+					end (-mSum, out);
+				}
+				writeIntelRecord (0, address & 0xFFFF, address, length, out);
+				address += length;
+			}
+		}
+		writeIntelRecord (1, 0, 0, 0, out);
+	}
+
+	/**
+	*	Writes an S-record.
+	*	@param type record type, 0 to 9
+	*	@param address address of the data, or the count or start address
+	*	@param addressBytes 2 or 3
+	*/
+	private void writeSRecord (int type, int address, int addressBytes, byte[] data, int offset, int length,
+		OutputStream out) throws IOException
+	{
+		begin ("S" + type);
+		add (addressBytes + length + 1);
+		for (int i = addressBytes - 1; i >= 0; --i) add (address >> (8 * i));
+		for (int i = 0; i < length; ++i) add ((data == null) ? mImage.byteAt (offset + i) : data[offset + i]);
+		end (~mSum, out);
+	}
+
+	/**
+	*	Writes the image as Motorola S-records, data records without the holes between a header
+	*	and a record count, and the start address of the image as entry point.
+	*	@param header text of the S0 header record, like the name of the program
+	*/
+	public void writeSRecords (OutputStream out, String header) throws IOException
+	{
+		boolean wide = mImage.getEndAddress () > 0x10000;
+		int addressBytes = wide ? 3 : 2;
+		byte[] name = header.getBytes ("ISO-8859-1");
+		writeSRecord (0, 0, 2, name, 0, Math.min (name.length, RECORD_LENGTH), out);
+		Vector blocks = mImage.getBlocks (1);
+		int count = 0;
+		for (int i = 0; i < blocks.size (); ++i) {
+			int[] block = (int[]) blocks.elementAt (i);
+			for (int address = block[0]; address < block[0] + block[1]; address += RECORD_LENGTH) {
+				int length = Math.min (RECORD_LENGTH, block[0] + block[1] - address);
+				writeSRecord (wide ? 2 : 1, address, addressBytes, null, address, length, out);
+				++count;
+			}
+		}
+		// the count is left out when it does not fit
+		if (count <= 0xFFFF) writeSRecord (5, count, 2, null, 0, 0, out);
+		writeSRecord (wide ? 8 : 9, mImage.getStartAddress (), addressBytes, null, 0, 0, out);
+	}
+}
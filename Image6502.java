@@ -0,0 +1,218 @@
+import java.io.*;
+import java.util.Vector;
+
+/**
+*	The in-memory result of an assembly.
+*	Pass 2 of Assembler6502 writes all machine code and data bytes into the image, in the same
+*	order they end up in the output file. The image starts at the start address of the program,
+*	and is contiguous, since gaps between origins are padded with zeros.
+*
+*	The padded gaps are remembered as holes, so a sparse output can leave them out and write
+*	the blocks between them after a small load table instead, see writeSparseTo.
+*
+*	@author David Schager
+*/
+public class Image6502 {
+	private int mStartAddress;
+	private byte[] mData;
+	private int mLength = 0;
+	private Vector mHoles = new Vector ();
+
+	/** Holes shorter than this cost less to pad than a load table entry, and are kept in sparse output */
+	public static final int SPARSE_MIN_HOLE = 4;
+
+	/**
+	*	Constructor
+	*	@param startAddress The address where the first byte of the image is loaded
+	*/
+	public Image6502 (int startAddress)
+	{
+		mStartAddress = startAddress;
+		mData = new byte [0x1000];
+	}
+
+	/**
+	*	Appends a byte to the image
+	*	@param b byte to append, only the low 8 bits are used
+	*/
+	public void writeByte (int b)
+	{
+		if (mLength == mData.length) {
+			byte[] data = new byte [mData.length << 1];
+			System.arraycopy (mData, 0, data, 0, mLength);
+			mData = data;
+		}
+		mData[mLength++] = (byte) b;
+	}
+
+	/**
+	*	Pads the image with zeros, and remembers the padding as a hole.
+	*	@param length number of bytes to pad
+	*/
+	public void fillHole (int length)
+	{
+		if (length <= 0) return;
+		mHoles.addElement (new int[] {getEndAddress (), getEndAddress () + length});
+		for (int i = 0; i < length; ++i) writeByte (0);
+	}
+
+	/**
+	*	Appends bytes from another image.
+	*	@param image image to copy from
+	*	@param address address of first byte in the other image
+	*	@param length number of bytes to copy
+	*/
+	public void append (Image6502 image, int address, int length)
+	{
+		int offset = address - image.mStartAddress;
+		for (int i = 0; i < length; ++i) writeByte (image.mData[offset + i]);
+	}
+
+	/**
+	*	Appends bytes from an array.
+	*	@param bytes array to copy from
+	*	@param offset index of first byte to copy
+	*	@param length number of bytes to copy
+	*/
+	public void write (byte[] bytes, int offset, int length)
+	{
+		for (int i = 0; i < length; ++i) writeByte (bytes[offset + i]);
+	}
+
+	/**
+	*	Returns the number of padding bytes in holes.
+	*/
+	public int getHoleLength ()
+	{
+		int length = 0;
+		for (int i = 0; i < mHoles.size (); ++i) {
+			int[] hole = (int[]) mHoles.elementAt (i);
+			length += hole[1] - hole[0];
+		}
+		return length;
+	}
+
+	/**
+	*	Returns the blocks of the image between holes, as int[] {start address, length}.
+	*	@param minHole holes shorter than this are kept in the blocks
+	*/
+	public Vector getBlocks (int minHole)
+	{
+		Vector blocks = new Vector ();
+		int start = mStartAddress;
+		for (int i = 0; i < mHoles.size (); ++i) {
+			int[] hole = (int[]) mHoles.elementAt (i);
+			if (hole[1] - hole[0] < minHole) continue;
+			if (hole[0] > start) blocks.addElement (new int[] {start, hole[0] - start});
+			start = hole[1];
+		}
+		if (getEndAddress () > start) blocks.addElement (new int[] {start, getEndAddress () - start});
+		return blocks;
+	}
+
+	/**
+	*	Returns the number of bytes writeSparseTo writes.
+	*/
+	public int getSparseLength ()
+	{
+		Vector blocks = getBlocks (SPARSE_MIN_HOLE);
+		int length = 1 + 4 * blocks.size ();
+		for (int i = 0; i < blocks.size (); ++i) length += ((int[]) blocks.elementAt (i))[1];
+		return length;
+	}
+
+	/**
+	*	Writes the image without its holes. A load table comes first, with the number of blocks
+	*	in one byte, then the start address and length of each block in two little endian words.
+	*	The bytes of the blocks follow in the same order.
+	*/
+	public void writeSparseTo (OutputStream out) throws IOException
+	{
+		Vector blocks = getBlocks (SPARSE_MIN_HOLE);
+		if (blocks.size () > 255) throw new IOException ("Too many blocks for sparse output: " + blocks.size ());
+		out.write (blocks.size ());
+		for (int i = 0; i < blocks.size (); ++i) {
+			int[] block = (int[]) blocks.elementAt (i);
+			out.write (block[0] & 0xFF);
+			out.write ((block[0] >> 8) & 0xFF);
+			out.write (block[1] & 0xFF);
+			out.write ((block[1] >> 8) & 0xFF);
+		}
+		for (int i = 0; i < blocks.size (); ++i) {
+			int[] block = (int[]) blocks.elementAt (i);
+			out.write (mData, block[0] - mStartAddress, block[1]);
+		}
+	}
+
+	/**
+	*	Returns the address of the first byte in image
+	*/
+	public int getStartAddress ()
+	{
+		return mStartAddress;
+	}
+
+	/**
+	*	Returns the address following the last byte in image
+	*/
+	public int getEndAddress ()
+	{
+		return mStartAddress + mLength;
+	}
+
+	/**
+	*	Empties the image, so it can be written again from the start address.
+	*/
+	public void clear ()
+	{
+		mLength = 0;
+		mHoles.clear ();
+	}
+
+	/**
+	*	Returns the number of bytes in image
+	*/
+	public int getLength ()
+	{
+		return mLength;
+	}
+
+	/**
+	*	Returns the byte at a memory address, or -1 if the address is outside the image.
+	*	@param address 16 bit memory address
+	*/
+	public int byteAt (int address)
+	{
+		int offset = address - mStartAddress;
+		if (offset < 0 || offset >= mLength) return -1;
+		return mData[offset] & 0xFF;
+	}
+
+	/**
+	*	Copies the image into an array.
+	*	@param dest array to copy to
+	*	@param destOffset offset in array where the first byte of the image is copied to
+	*/
+	public void copyTo (byte[] dest, int destOffset)
+	{
+		System.arraycopy (mData, 0, dest, destOffset, mLength);
+	}
+
+	/**
+	*	Returns a copy of the bytes in image
+	*/
+	public byte[] toByteArray ()
+	{
+		byte[] bytes = new byte [mLength];
+		copyTo (bytes, 0);
+		return bytes;
+	}
+
+	/**
+	*	Writes the image to an output stream in one write.
+	*/
+	public void writeTo (OutputStream out) throws IOException
+	{
+		out.write (mData, 0, mLength);
+	}
+}
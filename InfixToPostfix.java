@@ -14,15 +14,37 @@ import java.util.Vector;
 *
 *	The method for translation is simply "Delay each operator until its right-hand operand
 *	has been translated. Pass each operand through without delay."
+*
+*	Operands are CONSTANT symbols, except addresses that move when the code is relocated, which
+*	are LABEL symbols, and references to external symbols, which are IDENTIFIER symbols with the
+*	name of the symbol and value 0. The evaluator uses them to find how to relocate the result.
+*
+*	A function call is put after its arguments as a FUNCTION symbol, with the function in bits
+*	8 and up of the value and the number of arguments in bits 0-7. The index variable of a
+*	table is an INDEX symbol, the evaluator gives it the index of the entry.
 *	
 *	@author David Schager
 */
 public class InfixToPostfix implements SymbolConstant6502 {
+	/** Names of the functions, a name is a function only where a left parenthesis follows */
+	public static final String[] FUNCTIONS = {"lo", "hi", "min", "max", "clamp", "sin", "cos"};
+	public static final int FUNCTION_LO = 0;
+	public static final int FUNCTION_HI = 1;
+	public static final int FUNCTION_MIN = 2;
+	public static final int FUNCTION_MAX = 3;
+	public static final int FUNCTION_CLAMP = 4;
+	public static final int FUNCTION_SIN = 5;
+	public static final int FUNCTION_COS = 6;
+	// least and most number of arguments of each function
+	private static final int[][] ARGUMENTS = {{1, 1}, {1, 1}, {2, 0xff}, {2, 0xff}, {3, 3}, {1, 3}, {1, 3}};
+
 	private AbstractLexer mLexer;
 	private Vector mPostfix = null;
 	private int mPass;
 	private int mIp;
 	private int mValReloc = ABSOLUTE;
+	private boolean mExternals = false;
+	private String mIndex = null;
 
 	/**
 	*	Constructor
@@ -74,8 +96,12 @@ public class InfixToPostfix implements SymbolConstant6502 {
 			if (lower == null) success = false;
 		}
 		if (success) {
-			if (lower.getType () == LABEL) mValReloc = RELOC;
-			mPostfix.addElement (new Symbol ("", CONSTANT, lower.getValue ()));
+			int type = CONSTANT;
+			if (lower.getType () == LABEL) {
+				mValReloc = RELOC;
+				type = LABEL;
+			}
+			mPostfix.addElement (new Symbol ("", type, lower.getValue ()));
 		}
 		
 		return success;
@@ -91,39 +117,26 @@ public class InfixToPostfix implements SymbolConstant6502 {
 		}
 		else if (expectTerminal (OPERATOR, '*')) {
 			// In this case, the operator * acts as current address operator.
-			mPostfix.addElement (new Symbol ("", CONSTANT, mIp));
+			mPostfix.addElement (new Symbol ("", LABEL, mIp));
 			mLexer.getNext ();
 			mValReloc = RELOC;
 		}
-		else if (expectTerminal (IDENTIFIER)) {
-			if (expectTerminal (IDENTIFIER, NULL)) {
-				if (mPass == 2) {
-					Symbol symbol = mLexer.getNext ();
-					if (!probeBelowLexLevels (symbol)) {
-						throw new ParserException ("Undefined identifier '" + symbol.getName () + "'", mLexer);
-					}
-				}
-				else if (mPass == 1) {
-				// We're in pass one, return a fake constant,
-				// it won't be written to disk..
-					mPostfix.addElement (new Symbol ("", CONSTANT, 0x1000));
-					// eat symbol
-					mLexer.getNext ();
-				}
-				else throw new ParserException ("Program logic error pass !={1,2}", mLexer);
+		else if (expectTerminal (IDENTIFIER) || expectTerminal (LABEL)) {
+			Symbol symbol = mLexer.getNext ();
+			int function = findFunction (symbol.getName ());
+			if (symbol.getName ().equals (mIndex)) {
+				// the index variable hides a symbol of the same name
+				mPostfix.addElement (new Symbol (mIndex, INDEX, 0));
 			}
-			else mPostfix.addElement (new Symbol ("", CONSTANT, mLexer.getNext ().getValue ()));
-		}
-		else if (expectTerminal (LABEL)) {
-			mValReloc = RELOC;
-			if (expectTerminal (LABEL, NULL)) {
+			else if (function >= 0 && expectTerminal (LEFTPAREN)) function (function);
+			else if (symbol.getType () == IDENTIFIER) identifier (symbol);
+			else {
+				mValReloc = RELOC;
 				// We're in pass one, return a fake constant,
 				// it won't be written to disk..
-				mPostfix.addElement (new Symbol ("", CONSTANT, 0x1000));
-				// eat symbol
-				mLexer.getNext ();
+				if (symbol.getValue () == NULL) mPostfix.addElement (new Symbol ("", LABEL, 0x1000));
+				else mPostfix.addElement (new Symbol ("", LABEL, symbol.getValue ()));
 			}
-			else mPostfix.addElement (new Symbol ("", CONSTANT, mLexer.getNext ().getValue ()));
 		}
 		else if (expectTerminal (LEFTPAREN)) {
 			// eat parentheses
@@ -137,6 +150,64 @@ public class InfixToPostfix implements SymbolConstant6502 {
 		else throw new ParserException ("Expected Expression", mLexer);
 	}
 	
+	/**
+	*	Inserts the value of an identifier in the postfix vector.
+	*/
+	private void identifier (Symbol symbol) throws ParserException, LexerException
+	{
+		if (symbol.getValue () != NULL) mPostfix.addElement (new Symbol ("", CONSTANT, symbol.getValue ()));
+		else if (mPass == 2) {
+			if (!probeBelowLexLevels (symbol)) {
+				if (!mExternals)
+					throw new ParserException ("Undefined identifier '" + symbol.getName () + "'", mLexer);
+				// defined in another module, resolved by the linker
+				mPostfix.addElement (new Symbol (symbol.getName (), IDENTIFIER, 0));
+			}
+		}
+		else if (mPass == 1) {
+			// We're in pass one, return a fake constant,
+			// it won't be written to disk..
+			mPostfix.addElement (new Symbol ("", CONSTANT, 0x1000));
+		}
+		else throw new ParserException ("Program logic error pass !={1,2}", mLexer);
+	}
+
+	/**
+	*	Returns the number of a function, or -1 if the name is not a function.
+	*/
+	private static int findFunction (String name)
+	{
+		for (int i = 0; i < FUNCTIONS.length; ++i) {
+			if (FUNCTIONS[i].equals (name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	*	Transforms the arguments of a function call in parentheses, separated by commas, and puts
+	*	the function after them.
+	*/
+	private void function (int function) throws ParserException, LexerException
+	{
+		// eat parentheses
+		mLexer.getNext ();
+		int count = 0;
+		while (true) {
+			expression ();
+			++count;
+			if (!expectTerminal (DELIMITER)) break;
+			// eat comma
+			mLexer.getNext ();
+		}
+		if (!expectTerminal (RIGHTPAREN)) 
+			throw new ParserException ("Expected Right parentheses", mLexer);
+		// eat parentheses
+		mLexer.getNext ();
+		if (count < ARGUMENTS[function][0] || count > ARGUMENTS[function][1])
+			throw new ParserException ("Wrong number of arguments to " + FUNCTIONS[function], mLexer);
+		mPostfix.addElement (new Symbol (FUNCTIONS[function], FUNCTION, (function << 8) | count));
+	}
+
 	/**
 	*	Look for unary operators.
 	*	Theese have highest precedence.
@@ -214,6 +285,23 @@ public class InfixToPostfix implements SymbolConstant6502 {
 		return mPostfix;
 	}
 	
+	/**
+	*	Makes identifiers that are undefined in pass 2 references to external symbols, instead of
+	*	errors, for object modules.
+	*/
+	public void setExternals (boolean externals)
+	{
+		mExternals = externals;
+	}
+
+	/**
+	*	Sets the name of the index variable of a table, or null for none.
+	*/
+	public void setIndex (String name)
+	{
+		mIndex = name;
+	}
+
 	/**
 	*	Returns relocatable status.
 	*	If a label is present inside the expression, the expression should be relocatable.
@@ -31,6 +31,9 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 	private SymbolTable mSymbolTable = null;
 	private boolean mCaseInsensitive = true;
 	private int mRembLine = 1;
+	private int mRembCol = 1;
+	private Stats6502 mStats = null;
+	private int mTokens = 0;
 	
 	private RandomAccessFile mFile = null;
 
@@ -65,18 +68,20 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 		int c = 0;
 		try {
 			c = mFile.read ();
+			if (mStats != null) mStats.addBytesRead (1);
 			// try handle non-unix linefeeds..
 			if (c == 0x0d) {
 				// mac or windows linefeed, check next char and see (dont selfrecurse, will cause endless loop)
 				long fp = mFile.getFilePointer ();
 				int d = mFile.read ();
+				if (mStats != null) mStats.addBytesRead (1);
 				if (d == 0x0a) {
 					// windows linebreak
 					c = d;
 				}
 				else {
 					// mac linebreak, putback character, and transform \r into \n
-					mFile.seek (fp);
+					seek (fp);
 					c = 0x0a;
 				}
 			}
@@ -109,6 +114,15 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 		return (char) c;
 	}
 	
+	/**
+	*	Moves the filepointer, counting the seek in statistics.
+	*/
+	private void seek (long fp) throws IOException
+	{
+		if (mStats != null) mStats.addSeek ();
+		mFile.seek (fp);
+	}
+	
 	/**
 	*	Retracts the filepointer one step backwards, and sets EOF to zero if it were signalled.
 	*	Note, it is only supported to call putBack ONCE.
@@ -117,7 +131,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 	{
 		try {
 			long fp = mFile.getFilePointer ();
-			mFile.seek (fp - 1);
+			seek (fp - 1);
 		}
 		catch (IOException e) {
 			errorExit ("Lexer: " + e);
@@ -474,6 +488,11 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 	{
 		//storePutbackPos ();
 		if (mFile == null) errorExit ("Lexer: trying to call getNext with null mFile");
+		// radix is only changed while lexing the constant after $ or %, don't count it twice
+		if (mRadix == 10) {
+			++mTokens;
+			if (mStats != null) mStats.addToken ();
+		}
 		if (linefeedFollows ()) {
 			setLinefeed (false);
 			return new Symbol ("", LINEFEED, NULL);
@@ -568,6 +587,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 	public Symbol peekNext () throws LexerException
 	{
 		if (mFile == null) errorExit ("Lexer: trying to call peekNext with null mFile");
+		if (mStats != null) mStats.addPeek ();
 		// save all dynamic member vars (except Symbol tables)
 		String tempBuffer = mBuffer;
 		boolean tempEOF = mEOF;
@@ -585,7 +605,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 		try {
 			fp = mFile.getFilePointer ();
 			peekSymbol = getNext ();
-			mFile.seek (fp);
+			seek (fp);
 					
 			// restore member vars
 			mLinefeed = tempLinefeed;
@@ -646,7 +666,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 		mEOF = false;
 		mSymbol = null;
 		try {
-			mFile.seek (0);
+			seek (0);
 		}
 		catch (IOException e) {
 			errorExit ("Lexer reset " + e);
@@ -675,7 +695,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 			mEOF = false;
 			// save current filepointer and then reset to beginning of file
 			fp = mFile.getFilePointer ();
-			mFile.seek (0);
+			seek (0);
 			// find line
 			char c;
 			while (!eof () && line != lineNum) {
@@ -691,7 +711,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 				while (!eof () && '\n' != (c = getChar ())) str += c;
 			}
 			// restore filepointer again
-			mFile.seek (fp);
+			seek (fp);
 		}
 		catch (IOException e) {
 			errorExit ("Lexer: " + e);
@@ -760,6 +780,7 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 	public void rememberLineNum ()
 	{
 		mRembLine = mLine;
+		mRembCol = mCol;
 	}
 	
 	/**
@@ -770,6 +791,30 @@ public class Lexer6502 implements SymbolConstant6502, AbstractLexer {
 		return mRembLine;
 	}
 	
+	/**
+	*	Returns the column number at the last mark
+	*/
+	public int getRememberColNum ()
+	{
+		return mRembCol;
+	}
+	
+	/**
+	*	Returns number of tokens lexed, including peeked tokens
+	*/
+	public int getTokenCount ()
+	{
+		return mTokens;
+	}
+	
+	/**
+	*	Sets the statistics to count tokens, peeks, seeks and bytes read in, or null to not count.
+	*/
+	public void setStats (Stats6502 stats)
+	{
+		mStats = stats;
+	}
+	
 	/**
 	*	Returns the symbol table with identifiers
 	*/
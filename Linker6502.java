@@ -0,0 +1,501 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+*	Links object modules written by Assembler6502 in object mode into one program.
+*	The modules are placed one after the other from a base address, each at a multiple of its
+*	alignment. The exports of all modules make one symbol table, then each module is relocated
+*	to its address, and its references to other modules are patched with the addresses of the
+*	symbols. A module is not assembled again to be linked, so changing one module only needs
+*	that module assembled, and a relink of the object files.
+*
+*	Collecting the exports and patching the modules work on one module at a time, and run in
+*	parallel on a pool of threads. Each module is patched in a copy of its own code, and the
+*	symbol table is only read while patching, so the threads share nothing they write. Errors
+*	are reported in the order of the modules, whatever order the threads finish in.
+*
+*	With stripping on, .procs that nothing refers to are left out. The code outside procs is
+*	always kept, as are the first byte of the first module, where the program starts, and the
+*	symbols given as roots. A proc is kept when kept code refers to a label in it, by a
+*	relocation or a reference to another module, or branches into or across it, and when kept
+*	code before it in the module falls through into it, not ending in rts, rti or jmp. The code
+*	after a stripped proc moves down, and addresses of it are relocated the distance it moves.
+*	Modules with an alignment are not stripped, the code would lose its alignment.
+*
+*	@author David Schager
+*/
+public class Linker6502 implements SymbolConstant6502 {
+	private Vector mObjects = new Vector ();
+	private int mBase = 0x1000;
+	private int mThreads = Runtime.getRuntime ().availableProcessors ();
+	private int[] mAddresses = new int [0];
+	private HashMap mSymbols = new HashMap ();
+	private Image6502 mImage = null;
+	private int mRelocations = 0;
+	private boolean mStrip = false;
+	private Vector mRoots = new Vector ();
+	// stripped procs of each module, as int[] {start, end} in the order of the code
+	private Vector[] mRemoved = new Vector [0];
+	// stripped procs, as Object[] {proc name, module name, Integer bytes}
+	private Vector mStripped = new Vector ();
+
+	/**
+	*	Adds a module to link, after the modules added before it.
+	*/
+	public void addObject (ObjectFile6502 object)
+	{
+		mObjects.addElement (object);
+	}
+
+	/**
+	*	Returns the modules to link.
+	*/
+	public Vector getObjects ()
+	{
+		return mObjects;
+	}
+
+	/**
+	*	Sets the address the first module is placed at.
+	*/
+	public void setBase (int base)
+	{
+		mBase = base;
+	}
+
+	/**
+	*	Sets the number of threads that collect exports and patch modules, 1 links in the calling thread.
+	*/
+	public void setThreads (int threads)
+	{
+		mThreads = Math.max (1, threads);
+	}
+
+	/**
+	*	Turns on stripping of procs that nothing refers to.
+	*/
+	public void setStrip (boolean strip)
+	{
+		mStrip = strip;
+	}
+
+	/**
+	*	Adds a symbol to keep when stripping, with the procs it refers to.
+	*/
+	public void addRoot (String name)
+	{
+		mRoots.addElement (name);
+	}
+
+	/**
+	*	Links the modules.
+	*	@return Vector of error messages, empty if the modules linked
+	*/
+	public Vector link ()
+	{
+		Vector errors = new Vector ();
+		mImage = null;
+		mSymbols = new HashMap ();
+		mRelocations = 0;
+		mStripped = new Vector ();
+		mRemoved = new Vector [mObjects.size ()];
+		for (int i = 0; i < mRemoved.length; ++i) mRemoved[i] = new Vector ();
+		if (mStrip) strip (errors);
+		if (errors.size () != 0) return errors;
+		place (errors);
+		if (errors.size () != 0) return errors;
+
+		// exports of each module at its linked address, as HashMap
+		Object[] exports = runAll (new Task () {
+			public Object run (int module)
+			{
+				return collectExports (module);
+			}
+		});
+		for (int i = 0; i < exports.length; ++i) {
+			ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (i);
+			for (Iterator it = ((HashMap) exports[i]).entrySet ().iterator (); it.hasNext (); ) {
+				Map.Entry entry = (Map.Entry) it.next ();
+				Object[] defined = (Object[]) mSymbols.get (entry.getKey ());
+				if (defined != null) {
+					errors.addElement ("Symbol " + entry.getKey () + " is exported by both " +
+						((ObjectFile6502) defined[1]).getName () + " and " + object.getName ());
+				}
+				else mSymbols.put (entry.getKey (), new Object[] {entry.getValue (), object});
+			}
+		}
+		if (errors.size () != 0) return errors;
+
+		// patched code of each module, or a Vector of errors
+		Object[] patched = runAll (new Task () {
+			public Object run (int module)
+			{
+				return patch (module);
+			}
+		});
+		for (int i = 0; i < patched.length; ++i) {
+			if (patched[i] instanceof Vector) errors.addAll ((Vector) patched[i]);
+		}
+		if (errors.size () != 0) return errors;
+
+		mImage = new Image6502 (mBase);
+		for (int i = 0; i < patched.length; ++i) {
+			byte[] code = (byte[]) patched[i];
+			// padding for alignment
+			mImage.fillHole (mAddresses[i] - mImage.getEndAddress ());
+			mImage.write (code, 0, code.length);
+			mRelocations += ((ObjectFile6502) mObjects.elementAt (i)).getRelocations ().size () +
+				((ObjectFile6502) mObjects.elementAt (i)).getUnresolved ().size ();
+		}
+		return errors;
+	}
+
+	/**
+	*	Gives each module its address, after the module before it and aligned.
+	*/
+	private void place (Vector errors)
+	{
+		mAddresses = new int [mObjects.size ()];
+		int address = mBase;
+		for (int i = 0; i < mObjects.size (); ++i) {
+			ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (i);
+			int alignment = object.getAlignment ();
+			address = ((address + alignment - 1) / alignment) * alignment;
+			mAddresses[i] = address;
+			address += compact (i, object.getCode ().length);
+		}
+		if (address > 0x10000) {
+			errors.addElement ("The linked program ends at $" + Integer.toHexString (address) + ", above $ffff");
+		}
+	}
+
+	/**
+	*	Returns the exports of a module at their linked addresses, names mapped to Integer.
+	*/
+	private HashMap collectExports (int module)
+	{
+		ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (module);
+		HashMap exports = new HashMap ();
+		for (Iterator it = object.getExports ().entrySet ().iterator (); it.hasNext (); ) {
+			Map.Entry entry = (Map.Entry) it.next ();
+			int offset = ((Integer) entry.getValue ()).intValue () - object.getBase ();
+			// symbols of stripped procs are gone, kept code does not refer to them
+			if (isRemoved (module, offset)) continue;
+			exports.put (entry.getKey (), Integer.valueOf (mAddresses[module] + compact (module, offset)));
+		}
+		return exports;
+	}
+
+	/**
+	*	Relocates a copy of the code of a module to its address, and patches in the symbols of
+	*	other modules.
+	*	@return the patched code, or a Vector of errors
+	*/
+	private Object patch (int module)
+	{
+		ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (module);
+		byte[] code = compactCode (module);
+		int base = object.getBase ();
+		Vector relocs = object.getRelocations ();
+		for (int i = 0; i < relocs.size (); ++i) {
+			Relocation6502 reloc = (Relocation6502) relocs.elementAt (i);
+			if (isRemoved (module, reloc.getOffset ())) continue;
+			// the relocated bytes and the target may both have moved down by stripped procs
+			int target = reloc.getTarget () - base;
+			reloc.apply (code, moved (module, reloc.getOffset ()),
+				mAddresses[module] + compact (module, target) - reloc.getTarget ());
+		}
+		Vector errors = null;
+		Vector unresolved = object.getUnresolved ();
+		for (int i = 0; i < unresolved.size (); ++i) {
+			Relocation6502 reloc = (Relocation6502) unresolved.elementAt (i);
+			if (isRemoved (module, reloc.getOffset ())) continue;
+			Object[] defined = (Object[]) mSymbols.get (reloc.getSymbol ());
+			if (defined == null) {
+				if (errors == null) errors = new Vector ();
+				errors.addElement ("Undefined symbol " + reloc.getSymbol () + " referenced by " + object.getName () +
+					" at offset $" + Integer.toHexString (reloc.getOffset ()));
+			}
+			else reloc.apply (code, moved (module, reloc.getOffset ()), ((Integer) defined[0]).intValue ());
+		}
+		return (errors != null) ? (Object) errors : code;
+	}
+
+	/**
+	*	Finds the procs that kept code refers to, and removes the others.
+	*/
+	private void strip (Vector errors)
+	{
+		// module index and offset of each export, for references between modules
+		HashMap exports = new HashMap ();
+		for (int i = 0; i < mObjects.size (); ++i) {
+			ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (i);
+			for (Iterator it = object.getExports ().entrySet ().iterator (); it.hasNext (); ) {
+				Map.Entry entry = (Map.Entry) it.next ();
+				exports.put (entry.getKey (), new int[] {i, ((Integer) entry.getValue ()).intValue () - object.getBase ()});
+			}
+		}
+		boolean[][] live = new boolean [mObjects.size ()][];
+		// ranges of kept code still to scan for references, as int[] {module, start, end}
+		Stack work = new Stack ();
+		for (int i = 0; i < mObjects.size (); ++i) {
+			ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (i);
+			Vector procs = object.getProcs ();
+			live[i] = new boolean [procs.size ()];
+			int start = 0;
+			for (int j = 0; j < procs.size (); ++j) {
+				int[] range = (int[]) ((Object[]) procs.elementAt (j))[1];
+				if (range[0] > start) work.push (new int[] {i, start, range[0]});
+				start = range[1];
+			}
+			if (object.getCode ().length > start) work.push (new int[] {i, start, object.getCode ().length});
+			// an aligned module is kept whole
+			if (object.getAlignment () > 1) keep (i, 0, object.getCode ().length, live, work);
+		}
+		// the program starts at the first byte
+		if (mObjects.size () > 0) keep (0, 0, 1, live, work);
+		for (int i = 0; i < mRoots.size (); ++i) {
+			int[] root = (int[]) exports.get (mRoots.elementAt (i));
+			if (root == null) errors.addElement ("Cannot keep undefined symbol " + mRoots.elementAt (i));
+			else keep (root[0], root[1], root[1] + 1, live, work);
+		}
+		while (!work.empty ()) {
+			int[] range = (int[]) work.pop ();
+			int module = range[0];
+			ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (module);
+			Vector relocs = object.getRelocations ();
+			for (int i = 0; i < relocs.size (); ++i) {
+				Relocation6502 reloc = (Relocation6502) relocs.elementAt (i);
+				if (reloc.getOffset () < range[1] || reloc.getOffset () >= range[2]) continue;
+				int target = reloc.getTarget () - object.getBase ();
+				keep (module, target, target + 1, live, work);
+			}
+			Vector unresolved = object.getUnresolved ();
+			for (int i = 0; i < unresolved.size (); ++i) {
+				Relocation6502 reloc = (Relocation6502) unresolved.elementAt (i);
+				if (reloc.getOffset () < range[1] || reloc.getOffset () >= range[2]) continue;
+				int[] symbol = (int[]) exports.get (reloc.getSymbol ());
+				// undefined symbols are reported when patching
+				if (symbol != null) keep (symbol[0], symbol[1], symbol[1] + 1, live, work);
+			}
+			Vector branches = object.getBranches ();
+			for (int i = 0; i < branches.size (); ++i) {
+				int[] branch = (int[]) branches.elementAt (i);
+				if (branch[0] < range[1] || branch[0] >= range[2]) continue;
+				keep (module, Math.min (branch[0], branch[1]), Math.max (branch[0], branch[1]) + 1, live, work);
+			}
+			if (range[2] < object.getCode ().length && fallsThrough (object.getCode (), range[1], range[2]))
+				keep (module, range[2], range[2] + 1, live, work);
+		}
+		for (int i = 0; i < mObjects.size (); ++i) {
+			ObjectFile6502 object = (ObjectFile6502) mObjects.elementAt (i);
+			Vector procs = object.getProcs ();
+			for (int j = 0; j < procs.size (); ++j) {
+				if (live[i][j]) continue;
+				Object[] proc = (Object[]) procs.elementAt (j);
+				int[] range = (int[]) proc[1];
+				mRemoved[i].addElement (range);
+				mStripped.addElement (new Object[] {proc[0], object.getName (), Integer.valueOf (range[1] - range[0])});
+			}
+		}
+	}
+
+	/**
+	*	Returns true if the code in a range of offsets may run on into the code after it. The
+	*	instructions are decoded from the start of the range, and only a range whose last
+	*	instruction is rts, rti or jmp ends there. A range with data that does not decode, or
+	*	with an instruction running past its end, is taken to fall through, so the proc after
+	*	it is kept rather than the program broken.
+	*/
+	private static boolean fallsThrough (byte[] code, int start, int end)
+	{
+		int op = -1;
+		int offset = start;
+		while (offset < end) {
+			op = code[offset] & 0xFF;
+			if (Cpu6502.getBaseCycles (op) == 0) return true;
+			offset += Cpu6502.getInstructionLength (op);
+		}
+		if (offset != end) return true;
+		// rts, rti, jmp and jmp ()
+		return op != 0x60 && op != 0x40 && op != 0x4c && op != 0x6c;
+	}
+
+	/**
+	*	Keeps the procs of a module that overlap a range of offsets, and queues them for scanning.
+	*/
+	private void keep (int module, int start, int end, boolean[][] live, Stack work)
+	{
+		Vector procs = ((ObjectFile6502) mObjects.elementAt (module)).getProcs ();
+		for (int i = 0; i < procs.size (); ++i) {
+			int[] range = (int[]) ((Object[]) procs.elementAt (i))[1];
+			if (live[module][i] || range[1] <= start || range[0] >= end) continue;
+			live[module][i] = true;
+			work.push (new int[] {module, range[0], range[1]});
+		}
+	}
+
+	/**
+	*	Returns true if an offset in the code of a module is in a stripped proc.
+	*/
+	private boolean isRemoved (int module, int offset)
+	{
+		Vector removed = mRemoved[module];
+		for (int i = 0; i < removed.size (); ++i) {
+			int[] range = (int[]) removed.elementAt (i);
+			if (offset >= range[0] && offset < range[1]) return true;
+		}
+		return false;
+	}
+
+	/**
+	*	Returns the offset in the code of a module after the stripped procs are removed.
+	*/
+	private int compact (int module, int offset)
+	{
+		return offset + moved (module, offset);
+	}
+
+	/**
+	*	Returns the distance an offset in the code of a module moves, minus the bytes of the
+	*	stripped procs before it.
+	*/
+	private int moved (int module, int offset)
+	{
+		Vector removed = mRemoved[module];
+		int distance = 0;
+		for (int i = 0; i < removed.size (); ++i) {
+			int[] range = (int[]) removed.elementAt (i);
+			if (range[0] >= offset) break;
+			distance -= Math.min (offset, range[1]) - range[0];
+		}
+		return distance;
+	}
+
+	/**
+	*	Returns a copy of the code of a module without the stripped procs.
+	*/
+	private byte[] compactCode (int module)
+	{
+		byte[] code = ((ObjectFile6502) mObjects.elementAt (module)).getCode ();
+		byte[] compacted = new byte [compact (module, code.length)];
+		int start = 0;
+		int to = 0;
+		Vector removed = mRemoved[module];
+		for (int i = 0; i <= removed.size (); ++i) {
+			int end = (i < removed.size ()) ? ((int[]) removed.elementAt (i))[0] : code.length;
+			System.arraycopy (code, start, compacted, to, end - start);
+			to += end - start;
+			if (i < removed.size ()) start = ((int[]) removed.elementAt (i))[1];
+		}
+		return compacted;
+	}
+
+	/**
+	*	Work on one module, run by runAll.
+	*/
+	private interface Task {
+		public Object run (int module);
+	}
+
+	/**
+	*	Runs a task for every module, on the thread pool if there is more than one thread.
+	*	@return the results, in the order of the modules
+	*/
+	private Object[] runAll (final Task task)
+	{
+		Object[] results = new Object [mObjects.size ()];
+		int threads = Math.min (mThreads, mObjects.size ());
+		if (threads <= 1) {
+			for (int i = 0; i < results.length; ++i) results[i] = task.run (i);
+			return results;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool (threads);
+		try {
+			Vector calls = new Vector ();
+			for (int i = 0; i < results.length; ++i) {
+				final int module = i;
+				calls.addElement (new Callable () {
+					public Object call ()
+					{
+						return task.run (module);
+					}
+				});
+			}
+			List futures = pool.invokeAll (calls);
+			for (int i = 0; i < results.length; ++i) results[i] = ((Future) futures.get (i)).get ();
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException ("Linker interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException (e.getCause ());
+		}
+		finally {
+			pool.shutdown ();
+		}
+		return results;
+	}
+
+	/**
+	*	Returns the linked program, or null if the last link failed.
+	*/
+	public Image6502 getImage ()
+	{
+		return mImage;
+	}
+
+	/**
+	*	Returns the address a module is linked at.
+	*	@param module index of module in the order they were added
+	*/
+	public int getAddress (int module)
+	{
+		return mAddresses[module];
+	}
+
+	/**
+	*	Returns the number of bytes of a module in the linked program, without stripped procs.
+	*	@param module index of module in the order they were added
+	*/
+	public int getLength (int module)
+	{
+		return compact (module, ((ObjectFile6502) mObjects.elementAt (module)).getCode ().length);
+	}
+
+	/**
+	*	Returns the linked address of an exported symbol, or -1 if no module exports it.
+	*/
+	public int getSymbolAddress (String name)
+	{
+		Object[] defined = (Object[]) mSymbols.get (name);
+		return (defined == null) ? -1 : ((Integer) defined[0]).intValue ();
+	}
+
+	/**
+	*	Returns the procs stripped by the last link, as Object[] {String proc name, String module
+	*	name, Integer bytes}.
+	*/
+	public Vector getStripped ()
+	{
+		return mStripped;
+	}
+
+	/**
+	*	Returns the number of bytes of the procs stripped by the last link.
+	*/
+	public int getStrippedBytes ()
+	{
+		int bytes = 0;
+		for (int i = 0; i < mStripped.size (); ++i) bytes += ((Integer) ((Object[]) mStripped.elementAt (i))[2]).intValue ();
+		return bytes;
+	}
+
+	/**
+	*	Returns the number of relocations and references patched by the last link.
+	*/
+	public int getRelocationCount ()
+	{
+		return mRelocations;
+	}
+}
@@ -0,0 +1,192 @@
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+/**
+*	@test Runs a test case on object modules, ObjectFile6502, and on linking them with Linker6502.
+*	<p>
+*	Requiers that JUnit is installed.
+*	The object modules in test are assembled with -f obj, and their relocations and the linked
+*	image are compared with hardcoded addresses and bytes.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner LinkerTest
+*	</p>
+*	@author David Schager
+*/
+public class LinkerTest extends TestCase implements SymbolConstant6502 {
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public LinkerTest (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Assembles a source file into an object module, and checks that there are no errors.
+	*/
+	private ObjectFile6502 assembleObject (String filename) throws IOException
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setMode (MODE_OBJECT);
+		assertEquals (filename, 0, asm.assemble (filename, null));
+		return asm.getObject ();
+	}
+
+	/**
+	*	Test that an object module holds the relocations, exports and references to other modules,
+	*	and that relocating it gives the code assembled at the new address.
+	*/
+	public void testObject () throws IOException
+	{
+		ObjectFile6502 object = assembleObject ("test/object.asm");
+		assertEquals (0x1000, object.getBase ());
+		assertEquals (0x1e, object.getCode ().length);
+		assertEquals (Integer.valueOf (0x1014), object.getExports ().get ("text"));
+		// the length is the distance between two labels, and stays
+		assertEquals (0x1e, object.getCode ()[10]);
+		assertEquals (5, object.getRelocations ().size ());
+		assertEquals (2, object.getUnresolved ().size ());
+		Relocation6502 reloc = (Relocation6502) object.getUnresolved ().elementAt (1);
+		assertEquals ("print", reloc.getSymbol ());
+		assertEquals (0x12, reloc.getOffset ());
+		assertEquals (0, reloc.getTarget ());
+		assertEquals (3, reloc.getAddend ());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		object.write (out);
+		object = ObjectFile6502.read (new ByteArrayInputStream (out.toByteArray ()));
+		assertEquals ("test/object.asm", object.getName ());
+		assertEquals (5, object.getRelocations ().size ());
+		assertEquals (2, object.getUnresolved ().size ());
+		assertEquals (Integer.valueOf (0x101d), object.getExports ().get ("irq"));
+
+		// move the module by $10f0, text goes from $1014 to $2104, so the high byte gets a carry
+		byte[] code = object.getCode ();
+		for (int i = 0; i < object.getRelocations ().size (); ++i)
+			((Relocation6502) object.getRelocations ().elementAt (i)).apply (code, 0, 0x10f0);
+		((Relocation6502) object.getUnresolved ().elementAt (1)).apply (code, 0, 0xffd2);
+		assertEquals (0x04, code[3]);
+		assertEquals (0x21, code[4]);
+		assertEquals (0x04, code[0x0e]);
+		assertEquals (0x22, code[0x10]);
+		assertEquals ((byte) 0xd5, code[0x12]);
+		assertEquals ((byte) 0xff, code[0x13]);
+		assertEquals ((byte) 0xf0, code[0x19]);
+		assertEquals (0x20, code[0x1a]);
+	}
+
+	/**
+	*	Test that the linker places modules, relocates them and patches in the symbols of other
+	*	modules, the same on one thread as on many.
+	*/
+	public void testLink () throws IOException
+	{
+		Linker6502 linker = new Linker6502 ();
+		linker.setBase (0x0801);
+		linker.addObject (assembleObject ("test/object.asm"));
+		linker.addObject (assembleObject ("test/print.asm"));
+		assertEquals (0, linker.link ().size ());
+		// print.asm is aligned to 4 bytes
+		assertEquals (0x0820, linker.getAddress (1));
+		assertEquals (0x0820, linker.getSymbolAddress ("print"));
+		Image6502 image = linker.getImage ();
+		assertEquals (0x0824, image.getEndAddress ());
+		assertEquals (0x0815, image.byteAt (0x0804) + (image.byteAt (0x0805) << 8));
+		assertEquals (0x20, image.byteAt (0x0807));
+		assertEquals (0x08, image.byteAt (0x0808));
+		assertEquals (0x23, image.byteAt (0x0813));
+		assertEquals (0x09, image.byteAt (0x0811));
+		assertEquals (0x1e, image.byteAt (0x080b));
+		byte[] parallel = image.toByteArray ();
+
+		linker.setThreads (1);
+		assertEquals (0, linker.link ().size ());
+		assertTrue (Arrays.equals (parallel, linker.getImage ().toByteArray ()));
+
+		linker = new Linker6502 ();
+		linker.addObject (assembleObject ("test/object.asm"));
+		Vector errors = linker.link ();
+		assertEquals (2, errors.size ());
+		assertEquals ("Undefined symbol print referenced by test/object.asm at offset $6", errors.elementAt (0));
+		assertNull (linker.getImage ());
+	}
+
+	/**
+	*	Test that the linker strips the procs nothing refers to, and relocates the code after them.
+	*/
+	public void testStrip () throws IOException
+	{
+		Linker6502 linker = new Linker6502 ();
+		linker.addObject (assembleObject ("test/object.asm"));
+		linker.addObject (assembleObject ("test/library.asm"));
+		linker.setStrip (true);
+		assertEquals (0, linker.link ().size ());
+		// clear is only called from unused, which nothing calls
+		assertEquals (2, linker.getStripped ().size ());
+		assertEquals ("clear", ((Object[]) linker.getStripped ().elementAt (0))[0]);
+		assertEquals (10, linker.getStrippedBytes ());
+		assertEquals (0x101e, linker.getSymbolAddress ("print"));
+		assertEquals (0x1024, linker.getSymbolAddress ("newline"));
+		assertEquals (-1, linker.getSymbolAddress ("clear"));
+		Image6502 image = linker.getImage ();
+		assertEquals (0x1029, image.getEndAddress ());
+		assertEquals (0x101e, image.byteAt (0x1006) + (image.byteAt (0x1007) << 8));
+		assertEquals (0x1024, image.byteAt (0x1022) + (image.byteAt (0x1023) << 8));
+
+		// a root keeps a proc, and what it calls
+		linker.addRoot ("unused");
+		assertEquals (0, linker.link ().size ());
+		assertEquals (0, linker.getStrippedBytes ());
+		assertEquals (0x1033, linker.getImage ().getEndAddress ());
+	}
+
+	/**
+	*	Test that a proc is kept when the kept proc before it runs on into it.
+	*/
+	public void testStripFallThrough () throws IOException
+	{
+		Linker6502 linker = new Linker6502 ();
+		linker.addObject (assembleObject ("test/fallthrough.asm"));
+		linker.setStrip (true);
+		assertEquals (0, linker.link ().size ());
+		assertEquals (1, linker.getStripped ().size ());
+		assertEquals ("unused", ((Object[]) linker.getStripped ().elementAt (0))[0]);
+		assertEquals (0x1005, linker.getSymbolAddress ("border"));
+		assertEquals (0x1009, linker.getImage ().getEndAddress ());
+	}
+
+	/**
+	*	Test that procs minus one, in an rts dispatch table and as low and high bytes, keep the
+	*	procs and move with them, and that the table still dispatches after stripping.
+	*/
+	public void testStripDispatch () throws IOException
+	{
+		ObjectFile6502 object = assembleObject ("test/dispatch.asm");
+		// first - 1 is the last byte of unused
+		Relocation6502 reloc = (Relocation6502) object.getRelocations ().elementAt (4);
+		assertEquals (0x12, reloc.getOffset ());
+		assertEquals (0x100c, reloc.getTarget ());
+		assertEquals (-1, reloc.getAddend ());
+
+		Linker6502 linker = new Linker6502 ();
+		linker.addObject (object);
+		linker.setStrip (true);
+		assertEquals (0, linker.link ().size ());
+		assertEquals (1, linker.getStripped ().size ());
+		assertEquals ("unused", ((Object[]) linker.getStripped ().elementAt (0))[0]);
+		int first = linker.getSymbolAddress ("first");
+		int second = linker.getSymbolAddress ("second");
+		assertEquals (0x100b, first);
+		assertEquals (0x1010, second);
+		Image6502 image = linker.getImage ();
+		assertEquals (0x1013, image.getEndAddress ());
+		assertEquals (first - 1, image.byteAt (0x1011) + (image.byteAt (0x1012) << 8));
+
+		Cpu6502 cpu = new Cpu6502 ();
+		cpu.load (image);
+		assertEquals (Cpu6502.STOP_RTS, cpu.run (0x1000, 1000));
+		assertEquals (second - 1, cpu.getA () + (cpu.getX () << 8));
+	}
+}
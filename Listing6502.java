@@ -0,0 +1,292 @@
+import java.io.*;
+import java.util.*;
+
+/**
+*	Writes an assembly listing while pass 2 runs, as an assembly listener.
+*	Each source line is listed once, in the order it is assembled, with included files listed
+*	where they are included. Lines that emit machine code show the address, the bytes and the
+*	base cycles of the instruction, with a + when a taken branch or a page crossing adds cycles:
+*	<pre>
+*	1000  a9 10     2   	lda #$10
+*	1002  bd 00 20  4+  	lda table, x
+*	1005                loop:
+*	</pre>
+*	Data statements list three bytes per line, the rest on following lines without source.
+*
+*	The listing is formatted into a line buffer with hex lookup tables and written through one
+*	buffered writer. Source lines are read from an index of the lines of each file, which is built
+*	once per file, instead of searching the file for each line.
+*
+*	@author David Schager
+*/
+public class Listing6502 extends AssemblyAdapter6502 implements SymbolConstant6502 {
+	/** Number of bytes listed per line */
+	public static final int BYTES_PER_LINE = 3;
+	private static final int SOURCE_COLUMN = 20;
+	private static final char[] sHex = new char [512];
+
+	private Assembler6502 mAssembler;
+	private Writer mOut;
+	private char[] mLine = new char [SOURCE_COLUMN];
+	private HashMap mSources = new HashMap ();
+	private Stack mFiles = new Stack ();
+	private String mFilename = null;
+	private String[] mSource = null;
+	private int mListed = 0;
+	private int mLabelLine = 0;
+	private int mLabelAddress = 0;
+
+	static {
+		char[] digits = "0123456789abcdef".toCharArray ();
+		for (int i = 0; i < 256; ++i) {
+			sHex[i << 1] = digits[i >> 4];
+			sHex[(i << 1) + 1] = digits[i & 0xF];
+		}
+	}
+
+	/**
+	*	Constructor
+	*	@param assembler assembler to list, the listing reads the lexer and the image from it
+	*	@param out writer to write listing to, it is wrapped in a buffered writer if it is not one
+	*/
+	public Listing6502 (Assembler6502 assembler, Writer out)
+	{
+		mAssembler = assembler;
+		mOut = (out instanceof BufferedWriter) ? out : new BufferedWriter (out, 1 << 16);
+	}
+
+	/**
+	*	Returns the lines of a source file, read once and then kept.
+	*/
+	private String[] getSource (String filename) throws IOException
+	{
+		String[] lines = (String[]) mSources.get (filename);
+		if (lines == null) {
+			Vector v = new Vector ();
+			BufferedReader in = new BufferedReader (new InputStreamReader (new FileInputStream (filename),
+				"ISO-8859-1"));
+			try {
+				String line;
+				while ((line = in.readLine ()) != null) v.addElement (line);
+			}
+			finally {
+				in.close ();
+			}
+			lines = new String [v.size ()];
+			v.copyInto (lines);
+			mSources.put (filename, lines);
+		}
+		return lines;
+	}
+
+	/**
+	*	Makes the file the lexer reads the current file of the listing.
+	*/
+	private void enterFile (String filename)
+	{
+		mFilename = filename;
+		mListed = 0;
+		try {
+			mSource = getSource (filename);
+		}
+		catch (IOException e) {
+			// list addresses and bytes only
+			mSource = new String [0];
+		}
+	}
+
+	/**
+	*	Writes a hex byte into the line buffer.
+	*/
+	private void putByte (int pos, int b)
+	{
+		b = (b & 0xFF) << 1;
+		mLine[pos] = sHex[b];
+		mLine[pos + 1] = sHex[b + 1];
+	}
+
+	/**
+	*	Writes the address, bytes and cycles part of a line, and a source line or line feed.
+	*	@param address address of first byte, or -1 for a line with source only
+	*	@param len number of bytes, at most BYTES_PER_LINE
+	*	@param cycles cycles, or 0 to leave out
+	*	@param extra true to mark that the instruction can take extra cycles
+	*	@param line source line number, or 0 for no source
+	*/
+	private void writeLine (int address, int len, int cycles, boolean extra, int line) throws IOException
+	{
+		Arrays.fill (mLine, ' ');
+		if (address >= 0) {
+			putByte (0, address >> 8);
+			putByte (2, address);
+			Image6502 image = mAssembler.getImage ();
+			for (int i = 0; i < len; ++i) putByte (6 + i * 3, image.byteAt (address + i));
+			if (cycles > 0) {
+				mLine[16] = (char) ('0' + cycles);
+				if (extra) mLine[17] = '+';
+			}
+		}
+		if (line > 0 && line <= mSource.length) {
+			mOut.write (mLine, 0, SOURCE_COLUMN);
+			mOut.write (mSource[line - 1]);
+		}
+		else {
+			// no trailing spaces
+			int end = SOURCE_COLUMN;
+			while (end > 0 && mLine[end - 1] == ' ') --end;
+			mOut.write (mLine, 0, end);
+		}
+		mOut.write ('\n');
+	}
+
+	/**
+	*	Lists the source lines of the current file that emit no bytes, up to a line.
+	*/
+	private void listUpTo (int line) throws IOException
+	{
+		int last = Math.min (line, mSource.length);
+		while (mListed < last) writeLine (-1, 0, 0, false, ++mListed);
+	}
+
+	/**
+	*	Lists the line of the last label defined with its address, if it is before a line and
+	*	no statement on its own line has listed it.
+	*/
+	private void listLabel (int line) throws IOException
+	{
+		if (mLabelLine > mListed && mLabelLine < line) {
+			listUpTo (mLabelLine - 1);
+			writeLine (mLabelAddress, 0, 0, false, ++mListed);
+		}
+		mLabelLine = 0;
+	}
+
+	/**
+	*	Lists the source lines before the statement the lexer is at, and returns its line number.
+	*	Returns 0 if the statement is already listed, so bytes that follow in the same statement
+	*	are listed without the source.
+	*/
+	private int beginStatement () throws IOException
+	{
+		AbstractLexer lexer = mAssembler.getLexer ();
+		if (mFilename == null) enterFile (lexer.getFilename ());
+		int line = lexer.getRememberLineNum ();
+		listLabel (line);
+		if (line <= mListed) return 0;
+		listUpTo (line - 1);
+		mListed = line;
+		return line;
+	}
+
+	/**
+	*	Wraps I/O errors of the writer, which the listener methods can not throw.
+	*/
+	private static RuntimeException fail (IOException e)
+	{
+		return new IllegalStateException ("Cannot write listing: " + e.getMessage ());
+	}
+
+	/**
+	*	@see AssemblyListener6502.instructionEmitted
+	*/
+	public void instructionEmitted (int address, int length, MachineCode6502 code)
+	{
+		try {
+			int op = mAssembler.getImage ().byteAt (address);
+			int type = code.getOpcode ().getType ();
+			int mode = code.getAddrMode ();
+			boolean extra = mode == REL || ((mode == ABSX || mode == ABSY || mode == INDY) &&
+				Cpu6502.hasPageCrossPenalty (type));
+			writeLine (address, length, Cpu6502.getBaseCycles (op), extra, beginStatement ());
+		}
+		catch (IOException e) {
+			throw fail (e);
+		}
+	}
+
+	/**
+	*	@see AssemblyListener6502.bytesEmitted
+	*/
+	public void bytesEmitted (int address, int length)
+	{
+		try {
+			int line = beginStatement ();
+			for (int i = 0; i < length; i += BYTES_PER_LINE) {
+				writeLine (address + i, Math.min (BYTES_PER_LINE, length - i), 0, false, line);
+				line = 0;
+			}
+		}
+		catch (IOException e) {
+			throw fail (e);
+		}
+	}
+
+	/**
+	*	@see AssemblyListener6502.labelDefined
+	*/
+	public void labelDefined (String name, int address)
+	{
+		AbstractLexer lexer = mAssembler.getLexer ();
+		if (mFilename == null) enterFile (lexer.getFilename ());
+		// listed with the statement on the same line, or alone when the next statement is reached
+		mLabelLine = lexer.getRememberLineNum ();
+		mLabelAddress = address;
+	}
+
+	/**
+	*	@see AssemblyListener6502.includeEntered
+	*/
+	public void includeEntered (String filename)
+	{
+		try {
+			// list the include statement
+			int line = beginStatement ();
+			if (line > 0) writeLine (-1, 0, 0, false, line);
+		}
+		catch (IOException e) {
+			throw fail (e);
+		}
+		mFiles.push (new Object[] {mFilename, mSource, Integer.valueOf (mListed)});
+		enterFile (filename);
+	}
+
+	/**
+	*	@see AssemblyListener6502.includeExited
+	*/
+	public void includeExited (String filename)
+	{
+		try {
+			listLabel (Integer.MAX_VALUE);
+			listUpTo (mSource.length);
+		}
+		catch (IOException e) {
+			throw fail (e);
+		}
+		if (mFiles.empty ()) return;
+		Object[] file = (Object[]) mFiles.pop ();
+		mFilename = (String) file[0];
+		mSource = (String[]) file[1];
+		mListed = ((Integer) file[2]).intValue ();
+	}
+
+	/**
+	*	Lists the rest of the source and flushes the writer. Call after assembly.
+	*/
+	public void finish () throws IOException
+	{
+		if (mSource != null) {
+			listLabel (Integer.MAX_VALUE);
+			listUpTo (mSource.length);
+		}
+		mOut.flush ();
+	}
+
+	/**
+	*	Finishes the listing and closes the writer.
+	*/
+	public void close () throws IOException
+	{
+		finish ();
+		mOut.close ();
+	}
+}
@@ -0,0 +1,290 @@
+import java.io.*;
+import java.util.*;
+
+/**
+*	A relocatable object module, written by Assembler6502 in object mode and read by the linker.
+*	The module holds the code assembled at a base address, the relocations that move the code to
+*	another address, the global labels it exports, and the references to symbols of other modules
+*	that are still unresolved. A module is assembled once, and linked again without assembling
+*	when other modules change.
+*
+*	The file is laid out as follows, numbers big endian:
+*	<pre>
+*	header		4 bytes	"JOBJ"
+*				2 bytes	version (3)
+*				string	name of source file
+*				2 bytes	base address the code is assembled at
+*				2 bytes	alignment the base must keep
+*				4 bytes	length of code, then the code
+*	relocs		4 bytes	count, then per relocation 4 bytes offset, 1 byte type, 2 bytes address
+*				of the label and 2 bytes constant added to it (since version 3)
+*	exports		4 bytes	count, then per symbol a string name and 2 bytes address
+*	unresolved	4 bytes	count, then per reference 4 bytes offset, 1 byte type, 2 bytes offset
+*				from symbol and a string symbol name
+*	procs		4 bytes	count, then per .proc a string name, 4 bytes offset of start and 4 bytes
+*				offset of end (since version 2)
+*	branches	4 bytes	count, then per branch 4 bytes offset of branch and 4 bytes offset of
+*				target (since version 2)
+*	</pre>
+*	Strings are written with DataOutputStream.writeUTF. Version 1 files are read as modules
+*	without procs, which the linker never strips. Relocations of version 1 and 2 files hold the
+*	value they were computed to, and are read with the value as label and no constant.
+*
+*	@author David Schager
+*/
+public class ObjectFile6502 implements SymbolConstant6502 {
+	public static final int MAGIC = 0x4a4f424a;
+	public static final int VERSION = 3;
+
+	private String mName;
+	private int mBase;
+	private int mAlignment = 1;
+	private byte[] mCode = new byte [0];
+	private Vector mRelocations = new Vector ();
+	private Vector mUnresolved = new Vector ();
+	private LinkedHashMap mExports = new LinkedHashMap ();
+	private Vector mProcs = new Vector ();
+	private Vector mBranches = new Vector ();
+
+	/**
+	*	Constructor
+	*	@param name name of source file
+	*	@param base address the code is assembled at
+	*/
+	public ObjectFile6502 (String name, int base)
+	{
+		mName = name;
+		mBase = base;
+	}
+
+	/**
+	*	Reads an object module.
+	*/
+	public static ObjectFile6502 read (InputStream in) throws IOException
+	{
+		DataInputStream data = new DataInputStream (new BufferedInputStream (in));
+		if (data.readInt () != MAGIC) throw new IOException ("Not a jasm6502 object file");
+		int version = data.readUnsignedShort ();
+		if (version < 1 || version > VERSION) throw new IOException ("Unsupported object file version " + version);
+		ObjectFile6502 object = new ObjectFile6502 (data.readUTF (), data.readUnsignedShort ());
+		object.mAlignment = data.readUnsignedShort ();
+		object.mCode = new byte [data.readInt ()];
+		data.readFully (object.mCode);
+		int n = data.readInt ();
+		for (int i = 0; i < n; ++i) {
+			int offset = data.readInt ();
+			int type = data.readUnsignedByte ();
+			int target = data.readUnsignedShort ();
+			int addend = (version >= 3) ? data.readShort () : 0;
+			object.addRelocation (new Relocation6502 (offset, type, target, addend, null));
+		}
+		n = data.readInt ();
+		for (int i = 0; i < n; ++i) {
+			String name = data.readUTF ();
+			object.addExport (name, data.readUnsignedShort ());
+		}
+		n = data.readInt ();
+		for (int i = 0; i < n; ++i) {
+			int offset = data.readInt ();
+			int type = data.readUnsignedByte ();
+			int addend = data.readUnsignedShort ();
+			object.addRelocation (new Relocation6502 (offset, type, 0, addend, data.readUTF ()));
+		}
+		if (version >= 2) {
+			n = data.readInt ();
+			for (int i = 0; i < n; ++i) {
+				String name = data.readUTF ();
+				int start = data.readInt ();
+				object.addProc (name, start, data.readInt ());
+			}
+			n = data.readInt ();
+			for (int i = 0; i < n; ++i) {
+				int offset = data.readInt ();
+				object.addBranch (offset, data.readInt ());
+			}
+		}
+		return object;
+	}
+
+	/**
+	*	Reads an object file.
+	*/
+	public static ObjectFile6502 read (String filename) throws IOException
+	{
+		InputStream in = new FileInputStream (filename);
+		try {
+			return read (in);
+		}
+		finally {
+			in.close ();
+		}
+	}
+
+	/**
+	*	Writes the module.
+	*/
+	public void write (OutputStream out) throws IOException
+	{
+		DataOutputStream data = new DataOutputStream (out);
+		data.writeInt (MAGIC);
+		data.writeShort (VERSION);
+		data.writeUTF (mName);
+		data.writeShort (mBase);
+		data.writeShort (mAlignment);
+		data.writeInt (mCode.length);
+		data.write (mCode);
+		data.writeInt (mRelocations.size ());
+		for (int i = 0; i < mRelocations.size (); ++i) {
+			Relocation6502 reloc = (Relocation6502) mRelocations.elementAt (i);
+			data.writeInt (reloc.getOffset ());
+			data.writeByte (reloc.getType ());
+			data.writeShort (reloc.getTarget ());
+			data.writeShort (reloc.getAddend ());
+		}
+		data.writeInt (mExports.size ());
+		for (Iterator it = mExports.entrySet ().iterator (); it.hasNext (); ) {
+			Map.Entry entry = (Map.Entry) it.next ();
+			data.writeUTF ((String) entry.getKey ());
+			data.writeShort (((Integer) entry.getValue ()).intValue ());
+		}
+		data.writeInt (mUnresolved.size ());
+		for (int i = 0; i < mUnresolved.size (); ++i) {
+			Relocation6502 reloc = (Relocation6502) mUnresolved.elementAt (i);
+			data.writeInt (reloc.getOffset ());
+			data.writeByte (reloc.getType ());
+			data.writeShort (reloc.getAddend ());
+			data.writeUTF (reloc.getSymbol ());
+		}
+		data.writeInt (mProcs.size ());
+		for (int i = 0; i < mProcs.size (); ++i) {
+			Object[] proc = (Object[]) mProcs.elementAt (i);
+			data.writeUTF ((String) proc[0]);
+			data.writeInt (((int[]) proc[1])[0]);
+			data.writeInt (((int[]) proc[1])[1]);
+		}
+		data.writeInt (mBranches.size ());
+		for (int i = 0; i < mBranches.size (); ++i) {
+			int[] branch = (int[]) mBranches.elementAt (i);
+			data.writeInt (branch[0]);
+			data.writeInt (branch[1]);
+		}
+		data.flush ();
+	}
+
+	public String getName ()
+	{
+		return mName;
+	}
+
+	/**
+	*	Returns the address the code is assembled at.
+	*/
+	public int getBase ()
+	{
+		return mBase;
+	}
+
+	public int getAlignment ()
+	{
+		return mAlignment;
+	}
+
+	/**
+	*	Records an alignment used in the module, the linker places the module so it holds.
+	*/
+	public void addAlignment (int alignment)
+	{
+		if (alignment > mAlignment) mAlignment = alignment;
+	}
+
+	public byte[] getCode ()
+	{
+		return mCode;
+	}
+
+	public void setCode (byte[] code)
+	{
+		mCode = code;
+	}
+
+	/**
+	*	Adds a relocation, to the unresolved references if it refers to an external symbol.
+	*/
+	public void addRelocation (Relocation6502 reloc)
+	{
+		if (reloc.getSymbol () == null) mRelocations.addElement (reloc);
+		else mUnresolved.addElement (reloc);
+	}
+
+	/**
+	*	Returns the relocations of addresses in the module.
+	*/
+	public Vector getRelocations ()
+	{
+		return mRelocations;
+	}
+
+	/**
+	*	Returns the references to symbols of other modules.
+	*/
+	public Vector getUnresolved ()
+	{
+		return mUnresolved;
+	}
+
+	/**
+	*	Exports a symbol.
+	*	@param name name of symbol
+	*	@param address address of symbol as assembled
+	*/
+	public void addExport (String name, int address)
+	{
+		mExports.put (name, Integer.valueOf (address));
+	}
+
+	/**
+	*	Returns the exported symbols, names mapped to Integer addresses as assembled.
+	*/
+	public Map getExports ()
+	{
+		return mExports;
+	}
+
+	/**
+	*	Records a .proc at the outermost level, which the linker may strip if nothing refers to it.
+	*	@param name name of proc
+	*	@param start offset of the first byte of the proc in the code
+	*	@param end offset after the last byte of the proc
+	*/
+	public void addProc (String name, int start, int end)
+	{
+		mProcs.addElement (new Object[] {name, new int[] {start, end}});
+	}
+
+	/**
+	*	Returns the procs, as Object[] {String name, int[] {start, end}}, in the order of the code.
+	*/
+	public Vector getProcs ()
+	{
+		return mProcs;
+	}
+
+	/**
+	*	Records a branch. Branches are not relocated, but the code between a branch and its target
+	*	must stay, or the distance changes.
+	*	@param offset offset of the branch instruction in the code
+	*	@param target offset of the target in the code
+	*/
+	public void addBranch (int offset, int target)
+	{
+		mBranches.addElement (new int[] {offset, target});
+	}
+
+	/**
+	*	Returns the branches, as int[] {offset, target}.
+	*/
+	public Vector getBranches ()
+	{
+		return mBranches;
+	}
+}
@@ -0,0 +1,397 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.Vector;
+
+/**
+*	An output of an assembly. One assembly feeds any number of outputs from the result of pass 2,
+*	so a .prg, a raw binary, a listing and symbol files are made without assembling again.
+*	Listings are written by a listener while pass 2 runs, the other outputs are written from the
+*	memory image, debug map and symbol table after pass 2, and only if there were no errors.
+*
+*	A file is only replaced when its contents change, so the modification time of an unchanged
+*	output stays, and tools watching it do not rebuild or reload. The new contents are compared
+*	with the existing file, and if they differ, written to a temporary file in the same directory
+*	that is then renamed over the old file, so readers never see a half written file. The
+*	temporary file gets the permissions of the old file, and is removed if it cannot be written.
+*
+*	@author David Schager
+*/
+public class OutputSink6502 {
+	/** Raw binary, the memory image without header */
+	public static final int RAW = 0;
+	/** Commodore 64 .prg file, the memory image after a two byte load address */
+	public static final int PRG = 1;
+	/** Listing printed to the screen */
+	public static final int SCREEN = 2;
+	/** Listing file */
+	public static final int LISTING = 3;
+	/** Debug map, @see DebugMap6502 */
+	public static final int DEBUG_MAP = 4;
+	/** Labels in VICE monitor format, @see SymbolExport6502 */
+	public static final int VICE = 5;
+	/** Labels as binary index, @see SymbolExport6502 */
+	public static final int INDEX = 6;
+	/** Memory image without the gaps between origins, after a load table, @see Image6502.writeSparseTo */
+	public static final int SPARSE = 7;
+	/** Relocatable object module, @see ObjectFile6502 */
+	public static final int OBJECT = 8;
+	/** C64 cartridge with one CHIP packet per bank, @see Placement6502.writeCrtTo */
+	public static final int CRT = 9;
+	/** Banks one after the other in bank order, @see Placement6502.writeBanksTo */
+	public static final int BANKS = 10;
+	/** 1541 disk image with the program as PRG file, @see DiskImage6502 */
+	public static final int D64 = 11;
+	/** Intel HEX records, without the gaps between origins, @see HexExport6502 */
+	public static final int HEX = 12;
+	/** Motorola S-records, without the gaps between origins, @see HexExport6502 */
+	public static final int SREC = 13;
+	/** Self-extracting compressed Commodore 64 .prg, @see Compressor6502 */
+	public static final int PACKED = 14;
+
+	private int mType;
+	private String mFilename;
+	private Listing6502 mListing = null;
+	private File mTemp = null;
+
+	/**
+	*	Constructor
+	*	@param type one of the output type constants
+	*	@param filename name of file to write, null for SCREEN
+	*/
+	public OutputSink6502 (int type, String filename)
+	{
+		mType = type;
+		mFilename = filename;
+	}
+
+	/**
+	*	Returns the output type
+	*/
+	public int getType ()
+	{
+		return mType;
+	}
+
+	/**
+	*	Returns the name of the file written, or null if the output is not a file
+	*/
+	public String getFilename ()
+	{
+		return mFilename;
+	}
+
+	/**
+	*	Called before pass 2. Listings start listening to the assembler here.
+	*/
+	public void open (Assembler6502 assembler) throws IOException
+	{
+		if (mType == SCREEN) {
+			mListing = new Listing6502 (assembler, new OutputStreamWriter (System.out));
+			assembler.addListener (mListing);
+		}
+		else if (mType == LISTING) {
+			mTemp = createTemp ();
+			mListing = new Listing6502 (assembler, new OutputStreamWriter (new FileOutputStream (mTemp),
+				"ISO-8859-1"));
+			assembler.addListener (mListing);
+		}
+	}
+
+	/**
+	*	Called after pass 2, writes the output.
+	*	@param success true if the assembly had no errors
+	*	@return true if a file was written, false if not written or unchanged
+	*/
+	public boolean close (Assembler6502 assembler, boolean success) throws IOException
+	{
+		if (mListing != null) {
+			assembler.removeListener (mListing);
+			Listing6502 listing = mListing;
+			File temp = mTemp;
+			mListing = null;
+			mTemp = null;
+			try {
+				if (mType == SCREEN) listing.finish ();
+				else listing.close ();
+				return (temp != null) && replace (temp);
+			}
+			catch (IOException e) {
+				if (temp != null) temp.delete ();
+				throw e;
+			}
+		}
+		if (!success) {
+			discard ();
+			return false;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		switch (mType) {
+			case RAW:
+			case PRG:
+			case SPARSE:
+			case HEX:
+			case SREC:
+				return write (assembler.getImage ());
+			case OBJECT:
+				if (assembler.getObject () == null) return false;
+				assembler.getObject ().write (out);
+				break;
+			case CRT:
+			case BANKS:
+				Placement6502 placement = assembler.getPlacement ();
+				if (placement == null || placement.getBanks ().length == 0)
+					throw new IOException ("No segments in banks to write to " + mFilename);
+				if (mType == BANKS) placement.writeBanksTo (out);
+				else placement.writeCrtTo (out, getTitle (), assembler.getCartridgeType ());
+				break;
+			case PACKED:
+				new Compressor6502 (assembler.getImage (), assembler.getCompressRegions ()).writeTo (out);
+				break;
+			case D64:
+				Vector names = new Vector ();
+				Vector images = new Vector ();
+				names.addElement (new File (assembler.getFilename ()).getName ());
+				images.addElement (assembler.getImage ());
+				return writeDisk (names, images);
+			case DEBUG_MAP:
+				Writer writer = new OutputStreamWriter (out);
+				assembler.getDebugMap ().write (writer);
+				writer.flush ();
+				break;
+			case VICE:
+				new SymbolExport6502 (assembler.getIdentifiers ()).writeVice (out);
+				break;
+			case INDEX:
+				new SymbolExport6502 (assembler.getIdentifiers ()).writeIndex (out);
+				break;
+			default:
+				return false;
+		}
+		return writeIfChanged (out.toByteArray ());
+	}
+
+	/**
+	*	Writes a memory image as a RAW, PRG, SPARSE, HEX or SREC output. Used for images that are not the
+	*	result of an assembly, like the program made by the linker.
+	*	@return true if the file was written, false if unchanged
+	*/
+	public boolean write (Image6502 image) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		if (mType == SPARSE) image.writeSparseTo (out);
+		else if (mType == HEX) new HexExport6502 (image).writeIntelHex (out);
+		else if (mType == SREC) new HexExport6502 (image).writeSRecords (out, getTitle ());
+		else {
+			if (mType == PRG) {
+				// write start address header, for .prg (commodore 64)
+				out.write (image.getStartAddress () & 0xFF);
+				out.write ((image.getStartAddress () >> 8) & 0xFF);
+			}
+			image.writeTo (out);
+		}
+		return writeIfChanged (out.toByteArray ());
+	}
+
+	/**
+	*	Writes programs as PRG files into a D64 output, all in one pass over the disk. The files
+	*	are added to the disk of an earlier run if there is one, replacing files of the same name,
+	*	else to a new disk titled after the output file.
+	*	@param names Vector of String names, of source files or programs, made into file names
+	*	@param images Vector of Image6502 programs
+	*	@return true if the file was written, false if unchanged
+	*/
+	public boolean writeDisk (Vector names, Vector images) throws IOException
+	{
+		DiskImage6502 disk;
+		if (new File (mFilename).exists ()) disk = DiskImage6502.read (mFilename);
+		else disk = new DiskImage6502 (DiskImage6502.toDiskName (getTitle ()), "00");
+		Vector files = new Vector ();
+		Vector programs = new Vector ();
+		for (int i = 0; i < names.size (); ++i) {
+			String name = (String) names.elementAt (i);
+			int n = name.lastIndexOf (".");
+			if (n > 0) name = name.substring (0, n);
+			files.addElement (DiskImage6502.toDiskName (name));
+			Image6502 image = (Image6502) images.elementAt (i);
+			ByteArrayOutputStream out = new ByteArrayOutputStream ();
+			out.write (image.getStartAddress () & 0xFF);
+			out.write ((image.getStartAddress () >> 8) & 0xFF);
+			image.writeTo (out);
+			programs.addElement (out.toByteArray ());
+		}
+		disk.addFiles (files, programs);
+		ByteArrayOutputStream out = new ByteArrayOutputStream (DiskImage6502.SIZE);
+		disk.writeTo (out);
+		return writeIfChanged (out.toByteArray ());
+	}
+
+	/**
+	*	Removes the output file of an earlier run, after errors, so it is never taken for the
+	*	result of this one. A disk image is kept, as it holds the files of other runs too.
+	*/
+	public void discard ()
+	{
+		if (mType == RAW || mType == PRG || mType == SPARSE || mType == OBJECT || mType == CRT || mType == BANKS ||
+			mType == HEX || mType == SREC || mType == PACKED)
+			new File (mFilename).delete ();
+	}
+
+	/**
+	*	Returns the name of the output file without directory and extension, in upper case, as
+	*	title of a cartridge, disk or S-record header.
+	*/
+	private String getTitle ()
+	{
+		String title = new File (mFilename).getName ();
+		int n = title.lastIndexOf (".");
+		if (n > 0) title = title.substring (0, n);
+		return title.toUpperCase ();
+	}
+
+	/**
+	*	Creates a temporary file in the directory of the output file, with the permissions of the
+	*	output file.
+	*/
+	private File createTemp () throws IOException
+	{
+		File file = new File (mFilename).getAbsoluteFile ();
+		File temp = File.createTempFile (".jasm", ".tmp", file.getParentFile ());
+		try {
+			copyPermissions (file, temp);
+		}
+		catch (IOException e) {
+			temp.delete ();
+			throw e;
+		}
+		return temp;
+	}
+
+	/**
+	*	Gives a temporary file the permissions of the output file it replaces, so a replaced output
+	*	stays as private or as shared as it was. Temporary files are private to the owner, so a new
+	*	output, or one on a file system without POSIX permissions, is made readable like other new files.
+	*/
+	private static void copyPermissions (File file, File temp) throws IOException
+	{
+		if (file.exists ()) {
+			try {
+				Files.setPosixFilePermissions (temp.toPath (), Files.getPosixFilePermissions (file.toPath ()));
+				return;
+			}
+			catch (UnsupportedOperationException e) {
+			}
+		}
+		temp.setReadable (true, false);
+	}
+
+	/**
+	*	Writes contents to the output file, unless the file already has the contents.
+	*	@return true if the file was written
+	*/
+	private boolean writeIfChanged (byte[] contents) throws IOException
+	{
+		File file = new File (mFilename);
+		if (file.length () == contents.length && file.isFile ()) {
+			InputStream in = new FileInputStream (file);
+			try {
+				if (sameContents (in, new ByteArrayInputStream (contents))) return false;
+			}
+			finally {
+				in.close ();
+			}
+		}
+		File temp = createTemp ();
+		try {
+			OutputStream out = new FileOutputStream (temp);
+			try {
+				out.write (contents);
+			}
+			finally {
+				out.close ();
+			}
+		}
+		catch (IOException e) {
+			// like a full disk, the output file is left as it was
+			temp.delete ();
+			throw e;
+		}
+		moveOver (temp, file);
+		return true;
+	}
+
+	/**
+	*	Renames a finished temporary file over the output file, unless the output file already
+	*	has the same contents, then the temporary file is removed.
+	*	@return true if the file was replaced
+	*/
+	private boolean replace (File temp) throws IOException
+	{
+		File file = new File (mFilename);
+		if (file.length () == temp.length () && file.isFile ()) {
+			InputStream a = new FileInputStream (file);
+			InputStream b = new FileInputStream (temp);
+			try {
+				if (sameContents (a, b)) {
+					temp.delete ();
+					return false;
+				}
+			}
+			finally {
+				a.close ();
+				b.close ();
+			}
+		}
+		moveOver (temp, file);
+		return true;
+	}
+
+	/**
+	*	Compares two streams of the same length, in blocks.
+	*/
+	private static boolean sameContents (InputStream a, InputStream b) throws IOException
+	{
+		byte[] bufferA = new byte [8192];
+		byte[] bufferB = new byte [8192];
+		while (true) {
+			int n = readBlock (a, bufferA);
+			if (n != readBlock (b, bufferB)) return false;
+			if (n <= 0) return true;
+			for (int i = 0; i < n; ++i) {
+				if (bufferA[i] != bufferB[i]) return false;
+			}
+		}
+	}
+
+	/**
+	*	Reads until the buffer is full or the stream ends.
+	*	@return number of bytes read
+	*/
+	private static int readBlock (InputStream in, byte[] buffer) throws IOException
+	{
+		int n = 0;
+		while (n < buffer.length) {
+			int read = in.read (buffer, n, buffer.length - n);
+			if (read < 0) break;
+			n += read;
+		}
+		return n;
+	}
+
+	/**
+	*	Renames a file over another in one step, where the file system can.
+	*/
+	private static void moveOver (File from, File to) throws IOException
+	{
+		try {
+			Files.move (from.toPath (), to.toPath (), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move (from.toPath (), to.toPath (), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			from.delete ();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,327 @@
+import junit.framework.*;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+*	@test Runs a test case on the output formats: the outputs of OutputSink6502, exported symbols,
+*	disk images, Intel HEX and S-records, and compressed self-extracting programs.
+*	<p>
+*	Requiers that JUnit is installed.
+*	Sources in test are assembled into temporary files, which are read back and compared with
+*	the assembled image and hardcoded records.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner OutputTest
+*	</p>
+*	@author David Schager
+*/
+public class OutputTest extends TestCase implements SymbolConstant6502 {
+	private Vector mTempFiles = new Vector ();
+
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public OutputTest (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Deletes the temporary files and directories of the test.
+	*/
+	public void tearDown ()
+	{
+		for (int i = 0; i < mTempFiles.size (); ++i) {
+			File file = (File) mTempFiles.elementAt (i);
+			File[] files = file.listFiles ();
+			for (int j = 0; files != null && j < files.length; ++j) files[j].delete ();
+			file.delete ();
+		}
+		mTempFiles.clear ();
+	}
+
+	/**
+	*	Returns a temporary file, deleted after the test.
+	*/
+	private File createTemp (String suffix) throws IOException
+	{
+		File file = File.createTempFile ("jasm", suffix);
+		mTempFiles.addElement (file);
+		return file;
+	}
+
+	/**
+	*	Returns an assembler that assembles to memory.
+	*/
+	private Assembler6502 create ()
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		return asm;
+	}
+
+	/**
+	*	Assembles a source file with an assembler set up by the test, and checks that there are no errors.
+	*	@param output file name of the output of the mode, or null for none
+	*/
+	private Assembler6502 assemble (Assembler6502 asm, String filename, String output) throws IOException
+	{
+		assertEquals (filename, 0, asm.assemble (filename, output));
+		return asm;
+	}
+
+	/**
+	*	Returns the contents of a file.
+	*/
+	private byte[] read (File file) throws IOException
+	{
+		byte[] bytes = new byte [(int) file.length ()];
+		DataInputStream in = new DataInputStream (new FileInputStream (file));
+		in.readFully (bytes);
+		in.close ();
+		return bytes;
+	}
+
+	/**
+	*	Returns a temporary directory, deleted with its files after the test.
+	*/
+	private File createTempDirectory () throws IOException
+	{
+		File directory = createTemp ("");
+		directory.delete ();
+		assertTrue (directory.mkdir ());
+		return directory;
+	}
+
+	/**
+	*	Returns a little endian number from a byte array.
+	*/
+	private static int littleEndian (byte[] bytes, int offset, int length)
+	{
+		int value = 0;
+		for (int i = length - 1; i >= 0; --i) value = (value << 8) | (bytes[offset + i] & 0xff);
+		return value;
+	}
+
+	/**
+	*	Test that one assembly writes several outputs from the same image.
+	*/
+	public void testOutputs () throws IOException
+	{
+		File raw = createTemp (".bin");
+		File prg = createTemp (".prg");
+		File vice = createTemp (".lbl");
+		Assembler6502 asm = create ();
+		asm.addOutput (OutputSink6502.PRG, prg.getPath ());
+		asm.addOutput (OutputSink6502.VICE, vice.getPath ());
+		assemble (asm, "test/emu.asm", raw.getPath ());
+		byte[] image = asm.getImage ().toByteArray ();
+		assertTrue (Arrays.equals (image, read (raw)));
+		byte[] bytes = read (prg);
+		assertEquals (image.length + 2, bytes.length);
+		assertEquals (0x00, bytes[0]);
+		assertEquals (0x10, bytes[1]);
+		assertTrue (Arrays.equals (image, Arrays.copyOfRange (bytes, 2, bytes.length)));
+		assertTrue (vice.length () > 0);
+		// unchanged outputs are not written again, changed ones are replaced
+		long time = 1000000000000L;
+		assertTrue (raw.setLastModified (time));
+		FileOutputStream out = new FileOutputStream (prg);
+		out.write (1);
+		out.close ();
+		asm = create ();
+		asm.addOutput (OutputSink6502.PRG, prg.getPath ());
+		assemble (asm, "test/emu.asm", raw.getPath ());
+		assertEquals (time, raw.lastModified ());
+		assertEquals (image.length + 2, prg.length ());
+	}
+
+	/**
+	*	Test that a replaced output keeps the permissions of the file it replaces.
+	*/
+	public void testPermissions () throws IOException
+	{
+		File raw = createTemp (".bin");
+		Path path = raw.toPath ();
+		Set permissions;
+		try {
+			permissions = PosixFilePermissions.fromString ("rw-r-----");
+			Files.setPosixFilePermissions (path, permissions);
+		}
+		catch (UnsupportedOperationException e) {
+			// no POSIX permissions to keep
+			return;
+		}
+		assemble (create (), "test/emu.asm", raw.getPath ());
+		assertTrue (raw.length () > 0);
+		assertEquals (permissions, Files.getPosixFilePermissions (path));
+	}
+
+	/**
+	*	Test that when an output fails, the other outputs are still closed and written, no
+	*	temporary file is left, and the error is passed on.
+	*/
+	public void testFailedOutput () throws IOException
+	{
+		File directory = createTempDirectory ();
+		File crt = new File (directory, "emu.crt");
+		File listing = new File (directory, "emu.lst");
+		Assembler6502 asm = create ();
+		// there are no segments in banks to write a cartridge of
+		asm.addOutput (OutputSink6502.CRT, crt.getPath ());
+		asm.addOutput (OutputSink6502.LISTING, listing.getPath ());
+		try {
+			asm.assemble ("test/emu.asm", null);
+			fail ("cartridge without banks written");
+		}
+		catch (IOException e) {
+			assertTrue (e.getMessage (), e.getMessage ().indexOf ("No segments in banks") >= 0);
+		}
+		assertFalse (crt.exists ());
+		assertTrue (listing.length () > 0);
+		String[] files = directory.list ();
+		assertEquals (Arrays.asList (files).toString (), 1, files.length);
+	}
+
+	/**
+	*	Test that symbols are exported with the full path of their procs, as VICE labels and as a
+	*	binary index sorted by value that reads back to the same symbols.
+	*/
+	public void testSymbolExport () throws IOException
+	{
+		File vice = createTemp (".lbl");
+		File index = createTemp (".idx");
+		Assembler6502 asm = create ();
+		asm.addOutput (OutputSink6502.VICE, vice.getPath ());
+		asm.addOutput (OutputSink6502.INDEX, index.getPath ());
+		assemble (asm, "test/proc.asm", null);
+		String[] names = {"addr", "msg", "print", "print.addr", "print.return", "print.temp"};
+		int[] values = {0xc00a, 0xc00b, 0xc018, 0xc020, 0xc02c, 0xc02d};
+		assertEquals ("al C:c00a .addr\nal C:c00b .msg\nal C:c018 .print\nal C:c020 .print.addr\n" +
+			"al C:c02c .print.return\nal C:c02d .print.temp\n", new String (read (vice), "ISO-8859-1"));
+
+		byte[] bytes = read (index);
+		assertEquals ("JSYM", new String (bytes, 0, 4, "ISO-8859-1"));
+		assertEquals (SymbolExport6502.INDEX_VERSION, littleEndian (bytes, 4, 2));
+		assertEquals (SymbolExport6502.INDEX_ENTRY_SIZE, littleEndian (bytes, 6, 2));
+		int count = littleEndian (bytes, 8, 4);
+		int nameTable = 16 + count * SymbolExport6502.INDEX_ENTRY_SIZE;
+		assertEquals (names.length, count);
+		assertEquals (bytes.length - nameTable, littleEndian (bytes, 12, 4));
+		int previous = -1;
+		for (int i = 0; i < count; ++i) {
+			int entry = 16 + i * SymbolExport6502.INDEX_ENTRY_SIZE;
+			int value = littleEndian (bytes, entry, 4);
+			String name = new String (bytes, nameTable + littleEndian (bytes, entry + 4, 4),
+				littleEndian (bytes, entry + 8, 2), "ISO-8859-1");
+			assertTrue ("sorted by value", value >= previous);
+			previous = value;
+			assertEquals (names[i], name);
+			assertEquals (values[i], value);
+			// all are labels, the depth is the number of procs in the name
+			assertEquals (0, bytes[entry + 10]);
+			assertEquals (name.startsWith ("print.") ? 1 : 0, bytes[entry + 11]);
+		}
+	}
+
+	/**
+	*	Test that programs written to a disk image are chained over sectors, listed in the
+	*	directory and counted in the BAM, and that a file of the same name is replaced.
+	*/
+	public void testDiskImage () throws IOException
+	{
+		DiskImage6502 disk = new DiskImage6502 ("TEST", "00");
+		assertEquals (664, disk.getFreeSectors ());
+		Vector names = new Vector ();
+		Vector programs = new Vector ();
+		byte[] big = new byte [600];
+		for (int i = 0; i < big.length; ++i) big[i] = (byte) i;
+		names.addElement ("BIG");
+		programs.addElement (big);
+		// more than the 8 entries of a directory sector
+		for (int i = 0; i < 9; ++i) {
+			names.addElement ("FILE" + i);
+			programs.addElement (new byte[] {0x01, 0x08, (byte) i});
+		}
+		disk.addFiles (names, programs);
+		assertEquals (664 - 3 - 9, disk.getFreeSectors ());
+		// the second directory sector is on the directory track
+		assertFalse (disk.isFree (18, 4));
+		assertTrue (Arrays.equals (big, disk.getFile ("BIG")));
+		assertEquals (8, disk.getFile ("FILE8")[2]);
+		// first sectors of a file are 10 apart on track 17
+		assertFalse (disk.isFree (17, 0));
+		assertFalse (disk.isFree (17, 10));
+		assertTrue (disk.isFree (17, 1));
+
+		names.setSize (1);
+		programs.setSize (1);
+		programs.setElementAt (new byte[] {0x01, 0x08}, 0);
+		disk.addFiles (names, programs);
+		assertEquals (664 - 1 - 9, disk.getFreeSectors ());
+		assertEquals (2, disk.getFile ("BIG").length);
+		assertNull (disk.getFile ("NONE"));
+	}
+
+	/**
+	*	Test that Intel HEX and S-records leave out the holes, and have correct checksums.
+	*/
+	public void testHexRecords () throws IOException
+	{
+		Image6502 image = new Image6502 (0xc000);
+		image.writeByte (0xa9);
+		image.writeByte (0x01);
+		image.fillHole (0xfe);
+		image.writeByte (0x60);
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		new HexExport6502 (image).writeIntelHex (out);
+		assertEquals (":02C00000A90194\r\n:01C1000060DE\r\n:00000001FF\r\n", out.toString ());
+		out.reset ();
+		new HexExport6502 (image).writeSRecords (out, "HI");
+		assertEquals ("S0050000484969\r\nS105C000A90190\r\nS104C10060DA\r\nS5030002FA\r\nS903C0003C\r\n",
+			out.toString ());
+
+		// records past $ffff get the upper address in an extended linear address record
+		image = new Image6502 (0xfffe);
+		for (int i = 0; i < 4; ++i) image.writeByte (i);
+		out.reset ();
+		new HexExport6502 (image).writeIntelHex (out);
+		assertEquals (":02FFFE00000100\r\n:020000040001F9\r\n:020000000203F9\r\n:00000001FF\r\n",
+			out.toString ());
+	}
+
+	/**
+	*	Test that compressed blocks unpack to the same bytes, and that the self-extracting program
+	*	unpacks itself in the emulator and runs.
+	*/
+	public void testCompress () throws IOException
+	{
+		Assembler6502 asm = assemble (create (), "test/compress.asm", null);
+		assertEquals (1, asm.getCompressRegions ().size ());
+		Image6502 image = asm.getImage ();
+		byte[] bytes = image.toByteArray ();
+		byte[] packed = Compressor6502.compress (bytes, 0, bytes.length);
+		assertTrue (packed.length < bytes.length / 2);
+		assertTrue (Arrays.equals (bytes, Compressor6502.decompress (packed, 0)));
+
+		// the marked table and the whole image
+		for (int i = 0; i < 2; ++i) {
+			Compressor6502 compressor = new Compressor6502 (image, (i == 0) ? asm.getCompressRegions () : new Vector ());
+			compressor.setThreads (2);
+			ByteArrayOutputStream out = new ByteArrayOutputStream ();
+			compressor.writeTo (out);
+			assertEquals (2 - i, compressor.getBlocks ().size ());
+			assertEquals (0x080d, compressor.getEntry ());
+			byte[] prg = out.toByteArray ();
+			Image6502 loaded = new Image6502 (0x0801);
+			for (int j = 2; j < prg.length; ++j) loaded.writeByte (prg[j]);
+			Cpu6502 cpu = new Cpu6502 ();
+			cpu.load (loaded);
+			assertEquals (Cpu6502.STOP_RTS, cpu.run (0x080d, 1000000));
+			for (int j = 0; j < bytes.length; ++j) assertEquals (bytes[j] & 0xff, cpu.read (0x0801 + j));
+			assertEquals (8, cpu.read (0x0400 + 0x17));
+		}
+	}
+}
@@ -38,12 +38,25 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 	private int mParseResult = PARSERESULT_UNDEF_STATEMENT;
 	private Vector mSequence = null;
 	private int mNewOrigin = 0x0000;
+	private int mAlignment = 1;
+	private int mReserve = 0;
 	private int mIp = 0;
 	private int mPass = 1;
 	private boolean mC64UpperCase = false;
 	private boolean mC64LowerCase = false;
 	private int mValReloc = ABSOLUTE;
+	private int mRelocTarget = 0;
+	private int mRelocAddend = 0;
+	private String mExternal = null;
+	private boolean mExternals = false;
+	private Vector mSequenceRelocs = new Vector ();
 	private Vector mTempLabels = new Vector ();
+	private Stats6502 mStats = null;
+	private Evaluator mTable = null;
+	private int mTableLength = 0;
+	private RepeatLexer6502 mRepeat = null;
+	/** Name of the index variable in the expression of a .table directive */
+	public static final String TABLE_INDEX = "i";
 	
 	/**
 	*	Constructor
@@ -78,6 +91,15 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		return ((val & 0x0000FF00) != 0) ? true : false;
 	}
 	
+	/**
+	*	Returns true if the operand needs absolute addressing. A reference to an external symbol
+	*	always does, since its address is not known until link time.
+	*/
+	private boolean isWord ()
+	{
+		return hasHiByte (mConstant) || mExternal != null;
+	}
+	
 	/**
 	*	Checks if Symbol if of a certain type	
 	*/
@@ -112,6 +134,24 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 			throw new ParserException ("Label without colon must be on column 1", mLexer);
 	}
 
+	/**
+	*	Evaluates the expression that follows, and sets relocatable state from it.
+	*	@return Symbol result of expression
+	*/
+	private Symbol evaluate () throws ParserException, LexerException
+	{
+		long start = (mStats != null) ? System.nanoTime () : 0;
+		Evaluator evaluator = new Evaluator (mLexer);
+		evaluator.setExternals (mExternals);
+		Symbol eval = evaluator.evaluate (mPass, mIp, LINEFEED);
+		mValReloc = evaluator.isRelocatable ();
+		mRelocTarget = evaluator.getRelocationTarget ();
+		mRelocAddend = evaluator.getRelocationAddend ();
+		mExternal = evaluator.getExternal ();
+		if (mStats != null) mStats.addExpression (System.nanoTime () - start);
+		return eval;
+	}
+
 	/**
 	*	Evaluates expression, if there is one.
 	*	Note that if ntExpression finds a identifier, it will return a symbol with type Constant,
@@ -125,19 +165,13 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		Symbol symbol = mLexer.peekNext ();
 		int type = symbol.getType ();
 		if (type == IDENTIFIER || type == LABEL || type == CONSTANT) {
-			Evaluator evaluator = new Evaluator (mLexer);
-			Symbol eval = evaluator.evaluate (mPass, mIp, LINEFEED);
-			mValReloc = evaluator.isRelocatable ();
-			return eval;
+			return evaluate ();
 		}
 		else if (type == OPERATOR) {
 			int val = symbol.getValue ();
 			if (val == '-' || val == '~' || val == '\\' || val == '<' || val == '>' || val == '*') {
 				// unary operator or current address operator
-				Evaluator evaluator = new Evaluator (mLexer);
-				Symbol eval = evaluator.evaluate (mPass, mIp, LINEFEED);
-				mValReloc = evaluator.isRelocatable ();
-				return eval;
+				return evaluate ();
 			}
 			//else if (val == '*') {
 				//
@@ -164,6 +198,8 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 				if (adjacent == null)
 					throw new ParserException ("Cannot resolve forward reference to temporary label", mLexer);
 				mValReloc = 1;
+				mRelocTarget = adjacent.intValue ();
+				mRelocAddend = 0;
 				return new Symbol ("", CONSTANT, adjacent.intValue ());
 			}
 		}
@@ -190,6 +226,8 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 					else throw new ParserException ("Cannot resolve backward reference to temporary label", mLexer);
 				}
 				mValReloc = 1;
+				mRelocTarget = adjacent.intValue ();
+				mRelocAddend = 0;
 				return new Symbol ("", CONSTANT, adjacent.intValue ());
 			}
 		}
@@ -296,10 +334,12 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 			else // Check for Branch instructions (relative addressing)
 			if (op == BCC || op == BCS || op == BEQ || op == BMI || op == BNE || op == BPL || op == BVC || op == BVS) {
 				// is branching with relative addressing
+				if (mExternal != null)
+					throw new ParserException ("Cannot branch to external symbol " + mExternal, mLexer);
 				mAddrMode = REL;
 				mValReloc = 0;
 			}
-			else if (hasHiByte (mConstant)) {
+			else if (isWord ()) {
 				// is absolute (jsr or jmp)
 				mAddrMode = ABS;
 			}
@@ -348,7 +388,7 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 				// is indexed x addressing
 				if (mPass != 1 && !within16bits (mConstant)) 
 					throw new ParserException ("Number too large", mLexer);
-				else if (hasHiByte (mConstant)) {
+				else if (isWord ()) {
 					// is absolute indexed x
 					mAddrMode = ABSX;
 				}
@@ -380,7 +420,7 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 				// Note: In pass 1 ABSY and ZPY is ambiguous and might turn out wrong
 				// when ntExpression returns its dummy constant, with the result
 				// that labels might be miscalculated since ABSY and ZPY has different opcode byte lengths (3 & 2)
-				else if (hasHiByte (mConstant)) {
+				else if (isWord ()) {
 					// is absolute indexed y
 					mAddrMode = ABSY;
 				}
@@ -543,6 +583,124 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		return success;
 	}
 	
+	/**
+	*	Try parse align directive (.align n)
+	*	@param symbol The current symbol from lexer
+	*	@return true if succesful
+	*/	
+	private boolean ntAlign (Symbol symbol) throws ParserException, LexerException
+	{
+		boolean success = false;
+		if (symbol.getType () != CONSTANT) 
+			throw new ParserException ("Expected alignment", mLexer);
+		int align = symbol.getValue ();
+		if (align <= 0 || !within16bits (align))
+			throw new ParserException ("Alignment out of range", mLexer);
+		if (!expectTerminal (LINEFEED))
+			throw new ParserException ("Unexpected end of statement", mLexer);
+		mLexer.getNext ();
+		mAlignment = align;
+		success = true;
+
+		return success;
+	}
+	
+	/**
+	*	Try parse reserve directive (.res n)
+	*	@param symbol The current symbol from lexer
+	*	@return true if succesful
+	*/	
+	private boolean ntReserve (Symbol symbol) throws ParserException, LexerException
+	{
+		if (symbol.getType () != CONSTANT) 
+			throw new ParserException ("Expected number of bytes to reserve", mLexer);
+		int n = symbol.getValue ();
+		if (n < 0 || n > 0x10000)
+			throw new ParserException ("Number of bytes to reserve out of range", mLexer);
+		if (!expectTerminal (LINEFEED))
+			throw new ParserException ("Unexpected end of statement", mLexer);
+		mLexer.getNext ();
+		mReserve = n;
+		return true;
+	}
+	
+	/**
+	*	Try parse table directive (.table n, expression), whose expression is evaluated for
+	*	each entry with the index variable from 0 to n - 1. The expression is translated once
+	*	here, and the assembler evaluates it for each entry in pass 2.
+	*	@param symbol The current symbol from lexer
+	*	@return true if succesful
+	*/	
+	private boolean ntTable (Symbol symbol) throws ParserException, LexerException
+	{
+		if (symbol.getType () != CONSTANT) 
+			throw new ParserException ("Expected number of table entries", mLexer);
+		int n = symbol.getValue ();
+		if (n < 0 || n > 0x10000)
+			throw new ParserException ("Number of table entries out of range", mLexer);
+		if (!expectTerminal (DELIMITER))
+			throw new ParserException ("Expected expression for the table entries", mLexer);
+		mLexer.getNext ();
+		mTable = new Evaluator (mLexer);
+		mTable.setExternals (mExternals);
+		mTable.compile (mPass, mIp, LINEFEED, TABLE_INDEX);
+		if (!expectTerminal (LINEFEED))
+			throw new ParserException ("Unexpected end of statement", mLexer);
+		mLexer.getNext ();
+		mTableLength = n;
+		return true;
+	}
+	
+	/**
+	*	Try parse repeat directive (.rept n or .rept n, variable), and record the statements up
+	*	to the matching .endrept to replay them n times.
+	*	@param symbol The current symbol from lexer
+	*	@return true if succesful
+	*/	
+	private boolean ntRepeat (Symbol symbol) throws ParserException, LexerException
+	{
+		if (symbol.getType () != CONSTANT) 
+			throw new ParserException ("Expected number of repetitions", mLexer);
+		int n = symbol.getValue ();
+		if (n < 0 || n > 0x10000)
+			throw new ParserException ("Number of repetitions out of range", mLexer);
+		String variable = null;
+		if (expectTerminal (DELIMITER)) {
+			mLexer.getNext ();
+			Symbol name = mLexer.getNext ();
+			if (name.getType () != IDENTIFIER)
+				throw new ParserException ("Expected name of the repetition variable", mLexer);
+			variable = name.getName ();
+		}
+		if (!expectTerminal (LINEFEED))
+			throw new ParserException ("Unexpected end of statement", mLexer);
+		mLexer.getNext ();
+		mRepeat = new RepeatLexer6502 (mLexer, n, variable);
+		mRepeat.record ();
+		return true;
+	}
+	
+	/**
+	*	Try parse segment directive (.segment "name" or .segment name)
+	*	@param symbol The current symbol from lexer
+	*	@return true if succesful
+	*/	
+	private boolean ntSegment (Symbol symbol) throws ParserException, LexerException
+	{
+		if (symbol.getType () == CHARSEQUENCE) {
+			mSymbol = new Symbol (mLexer.getCharSequence (), CHARSEQUENCE, NULL);
+		}
+		else if (symbol.getType () == IDENTIFIER || symbol.getType () == LABEL) {
+			mSymbol = new Symbol (symbol.getName (), CHARSEQUENCE, NULL);
+		}
+		else throw new ParserException ("Expected name of segment", mLexer);
+		
+		if (!expectTerminal (LINEFEED))
+			throw new ParserException ("Unexpected end of statement", mLexer);
+		mLexer.getNext ();
+		return true;
+	}
+	
 	/**
 	*	Try parse include directive (.include "somefile")
 	*	@param symbol The current symbol from lexer
@@ -574,6 +732,7 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		if (symbol.getType () == CONSTANT) {
 			if (mPass != 1 && !is8bits (symbol.getValue ()))
 				throw new ParserException ("Number too large", mLexer);
+			addSequenceRelocation ();
 			mSequence.addElement (new Integer (symbol.getValue ()));
 		}
 		else if (symbol.getType () == CHARSEQUENCE) {
@@ -617,6 +776,17 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		return success;
 	}
 	
+	/**
+	*	Records the relocation of the sequence element about to be added, if it has one.
+	*/
+	private void addSequenceRelocation ()
+	{
+		Relocation6502 reloc = getRelocation ();
+		if (reloc == null) return;
+		reloc.setOffset (mSequence.size ());
+		mSequenceRelocs.addElement (reloc);
+	}
+	
 	/**
 	*	Try parse word sequence (.word x,x,x...)
 	*	@param symbol The current symbol from lexer
@@ -629,6 +799,7 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		if (e.getType () == CONSTANT) {
 			if (mPass != 1 && !within16bits (e.getValue ()))
 				throw new ParserException ("Number too large", mLexer);
+			addSequenceRelocation ();
 			mSequence.addElement (new Integer (e.getValue ()));
 		}
 		else throw new ParserException ("Expected constant", mLexer);
@@ -724,6 +895,18 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		return success;		
 	}
 
+	/**
+	*	Try parse block directives without operands (.page, .endpage, .compress and .endcompress)
+	*/
+	private boolean ntPageBlock (Symbol symbol) throws ParserException, LexerException
+	{
+		boolean success = false;
+		if (symbol.getType () != LINEFEED) 
+			throw new ParserException ("Unexpected end of statement", mLexer);
+		success = true;
+		return success;		
+	}
+
 	/**
 	*	Try parse identifier
 	*	@return true if succesful
@@ -788,6 +971,7 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		
 		mConstant = mAddrMode = 0;
 		mValReloc = ABSOLUTE;
+		mExternal = null;
 		mFixed = true;
 		mSymbol = null;
 		mParseResult = PARSERESULT_UNDEF_STATEMENT;
@@ -831,13 +1015,31 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 			}
 			else if (type == BYTE) {
 				mSequence.clear ();
+				mSequenceRelocs.clear ();
 				if (ntByteSequence (ntExpression ())) {
 					mParseResult = PARSERESULT_BYTE_SEQ;
 				}
 				else throw new ParserException ("Parser6502.doNonTerminal error 3", mLexer);
 			}
+			else if (type == PTEXT) {
+				mSequence.clear ();
+				mSequenceRelocs.clear ();
+				if (ntByteSequence (ntExpression ())) {
+					mParseResult = PARSERESULT_PTEXT;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 14", mLexer);
+			}
+			else if (type == PTEXTDICT) {
+				mSequence.clear ();
+				mSequenceRelocs.clear ();
+				if (ntWordSequence (ntExpression ())) {
+					mParseResult = PARSERESULT_PTEXTDICT;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 15", mLexer);
+			}
 			else if (type == WORD) {
 				mSequence.clear ();
+				mSequenceRelocs.clear ();
 				if (ntWordSequence (ntExpression ())) {
 					mParseResult = PARSERESULT_WORD_SEQ;
 				}
@@ -855,6 +1057,63 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 				}
 				else throw new ParserException ("Parser6502.doNonTerminal error 6", mLexer);
 			}
+			else if (type == ALIGN) {
+				if (ntAlign (ntExpression ())) {
+					mParseResult = PARSERESULT_ALIGN;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 7", mLexer);
+			}
+			else if (type == PAGE) {
+				if (ntPageBlock (mLexer.getNext ())) {
+					mParseResult = PARSERESULT_PAGE;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 8", mLexer);
+			}
+			else if (type == ENDPAGE) {
+				if (ntPageBlock (mLexer.getNext ())) {
+					mParseResult = PARSERESULT_ENDPAGE;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 9", mLexer);
+			}
+			else if (type == COMPRESS) {
+				if (ntPageBlock (mLexer.getNext ())) {
+					mParseResult = PARSERESULT_COMPRESS;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 12", mLexer);
+			}
+			else if (type == ENDCOMPRESS) {
+				if (ntPageBlock (mLexer.getNext ())) {
+					mParseResult = PARSERESULT_ENDCOMPRESS;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 13", mLexer);
+			}
+			else if (type == TABLE) {
+				if (ntTable (ntExpression ())) {
+					mParseResult = PARSERESULT_TABLE;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 16", mLexer);
+			}
+			else if (type == REPT) {
+				if (ntRepeat (ntExpression ())) {
+					mParseResult = PARSERESULT_REPT;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 17", mLexer);
+			}
+			else if (type == ENDREPT) {
+				throw new ParserException ("Found .endrept without .rept", mLexer);
+			}
+			else if (type == SEGMENT) {
+				if (ntSegment (mLexer.getNext ())) {
+					mParseResult = PARSERESULT_SEGMENT;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 10", mLexer);
+			}
+			else if (type == RESERVE) {
+				if (ntReserve (ntExpression ())) {
+					mParseResult = PARSERESULT_RESERVE;
+				}
+				else throw new ParserException ("Parser6502.doNonTerminal error 11", mLexer);
+			}
 			else if (!ntIdentifier (symbol)) {
 				mParseResult = PARSERESULT_UNDEF_STATEMENT;
 			}
@@ -870,6 +1129,41 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		return mNewOrigin;
 	}
 	/**
+	*	Returns the alignment of the last .align directive
+	*/
+	public int getAlignment ()
+	{
+		return mAlignment;
+	}
+	/**
+	*	Returns the number of bytes of the last .res directive
+	*/
+	public int getReserve ()
+	{
+		return mReserve;
+	}
+	/**
+	*	Returns the number of entries of the last .table directive
+	*/
+	public int getTableLength ()
+	{
+		return mTableLength;
+	}
+	/**
+	*	Returns the evaluator of the entries of the last .table directive
+	*/
+	public Evaluator getTable ()
+	{
+		return mTable;
+	}
+	/**
+	*	Returns the lexer that replays the block of the last .rept directive
+	*/
+	public RepeatLexer6502 getRepeat ()
+	{
+		return mRepeat;
+	}
+	/**
 	*	Returns machine code
 	*/
 	public MachineCode6502 getMachineCode ()
@@ -941,6 +1235,14 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 		mC64LowerCase = mode;
 	}
 	
+	/**
+	*	Sets the statistics to count evaluated expressions in, or null to not count.
+	*/
+	public void setStats (Stats6502 stats)
+	{
+		mStats = stats;
+	}
+	
 	/**
 	*	Sets the lexer
 	*/
@@ -959,5 +1261,41 @@ public class Parser6502 implements SymbolConstant6502, AbstractParser {
 	{
 		return mValReloc;
 	}
+	
+	/**
+	*	Returns the relocation of the operand of the last parse result, with offset 0, or null
+	*	if the operand does not move with the code.
+	*/
+	public Relocation6502 getRelocation ()
+	{
+		if (mValReloc == ABSOLUTE) return null;
+		return new Relocation6502 (0, mValReloc, mRelocTarget, mRelocAddend, mExternal);
+	}
+	
+	/**
+	*	Returns the relocations of the elements of the last byte or word sequence, with the index
+	*	of the element as offset.
+	*/
+	public Vector getSequenceRelocations ()
+	{
+		return mSequenceRelocs;
+	}
+	
+	/**
+	*	Returns the name of the external symbol the last parse result refers to, or null.
+	*/
+	public String getExternal ()
+	{
+		return mExternal;
+	}
+	
+	/**
+	*	Makes identifiers that are undefined in pass 2 references to external symbols, for object
+	*	modules, instead of errors.
+	*/
+	public void setExternals (boolean externals)
+	{
+		mExternals = externals;
+	}
 
 }
@@ -0,0 +1,581 @@
+import java.io.*;
+import java.util.*;
+
+/**
+*	Placement of segments in memory, read from a configuration file with one segment per line:
+*	<pre>
+*	; name	start	size	fill	kind	bank
+*	zp		$02		$fe		none	bss
+*	code	$0801	$9000	none	code
+*	data	*		$1000	$ff		code
+*	bss		*		*		none	bss
+*	tables	best	*		none	code
+*	level1	$8000	$2000	$ff		code	1
+*	</pre>
+*	A start of * places the segment after the segment on the line before, aligned to the
+*	largest .align used in it. A start of first or best packs the segment into a gap between
+*	origins or other segments, the first gap it fits in or the smallest, once all other segments
+*	are placed. A segment that fits in no gap goes after the end of the output. A size of * means
+*	no limit. The fill byte fills the segment up to
+*	its size in the output, none leaves it at the bytes used. Segments of kind bss only reserve
+*	space with .res, and are left out of the output.
+*
+*	The optional bank puts a segment in a numbered bank, like a bank of a cartridge. Segments in
+*	different banks may use the same addresses, and labels in them are global like all labels,
+*	so code in one bank refers to labels in another by their address. Banked segments are left
+*	out of the merged image, and written as one image per bank, see getBankImage.
+*
+*	Code before the first .segment directive is assembled as before, with .org, and the first
+*	floating segment follows it. After pass 1 the layout stage places the floating segments,
+*	and checks that no segment overflows its size or overlaps another. After pass 2 the images
+*	of the segments are merged into one.
+*
+*	@author David Schager
+*/
+public class Placement6502 {
+	/** Placement used when the source uses segments and no configuration is given */
+	public static final String DEFAULT =
+		"code * * none code\n" +
+		"data * * none code\n" +
+		"bss * * none bss\n" +
+		"zp $02 $fe none bss\n";
+
+	private Vector mSegments = new Vector ();
+	private Vector mDefaultRanges = new Vector ();
+	private int mPackedBytes = 0;
+
+	/**
+	*	Reads a placement configuration.
+	*	@param in reader of configuration
+	*	@param name name of configuration, for error messages
+	*/
+	public Placement6502 (Reader in, String name) throws IOException
+	{
+		BufferedReader reader = new BufferedReader (in);
+		String line;
+		int lineNum = 0;
+		while ((line = reader.readLine ()) != null) {
+			++lineNum;
+			int comment = line.indexOf (';');
+			if (comment >= 0) line = line.substring (0, comment);
+			StringTokenizer tokens = new StringTokenizer (line);
+			if (!tokens.hasMoreTokens ()) continue;
+			int count = tokens.countTokens ();
+			if (count != 5 && count != 6)
+				throw new IOException ("Expected name, start, size, fill, kind and optional bank in " + name + ", line " + lineNum);
+			String segmentName = tokens.nextToken ();
+			if (getSegment (segmentName) != null)
+				throw new IOException ("Segment " + segmentName + " is placed twice in " + name + ", line " + lineNum);
+			try {
+				String startToken = tokens.nextToken ();
+				int start;
+				if (startToken.equals ("first")) start = Segment6502.FIRST_FIT;
+				else if (startToken.equals ("best")) start = Segment6502.BEST_FIT;
+				else start = parseNumber (startToken, "*");
+				int size = parseNumber (tokens.nextToken (), "*");
+				int fill = parseNumber (tokens.nextToken (), "none");
+				String kind = tokens.nextToken ();
+				if (!kind.equals ("code") && !kind.equals ("bss"))
+					throw new NumberFormatException ("kind must be code or bss");
+				if (start > 0xFFFF || size > 0x10000 || fill > 0xFF)
+					throw new NumberFormatException ("number out of range");
+				Segment6502 segment = new Segment6502 (segmentName, start, size, fill, kind.equals ("bss"));
+				if (count == 6) {
+					int bank = parseNumber (tokens.nextToken (), "none");
+					if (bank > 0xFFFF) throw new NumberFormatException ("bank out of range");
+					if (bank >= 0 && start < 0) throw new NumberFormatException ("a segment in a bank needs a start address");
+					if (bank >= 0) segment.setBank (bank);
+				}
+				mSegments.addElement (segment);
+			}
+			catch (NumberFormatException e) {
+				throw new IOException ("Malformed segment " + segmentName + " in " + name + ", line " + lineNum +
+					": " + e.getMessage ());
+			}
+		}
+	}
+
+	/**
+	*	Reads a placement configuration file.
+	*/
+	public static Placement6502 read (String filename) throws IOException
+	{
+		Reader in = new FileReader (filename);
+		try {
+			return new Placement6502 (in, filename);
+		}
+		finally {
+			in.close ();
+		}
+	}
+
+	/**
+	*	Returns the default placement.
+	*/
+	public static Placement6502 createDefault ()
+	{
+		try {
+			return new Placement6502 (new StringReader (DEFAULT), "default placement");
+		}
+		catch (IOException e) {
+			throw new IllegalStateException (e.getMessage ());
+		}
+	}
+
+	/**
+	*	Parses a number in decimal, or hex with $ prefix.
+	*	@param none word that means no number, returned as -1
+	*/
+	private static int parseNumber (String s, String none)
+	{
+		if (s.equals (none)) return -1;
+		int value = s.startsWith ("$") ? Integer.parseInt (s.substring (1), 16) : Integer.parseInt (s);
+		if (value < 0) throw new NumberFormatException ("negative number " + s);
+		return value;
+	}
+
+	/**
+	*	Returns a segment by name, or null if it is not placed.
+	*/
+	public Segment6502 getSegment (String name)
+	{
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (segment.getName ().equals (name)) return segment;
+		}
+		return null;
+	}
+
+	/**
+	*	Returns the segments in the order they are placed.
+	*/
+	public Segment6502[] getSegments ()
+	{
+		Segment6502[] segments = new Segment6502 [mSegments.size ()];
+		mSegments.copyInto (segments);
+		return segments;
+	}
+
+	/**
+	*	Returns true if source used any of the segments.
+	*/
+	public boolean isUsed ()
+	{
+		for (int i = 0; i < mSegments.size (); ++i) {
+			if (((Segment6502) mSegments.elementAt (i)).isUsed ()) return true;
+		}
+		return false;
+	}
+
+	/**
+	*	Prepares all segments for pass 1.
+	*/
+	public void reset ()
+	{
+		for (int i = 0; i < mSegments.size (); ++i) ((Segment6502) mSegments.elementAt (i)).reset ();
+	}
+
+	/**
+	*	Places the floating segments after pass 1, and checks the sizes and overlaps.
+	*	@param defaultRanges address ranges of the code outside segments as int[] {start, end}
+	*	@param defaultEnd end address of the code outside segments, where floating segments start
+	*	@return Vector of error messages, empty if the layout fits
+	*/
+	public Vector layout (Vector defaultRanges, int defaultEnd)
+	{
+		Vector errors = new Vector ();
+		mDefaultRanges = defaultRanges;
+		mPackedBytes = 0;
+		int follow = defaultEnd;
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			// packed once the gaps are known, banks are apart from the main program
+			if (segment.isPackable () || segment.isBanked ()) continue;
+			if (segment.isFloating ()) place (segment, follow, errors);
+			follow = segment.getBase () + segment.getLength ();
+		}
+		Vector gaps = findGaps ();
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (!segment.isPackable () || !segment.isUsed ()) continue;
+			if (pack (segment, gaps)) mPackedBytes += segment.getLength ();
+			else place (segment, getOutputEnd (defaultEnd), errors);
+		}
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (segment.getSize () >= 0 && segment.getUsed () > segment.getSize ()) {
+				errors.addElement ("Segment " + segment.getName () + " overflows its size of " + segment.getSize () +
+					" bytes by " + (segment.getUsed () - segment.getSize ()) + " bytes");
+			}
+			if (segment.isUsed () && segment.getBase () + segment.getLength () > 0x10000) {
+				errors.addElement ("Segment " + segment.getName () + " does not fit below $10000");
+			}
+		}
+		// check for overlaps in each bank, sorted by bank and start address
+		Vector ranges = new Vector ();
+		Integer noBank = Integer.valueOf (Segment6502.NO_BANK);
+		for (int i = 0; i < defaultRanges.size (); ++i) {
+			int[] range = (int[]) defaultRanges.elementAt (i);
+			ranges.addElement (new Object[] {"code outside segments", Integer.valueOf (range[0]), Integer.valueOf (range[1]), noBank});
+		}
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (segment.getLength () == 0) continue;
+			ranges.addElement (new Object[] {"segment " + segment.getName (), Integer.valueOf (segment.getBase ()),
+				Integer.valueOf (segment.getBase () + segment.getLength ()), Integer.valueOf (segment.getBank ())});
+		}
+		Object[] sorted = ranges.toArray ();
+		Arrays.sort (sorted, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				int bank = ((Integer) ((Object[]) a)[3]).compareTo ((Integer) ((Object[]) b)[3]);
+				if (bank != 0) return bank;
+				return ((Integer) ((Object[]) a)[1]).compareTo ((Integer) ((Object[]) b)[1]);
+			}
+		});
+		for (int i = 1; i < sorted.length; ++i) {
+			Object[] prev = (Object[]) sorted[i - 1];
+			Object[] next = (Object[]) sorted[i];
+			if (!prev[3].equals (next[3])) continue;
+			if (((Integer) prev[2]).intValue () > ((Integer) next[1]).intValue ()) {
+				errors.addElement ("The " + prev[0] + " overlaps the " + next[0] + " at $" +
+					Integer.toHexString (((Integer) next[1]).intValue ()));
+			}
+		}
+		return errors;
+	}
+
+	/**
+	*	Moves a floating segment to an address, aligned upwards.
+	*/
+	private void place (Segment6502 segment, int address, Vector errors)
+	{
+		int alignment = segment.getAlignment ();
+		segment.moveTo (((address + alignment - 1) / alignment) * alignment);
+		// pass 1 chose absolute addressing for the labels in the segment
+		if (segment.isUsed () && segment.getBase () < 0x100) {
+			errors.addElement ("Segment " + segment.getName () + " follows into zero page, give it a start address");
+		}
+	}
+
+	/**
+	*	Returns the end of the output, after the code outside segments and the placed segments.
+	*/
+	private int getOutputEnd (int defaultEnd)
+	{
+		int end = defaultEnd;
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (segment.isBss () || segment.isBanked () || segment.getLength () == 0) continue;
+			if (segment.isPackable () && !segment.isPacked ()) continue;
+			end = Math.max (end, segment.getBase () + segment.getLength ());
+		}
+		return end;
+	}
+
+	/**
+	*	Returns the gaps in the output between the code outside segments and the placed segments,
+	*	without the space reserved by bss segments, as int[] {start, end}.
+	*/
+	private Vector findGaps ()
+	{
+		Vector output = new Vector (mDefaultRanges);
+		Vector reserved = new Vector ();
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (segment.isPackable () || segment.isBanked () || segment.getLength () == 0) continue;
+			int[] range = new int[] {segment.getBase (), segment.getBase () + segment.getLength ()};
+			if (segment.isBss ()) reserved.addElement (range);
+			else output.addElement (range);
+		}
+		Object[] sorted = output.toArray ();
+		Arrays.sort (sorted, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				return ((int[]) a)[0] - ((int[]) b)[0];
+			}
+		});
+		Vector gaps = new Vector ();
+		for (int i = 1; i < sorted.length; ++i) {
+			int end = ((int[]) sorted[i - 1])[1];
+			int start = ((int[]) sorted[i])[0];
+			if (start > end) gaps.addElement (new int[] {end, start});
+		}
+		// a gap can hold variables of a bss segment, which must not be overwritten
+		for (int i = 0; i < reserved.size (); ++i) {
+			int[] range = (int[]) reserved.elementAt (i);
+			for (int j = gaps.size () - 1; j >= 0; --j) {
+				int[] gap = (int[]) gaps.elementAt (j);
+				if (range[1] <= gap[0] || range[0] >= gap[1]) continue;
+				gaps.removeElementAt (j);
+				if (range[1] < gap[1]) gaps.insertElementAt (new int[] {range[1], gap[1]}, j);
+				if (range[0] > gap[0]) gaps.insertElementAt (new int[] {gap[0], range[0]}, j);
+			}
+		}
+		return gaps;
+	}
+
+	/**
+	*	Packs a segment into the first gap it fits in, or the smallest, and takes the space from
+	*	the gap.
+	*	@return false if the segment fits in no gap
+	*/
+	private boolean pack (Segment6502 segment, Vector gaps)
+	{
+		int alignment = segment.getAlignment ();
+		int length = segment.getLength ();
+		int found = -1;
+		int foundStart = 0;
+		int foundSize = 0;
+		for (int i = 0; i < gaps.size (); ++i) {
+			int[] gap = (int[]) gaps.elementAt (i);
+			int start = ((gap[0] + alignment - 1) / alignment) * alignment;
+			if (start + length > gap[1]) continue;
+			if (found < 0 || gap[1] - gap[0] < foundSize) {
+				found = i;
+				foundStart = start;
+				foundSize = gap[1] - gap[0];
+			}
+			if (segment.getStart () == Segment6502.FIRST_FIT) break;
+		}
+		if (found < 0) return false;
+		segment.moveTo (foundStart);
+		segment.setPacked ();
+		int[] gap = (int[]) gaps.elementAt (found);
+		gaps.removeElementAt (found);
+		if (foundStart + length < gap[1]) gaps.insertElementAt (new int[] {foundStart + length, gap[1]}, found);
+		if (foundStart > gap[0]) gaps.insertElementAt (new int[] {gap[0], foundStart}, found);
+		return true;
+	}
+
+	/**
+	*	Returns the number of bytes of segments packed into gaps by the last layout, which the
+	*	output would otherwise grow by.
+	*/
+	public int getPackedBytes ()
+	{
+		return mPackedBytes;
+	}
+
+	/**
+	*	Prepares the segments for pass 2.
+	*/
+	public void beginPass2 ()
+	{
+		for (int i = 0; i < mSegments.size (); ++i) ((Segment6502) mSegments.elementAt (i)).beginPass2 ();
+	}
+
+	/**
+	*	Merges the code outside segments and the images of the segments after pass 2 into one
+	*	image. Segments are filled up to their size with their fill byte, and space between
+	*	segments is a hole filled with zeroes. Segments packed into a hole of the code outside
+	*	segments take the place of the zeroes. Segments in banks are left out.
+	*	@param image image of the code outside segments
+	*/
+	public Image6502 merge (Image6502 image)
+	{
+		// blocks of all images between holes, as Object[] {image, int[] {start, length}}
+		Vector blocks = new Vector ();
+		addBlocks (blocks, image);
+		addSegmentBlocks (blocks, Segment6502.NO_BANK);
+		if (blocks.size () == 0) return image;
+		return mergeBlocks (blocks);
+	}
+
+	/**
+	*	Returns the banks that used segments are in, in ascending order.
+	*/
+	public int[] getBanks ()
+	{
+		TreeSet banks = new TreeSet ();
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			if (segment.isBanked () && segment.isUsed () && !segment.isBss ()) banks.add (Integer.valueOf (segment.getBank ()));
+		}
+		int[] result = new int [banks.size ()];
+		int n = 0;
+		for (Iterator it = banks.iterator (); it.hasNext (); ) result[n++] = ((Integer) it.next ()).intValue ();
+		return result;
+	}
+
+	/**
+	*	Merges the images of the segments in a bank after pass 2, like merge does for the main
+	*	program. The image starts at the lowest segment of the bank.
+	*	@return image of bank, or null if no used segment is in the bank
+	*/
+	public Image6502 getBankImage (int bank)
+	{
+		Vector blocks = new Vector ();
+		addSegmentBlocks (blocks, bank);
+		if (blocks.size () == 0) return null;
+		return mergeBlocks (blocks);
+	}
+
+	/**
+	*	Writes the banks as a C64 cartridge image (.crt), a header and one CHIP packet per bank
+	*	with its load address. Numbers are big endian, as the format wants.
+	*	@param name name of cartridge, cut to 32 characters
+	*	@param hardwareType cartridge hardware type, or -1 for a normal cartridge if there is one
+	*		bank, and Magic Desk (19) if there are more
+	*/
+	public void writeCrtTo (OutputStream out, String name, int hardwareType) throws IOException
+	{
+		int[] banks = getBanks ();
+		Image6502[] images = new Image6502 [banks.length];
+		// a bank reaching past $a000 needs the 16K configuration
+		int game = 1;
+		for (int i = 0; i < banks.length; ++i) {
+			images[i] = getBankImage (banks[i]);
+			if (images[i].getEndAddress () > 0xa000) game = 0;
+		}
+		if (hardwareType < 0) hardwareType = (banks.length > 1) ? 19 : 0;
+		DataOutputStream data = new DataOutputStream (out);
+		data.writeBytes ("C64 CARTRIDGE   ");
+		data.writeInt (0x40);
+		data.writeShort (0x0100);
+		data.writeShort (hardwareType);
+		// EXROM active, GAME as needed
+		data.writeByte (0);
+		data.writeByte (game);
+		data.write (new byte [6]);
+		byte[] title = new byte [32];
+		for (int i = 0; i < name.length () && i < title.length; ++i) title[i] = (byte) name.charAt (i);
+		data.write (title);
+		for (int i = 0; i < banks.length; ++i) {
+			data.writeBytes ("CHIP");
+			data.writeInt (0x10 + images[i].getLength ());
+			// ROM
+			data.writeShort (0);
+			data.writeShort (banks[i]);
+			data.writeShort (images[i].getStartAddress ());
+			data.writeShort (images[i].getLength ());
+			images[i].writeTo (data);
+		}
+		data.flush ();
+	}
+
+	/**
+	*	Writes the banks one after the other in bank order, as a ROM image for a programmer. Each
+	*	bank is padded to the length of the longest bank, and missing banks are zeros, so bank n
+	*	starts at n times that length.
+	*/
+	public void writeBanksTo (OutputStream out) throws IOException
+	{
+		int[] banks = getBanks ();
+		if (banks.length == 0) return;
+		Image6502[] images = new Image6502 [banks.length];
+		int length = 0;
+		for (int i = 0; i < banks.length; ++i) {
+			images[i] = getBankImage (banks[i]);
+			length = Math.max (length, images[i].getLength ());
+		}
+		byte[] padding = new byte [length];
+		int next = 0;
+		for (int i = 0; i < banks.length; ++i) {
+			for (; next < banks[i]; ++next) out.write (padding);
+			images[i].writeTo (out);
+			out.write (padding, 0, length - images[i].getLength ());
+			++next;
+		}
+	}
+
+	/**
+	*	Adds the blocks of the segments in a bank, filled up to their size.
+	*/
+	private void addSegmentBlocks (Vector blocks, int bank)
+	{
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			Image6502 piece = segment.getImage ();
+			if (segment.isBss () || piece == null || segment.getBank () != bank) continue;
+			if (segment.getFill () >= 0) {
+				while (piece.getLength () < segment.getSize ()) piece.writeByte (segment.getFill ());
+			}
+			addBlocks (blocks, piece);
+		}
+	}
+
+	/**
+	*	Merges blocks into one image, in address order, with holes between them.
+	*/
+	private static Image6502 mergeBlocks (Vector blocks)
+	{
+		Object[] sorted = blocks.toArray ();
+		Arrays.sort (sorted, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				return ((int[]) ((Object[]) a)[1])[0] - ((int[]) ((Object[]) b)[1])[0];
+			}
+		});
+		Image6502 merged = new Image6502 (((int[]) ((Object[]) sorted[0])[1])[0]);
+		for (int i = 0; i < sorted.length; ++i) {
+			Image6502 piece = (Image6502) ((Object[]) sorted[i])[0];
+			int[] block = (int[]) ((Object[]) sorted[i])[1];
+			merged.fillHole (block[0] - merged.getEndAddress ());
+			merged.append (piece, block[0], block[1]);
+		}
+		return merged;
+	}
+
+	/**
+	*	Adds the blocks of an image between its holes.
+	*/
+	private static void addBlocks (Vector blocks, Image6502 image)
+	{
+		Vector v = image.getBlocks (1);
+		for (int i = 0; i < v.size (); ++i) blocks.addElement (new Object[] {image, v.elementAt (i)});
+	}
+
+	/**
+	*	Formats an address as four hex digits.
+	*/
+	private static String hex (int value)
+	{
+		String s = Integer.toHexString (value);
+		while (s.length () < 4) s = "0" + s;
+		return "$" + s;
+	}
+
+	/**
+	*	Pads a string with spaces to a width.
+	*/
+	private static String pad (String s, int width)
+	{
+		StringBuffer b = new StringBuffer (s);
+		while (b.length () < width) b.append (' ');
+		return b.toString ();
+	}
+
+	/**
+	*	Prints the memory map, with used and free bytes of each segment, after assembly.
+	*/
+	public void printMemoryMap (PrintStream out)
+	{
+		out.println (pad ("Segment", 14) + pad ("Start", 8) + pad ("End", 8) + pad ("Used", 8) + pad ("Size", 8) +
+			"Free");
+		for (int i = 0; i < mDefaultRanges.size (); ++i) {
+			int[] range = (int[]) mDefaultRanges.elementAt (i);
+			out.println (pad ("(no segment)", 14) + pad (hex (range[0]), 8) + pad (hex (range[1] - 1), 8) +
+				pad ("" + (range[1] - range[0]), 8) + pad ("*", 8) + "*");
+		}
+		int used = 0;
+		int free = 0;
+		for (int i = 0; i < mSegments.size (); ++i) {
+			Segment6502 segment = (Segment6502) mSegments.elementAt (i);
+			String end = (segment.getUsed () > 0) ? hex (segment.getBase () + segment.getUsed () - 1) : "-";
+			String size = (segment.getSize () >= 0) ? "" + segment.getSize () : "*";
+			String left = "*";
+			if (segment.getSize () >= 0) {
+				int n = Math.max (0, segment.getSize () - segment.getUsed ());
+				left = "" + n;
+				free += n;
+			}
+			used += segment.getUsed ();
+			out.println (pad (segment.getName (), 14) + pad (hex (segment.getBase ()), 8) + pad (end, 8) +
+				pad ("" + segment.getUsed (), 8) + pad (size, 8) + left + (segment.isBss () ? "  (bss)" : "") +
+				(segment.isPacked () ? "  (packed)" : "") + (segment.isBanked () ? "  (bank " + segment.getBank () + ")" : ""));
+		}
+		out.println ("Total " + used + " bytes used in segments, " + free + " bytes free in segments with a size");
+		if (mPackedBytes > 0) out.println ("Packed " + mPackedBytes + " bytes into gaps, which the output would grow by");
+	}
+}
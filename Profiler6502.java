@@ -0,0 +1,313 @@
+import java.io.*;
+import java.util.*;
+
+/**
+*	Cycle profiler for programs executed by Cpu6502.
+*	The cpu tells the profiler about each executed instruction, and the profiler sums up cycles,
+*	execution counts, page crossing penalties and taken branches per address.
+*	The report attributes the cycles to source lines and labels, by the address to source map and
+*	symbols of the assembler that produced the program. It lists hot spots sorted by cycles:
+*	source lines, labels, loops (backward branches and jumps), and branches.
+*
+*	Usage:
+*	Profiler6502 profiler = new Profiler6502 ();
+*	cpu.setProfiler (profiler);
+*	cpu.run (address, maxCycles);
+*	profiler.report (System.out, assembler, 20);
+*
+*	@see Cpu6502
+*	@author David Schager
+*/
+public class Profiler6502 implements SymbolConstant6502 {
+	private long[] mCycles = new long [0x10000];
+	private long[] mCount = new long [0x10000];
+	private long[] mPenalty = new long [0x10000];
+	private long[] mTaken = new long [0x10000];
+	private long mTotalCycles = 0;
+	private long mTotalInstructions = 0;
+	private long mTotalPenalty = 0;
+	private long mTotalTaken = 0;
+	private HashMap mSourceLines = new HashMap ();
+
+	/**
+	*	Called by Cpu6502 for each executed instruction.
+	*	@param pc address of instruction
+	*	@param cycles cycles the instruction took, including penalties
+	*	@param penalty cycles paid for page crossings
+	*	@param taken true if the instruction was a taken branch
+	*/
+	public void record (int pc, int cycles, int penalty, boolean taken)
+	{
+		mCycles[pc] += cycles;
+		++mCount[pc];
+		mTotalCycles += cycles;
+		++mTotalInstructions;
+		if (penalty != 0) {
+			mPenalty[pc] += penalty;
+			mTotalPenalty += penalty;
+		}
+		if (taken) {
+			++mTaken[pc];
+			++mTotalTaken;
+		}
+	}
+
+	/**
+	*	Clears all collected data
+	*/
+	public void clear ()
+	{
+		Arrays.fill (mCycles, 0);
+		Arrays.fill (mCount, 0);
+		Arrays.fill (mPenalty, 0);
+		Arrays.fill (mTaken, 0);
+		mTotalCycles = mTotalInstructions = mTotalPenalty = mTotalTaken = 0;
+	}
+
+	/**
+	*	Returns the cycles spent in the instruction at address
+	*/
+	public long getCycles (int address)
+	{
+		return mCycles[address & 0xFFFF];
+	}
+
+	/**
+	*	Returns the number of times the instruction at address was executed
+	*/
+	public long getCount (int address)
+	{
+		return mCount[address & 0xFFFF];
+	}
+
+	/**
+	*	Returns total number of cycles recorded
+	*/
+	public long getTotalCycles ()
+	{
+		return mTotalCycles;
+	}
+
+	/**
+	*	Returns total number of cycles paid for page crossings, by indexed loads and taken branches.
+	*/
+	public long getTotalPenalty ()
+	{
+		return mTotalPenalty;
+	}
+
+	/**
+	*	Returns the target of a branch or jmp instruction, or -1 for other instructions.
+	*/
+	private int getJumpTarget (Image6502 image, int pc)
+	{
+		int op = image.byteAt (pc);
+		if (op == 0x4c && image.byteAt (pc + 2) >= 0) {
+			// jmp absolute
+			return image.byteAt (pc + 1) | (image.byteAt (pc + 2) << 8);
+		}
+		else if (op == 0x90 || op == 0xb0 || op == 0xf0 || op == 0x30 || op == 0xd0 || op == 0x10 ||
+			op == 0x50 || op == 0x70) {
+			return (pc + 2 + (byte) image.byteAt (pc + 1)) & 0xFFFF;
+		}
+		return -1;
+	}
+
+	/**
+	*	Returns line from a source file, reading each file only once.
+	*/
+	private String getSourceText (String filename, int line)
+	{
+		Vector lines = (Vector) mSourceLines.get (filename);
+		if (lines == null) {
+			lines = new Vector ();
+			try {
+				BufferedReader in = new BufferedReader (new FileReader (filename));
+				String s;
+				while ((s = in.readLine ()) != null) lines.addElement (s.trim ());
+				in.close ();
+			}
+			catch (IOException e) {
+				// report without source text
+			}
+			mSourceLines.put (filename, lines);
+		}
+		return (line >= 1 && line <= lines.size ()) ? (String) lines.elementAt (line - 1) : "";
+	}
+
+	/**
+	*	Right aligns a string in a field
+	*/
+	private static String pad (String s, int width)
+	{
+		StringBuffer b = new StringBuffer ();
+		for (int i = s.length (); i < width; ++i) b.append (' ');
+		return b.append (s).toString ();
+	}
+
+	/**
+	*	Formats a 16 bit address as $xxxx
+	*/
+	private static String hex (int address)
+	{
+		String s = Integer.toHexString (address | 0x10000);
+		return "$" + s.substring (1);
+	}
+
+	/**
+	*	Formats a share of the total cycles in percent, with one decimal.
+	*/
+	private String percent (long cycles)
+	{
+		long tenths = (mTotalCycles == 0) ? 0 : (cycles * 1000 + mTotalCycles / 2) / mTotalCycles;
+		return (tenths / 10) + "." + (tenths % 10) + "%";
+	}
+
+	/**
+	*	Sorts a vector of long arrays descending by the first element.
+	*/
+	private static void sortByCycles (Vector rows)
+	{
+		Collections.sort (rows, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				long ca = ((long[]) a)[0];
+				long cb = ((long[]) b)[0];
+				return (ca < cb) ? 1 : (ca > cb) ? -1 : 0;
+			}
+		});
+	}
+
+	/**
+	*	Prints the profile report.
+	*	@param out stream to print to
+	*	@param asm the assembler that assembled the program
+	*	@param limit maximum number of rows in each table
+	*/
+	public void report (PrintStream out, Assembler6502 asm, int limit)
+	{
+		Image6502 image = asm.getImage ();
+		out.println ("Cycle profile: " + mTotalCycles + " cycles, " + mTotalInstructions + " instructions, " +
+			mTotalPenalty + " cycles (" + percent (mTotalPenalty) + ") paid for page crossings, " +
+			mTotalTaken + " taken branches");
+
+		// hot source lines, rows are {cycles, count, penalty, address of first instruction}
+		HashMap lines = new HashMap ();
+		Vector lineRows = new Vector ();
+		for (int pc = 0; pc < 0x10000; ++pc) {
+			if (mCount[pc] == 0) continue;
+			String key = asm.getSourceFile (pc) + ":" + asm.getSourceLine (pc);
+			long[] row = (long[]) lines.get (key);
+			if (row == null) {
+				row = new long[] {0, 0, 0, pc};
+				lines.put (key, row);
+				lineRows.addElement (row);
+			}
+			row[0] += mCycles[pc];
+			row[1] += mCount[pc];
+			row[2] += mPenalty[pc];
+		}
+		sortByCycles (lineRows);
+		out.println ("");
+		out.println ("Hot spots by source line");
+		out.println ("    cycles      %      count  penalty  address  source");
+		for (int i = 0; i < lineRows.size () && i < limit; ++i) {
+			long[] row = (long[]) lineRows.elementAt (i);
+			int pc = (int) row[3];
+			String file = asm.getSourceFile (pc);
+			int line = asm.getSourceLine (pc);
+			String where = (file == null) ? "?" : file + ":" + line;
+			String text = (file == null) ? "" : getSourceText (file, line);
+			out.println (pad ("" + row[0], 10) + pad (percent (row[0]), 7) + pad ("" + row[1], 11) +
+				pad ("" + row[2], 9) + "  " + hex (pc) + "    " + where + "  " + text);
+		}
+
+		// labels, each address is attributed to the closest label at or below it
+		Vector symbols = asm.getSymbols ();
+		Vector labels = new Vector ();
+		for (int i = 0; i < symbols.size (); ++i) {
+			Symbol s = (Symbol) symbols.elementAt (i);
+			if (s.getType () == LABEL) labels.addElement (s);
+		}
+		Collections.sort (labels, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				Symbol sa = (Symbol) a;
+				Symbol sb = (Symbol) b;
+				if (sa.getValue () != sb.getValue ()) return sa.getValue () - sb.getValue ();
+				return sa.getName ().compareTo (sb.getName ());
+			}
+		});
+		Vector labelRows = new Vector ();
+		for (int i = 0; i < labels.size (); ++i) {
+			int start = ((Symbol) labels.elementAt (i)).getValue ();
+			int end = (i + 1 < labels.size ()) ? ((Symbol) labels.elementAt (i + 1)).getValue () : 0x10000;
+			long[] row = new long[] {0, 0, i};
+			for (int pc = start; pc < end; ++pc) {
+				row[0] += mCycles[pc];
+				row[1] += mPenalty[pc];
+			}
+			if (row[0] != 0) labelRows.addElement (row);
+		}
+		sortByCycles (labelRows);
+		out.println ("");
+		out.println ("Hot spots by label");
+		out.println ("    cycles      %  penalty  address  label");
+		for (int i = 0; i < labelRows.size () && i < limit; ++i) {
+			long[] row = (long[]) labelRows.elementAt (i);
+			Symbol label = (Symbol) labels.elementAt ((int) row[2]);
+			out.println (pad ("" + row[0], 10) + pad (percent (row[0]), 7) + pad ("" + row[1], 9) + "  " +
+				hex (label.getValue ()) + "    " + label.getName ());
+		}
+
+		// loops are backward branches or jumps, rows are {cycles, iterations, start, end}
+		// and branches, rows are {cycles, taken, not taken, address, penalty}
+		Vector loopRows = new Vector ();
+		Vector branchRows = new Vector ();
+		for (int pc = 0; pc < 0x10000; ++pc) {
+			if (mCount[pc] == 0) continue;
+			int target = getJumpTarget (image, pc);
+			if (target < 0) continue;
+			boolean isJmp = image.byteAt (pc) == 0x4c;
+			if (!isJmp) {
+				branchRows.addElement (new long[] {mCycles[pc], mTaken[pc], mCount[pc] - mTaken[pc], pc, mPenalty[pc]});
+			}
+			long iterations = isJmp ? mCount[pc] : mTaken[pc];
+			if (target <= pc && iterations != 0) {
+				int end = pc + (isJmp ? 3 : 2);
+				long[] row = new long[] {0, iterations, target, end};
+				for (int i = target; i < end; ++i) row[0] += mCycles[i];
+				loopRows.addElement (row);
+			}
+		}
+		sortByCycles (loopRows);
+		out.println ("");
+		out.println ("Hot loops");
+		out.println ("    cycles      % iterations  cycles/it  range          source");
+		for (int i = 0; i < loopRows.size () && i < limit; ++i) {
+			long[] row = (long[]) loopRows.elementAt (i);
+			int start = (int) row[2];
+			int end = (int) row[3];
+			String file = asm.getSourceFile (start);
+			String where = (file == null) ? "?" : file + ":" + asm.getSourceLine (start) + "-" +
+				asm.getSourceLine (end - 1);
+			out.println (pad ("" + row[0], 10) + pad (percent (row[0]), 7) + pad ("" + row[1], 11) +
+				pad ("" + (row[0] / row[1]), 11) + "  " + hex (start) + "-" + hex (end - 1) + "  " + where);
+		}
+
+		sortByCycles (branchRows);
+		out.println ("");
+		out.println ("Branches");
+		out.println ("    cycles      taken  not taken  taken cost  penalty  address  source");
+		for (int i = 0; i < branchRows.size () && i < limit; ++i) {
+			long[] row = (long[]) branchRows.elementAt (i);
+			int pc = (int) row[3];
+			String file = asm.getSourceFile (pc);
+			int line = asm.getSourceLine (pc);
+			String where = (file == null) ? "?" : file + ":" + line + "  " + getSourceText (file, line);
+			// a taken branch costs one extra cycle, plus the page crossing penalty
+			out.println (pad ("" + row[0], 10) + pad ("" + row[1], 11) + pad ("" + row[2], 11) +
+				pad ("" + (row[1] + row[4]), 12) + pad ("" + row[4], 9) + "  " + hex (pc) + "    " + where);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+*	A place in the code of an object module that the linker patches, because it holds an address
+*	of the module, or the low or high byte of one, or refers to a symbol of another module.
+*
+*	The target is the address of the label the value was computed from, as assembled, and the
+*	addend the constant added to it, so the value is target + addend. The linker keeps and moves
+*	the code at the target, a table of first - 1 refers to first and not to the byte before it.
+*	The patch adds the distance the target moves to the value in the code, so the addend stays,
+*	and the high byte gets the carry from the low byte of the whole value. For an external
+*	symbol the target is 0, the addend the offset added to the symbol, and it moves by the
+*	address of the symbol.
+*
+*	@author David Schager
+*/
+public class Relocation6502 implements SymbolConstant6502 {
+	private int mOffset;
+	private int mType;
+	private int mTarget;
+	private int mAddend;
+	private String mSymbol;
+
+	/**
+	*	Constructor
+	*	@param offset offset of the patched bytes in the code of the module
+	*	@param type RELOC for a word, RELOC_LOBYTE or RELOC_HIBYTE for a byte
+	*	@param target address of the label the value was computed from, or 0 for an external symbol
+	*	@param addend constant added to the target
+	*	@param symbol name of external symbol, or null for an address in the module
+	*/
+	public Relocation6502 (int offset, int type, int target, int addend, String symbol)
+	{
+		mOffset = offset;
+		mType = type;
+		mTarget = target;
+		mAddend = addend;
+		mSymbol = symbol;
+	}
+
+	public int getOffset ()
+	{
+		return mOffset;
+	}
+
+	public void setOffset (int offset)
+	{
+		mOffset = offset;
+	}
+
+	public int getType ()
+	{
+		return mType;
+	}
+
+	public int getTarget ()
+	{
+		return mTarget;
+	}
+
+	public int getAddend ()
+	{
+		return mAddend;
+	}
+
+	/**
+	*	Returns the name of the external symbol, or null if the target is in the module.
+	*/
+	public String getSymbol ()
+	{
+		return mSymbol;
+	}
+
+	/**
+	*	Returns the number of bytes patched, 2 for a word and 1 for a byte.
+	*/
+	public int getSize ()
+	{
+		return (mType == RELOC) ? 2 : 1;
+	}
+
+	/**
+	*	Patches the code.
+	*	@param code code of the module
+	*	@param start index of the first byte of the module in code
+	*	@param delta distance the target moves, or the address of the external symbol
+	*/
+	public void apply (byte[] code, int start, int delta)
+	{
+		int i = start + mOffset;
+		int value = mTarget + mAddend;
+		int moved = value + delta;
+		if (mType == RELOC) {
+			int word = (code[i] & 0xFF) + ((code[i + 1] & 0xFF) << 8) + delta;
+			code[i] = (byte) word;
+			code[i + 1] = (byte) (word >> 8);
+		}
+		else if (mType == RELOC_LOBYTE) {
+			code[i] = (byte) (code[i] + (moved & 0xFF) - (value & 0xFF));
+		}
+		else if (mType == RELOC_HIBYTE) {
+			code[i] = (byte) (code[i] + ((moved >> 8) & 0xFF) - ((value >> 8) & 0xFF));
+		}
+	}
+}
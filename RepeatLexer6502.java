@@ -0,0 +1,321 @@
+import java.util.Vector;
+
+/**
+*	Replays the statements of a .rept block for each repetition, from symbols recorded once from
+*	the lexer of the source, instead of reading the source again. The assembler puts it on the
+*	lexer stack like the lexer of an included file, and it ends with EOF after the last repetition.
+*
+*	Identifiers and labels are looked up in the symbol table again when they are replayed, since
+*	statements of the block may assign them and the values change between repetitions. Other
+*	symbols are replayed as recorded. A block with a variable starts each repetition with the
+*	statement "variable = n", with n from 0, which the parser assigns like any other.
+*
+*	Line numbers are those of the block in its source file, so errors and listings show the
+*	statement being repeated.
+*	@author David Schager
+*/
+public class RepeatLexer6502 implements SymbolConstant6502, AbstractLexer {
+	private AbstractLexer mSource;
+	private SymbolTable mSymbolTable;
+	private int mCount;
+	private String mVariable;
+	private int mReptLine;
+	private int mReptCol;
+	// recorded symbols, with their lines, columns and character sequences
+	private Vector mSymbols = new Vector ();
+	private Vector mSequences = new Vector ();
+	private int[] mLines = new int [64];
+	private int[] mCols = new int [64];
+	// position of the next symbol, in the statement with the variable and then the block
+	private int mRepetition = 0;
+	private int mPosition = 0;
+	private int mRembLine;
+	private int mRembCol;
+	private String mCharSequence = "";
+	private int mTokens = 0;
+	private Stats6502 mStats = null;
+
+	/**
+	*	Constructor, call record to read the block.
+	*	@param source lexer at the first statement of the block
+	*	@param count number of repetitions
+	*	@param variable name of the variable with the repetition, or null for none
+	*/
+	public RepeatLexer6502 (AbstractLexer source, int count, String variable)
+	{
+		mSource = source;
+		mSymbolTable = source.getSymbolTable ();
+		mCount = count;
+		mVariable = variable;
+		mReptLine = mRembLine = source.getRememberLineNum ();
+		mReptCol = mRembCol = source.getRememberColNum ();
+	}
+
+	/**
+	*	Reads the statements of the block from the source lexer, up to the matching .endrept and
+	*	the end of its line. Blocks inside the block are recorded with it.
+	*/
+	public void record () throws ParserException, LexerException
+	{
+		int depth = 0;
+		while (true) {
+			int line = mSource.getLineNum ();
+			int col = mSource.getColNum ();
+			Symbol symbol = mSource.getNext ();
+			int type = symbol.getType ();
+			if (type == EOF) throw new ParserException ("Missing .endrept", mSource);
+			if (type == REPT) ++depth;
+			else if (type == ENDREPT && depth-- == 0) break;
+			if (mSymbols.size () == mLines.length) {
+				int[] lines = new int [mLines.length * 2];
+				int[] cols = new int [mLines.length * 2];
+				System.arraycopy (mLines, 0, lines, 0, mLines.length);
+				System.arraycopy (mCols, 0, cols, 0, mCols.length);
+				mLines = lines;
+				mCols = cols;
+			}
+			mLines[mSymbols.size ()] = line;
+			mCols[mSymbols.size ()] = col;
+			mSymbols.addElement (symbol);
+			mSequences.addElement ((type == CHARSEQUENCE) ? mSource.getCharSequence () : null);
+		}
+		int type = mSource.peekNext ().getType ();
+		if (type == LINEFEED) mSource.getNext ();
+		else if (type != EOF) throw new ParserException ("Unexpected end of statement", mSource);
+		// nothing to replay
+		if (getLength () == 0) mRepetition = mCount;
+	}
+
+	/**
+	*	Returns the number of symbols of a repetition.
+	*/
+	private int getLength ()
+	{
+		return ((mVariable != null) ? 4 : 0) + mSymbols.size ();
+	}
+
+	/**
+	*	Returns the index of the recorded symbol at the position, or -1 in the statement with the
+	*	variable.
+	*/
+	private int getIndex ()
+	{
+		return mPosition - ((mVariable != null) ? 4 : 0);
+	}
+
+	/**
+	*	Returns the symbol at the position, without advancing.
+	*/
+	private Symbol current ()
+	{
+		if (mRepetition >= mCount) return new Symbol ("", EOF, NULL);
+		int index = getIndex ();
+		if (index < 0) {
+			switch (mPosition) {
+				case 0: return lookup (new Symbol (mVariable, IDENTIFIER, NULL));
+				case 1: return new Symbol ("=", ASSIGN, NULL);
+				case 2: return new Symbol ("", CONSTANT, mRepetition);
+				default: return new Symbol ("", LINEFEED, NULL);
+			}
+		}
+		Symbol symbol = (Symbol) mSymbols.elementAt (index);
+		if (symbol.getType () == IDENTIFIER || symbol.getType () == LABEL) return lookup (symbol);
+		return symbol;
+	}
+
+	/**
+	*	Returns an identifier or label as it is now in the symbol table, installing it if it is not,
+	*	like the lexer does.
+	*/
+	private Symbol lookup (Symbol symbol)
+	{
+		Symbol current = mSymbolTable.getSymbol (symbol.getName ());
+		if (current != null) return current;
+		current = new Symbol (symbol.getName (), symbol.getType (), NULL);
+		mSymbolTable.install (current);
+		return new Symbol (current.getName (), current.getType (), current.getValue ());
+	}
+
+	/**
+	*	@see AbstractLexer.getNext
+	*/
+	public Symbol getNext () throws LexerException
+	{
+		Symbol symbol = current ();
+		if (mRepetition >= mCount) return symbol;
+		++mTokens;
+		int index = getIndex ();
+		if (index >= 0 && symbol.getType () == CHARSEQUENCE) mCharSequence = (String) mSequences.elementAt (index);
+		if (++mPosition == getLength ()) {
+			mPosition = 0;
+			++mRepetition;
+		}
+		return symbol;
+	}
+
+	/**
+	*	@see AbstractLexer.peekNext
+	*/
+	public Symbol peekNext () throws LexerException
+	{
+		if (mStats != null) mStats.addPeek ();
+		return current ();
+	}
+
+	/**
+	*	Skips the rest of the current statement.
+	*/
+	public void nextLine ()
+	{
+		while (mRepetition < mCount) {
+			Symbol symbol = current ();
+			if (++mPosition == getLength ()) {
+				mPosition = 0;
+				++mRepetition;
+			}
+			if (symbol.getType () == LINEFEED) break;
+		}
+	}
+
+	/**
+	*	Not supported, the block is read from the source lexer.
+	*/
+	public void attachInput (String filename)
+	{
+	}
+
+	/**
+	*	Starts the repetitions again.
+	*/
+	public void reset ()
+	{
+		mRepetition = (getLength () == 0) ? mCount : 0;
+		mPosition = 0;
+	}
+
+	/**
+	*	@see AbstractLexer.xtractLine
+	*/
+	public String xtractLine (int lineNum)
+	{
+		return mSource.xtractLine (lineNum);
+	}
+
+	/**
+	*	Returns the line of the next symbol.
+	*/
+	public int getLineNum ()
+	{
+		int index = getIndex ();
+		if (mRepetition >= mCount || index < 0) return mReptLine;
+		return mLines[index];
+	}
+
+	/**
+	*	Returns the column of the next symbol.
+	*/
+	public int getColNum ()
+	{
+		int index = getIndex ();
+		if (mRepetition >= mCount || index < 0) return mReptCol;
+		return mCols[index];
+	}
+
+	/**
+	*	@see AbstractLexer.getFilename
+	*/
+	public String getFilename ()
+	{
+		return mSource.getFilename ();
+	}
+
+	/**
+	*	@see AbstractLexer.eof
+	*/
+	public boolean eof ()
+	{
+		return mRepetition >= mCount;
+	}
+
+	/**
+	*	@see AbstractLexer.toString
+	*/
+	public String toString ()
+	{
+		return "RepeatLexer6502 file " + getFilename () + ", line " + getLineNum () + ", repetition " + mRepetition;
+	}
+
+	/**
+	*	@see AbstractLexer.getCharSequence
+	*/
+	public String getCharSequence ()
+	{
+		return mCharSequence;
+	}
+
+	/**
+	*	Returns a lexer that replays the same block from the start.
+	*/
+	public AbstractLexer copy ()
+	{
+		RepeatLexer6502 copy = new RepeatLexer6502 (mSource, mCount, mVariable);
+		copy.mReptLine = mReptLine;
+		copy.mReptCol = mReptCol;
+		copy.mSymbols = mSymbols;
+		copy.mSequences = mSequences;
+		copy.mLines = mLines;
+		copy.mCols = mCols;
+		copy.reset ();
+		return copy;
+	}
+
+	/**
+	*	@see AbstractLexer.rememberLineNum
+	*/
+	public void rememberLineNum ()
+	{
+		mRembLine = getLineNum ();
+		mRembCol = getColNum ();
+	}
+
+	/**
+	*	@see AbstractLexer.getRememberLineNum
+	*/
+	public int getRememberLineNum ()
+	{
+		return mRembLine;
+	}
+
+	/**
+	*	@see AbstractLexer.getRememberColNum
+	*/
+	public int getRememberColNum ()
+	{
+		return mRembCol;
+	}
+
+	/**
+	*	Returns number of symbols replayed.
+	*/
+	public int getTokenCount ()
+	{
+		return mTokens;
+	}
+
+	/**
+	*	Sets the statistics to count peeks in, or null to not count. Replayed symbols are not
+	*	counted as tokens, they are not lexed.
+	*/
+	public void setStats (Stats6502 stats)
+	{
+		mStats = stats;
+	}
+
+	/**
+	*	@see AbstractLexer.getSymbolTable
+	*/
+	public SymbolTable getSymbolTable ()
+	{
+		return mSymbolTable;
+	}
+}
@@ -0,0 +1,124 @@
+import junit.framework.*;
+import java.io.*;
+
+/**
+*	@test Checks the sources generated for scaling measurements.
+*	<p>
+*	Requiers that JUnit is installed.
+*	Sources of increasing size are generated with SourceGenerator6502 and assembled to memory.
+*	The test checks that they assemble and grow linearly with the size. How the assembly time
+*	grows is measured by ScalingBenchmark in bench/.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner ScalingTest
+*	</p>
+*	@author David Schager
+*/
+public class ScalingTest extends TestCase implements SymbolConstant6502 {
+	private static final int[] SIZES = {1, 2, 4, 8};
+	private static final long SEED = 6502;
+	private File mDirectory = null;
+
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public ScalingTest (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Sets up Test, creates a directory for the generated sources.
+	*/
+	public void setUp () throws IOException
+	{
+		mDirectory = File.createTempFile ("jasm", "");
+		mDirectory.delete ();
+		mDirectory.mkdir ();
+	}
+
+	/**
+	*	Removes the generated sources.
+	*/
+	public void tearDown ()
+	{
+		File[] files = mDirectory.listFiles ();
+		for (int i = 0; files != null && i < files.length; ++i) files[i].delete ();
+		mDirectory.delete ();
+	}
+
+	/**
+	*	Generates a source and returns the name of its main file.
+	*/
+	private String generate (int size) throws IOException
+	{
+		return new SourceGenerator6502 (size, SEED).generate (mDirectory.getPath (), "size" + size);
+	}
+
+	/**
+	*	Returns the number of lines in the files of a directory.
+	*/
+	private int countLines (File directory) throws IOException
+	{
+		int lines = 0;
+		File[] files = directory.listFiles ();
+		for (int i = 0; i < files.length; ++i) {
+			BufferedReader in = new BufferedReader (new FileReader (files[i]));
+			try {
+				while (in.readLine () != null) ++lines;
+			}
+			finally {
+				in.close ();
+			}
+		}
+		return lines;
+	}
+
+	/**
+	*	Test that the generated sources assemble, are the same for the same seed, and that the
+	*	result grows with the size.
+	*/
+	public void testGenerator () throws IOException
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		assertEquals (0, asm.assemble (generate (1), null));
+		byte[] small = asm.getImage ().toByteArray ();
+		asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		assertEquals (0, asm.assemble (generate (1), null));
+		assertTrue (java.util.Arrays.equals (small, asm.getImage ().toByteArray ()));
+		asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		assertEquals (0, asm.assemble (generate (2), null));
+		assertTrue (asm.getImage ().getLength () > small.length * 3 / 2);
+	}
+
+	/**
+	*	Test that the number of files, lines and symbols grows linearly with the size, so the
+	*	sources are fit for measuring how assembly time grows. The time itself is measured by
+	*	ScalingBenchmark in bench/.
+	*/
+	public void testLinearSize () throws IOException
+	{
+		for (int i = 0; i < SIZES.length; ++i) {
+			int size = SIZES[i];
+			File directory = new File (mDirectory, "size" + size);
+			directory.mkdir ();
+			String filename = new SourceGenerator6502 (size, SEED).generate (directory.getPath (), "size" + size);
+			// per size unit 4 included files of 311 lines, and in the main file 50 identifiers,
+			// 4 include lines and a table of 33 lines
+			assertEquals (1 + SourceGenerator6502.INCLUDES * size, directory.listFiles ().length);
+			assertEquals ("size " + size, 5 + 1331 * size, countLines (directory));
+			Assembler6502 asm = new Assembler6502 ();
+			asm.setMode (MODE_RAW);
+			assertEquals (filename, 0, asm.assemble (filename, null));
+			// per size unit 50 identifiers, 100 labels, a table, and 12 nests of 8 procedures with
+			// a local label, and the label start
+			assertEquals ("size " + size, 1 + 259 * size, asm.getSymbols ().size ());
+			File[] files = directory.listFiles ();
+			for (int j = 0; j < files.length; ++j) files[j].delete ();
+			directory.delete ();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+import java.util.Vector;
+
+/**
+*	A named segment of memory, like code, data, bss or zp, with its placement and the state of
+*	the assembly in it. Source files switch between segments with .segment, and each segment
+*	keeps its own instruction pointer. @see Placement6502
+*
+*	A segment either has a fixed start address, follows the segment before it in the placement,
+*	or is packed into a gap between origins or other segments. Labels in a floating segment are
+*	given addresses from a provisional start in pass 1, and moved to the real start by the
+*	layout stage before pass 2.
+*
+*	A segment in a bank shares its addresses with the segments of other banks, like the banks of
+*	a cartridge that are switched into the same window of the address space. Banked segments
+*	have a fixed start, and only overlap checks within their bank apply to them.
+*
+*	@author David Schager
+*/
+public class Segment6502 {
+	/** Start of segments that follow another, until the layout stage places them */
+	public static final int PROVISIONAL_START = 0x4000;
+	/** Start of a segment that follows the segment before it */
+	public static final int FOLLOW = -1;
+	/** Start of a segment that is packed into the first gap it fits in */
+	public static final int FIRST_FIT = -2;
+	/** Start of a segment that is packed into the smallest gap it fits in */
+	public static final int BEST_FIT = -3;
+	/** Bank of a segment in the one address space of the main program */
+	public static final int NO_BANK = -1;
+
+	private String mName;
+	private int mStart;
+	private int mSize;
+	private int mFill;
+	private boolean mBss;
+	private int mBank = NO_BANK;
+	private int mBase;
+	private int mIp;
+	private int mEnd;
+	private int mAlignment = 1;
+	private boolean mUsed = false;
+	private boolean mPacked = false;
+	private Vector mLabels = new Vector ();
+	private Vector mAddresses = new Vector ();
+	private Image6502 mImage = null;
+
+	/**
+	*	Constructor
+	*	@param name name of segment
+	*	@param start start address, or FOLLOW, FIRST_FIT or BEST_FIT
+	*	@param size maximum size in bytes, or -1 for no limit
+	*	@param fill byte to fill unused space up to the size with, or -1 to not fill
+	*	@param bss true if the segment only reserves space, and holds no data in the output
+	*/
+	public Segment6502 (String name, int start, int size, int fill, boolean bss)
+	{
+		mName = name;
+		mStart = start;
+		mSize = size;
+		mFill = fill;
+		mBss = bss;
+		reset ();
+	}
+
+	/**
+	*	Prepares the segment for pass 1.
+	*/
+	public void reset ()
+	{
+		mBase = isFloating () ? PROVISIONAL_START : mStart;
+		mIp = mBase;
+		mEnd = mBase;
+		mAlignment = 1;
+		mUsed = false;
+		mPacked = false;
+		mLabels.clear ();
+		mAddresses.clear ();
+		mImage = null;
+	}
+
+	public String getName ()
+	{
+		return mName;
+	}
+
+	/**
+	*	Returns true if the segment has no fixed start, and is placed by the layout stage.
+	*/
+	public boolean isFloating ()
+	{
+		return mStart < 0;
+	}
+
+	/**
+	*	Returns true if the segment is packed into a gap by the layout stage.
+	*/
+	public boolean isPackable ()
+	{
+		return mStart == FIRST_FIT || mStart == BEST_FIT;
+	}
+
+	/**
+	*	Returns true if the segment was placed in a gap by the last layout.
+	*/
+	public boolean isPacked ()
+	{
+		return mPacked;
+	}
+
+	public void setPacked ()
+	{
+		mPacked = true;
+	}
+
+	/**
+	*	Returns the start address as configured, or FOLLOW, FIRST_FIT or BEST_FIT.
+	*/
+	public int getStart ()
+	{
+		return mStart;
+	}
+
+	/**
+	*	Returns the bank the segment is in, or NO_BANK.
+	*/
+	public int getBank ()
+	{
+		return mBank;
+	}
+
+	public void setBank (int bank)
+	{
+		mBank = bank;
+	}
+
+	public boolean isBanked ()
+	{
+		return mBank != NO_BANK;
+	}
+
+	/**
+	*	Returns true if the segment only reserves space.
+	*/
+	public boolean isBss ()
+	{
+		return mBss;
+	}
+
+	public int getSize ()
+	{
+		return mSize;
+	}
+
+	public int getFill ()
+	{
+		return mFill;
+	}
+
+	/**
+	*	Returns true if source switched to the segment in the last assembly.
+	*/
+	public boolean isUsed ()
+	{
+		return mUsed;
+	}
+
+	public void setUsed ()
+	{
+		mUsed = true;
+	}
+
+	/**
+	*	Returns the start address, provisional in pass 1 if the segment is floating.
+	*/
+	public int getBase ()
+	{
+		return mBase;
+	}
+
+	/**
+	*	Returns the instruction pointer of the segment, saved when source switched away from it.
+	*/
+	public int getIp ()
+	{
+		return mIp;
+	}
+
+	/**
+	*	Saves the instruction pointer of the segment, and extends the end of the segment.
+	*/
+	public void setIp (int ip)
+	{
+		mIp = ip;
+		if (ip > mEnd) mEnd = ip;
+	}
+
+	/**
+	*	Returns the number of bytes used in the segment.
+	*/
+	public int getUsed ()
+	{
+		return mEnd - mBase;
+	}
+
+	/**
+	*	Returns the number of bytes the segment takes in memory, which is the size if filled.
+	*/
+	public int getLength ()
+	{
+		return (mFill >= 0 && mSize >= 0) ? Math.max (mSize, getUsed ()) : getUsed ();
+	}
+
+	/**
+	*	Records an alignment used in the segment, so a floating segment is placed at an address
+	*	where the alignment holds.
+	*/
+	public void addAlignment (int alignment)
+	{
+		if (alignment > mAlignment) mAlignment = alignment;
+	}
+
+	public int getAlignment ()
+	{
+		return mAlignment;
+	}
+
+	/**
+	*	Records a label defined in the segment in pass 1, which is moved with the segment.
+	*/
+	public void addLabel (Symbol label)
+	{
+		if (isFloating ()) mLabels.addElement (label);
+	}
+
+	/**
+	*	Records an address stored as an Integer in a vector in pass 1, like the addresses of
+	*	temporary labels, which is moved with the segment.
+	*/
+	public void addAddress (Vector addresses, int index)
+	{
+		if (isFloating ()) mAddresses.addElement (new Object[] {addresses, Integer.valueOf (index)});
+	}
+
+	/**
+	*	Moves a floating segment to its start address, with the labels and addresses in it.
+	*/
+	public void moveTo (int base)
+	{
+		int offset = base - mBase;
+		for (int i = 0; i < mLabels.size (); ++i) {
+			Symbol label = (Symbol) mLabels.elementAt (i);
+			label.setValue (label.getValue () + offset);
+		}
+		for (int i = 0; i < mAddresses.size (); ++i) {
+			Object[] entry = (Object[]) mAddresses.elementAt (i);
+			Vector addresses = (Vector) entry[0];
+			int index = ((Integer) entry[1]).intValue ();
+			int address = ((Integer) addresses.elementAt (index)).intValue ();
+			addresses.setElementAt (Integer.valueOf (address + offset), index);
+		}
+		mLabels.clear ();
+		mAddresses.clear ();
+		mBase = base;
+		mIp += offset;
+		mEnd += offset;
+	}
+
+	/**
+	*	Prepares the segment for pass 2, with a new image at the start address.
+	*/
+	public void beginPass2 ()
+	{
+		mIp = mBase;
+		mImage = new Image6502 (mBase);
+	}
+
+	/**
+	*	Returns the image written in pass 2
+	*/
+	public Image6502 getImage ()
+	{
+		return mImage;
+	}
+}
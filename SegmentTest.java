@@ -0,0 +1,129 @@
+import junit.framework.*;
+import java.io.*;
+
+/**
+*	@test Runs a test case on segments and their placement with Placement6502: segments placed
+*	at configured addresses, segments packed into the gaps between origins, and segments in banks.
+*	<p>
+*	Requiers that JUnit is installed.
+*	The sources in test are assembled with the placement configuration of the same name, and the
+*	addresses of their labels and bytes are compared with hardcoded ones.
+*	<br /><br />
+*	To run this test from shell, type from directory containing this source:
+*	java junit.textui.TestRunner SegmentTest
+*	</p>
+*	@author David Schager
+*/
+public class SegmentTest extends TestCase implements SymbolConstant6502 {
+	/**
+	*	Constructor, calls TestCase Parent class from JUnit
+	*/
+	public SegmentTest (String testName)
+	{
+		super (testName);
+	}
+
+	/**
+	*	Assembles a source file to memory, and checks that there are no errors.
+	*	@param config file name of placement configuration, or null for the default placement
+	*/
+	private Assembler6502 assemble (String filename, String config) throws IOException
+	{
+		Assembler6502 asm = new Assembler6502 ();
+		asm.setMode (MODE_RAW);
+		if (config != null) asm.setPlacement (Placement6502.read (config));
+		assertEquals (filename, 0, asm.assemble (filename, null));
+		return asm;
+	}
+
+	/**
+	*	Test that segments are placed as configured, floating segments follow the segment
+	*	before them, and labels in them are moved to the placed address.
+	*/
+	public void testSegments () throws IOException
+	{
+		Assembler6502 asm = assemble ("test/segments.asm", "test/segments.cfg");
+		Placement6502 placement = asm.getPlacement ();
+		Segment6502 code = placement.getSegment ("code");
+		Segment6502 data = placement.getSegment ("data");
+		assertEquals (0x0801, code.getBase ());
+		assertEquals (0x0901, data.getBase ());
+		assertEquals (0xc000, placement.getSegment ("bss").getBase ());
+		assertEquals (0xfb, asm.getLabelAddress ("ptr"));
+		assertEquals (0xfd, asm.getLabelAddress ("count"));
+		assertEquals (0x0901, asm.getLabelAddress ("message"));
+		assertEquals (0, asm.getLabelAddress ("again") & 15);
+		// code is filled up to its size, data follows, bss and zp are left out
+		Image6502 image = asm.getImage ();
+		assertEquals (0x0801, image.getStartAddress ());
+		assertEquals (0x0907, image.getEndAddress ());
+		assertEquals (0xa9, image.byteAt (0x0801));
+		assertEquals (0xea, image.byteAt (0x0900));
+		assertEquals ('h', image.byteAt (0x0901));
+		// default placement follows the code outside segments
+		asm = assemble ("test/segments.asm", null);
+		assertEquals (0x1000, asm.getPlacement ().getSegment ("code").getBase ());
+		assertEquals (0x02, asm.getLabelAddress ("ptr"));
+	}
+
+	/**
+	*	Test that segments are packed into the gap between origins, and that the sparse output
+	*	leaves the rest of the gap out.
+	*/
+	public void testGapPacking () throws IOException
+	{
+		Assembler6502 asm = assemble ("test/gaps.asm", "test/gaps.cfg");
+		assertEquals (0x1010, asm.getLabelAddress ("sine"));
+		assertEquals (0x1018, asm.getLabelAddress ("colors"));
+		assertTrue (asm.getPlacement ().getSegment ("tables").isPacked ());
+		assertEquals (11, asm.getPlacement ().getPackedBytes ());
+		Image6502 image = asm.getImage ();
+		assertEquals (0x1107, image.getEndAddress ());
+		assertEquals (0x0e, image.byteAt (0x101a));
+		assertEquals (0x1010 - 0x100e + 0x1100 - 0x101b, image.getHoleLength ());
+		// the two byte hole before the aligned table is cheaper to keep than a block
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		image.writeSparseTo (out);
+		byte[] sparse = out.toByteArray ();
+		assertEquals (image.getSparseLength (), sparse.length);
+		assertEquals (1 + 2 * 4 + 0x1b + 7, sparse.length);
+		assertEquals (2, sparse[0]);
+		assertEquals (0x1b, sparse[3]);
+		assertEquals (0x11, sparse[6]);
+		assertEquals ((byte) 0xad, sparse[9 + 0x1b]);
+	}
+
+	/**
+	*	Test that segments in banks share addresses, refer to each other's labels, and are written
+	*	as one CHIP packet per bank.
+	*/
+	public void testBanks () throws IOException
+	{
+		Assembler6502 asm = assemble ("test/banks.asm", "test/banks.cfg");
+		assertEquals (0x8000, asm.getLabelAddress ("level1"));
+		assertEquals (0x8000, asm.getLabelAddress ("level2"));
+		Placement6502 placement = asm.getPlacement ();
+		assertEquals (3, placement.getBanks ().length);
+		Image6502 bank = placement.getBankImage (1);
+		assertEquals (0x8000, bank.getStartAddress ());
+		assertEquals (0x2000, bank.getLength ());
+		assertEquals (0xa9, bank.byteAt (0x8000));
+		assertEquals (0xff, bank.byteAt (0x8003));
+		// jsr level1 in bank 0
+		assertEquals (0x20, placement.getBankImage (0).byteAt (0x800e));
+		assertEquals (0x80, placement.getBankImage (0).byteAt (0x8010));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		placement.writeCrtTo (out, "BANKS", -1);
+		byte[] crt = out.toByteArray ();
+		assertEquals (0x40 + 3 * (0x10 + 0x2000), crt.length);
+		// Magic Desk, 8K
+		assertEquals (19, crt[0x17]);
+		assertEquals (1, crt[0x19]);
+		int chip = 0x40 + 0x10 + 0x2000;
+		assertEquals ('C', crt[chip]);
+		assertEquals (1, crt[chip + 0x0b]);
+		assertEquals ((byte) 0x80, crt[chip + 0x0c]);
+		assertEquals ((byte) 0xa9, crt[chip + 0x10]);
+	}
+}
@@ -0,0 +1,228 @@
+import java.io.*;
+import java.util.Random;
+
+/**
+*	Generates large synthetic 6502 sources for scaling tests.
+*	The sources are deterministic for a given seed and size, and assemble without errors.
+*	They exercise what the small sources in test/ do not: many instructions and labels,
+*	labels without colon, deeply nested procedures, large byte tables, many temporary labels,
+*	many identifiers, and a main file that includes many other files.
+*
+*	The amount of each feature grows linearly with the size, except the nesting depth of
+*	procedures, which is constant, so assembly time should grow linearly with the size.
+*	One size unit is about 1000 instructions and 2.5 kB of code and data, the sizes that fit in
+*	64 kB of memory are 1 to 20.
+*
+*	To generate from the command line:
+*	java SourceGenerator6502 <directory> <size> [seed]
+*
+*	@author David Schager
+*/
+public class SourceGenerator6502 {
+	/** Instructions per size unit */
+	public static final int INSTRUCTIONS = 1000;
+	/** Global labels per size unit, each starts a block of instructions */
+	public static final int LABELS = 100;
+	/** Temporary labels per size unit */
+	public static final int TEMP_LABELS = 50;
+	/** Identifiers per size unit */
+	public static final int IDENTIFIERS = 50;
+	/** Bytes of tables per size unit */
+	public static final int TABLE_BYTES = 512;
+	/** Included files per size unit */
+	public static final int INCLUDES = 4;
+	/** Nesting depth of procedures */
+	public static final int PROC_DEPTH = 8;
+
+	private Random mRandom;
+	private int mSize;
+	private int mInstructions;
+	private int mLabels;
+	private int mTempLabels;
+	private int mIdentifiers;
+	private int mIncludes;
+
+	/**
+	*	Constructor
+	*	@param size size in units, 1-20
+	*	@param seed seed of the random generator, the same seed and size gives the same sources
+	*/
+	public SourceGenerator6502 (int size, long seed)
+	{
+		if (size < 1 || size > 20) throw new IllegalArgumentException ("Size must be 1-20");
+		mRandom = new Random (seed);
+		mSize = size;
+		mInstructions = INSTRUCTIONS * size;
+		mLabels = LABELS * size;
+		mTempLabels = TEMP_LABELS * size;
+		mIdentifiers = IDENTIFIERS * size;
+		mIncludes = INCLUDES * size;
+	}
+
+	/**
+	*	Returns number of instructions generated
+	*/
+	public int getInstructions ()
+	{
+		return mInstructions;
+	}
+
+	/**
+	*	Writes the sources into a directory.
+	*	@param directory directory to write to, must exist
+	*	@param name base name of the files, the main file is name.asm and the included files
+	*		name_1.asm, name_2.asm and so on.
+	*	@return path of the main file
+	*/
+	public String generate (String directory, String name) throws IOException
+	{
+		String main = new File (directory, name + ".asm").getPath ();
+		PrintWriter out = new PrintWriter (new BufferedWriter (new FileWriter (main)));
+		try {
+			out.println ("; generated by SourceGenerator6502, size " + mSize);
+			out.println ("*=$0800");
+			for (int i = 0; i < mIdentifiers; ++i) {
+				// zero page constants, used as operands
+				out.println ("c" + i + " = $" + Integer.toHexString (0x02 + mRandom.nextInt (0xfe)));
+			}
+			out.println ("\tjmp start");
+			for (int i = 1; i <= mIncludes; ++i) {
+				String part = new File (directory, name + "_" + i + ".asm").getPath ();
+				writePart (part, i);
+				out.println ("\t.include \"" + part + "\"");
+			}
+			out.println ("start:\tldx #0");
+			out.println ("\trts");
+			writeTables (out);
+		}
+		finally {
+			out.close ();
+		}
+		return main;
+	}
+
+	/**
+	*	Writes one of the included files.
+	*	@param filename name of file
+	*	@param part number of file, 1 and up
+	*/
+	private void writePart (String filename, int part) throws IOException
+	{
+		PrintWriter out = new PrintWriter (new BufferedWriter (new FileWriter (filename)));
+		try {
+			int blocks = mLabels / mIncludes;
+			int instructions = mInstructions / mLabels;
+			int tempLabels = mTempLabels / mIncludes;
+			for (int block = 0; block < blocks; ++block) {
+				String label = "l" + part + "_" + block;
+				// every other label without colon, which must be on column 1
+				if ((block & 1) == 0) out.print (label + ":");
+				else out.print (label);
+				int n = instructions;
+				if (block < tempLabels) {
+					// a loop with a temporary label
+					out.println ("\tldy #" + (1 + mRandom.nextInt (255)));
+					out.println ("@\tdey");
+					out.println ("\tbne @-");
+					n -= 3;
+				}
+				else out.println ("");
+				if (block % 10 == 0) {
+					// nested procedures, with local labels named like the global ones
+					for (int depth = 0; depth < PROC_DEPTH; ++depth) {
+						out.println ("\t.proc p" + part + "_" + block + "_" + depth);
+					}
+					out.println (label + ":\tnop");
+					--n;
+					for (int i = 0; i < 4 && n > 1; ++i, --n) writeInstruction (out, part, block);
+					out.println ("\tjmp " + label);
+					--n;
+					for (int depth = 0; depth < PROC_DEPTH; ++depth) out.println ("\t.endproc");
+				}
+				for (; n > 0; --n) writeInstruction (out, part, block);
+			}
+		}
+		finally {
+			out.close ();
+		}
+	}
+
+	/**
+	*	Writes a random instruction.
+	*/
+	private void writeInstruction (PrintWriter out, int part, int block)
+	{
+		int blocks = mLabels / mIncludes;
+		switch (mRandom.nextInt (12)) {
+			case 0:
+				out.println ("\tlda #" + mRandom.nextInt (256));
+				break;
+			case 1:
+				out.println ("\tsta $" + Integer.toHexString (0xd000 + mRandom.nextInt (0x400)));
+				break;
+			case 2:
+				out.println ("\tlda table" + mRandom.nextInt (mSize) + ", x");
+				break;
+			case 3:
+				out.println ("\tadc c" + mRandom.nextInt (mIdentifiers));
+				break;
+			case 4:
+				// forward or backward reference to a global label
+				out.println ("\tjsr l" + (1 + mRandom.nextInt (mIncludes)) + "_" + mRandom.nextInt (blocks));
+				break;
+			case 5:
+				out.println ("\tlda (c" + mRandom.nextInt (mIdentifiers) + "), y");
+				break;
+			case 6:
+				out.println ("\tsta c" + mRandom.nextInt (mIdentifiers) + ", x");
+				break;
+			case 7:
+				out.println ("\tldx #<(l" + part + "_" + block + " + " + mRandom.nextInt (16) + ")");
+				break;
+			case 8:
+				out.println ("\tinx");
+				break;
+			case 9:
+				out.println ("\tclc");
+				break;
+			case 10:
+				out.println ("\tcmp #$" + Integer.toHexString (mRandom.nextInt (256)));
+				break;
+			default:
+				out.println ("\tlsr");
+				break;
+		}
+	}
+
+	/**
+	*	Writes the byte tables, one table of TABLE_BYTES per size unit.
+	*/
+	private void writeTables (PrintWriter out)
+	{
+		for (int table = 0; table < mSize; ++table) {
+			out.println ("table" + table + ":");
+			for (int i = 0; i < TABLE_BYTES; i += 16) {
+				out.print ("\t.byt ");
+				for (int j = 0; j < 16; ++j) {
+					if (j != 0) out.print (", ");
+					out.print (mRandom.nextInt (256));
+				}
+				out.println ("");
+			}
+		}
+	}
+
+	/**
+	*	Program entry point, generates sources from the command line.
+	*/
+	public static void main (String[] args) throws IOException
+	{
+		if (args.length < 2) {
+			System.err.println ("usage: java SourceGenerator6502 <directory> <size> [seed]");
+			System.exit (1);
+		}
+		long seed = (args.length > 2) ? Long.parseLong (args[2]) : 6502;
+		SourceGenerator6502 generator = new SourceGenerator6502 (Integer.parseInt (args[1]), seed);
+		System.out.println (generator.generate (args[0], "generated"));
+	}
+}
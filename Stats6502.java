@@ -0,0 +1,271 @@
+import java.io.*;
+
+/**
+*	Timing and counters of an assembly, collected when statistics are turned on.
+*	Assembler6502 hands the object to the lexers, the parser and the symbol table. They only
+*	count when they have one, so statistics cost a null check when turned off.
+*
+*	Phase times are wall clock times. Pass 1 and pass 2 include everything done in the pass,
+*	the include time is the time spent in included files (in both passes), and the expression
+*	time is the time spent evaluating expressions, including lexing them.
+*
+*	@author David Schager
+*/
+public class Stats6502 {
+	public static final int PHASE_PASS1 = 0;
+	public static final int PHASE_PASS2 = 1;
+	public static final int PHASE_INCLUDES = 2;
+	public static final int PHASE_EXPRESSIONS = 3;
+	public static final int PHASE_OUTPUT = 4;
+	public static final int PHASE_TOTAL = 5;
+	private static final String[] phaseNames = {
+		"pass 1", "pass 2", "includes", "expressions", "output", "total"
+	};
+	private static final String[] phaseKeys = {
+		"pass1", "pass2", "includes", "expressions", "output", "total"
+	};
+
+	private long[] mPhaseTime = new long [phaseNames.length];
+	private long mTokens = 0;
+	private long mPeeks = 0;
+	private long mSeeks = 0;
+	private long mBytesRead = 0;
+	private long mExpressions = 0;
+	private long mIncludes = 0;
+	private long mLookups = 0;
+	private long mHits = 0;
+	private long mHitDepth = 0;
+	private int mMaxHitDepth = 0;
+	private long mBytesWritten = 0;
+
+	/**
+	*	Adds time to a phase.
+	*	@param phase one of the PHASE constants
+	*	@param nanos time in nanoseconds
+	*/
+	public void addTime (int phase, long nanos)
+	{
+		mPhaseTime[phase] += nanos;
+	}
+
+	/**
+	*	Counts a token returned by the lexer, also when it is peeked.
+	*/
+	public void addToken ()
+	{
+		++mTokens;
+	}
+
+	/**
+	*	Counts a call to peekNext
+	*/
+	public void addPeek ()
+	{
+		++mPeeks;
+	}
+
+	/**
+	*	Counts a seek in a source file
+	*/
+	public void addSeek ()
+	{
+		++mSeeks;
+	}
+
+	/**
+	*	Counts bytes read from source files
+	*/
+	public void addBytesRead (int bytes)
+	{
+		mBytesRead += bytes;
+	}
+
+	/**
+	*	Counts an evaluated expression and the time it took.
+	*/
+	public void addExpression (long nanos)
+	{
+		++mExpressions;
+		mPhaseTime[PHASE_EXPRESSIONS] += nanos;
+	}
+
+	/**
+	*	Counts an included file
+	*/
+	public void addInclude ()
+	{
+		++mIncludes;
+	}
+
+	/**
+	*	Counts a symbol lookup.
+	*	@param depth number of namespaces below the current one where the symbol was found,
+	*		0 for the current namespace, or -1 if not found
+	*/
+	public void addLookup (int depth)
+	{
+		++mLookups;
+		if (depth >= 0) {
+			++mHits;
+			mHitDepth += depth;
+			if (depth > mMaxHitDepth) mMaxHitDepth = depth;
+		}
+	}
+
+	/**
+	*	Counts bytes written to output files
+	*/
+	public void addBytesWritten (long bytes)
+	{
+		mBytesWritten += bytes;
+	}
+
+	/**
+	*	Returns time of a phase in nanoseconds
+	*/
+	public long getTime (int phase)
+	{
+		return mPhaseTime[phase];
+	}
+
+	/**
+	*	Returns number of tokens lexed, including tokens lexed by peekNext
+	*/
+	public long getTokens ()
+	{
+		return mTokens;
+	}
+
+	/**
+	*	Returns number of calls to peekNext
+	*/
+	public long getPeeks ()
+	{
+		return mPeeks;
+	}
+
+	/**
+	*	Returns number of seeks in source files
+	*/
+	public long getSeeks ()
+	{
+		return mSeeks;
+	}
+
+	/**
+	*	Returns number of bytes read from source files
+	*/
+	public long getBytesRead ()
+	{
+		return mBytesRead;
+	}
+
+	/**
+	*	Returns number of evaluated expressions
+	*/
+	public long getExpressions ()
+	{
+		return mExpressions;
+	}
+
+	/**
+	*	Returns number of symbol lookups
+	*/
+	public long getLookups ()
+	{
+		return mLookups;
+	}
+
+	/**
+	*	Returns number of symbol lookups that found the symbol
+	*/
+	public long getHits ()
+	{
+		return mHits;
+	}
+
+	/**
+	*	Returns number of bytes written to output files
+	*/
+	public long getBytesWritten ()
+	{
+		return mBytesWritten;
+	}
+
+	/**
+	*	Formats nanoseconds as milliseconds with two decimals
+	*/
+	private static String millis (long nanos)
+	{
+		long hundredths = (nanos + 5000) / 10000;
+		String decimals = "" + (hundredths % 100);
+		if (decimals.length () < 2) decimals = "0" + decimals;
+		return (hundredths / 100) + "." + decimals;
+	}
+
+	/**
+	*	Returns average hit depth with two decimals
+	*/
+	private String averageHitDepth ()
+	{
+		long hundredths = (mHits == 0) ? 0 : (mHitDepth * 100 + mHits / 2) / mHits;
+		String decimals = "" + (hundredths % 100);
+		if (decimals.length () < 2) decimals = "0" + decimals;
+		return (hundredths / 100) + "." + decimals;
+	}
+
+	/**
+	*	Pads a string with spaces to a width
+	*/
+	private static String pad (String s, int width)
+	{
+		StringBuffer b = new StringBuffer (s);
+		while (b.length () < width) b.append (' ');
+		return b.toString ();
+	}
+
+	/**
+	*	Prints a human readable summary
+	*/
+	public void printSummary (PrintStream out)
+	{
+		out.println ("Statistics:");
+		for (int i = 0; i < phaseNames.length; ++i) {
+			out.println ("  " + pad (phaseNames[i], 20) + millis (mPhaseTime[i]) + " ms");
+		}
+		out.println ("  " + pad ("tokens lexed", 20) + mTokens);
+		out.println ("  " + pad ("peekNext calls", 20) + mPeeks);
+		out.println ("  " + pad ("file seeks", 20) + mSeeks);
+		out.println ("  " + pad ("bytes read", 20) + mBytesRead);
+		out.println ("  " + pad ("included files", 20) + mIncludes);
+		out.println ("  " + pad ("expressions", 20) + mExpressions);
+		out.println ("  " + pad ("symbol lookups", 20) + mLookups + " (" + mHits + " found, average depth " +
+			averageHitDepth () + ", max depth " + mMaxHitDepth + ")");
+		out.println ("  " + pad ("bytes written", 20) + mBytesWritten);
+	}
+
+	/**
+	*	Prints the statistics as a JSON object. Times are in nanoseconds.
+	*/
+	public void printJson (PrintStream out)
+	{
+		StringBuffer b = new StringBuffer ("{\"timeNanos\":{");
+		for (int i = 0; i < phaseKeys.length; ++i) {
+			if (i != 0) b.append (',');
+			b.append ('"').append (phaseKeys[i]).append ("\":").append (mPhaseTime[i]);
+		}
+		b.append ("},\"tokens\":").append (mTokens);
+		b.append (",\"peeks\":").append (mPeeks);
+		b.append (",\"seeks\":").append (mSeeks);
+		b.append (",\"bytesRead\":").append (mBytesRead);
+		b.append (",\"includes\":").append (mIncludes);
+		b.append (",\"expressions\":").append (mExpressions);
+		b.append (",\"symbolLookups\":").append (mLookups);
+		b.append (",\"symbolHits\":").append (mHits);
+		b.append (",\"symbolHitDepth\":").append (mHitDepth);
+		b.append (",\"symbolMaxHitDepth\":").append (mMaxHitDepth);
+		b.append (",\"bytesWritten\":").append (mBytesWritten);
+		b.append ('}');
+		out.println (b.toString ());
+	}
+}
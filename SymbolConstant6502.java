@@ -74,6 +74,18 @@ public interface SymbolConstant6502 {
 	public static final int INCLUDE = 0x84;
 	public static final int PROC = 0x85;
 	public static final int ENDPROC = 0x86;
+	public static final int ALIGN = 0x87;
+	public static final int PAGE = 0x88;
+	public static final int ENDPAGE = 0x89;
+	public static final int SEGMENT = 0x8a;
+	public static final int RESERVE = 0x8b;
+	public static final int COMPRESS = 0x8c;
+	public static final int ENDCOMPRESS = 0x8d;
+	public static final int PTEXT = 0x8e;
+	public static final int PTEXTDICT = 0x8f;
+	public static final int TABLE = 0x90;
+	public static final int REPT = 0x91;
+	public static final int ENDREPT = 0x92;
 	
 	// other keywords
 	
@@ -94,6 +106,9 @@ public interface SymbolConstant6502 {
 	public static final int TEMPLABEL = 0x10e;
 	public static final int FORWARDJUMP = 0x10f;
 	public static final int BACKWARDJUMP = 0x110;
+	// in postfix expressions only
+	public static final int FUNCTION = 0x111;
+	public static final int INDEX = 0x112;
 	
 	// values 
 	public static final int NULL = 0xFFFFFFFF;
@@ -209,6 +224,74 @@ public interface SymbolConstant6502 {
 	//	  ACC   IMM   ZP    ZPX   ZPY   ABS   ABSX  ABSY  IMPL  REL   INDX  INDY  ABSI
 	};
 	
+	/**
+	*	Number of cpu cycles each opcode takes in each addressing mode, indexed the same way as machineCodeMatrix.
+	*	A -1 means the opcode is illegal in that addressing mode.
+	*	The counts are the base cycles. Branches take one extra cycle when taken, and one more if
+	*	the branch target is on another page. Loads with absolute indexed or indirect indexed addressing take
+	*	one extra cycle when the indexed address crosses a page boundary.
+	*/
+	public static final int[][] machineCycleMatrix = {
+	//	  ACC   IMM   ZP    ZPX   ZPY   ABS   ABSX  ABSY  IMPL  REL   INDX  INDY  IND
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // ADC
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // AND
+		{ 2   , -1  , 5   , 6   , -1  , 6   , 7   , -1  , -1  , -1  , -1  , -1  , -1  }, // ASL
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BCC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BCS
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BEQ
+		{ -1  , -1  , 3   , -1  , -1  , 4   , -1  , -1  , -1  , -1  , -1  , -1  , -1  }, // BIT
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BMI
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BNE
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BPL
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 7   , -1  , -1  , -1  , -1  }, // BRK
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BVC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  }, // BVS
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // CLC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // CLD
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // CLI
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // CLV
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // CMP
+		{ -1  , 2   , 3   , -1  , -1  , 4   , -1  , -1  , -1  , -1  , -1  , -1  , -1  }, // CPX
+		{ -1  , 2   , 3   , -1  , -1  , 4   , -1  , -1  , -1  , -1  , -1  , -1  , -1  }, // CPY
+		{ -1  , -1  , 5   , 6   , -1  , 6   , 7   , -1  , -1  , -1  , -1  , -1  , -1  }, // DEC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // DEX
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // DEY
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // EOR
+		{ -1  , -1  , 5   , 6   , -1  , 6   , 7   , -1  , -1  , -1  , -1  , -1  , -1  }, // INC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // INX
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // INY
+		{ -1  , -1  , -1  , -1  , -1  , 3   , -1  , -1  , -1  , -1  , -1  , -1  , 5   }, // JMP
+		{ -1  , -1  , -1  , -1  , -1  , 6   , -1  , -1  , -1  , -1  , -1  , -1  , -1  }, // JSR
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // LDA
+		{ -1  , 2   , 3   , -1  , 4   , 4   , -1  , 4   , -1  , -1  , -1  , -1  , -1  }, // LDX
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , -1  , -1  , -1  , -1  , -1  , -1  }, // LDY
+		{ 2   , -1  , 5   , 6   , -1  , 6   , 7   , -1  , -1  , -1  , -1  , -1  , -1  }, // LSR
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // NOP
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // ORA
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 3   , -1  , -1  , -1  , -1  }, // PHA
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 3   , -1  , -1  , -1  , -1  }, // PHP
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 4   , -1  , -1  , -1  , -1  }, // PLA
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 4   , -1  , -1  , -1  , -1  }, // PLP
+		{ 2   , -1  , 5   , 6   , -1  , 6   , 7   , -1  , -1  , -1  , -1  , -1  , -1  }, // ROL
+		{ 2   , -1  , 5   , 6   , -1  , 6   , 7   , -1  , -1  , -1  , -1  , -1  , -1  }, // ROR
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 6   , -1  , -1  , -1  , -1  }, // RTI
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 6   , -1  , -1  , -1  , -1  }, // RTS
+		{ -1  , 2   , 3   , 4   , -1  , 4   , 4   , 4   , -1  , -1  , 6   , 5   , -1  }, // SBC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // SEC
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // SED
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // SEI
+		{ -1  , -1  , 3   , 4   , -1  , 4   , 5   , 5   , -1  , -1  , 6   , 6   , -1  }, // STA
+		{ -1  , -1  , 3   , -1  , 4   , 4   , -1  , -1  , -1  , -1  , -1  , -1  , -1  }, // STX
+		{ -1  , -1  , 3   , 4   , -1  , 4   , -1  , -1  , -1  , -1  , -1  , -1  , -1  }, // STY
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // TAX
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // TAY
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // TSX
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // TXA
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }, // TXS
+		{ -1  , -1  , -1  , -1  , -1  , -1  , -1  , -1  , 2   , -1  , -1  , -1  , -1  }  // TYA
+	//	  ACC   IMM   ZP    ZPX   ZPY   ABS   ABSX  ABSY  IMPL  REL   INDX  INDY  IND
+	};
+	
 	/**
 	*	Translates addrModeLen array to a string (Only used for debugging)
 	*/
@@ -233,10 +316,20 @@ public interface SymbolConstant6502 {
 	public static final int RELOC = 1;
 	public static final int RELOC_LOBYTE = 2;
 	public static final int RELOC_HIBYTE = 3;
+	/** Value of an expression that mixes addresses in a way no relocation can patch, like label * 2 */
+	public static final int RELOC_COMPLEX = 4;
 	
 	public static final int MODE_SCREEN = 0;
 	public static final int MODE_RAW = 1;
 	public static final int MODE_C64 = 2;
+	public static final int MODE_SPARSE = 3;
+	public static final int MODE_OBJECT = 4;
+	public static final int MODE_CRT = 5;
+	public static final int MODE_BANKS = 6;
+	public static final int MODE_D64 = 7;
+	public static final int MODE_HEX = 8;
+	public static final int MODE_SREC = 9;
+	public static final int MODE_PACKED = 10;
 	public static final int MODE_SECRET = 99;
 	
 	public static final int PARSERESULT_UNDEF_STATEMENT = 0;
@@ -252,5 +345,16 @@ public interface SymbolConstant6502 {
 	public static final int PARSERESULT_DATA = 10;
 	public static final int PARSERESULT_PROC = 11;
 	public static final int PARSERESULT_ENDPROC = 12;
+	public static final int PARSERESULT_ALIGN = 13;
+	public static final int PARSERESULT_PAGE = 14;
+	public static final int PARSERESULT_ENDPAGE = 15;
+	public static final int PARSERESULT_SEGMENT = 16;
+	public static final int PARSERESULT_RESERVE = 17;
+	public static final int PARSERESULT_COMPRESS = 18;
+	public static final int PARSERESULT_ENDCOMPRESS = 19;
+	public static final int PARSERESULT_PTEXT = 20;
+	public static final int PARSERESULT_PTEXTDICT = 21;
+	public static final int PARSERESULT_TABLE = 22;
+	public static final int PARSERESULT_REPT = 23;
 
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+import java.io.*;
+import java.util.*;
+
+/**
+*	Exports the labels and identifiers of an assembly, named with the full path of the procedures
+*	they are defined in (for instance "print.addr" for label addr in .proc print).
+*
+*	Two formats are supported:
+*	- VICE monitor labels, one "al C:xxxx .name" line per symbol, loaded with the ll command.
+*	- A compact binary index sorted by value, so tools can load it without parsing, and find the
+*	  symbols of an address with binary search.
+*
+*	The symbols are sorted by value, then by name. Each format is built in memory and written to
+*	the stream in a single write, and the names are written part by part into the buffer, so no
+*	qualified name strings are built.
+*
+*	The binary index is laid out as follows, all numbers little endian:
+*	<pre>
+*	header	4 bytes	"JSYM"
+*			2 bytes	version (1)
+*			2 bytes	size of a symbol entry (12)
+*			4 bytes	number of symbols
+*			4 bytes	size of name table in bytes
+*	entries	4 bytes	value
+*			4 bytes	offset of name in name table
+*			2 bytes	length of name
+*			1 byte	type, 0 = label, 1 = identifier
+*			1 byte	procedure depth, 0 = global
+*	names	the qualified names in ascii, not terminated
+*	</pre>
+*
+*	@author David Schager
+*/
+public class SymbolExport6502 implements SymbolConstant6502 {
+	public static final int INDEX_VERSION = 1;
+	public static final int INDEX_ENTRY_SIZE = 12;
+	private Symbol[] mSymbols;
+	private String[][] mPaths;
+
+	/**
+	*	Constructor, collects and sorts all defined symbols of a symbol table.
+	*/
+	public SymbolExport6502 (SymbolTable table)
+	{
+		Vector symbols = new Vector ();
+		Vector paths = new Vector ();
+		table.collectSymbols (symbols, paths);
+		final Symbol[] s = new Symbol [symbols.size ()];
+		final String[][] p = new String [paths.size ()][];
+		symbols.copyInto (s);
+		paths.copyInto (p);
+		Integer[] order = new Integer [s.length];
+		for (int i = 0; i < order.length; ++i) order[i] = Integer.valueOf (i);
+		Arrays.sort (order, new Comparator () {
+			public int compare (Object a, Object b)
+			{
+				int i = ((Integer) a).intValue ();
+				int j = ((Integer) b).intValue ();
+				if (s[i].getValue () != s[j].getValue ()) return (s[i].getValue () < s[j].getValue ()) ? -1 : 1;
+				return compareNames (p[i], s[i].getName (), p[j], s[j].getName ());
+			}
+		});
+		mSymbols = new Symbol [s.length];
+		mPaths = new String [s.length][];
+		for (int i = 0; i < order.length; ++i) {
+			mSymbols[i] = s[order[i].intValue ()];
+			mPaths[i] = p[order[i].intValue ()];
+		}
+	}
+
+	/**
+	*	Compares two qualified names part by part.
+	*/
+	private static int compareNames (String[] pathA, String nameA, String[] pathB, String nameB)
+	{
+		int n = Math.max (pathA.length, pathB.length) + 1;
+		for (int i = 0; i < n; ++i) {
+			String a = (i < pathA.length) ? pathA[i] : (i == pathA.length) ? nameA : null;
+			String b = (i < pathB.length) ? pathB[i] : (i == pathB.length) ? nameB : null;
+			if (a == null || b == null) return (a == null) ? -1 : 1;
+			int c = a.compareTo (b);
+			if (c != 0) return c;
+		}
+		return 0;
+	}
+
+	/**
+	*	Returns number of exported symbols
+	*/
+	public int getCount ()
+	{
+		return mSymbols.length;
+	}
+
+	/**
+	*	Writes the characters of a string as bytes.
+	*/
+	private static void writeAscii (ByteArrayOutputStream out, String s)
+	{
+		for (int i = 0; i < s.length (); ++i) out.write (s.charAt (i));
+	}
+
+	/**
+	*	Writes the qualified name of a symbol.
+	*	@return number of bytes written
+	*/
+	private int writeName (ByteArrayOutputStream out, int i)
+	{
+		String[] path = mPaths[i];
+		int length = 0;
+		for (int j = 0; j < path.length; ++j) {
+			writeAscii (out, path[j]);
+			out.write ('.');
+			length += path[j].length () + 1;
+		}
+		writeAscii (out, mSymbols[i].getName ());
+		return length + mSymbols[i].getName ().length ();
+	}
+
+	/**
+	*	Writes a little endian number.
+	*/
+	private static void writeLittleEndian (ByteArrayOutputStream out, int value, int bytes)
+	{
+		for (int i = 0; i < bytes; ++i) {
+			out.write (value & 0xFF);
+			value >>= 8;
+		}
+	}
+
+	/**
+	*	Writes the symbols as VICE monitor labels.
+	*	Symbols with values outside 16 bits are left out, since VICE labels are addresses.
+	*/
+	public void writeVice (OutputStream out) throws IOException
+	{
+		final char[] hex = "0123456789abcdef".toCharArray ();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream (mSymbols.length * 32);
+		for (int i = 0; i < mSymbols.length; ++i) {
+			int value = mSymbols[i].getValue ();
+			if (value < 0 || value > 0xFFFF) continue;
+			writeAscii (buffer, "al C:");
+			buffer.write (hex[(value >> 12) & 0xF]);
+			buffer.write (hex[(value >> 8) & 0xF]);
+			buffer.write (hex[(value >> 4) & 0xF]);
+			buffer.write (hex[value & 0xF]);
+			buffer.write (' ');
+			buffer.write ('.');
+			writeName (buffer, i);
+			buffer.write ('\n');
+		}
+		buffer.writeTo (out);
+	}
+
+	/**
+	*	Writes the symbols as a binary index.
+	*/
+	public void writeIndex (OutputStream out) throws IOException
+	{
+		ByteArrayOutputStream names = new ByteArrayOutputStream (mSymbols.length * 16);
+		int[] offsets = new int [mSymbols.length];
+		int[] lengths = new int [mSymbols.length];
+		for (int i = 0; i < mSymbols.length; ++i) {
+			offsets[i] = names.size ();
+			lengths[i] = writeName (names, i);
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream (16 + mSymbols.length * INDEX_ENTRY_SIZE +
+			names.size ());
+		writeAscii (buffer, "JSYM");
+		writeLittleEndian (buffer, INDEX_VERSION, 2);
+		writeLittleEndian (buffer, INDEX_ENTRY_SIZE, 2);
+		writeLittleEndian (buffer, mSymbols.length, 4);
+		writeLittleEndian (buffer, names.size (), 4);
+		for (int i = 0; i < mSymbols.length; ++i) {
+			writeLittleEndian (buffer, mSymbols[i].getValue (), 4);
+			writeLittleEndian (buffer, offsets[i], 4);
+			writeLittleEndian (buffer, lengths[i], 2);
+			buffer.write (mSymbols[i].getType () == LABEL ? 0 : 1);
+			buffer.write (mPaths[i].length);
+		}
+		names.writeTo (buffer);
+		buffer.writeTo (out);
+	}
+
+	/**
+	*	Writes the symbols as VICE monitor labels to a file.
+	*/
+	public void writeVice (String filename) throws IOException
+	{
+		OutputStream out = new FileOutputStream (filename);
+		try {
+			writeVice (out);
+		}
+		finally {
+			out.close ();
+		}
+	}
+
+	/**
+	*	Writes the symbols as a binary index to a file.
+	*/
+	public void writeIndex (String filename) throws IOException
+	{
+		OutputStream out = new FileOutputStream (filename);
+		try {
+			writeIndex (out);
+		}
+		finally {
+			out.close ();
+		}
+	}
+}
@@ -3,6 +3,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.Iterator;
+import java.util.Vector;
 
 
 
@@ -26,6 +27,7 @@ public class SymbolTable implements SymbolConstant6502 {
 	private Stack mStack;
 	private int mLexLevel;
 	private final static int LEVEL_LIMIT = 16;
+	private Stats6502 mStats = null;
 	
 	/**
 	*	Constructor.
@@ -58,6 +60,7 @@ public class SymbolTable implements SymbolConstant6502 {
 				break;
 			}
 		}
+		if (mStats != null) mStats.addLookup (success ? mStack.size () - 1 - temp.size () : -1);
 		return success;
 	}
 
@@ -74,6 +77,7 @@ public class SymbolTable implements SymbolConstant6502 {
 			HashMap tab = namespace.getSymbolTable (); 
 			if (null != (s = (Symbol) tab.get (name))) break;
 		}
+		if (mStats != null) mStats.addLookup ((s != null) ? mStack.size () - 1 - temp.size () : -1);
 		return (s == null) ? null : new Symbol (s.getName (), s.getType (), s.getValue ());
 	}
 	
@@ -87,6 +91,7 @@ public class SymbolTable implements SymbolConstant6502 {
 		Namespace namespace = (Namespace) mStack.peek ();
 		HashMap tab = namespace.getSymbolTable (); 
 		Symbol s = (Symbol) tab.get (name);
+		if (mStats != null) mStats.addLookup ((s != null) ? 0 : -1);
 		return (s == null) ? null : new Symbol (s.getName (), s.getType (), s.getValue ());
 	}
 	
@@ -142,6 +147,83 @@ public class SymbolTable implements SymbolConstant6502 {
 		}
 	}
 	
+	/**
+	*	Traverse namespace tree by recursion and collect all defined labels and identifiers.
+	*	@param namespace node to traverse
+	*	@param prefix qualified name of namespace, including trailing separator
+	*	@param separator string to put between procedure names and symbol names
+	*	@param symbols vector to add the found symbols to
+	*/
+	private void traverseAndCollect (Namespace namespace, String prefix, String separator, Vector symbols)
+	{
+		HashMap tab = namespace.getSymbolTable ();
+		for (Iterator it = tab.values ().iterator (); it.hasNext (); ) {
+			Symbol s = (Symbol) it.next ();
+			if ((s.getType () == LABEL || s.getType () == IDENTIFIER) && s.getValue () != NULL) {
+				symbols.addElement (new Symbol (prefix + s.getName (), s.getType (), s.getValue ()));
+			}
+		}
+		HashMap childNamespaces = namespace.getNamespace ();
+		for (Iterator it = childNamespaces.entrySet ().iterator (); it.hasNext (); ) {
+			Map.Entry entry = (Map.Entry) it.next ();
+			traverseAndCollect ((Namespace) entry.getValue (), prefix + entry.getKey () + separator, separator, symbols);
+		}
+	}
+	
+	/**
+	*	Returns all defined labels and identifiers in all namespaces.
+	*	The names of the returned symbols are qualified with the names of the procedures they are
+	*	defined in, for instance "proc.label" when separator is ".".
+	*	@param separator string to put between procedure names and symbol names
+	*	@return Vector of Symbol objects
+	*/
+	public Vector getQualifiedSymbols (String separator)
+	{
+		Vector symbols = new Vector ();
+		traverseAndCollect ((Namespace) mNamespace.get ("global"), "", separator, symbols);
+		return symbols;
+	}
+	
+	/**
+	*	Traverse namespace tree by recursion and collect all defined labels and identifiers,
+	*	together with the path of the namespace they are defined in.
+	*	@param namespace node to traverse
+	*	@param path names of the procedures from global namespace down to namespace
+	*	@param symbols vector to add the found symbols to
+	*	@param paths vector to add the path of each found symbol to, the array is shared by all
+	*		symbols in the same namespace
+	*/
+	private void traverseAndCollect (Namespace namespace, String[] path, Vector symbols, Vector paths)
+	{
+		HashMap tab = namespace.getSymbolTable ();
+		for (Iterator it = tab.values ().iterator (); it.hasNext (); ) {
+			Symbol s = (Symbol) it.next ();
+			if ((s.getType () == LABEL || s.getType () == IDENTIFIER) && s.getValue () != NULL) {
+				symbols.addElement (s);
+				paths.addElement (path);
+			}
+		}
+		HashMap childNamespaces = namespace.getNamespace ();
+		for (Iterator it = childNamespaces.entrySet ().iterator (); it.hasNext (); ) {
+			Map.Entry entry = (Map.Entry) it.next ();
+			String[] childPath = new String [path.length + 1];
+			System.arraycopy (path, 0, childPath, 0, path.length);
+			childPath[path.length] = (String) entry.getKey ();
+			traverseAndCollect ((Namespace) entry.getValue (), childPath, symbols, paths);
+		}
+	}
+	
+	/**
+	*	Collects all defined labels and identifiers in all namespaces, without building qualified names.
+	*	@param symbols vector to add the symbols to
+	*	@param paths vector to add a String array for each symbol to, holding the names of the 
+	*		procedures the symbol is defined in, outermost first
+	*/
+	public void collectSymbols (Vector symbols, Vector paths)
+	{
+		traverseAndCollect ((Namespace) mNamespace.get ("global"), new String [0], symbols, paths);
+	}
+	
 	/**
 	*	Sets hashmap tree
 	*/
@@ -201,8 +283,11 @@ public class SymbolTable implements SymbolConstant6502 {
 			HashMap tab = (HashMap) namespace.getSymbolTable ();
 			if (null != (s = (Symbol) tab.get (name))) {
 				if (s.getType () == type && s.getValue () != NULL) break;
+				// undefined in every namespace must not return the undefined symbol
+				s = null;
 			}
 		}
+		if (mStats != null) mStats.addLookup ((s != null) ? mStack.size () - 1 - temp.size () : -1);
 
 		return (s == null) ? null : new Symbol (s.getName (), s.getType (), s.getValue ());
 	}
@@ -221,6 +306,14 @@ public class SymbolTable implements SymbolConstant6502 {
 		return success;
 	}
 	
+	/**
+	*	Sets the statistics to count lookups in, or null to not count.
+	*/
+	public void setStats (Stats6502 stats)
+	{
+		mStats = stats;
+	}
+	
 	/**
 	*	Returns current lex level. (0-15)
 	*/
@@ -0,0 +1,296 @@
+import java.util.*;
+
+/**
+*	Packs the strings of .ptext directives with one dictionary for all strings of the assembly,
+*	and writes the 6502 routine that prints them, for programs whose text does not fit in memory
+*	a byte per character.
+*
+*	The dictionary is built by byte pair encoding: the pair of symbols that is most frequent in
+*	all strings gets a code, and every occurrence is replaced by it, until 127 codes are used or
+*	no pair saves more than the two bytes its dictionary entry takes. Codes stand for pairs of
+*	characters or codes, so frequent words become one byte. A packed string is made of
+*	<pre>
+*	$01-$7f	a character
+*	$80-$fe	a code, which prints the two symbols of its dictionary entry
+*	$ff		followed by a character from $80 to $ff
+*	$00		the end of the string
+*	</pre>
+*	The decoder prints a code by calling itself for the first symbol of the pair and jumping to
+*	itself for the second, so the stack holds 3 bytes for each level of codes in codes. Pairs are
+*	at most MAX_DEPTH levels deep.
+*
+*	@author David Schager
+*/
+public class TextPacker6502 {
+	public static final int MAX_CODES = 0x7f;
+	public static final int MAX_DEPTH = 8;
+	public static final int ESCAPE = 0xff;
+	// symbols from 0x100 are codes, below are characters
+	private static final int CODE = 0x100;
+
+	private Vector mStrings;
+	private int[][] mPairs = new int [0][];
+	private byte[][] mPacked = null;
+
+	/**
+	*	Constructor
+	*	@param strings Vector of byte[] strings, in the order of the .ptext directives
+	*/
+	public TextPacker6502 (Vector strings)
+	{
+		mStrings = new Vector ();
+		for (int i = 0; i < strings.size (); ++i) {
+			byte[] string = (byte[]) strings.elementAt (i);
+			// every string ends with 0, the decoder stops there
+			if (string.length == 0 || string[string.length - 1] != 0) {
+				byte[] terminated = new byte [string.length + 1];
+				System.arraycopy (string, 0, terminated, 0, string.length);
+				string = terminated;
+			}
+			mStrings.addElement (string);
+		}
+	}
+
+	/**
+	*	Builds the dictionary and packs the strings.
+	*/
+	public void pack ()
+	{
+		int[][] text = new int [mStrings.size ()][];
+		int[] lengths = new int [text.length];
+		for (int i = 0; i < text.length; ++i) {
+			byte[] string = (byte[]) mStrings.elementAt (i);
+			text[i] = new int [string.length];
+			for (int j = 0; j < string.length; ++j) text[i][j] = string[j] & 0xff;
+			lengths[i] = string.length;
+		}
+		Vector pairs = new Vector ();
+		Vector depths = new Vector ();
+		HashMap counts = new HashMap ();
+		while (pairs.size () < MAX_CODES) {
+			counts.clear ();
+			for (int i = 0; i < text.length; ++i) {
+				int[] s = text[i];
+				boolean counted = false;
+				for (int j = 0; j + 1 < lengths[i]; ++j) {
+					// in a run of one symbol only the pairs that do not overlap are replaced
+					if (counted && s[j - 1] == s[j] && s[j] == s[j + 1]) {
+						counted = false;
+						continue;
+					}
+					counted = false;
+					if (!isPairable (s[j]) || !isPairable (s[j + 1])) continue;
+					if (depth (s[j], depths) >= MAX_DEPTH || depth (s[j + 1], depths) >= MAX_DEPTH) continue;
+					counted = true;
+					Integer key = Integer.valueOf ((s[j] << 16) | s[j + 1]);
+					Integer count = (Integer) counts.get (key);
+					counts.put (key, Integer.valueOf ((count == null) ? 1 : count.intValue () + 1));
+				}
+			}
+			int best = -1;
+			int bestCount = 2;
+			for (Iterator it = counts.entrySet ().iterator (); it.hasNext (); ) {
+				Map.Entry entry = (Map.Entry) it.next ();
+				int key = ((Integer) entry.getKey ()).intValue ();
+				int count = ((Integer) entry.getValue ()).intValue ();
+				// the lowest pair of the most frequent, so the dictionary does not depend on hash order
+				if (count > bestCount || (count == bestCount && best >= 0 && key < best)) {
+					best = key;
+					bestCount = count;
+				}
+			}
+			if (best < 0) break;
+			int code = CODE + pairs.size ();
+			int first = best >>> 16;
+			int second = best & 0xffff;
+			pairs.addElement (new int[] {first, second});
+			depths.addElement (Integer.valueOf (1 + Math.max (depth (first, depths), depth (second, depths))));
+			for (int i = 0; i < text.length; ++i) {
+				int[] s = text[i];
+				int n = 0;
+				for (int j = 0; j < lengths[i]; ++j) {
+					if (j + 1 < lengths[i] && s[j] == first && s[j + 1] == second) {
+						s[n++] = code;
+						++j;
+					}
+					else s[n++] = s[j];
+				}
+				lengths[i] = n;
+			}
+		}
+		mPairs = (int[][]) pairs.toArray (new int [pairs.size ()][]);
+		mPacked = new byte [text.length][];
+		for (int i = 0; i < text.length; ++i) {
+			int n = 0;
+			for (int j = 0; j < lengths[i]; ++j) n += (text[i][j] >= 0x80 && text[i][j] < CODE) ? 2 : 1;
+			mPacked[i] = new byte [n];
+			n = 0;
+			for (int j = 0; j < lengths[i]; ++j) {
+				int symbol = text[i][j];
+				if (symbol >= CODE) mPacked[i][n++] = (byte) (0x80 + symbol - CODE);
+				else {
+					if (symbol >= 0x80) mPacked[i][n++] = (byte) ESCAPE;
+					mPacked[i][n++] = (byte) symbol;
+				}
+			}
+		}
+	}
+
+	/**
+	*	Returns true if a symbol may be part of a pair. The end of a string and the characters
+	*	that need an escape are not.
+	*/
+	private static boolean isPairable (int symbol)
+	{
+		return symbol != 0 && (symbol < 0x80 || symbol >= CODE);
+	}
+
+	private static int depth (int symbol, Vector depths)
+	{
+		return (symbol < CODE) ? 0 : ((Integer) depths.elementAt (symbol - CODE)).intValue ();
+	}
+
+	/**
+	*	Returns the number of strings.
+	*/
+	public int getCount ()
+	{
+		return mStrings.size ();
+	}
+
+	/**
+	*	Returns a string as given, with its ending 0.
+	*/
+	public byte[] getString (int index)
+	{
+		return (byte[]) mStrings.elementAt (index);
+	}
+
+	/**
+	*	Returns a string packed, after pack.
+	*/
+	public byte[] getPacked (int index)
+	{
+		return mPacked[index];
+	}
+
+	/**
+	*	Returns the number of bytes of the strings as given.
+	*/
+	public int getTextLength ()
+	{
+		int length = 0;
+		for (int i = 0; i < mStrings.size (); ++i) length += ((byte[]) mStrings.elementAt (i)).length;
+		return length;
+	}
+
+	/**
+	*	Returns the number of bytes of the packed strings.
+	*/
+	public int getPackedLength ()
+	{
+		int length = 0;
+		for (int i = 0; i < mPacked.length; ++i) length += mPacked[i].length;
+		return length;
+	}
+
+	/**
+	*	Returns the number of codes in the dictionary, each takes 2 bytes.
+	*/
+	public int getCodeCount ()
+	{
+		return mPairs.length;
+	}
+
+	/**
+	*	Returns the number of bytes of the decoder with its dictionary.
+	*/
+	public int getDecoderLength ()
+	{
+		return getDecoder (0, 0, 0).length;
+	}
+
+	/**
+	*	Returns the decoder with the dictionary after it. It is called with the address of a packed
+	*	string in x (low) and y (high), and calls the output routine with each character in a.
+	*	@param address address of the decoder
+	*	@param output address of the routine that prints a character, like $ffd2
+	*	@param zp zero page address of the two bytes that point into the string
+	*/
+	public byte[] getDecoder (int address, int output, int zp)
+	{
+		CodeBuffer6502 code = new CodeBuffer6502 (address);
+		code.imm (0x86, zp);					// stx zp
+		code.imm (0x84, zp + 1);				// sty zp+1
+		code.label ("next");
+		code.imm (0xa0, 0);						// ldy #0
+		code.imm (0xb1, zp);					// lda (zp),y
+		code.branch (0xf0, "done");				// beq done
+		code.imm (0xe6, zp);					// inc zp
+		code.branch (0xd0, "fetched");			// bne fetched
+		code.imm (0xe6, zp + 1);				// inc zp+1
+		code.label ("fetched");
+		code.imm (0xc9, ESCAPE);				// cmp #ESCAPE
+		code.branch (0xd0, "symbol");			// bne symbol
+		code.imm (0xb1, zp);					// lda (zp),y
+		code.imm (0xe6, zp);					// inc zp
+		code.branch (0xd0, "escaped");			// bne escaped
+		code.imm (0xe6, zp + 1);				// inc zp+1
+		code.label ("escaped");
+		code.abs (0x20, output);				// jsr output
+		code.abs (0x4c, "next");				// jmp next
+		code.label ("symbol");
+		code.abs (0x20, "expand");				// jsr expand
+		code.abs (0x4c, "next");				// jmp next
+		code.label ("done");
+		code.op (0x60);							// rts
+		code.label ("expand");
+		code.imm (0xc9, 0x80);					// cmp #$80
+		code.branch (0xb0, "pair");				// bcs pair
+		code.abs (0x4c, output);				// jmp output
+		code.label ("pair");
+		code.op (0xaa);							// tax
+		code.abs (0xbd, "second", -0x80);		// lda second-$80,x
+		code.op (0x48);							// pha
+		code.abs (0xbd, "first", -0x80);		// lda first-$80,x
+		code.abs (0x20, "expand");				// jsr expand
+		code.op (0x68);							// pla
+		code.abs (0x4c, "expand");				// jmp expand
+		code.label ("first");
+		for (int i = 0; i < mPairs.length; ++i) code.op (toByte (mPairs[i][0]));
+		code.label ("second");
+		for (int i = 0; i < mPairs.length; ++i) code.op (toByte (mPairs[i][1]));
+		return code.toByteArray ();
+	}
+
+	private static int toByte (int symbol)
+	{
+		return (symbol >= CODE) ? 0x80 + symbol - CODE : symbol;
+	}
+
+	/**
+	*	Unpacks a string, as the decoder prints it.
+	*	@return the characters, without the ending 0
+	*/
+	public byte[] unpack (byte[] packed)
+	{
+		StringBuffer out = new StringBuffer ();
+		for (int i = 0; packed[i] != 0; ++i) {
+			int symbol = packed[i] & 0xff;
+			if (symbol == ESCAPE) out.append ((char) (packed[++i] & 0xff));
+			else expand (symbol, out);
+		}
+		byte[] bytes = new byte [out.length ()];
+		for (int i = 0; i < bytes.length; ++i) bytes[i] = (byte) out.charAt (i);
+		return bytes;
+	}
+
+	private void expand (int symbol, StringBuffer out)
+	{
+		if (symbol < 0x80) out.append ((char) symbol);
+		else {
+			expand (toByte (mPairs[symbol - 0x80][0]), out);
+			expand (toByte (mPairs[symbol - 0x80][1]), out);
+		}
+	}
+}
@@ -0,0 +1,10 @@
+$1000 + 2 * (3 - 1)
+<($c000 + 255)
+>$d020
+%1010 | $f0 & 255
+-1 + 10 / 2
+(($0400 + 40 * 12) + 39) - $0400
+~$ff & $ffff
+1 << 4 | 1 >> 1
+$ffd2 ^ $00ff
+((1 + 2) * (3 + 4)) / (5 - 2) + (6 * 7)
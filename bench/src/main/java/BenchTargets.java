@@ -0,0 +1,242 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.function.IntSupplier;
+
+/**
+*	The operations measured by the benchmarks in package jasm6502.bench.
+*	JMH does not accept benchmarks in the default package, and classes in a named package cannot
+*	use the assembler classes in the default package. So the benchmarks look up these factory
+*	methods by reflection once during setup, and then only call the returned IntSupplier in the
+*	measured loop. Each supplier returns a value derived from its work, so it is not optimized away.
+*
+*	@author David Schager
+*/
+public class BenchTargets implements SymbolConstant6502 {
+
+	/**
+	*	Wraps the checked exceptions of the assembler, which are not expected in benchmarks.
+	*/
+	private static RuntimeException fail (Exception e)
+	{
+		return new IllegalStateException (e.toString (), e);
+	}
+
+	/**
+	*	Returns a new lexer with the keywords of Assembler6502, reading from a file.
+	*/
+	private static AbstractLexer newLexer (String filename)
+	{
+		AbstractLexer lexer = new Assembler6502 ().getLexer ();
+		lexer.attachInput (filename);
+		return lexer;
+	}
+
+	/**
+	*	Lexes a whole file with getNext.
+	*	@return number of tokens
+	*/
+	public static IntSupplier lex (String filename)
+	{
+		final AbstractLexer lexer = newLexer (filename);
+		return () -> {
+			try {
+				lexer.reset ();
+				int tokens = 0;
+				while (lexer.getNext ().getType () != EOF) ++tokens;
+				return tokens;
+			}
+			catch (LexerException e) {
+				throw fail (e);
+			}
+		};
+	}
+
+	/**
+	*	Lexes a whole file, peeking each token with peekNext before reading it with getNext,
+	*	the way the parser and expression transformer do.
+	*	@return number of tokens
+	*/
+	public static IntSupplier peekAndLex (String filename)
+	{
+		final AbstractLexer lexer = newLexer (filename);
+		return () -> {
+			try {
+				lexer.reset ();
+				int tokens = 0;
+				while (lexer.peekNext ().getType () != EOF) {
+					lexer.getNext ();
+					++tokens;
+				}
+				return tokens;
+			}
+			catch (LexerException e) {
+				throw fail (e);
+			}
+		};
+	}
+
+	/**
+	*	Evaluates each line in a file of expressions, as pass 2 would.
+	*	@return sum of the results
+	*/
+	public static IntSupplier evaluate (String filename)
+	{
+		final AbstractLexer lexer = newLexer (filename);
+		final Evaluator evaluator = new Evaluator (lexer);
+		return () -> {
+			try {
+				lexer.reset ();
+				int sum = 0;
+				while (lexer.peekNext ().getType () != EOF) {
+					if (lexer.peekNext ().getType () != LINEFEED) {
+						sum += evaluator.evaluate (2, 0x1000, LINEFEED).getValue ();
+					}
+					lexer.getNext ();
+				}
+				return sum;
+			}
+			catch (ParserException e) {
+				throw fail (e);
+			}
+			catch (LexerException e) {
+				throw fail (e);
+			}
+		};
+	}
+
+	/**
+	*	Looks up a global symbol from a namespace nested depth procedures deep.
+	*	Each namespace holds 32 other symbols, so the lookup works on populated hash maps.
+	*	@param depth nesting depth as a decimal string
+	*	@return value of symbol
+	*/
+	public static IntSupplier symbolLookup (String depth)
+	{
+		final SymbolTable table = new SymbolTable ();
+		table.install (new Symbol ("target", IDENTIFIER, 1));
+		int levels = Integer.parseInt (depth);
+		for (int level = 0; level <= levels; ++level) {
+			for (int i = 0; i < 32; ++i) table.install (new Symbol ("sym" + level + "_" + i, LABEL, i));
+			if (level < levels) table.stepIntoNamespace ("proc" + level);
+		}
+		return () -> table.getSymbol ("target").getValue ();
+	}
+
+	/**
+	*	Returns machine code for an opcode keyword.
+	*/
+	private static MachineCode6502 machineCode (SymbolTable keywords, String opcode, int addrMode, int operand)
+	{
+		return new MachineCode6502 (keywords.getSymbol (opcode), addrMode, operand, true);
+	}
+
+	/**
+	*	Constructs machine code for a mix of opcodes and addressing modes in pass 2, with the checks,
+	*	table lookups, branch offsets and output of Assembler6502.constructMachineCode. The image is
+	*	emptied before each run, so it does not grow.
+	*	@return total length of the machine code
+	*/
+	public static IntSupplier constructMachineCode (String unused)
+	{
+		final Assembler6502 asm = new Assembler6502 ();
+		final Image6502 image = new Image6502 (0x1000);
+		asm.setPass (2, image);
+		SymbolTable keywords = new SymbolTable ();
+		asm.buildKeywordTable6502 (keywords);
+		final MachineCode6502[] code = {
+			machineCode (keywords, "lda", IMM, 0x10),
+			machineCode (keywords, "sta", ABS, 0xd020),
+			machineCode (keywords, "lda", ABSX, 0x2000),
+			machineCode (keywords, "sta", INDY, 0xfb),
+			machineCode (keywords, "inx", IMPL, 0),
+			machineCode (keywords, "adc", ZP, 0xfc),
+			machineCode (keywords, "jmp", IND, 0x0314),
+			machineCode (keywords, "bne", REL, 0x1000),
+			machineCode (keywords, "asl", ACC, 0),
+			machineCode (keywords, "ldx", ZPY, 0x02),
+			machineCode (keywords, "jsr", ABS, 0xffd2),
+			machineCode (keywords, "rts", IMPL, 0)
+		};
+		return () -> {
+			try {
+				image.clear ();
+				int len = 0;
+				for (int i = 0; i < code.length; ++i) len += asm.constructMachineCode (code[i], 0x1000 + len);
+				return len;
+			}
+			catch (ParserException e) {
+				throw fail (e);
+			}
+		};
+	}
+
+	/**
+	*	Runs a routine of a source file in the emulator, from a label until it returns. The source
+	*	is assembled once.
+	*	@param routine file name and label separated by ':', like "test/emu.asm:spin"
+	*	@return number of instructions executed
+	*/
+	public static IntSupplier emulate (String routine)
+	{
+		int colon = routine.lastIndexOf (':');
+		String filename = routine.substring (0, colon);
+		final Cpu6502 cpu = new Cpu6502 ();
+		final int address;
+		try {
+			Assembler6502 asm = new Assembler6502 ();
+			asm.setMode (MODE_RAW);
+			if (asm.assemble (filename, null) != 0) throw new IllegalStateException ("Cannot assemble " + filename);
+			cpu.load (asm.getImage ());
+			address = asm.getLabelAddress (routine.substring (colon + 1));
+		}
+		catch (IOException e) {
+			throw fail (e);
+		}
+		return () -> {
+			if (cpu.run (address, Long.MAX_VALUE) != Cpu6502.STOP_RTS) throw new IllegalStateException ("No rts in " + routine);
+			return (int) cpu.getInstructions ();
+		};
+	}
+
+	/**
+	*	Assembles a source file to memory, both passes.
+	*	@return length of the assembled image
+	*/
+	public static IntSupplier assemble (String filename)
+	{
+		return () -> {
+			try {
+				Assembler6502 asm = new Assembler6502 ();
+				asm.setMode (MODE_RAW);
+				if (asm.assemble (filename, null) != 0) throw new IllegalStateException ("Cannot assemble " + filename);
+				return asm.getImage ().getLength ();
+			}
+			catch (IOException e) {
+				throw fail (e);
+			}
+		};
+	}
+
+	/**
+	*	Generates a source with SourceGenerator6502 into a temporary directory, and assembles it
+	*	to memory, both passes. The source is generated once, and deleted when the vm exits.
+	*	@param size size of the source in units, as a decimal string
+	*	@return length of the assembled image
+	*/
+	public static IntSupplier assembleGenerated (String size)
+	{
+		try {
+			File directory = File.createTempFile ("jasm", "");
+			directory.delete ();
+			directory.mkdir ();
+			directory.deleteOnExit ();
+			String filename = new SourceGenerator6502 (Integer.parseInt (size), 6502).generate (directory.getPath (), "size" + size);
+			File[] files = directory.listFiles ();
+			for (int i = 0; i < files.length; ++i) files[i].deleteOnExit ();
+			return assemble (filename);
+		}
+		catch (IOException e) {
+			throw fail (e);
+		}
+	}
+}
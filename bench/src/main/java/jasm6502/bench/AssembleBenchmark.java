@@ -0,0 +1,39 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	End to end Assembler6502.assemble of the sources in test/, to memory.
+*	Only sources that assemble without errors are listed, since errors may terminate the vm.
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class AssembleBenchmark {
+	@Param ({"align.asm", "allops.asm", "assign.asm", "compatible.asm", "curaddress.asm", "emu.asm",
+		"eval.asm", "eval2.asm", "expr.asm", "expr2.asm", "helloworld.asm", "include1.asm",
+		"lohibyte.asm", "maclf.asm", "orgtest.asm", "parse.asm", "parse3.asm", "proc.asm", "reloc.asm",
+		"templabel.asm", "testbin.asm", "testbyte.asm", "testlabel.asm", "testprogram.asm", "winlf.asm"})
+	public String file;
+
+	private IntSupplier mAssemble;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mAssemble = Targets.get ("assemble", Targets.path ("test/" + file));
+	}
+
+	@Benchmark
+	public int assemble ()
+	{
+		return mAssemble.getAsInt ();
+	}
+}
@@ -0,0 +1,38 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	Cpu6502.run on the spin routine of test/emu.asm, two nested loops of dex and dey.
+*	Each operation is one instruction, so the score is in instructions per second.
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class EmulatorBenchmark {
+	/** Instructions of one call of spin */
+	static final int SPIN_INSTRUCTIONS = 2 + 256 * 256 * 2 + 256 * 2 + 1;
+
+	private IntSupplier mSpin;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mSpin = Targets.get ("emulate", Targets.path ("test/emu.asm") + ":spin");
+		if (mSpin.getAsInt () != SPIN_INSTRUCTIONS) throw new IllegalStateException ("spin changed in test/emu.asm");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation (SPIN_INSTRUCTIONS)
+	public int spin ()
+	{
+		return mSpin.getAsInt ();
+	}
+}
@@ -0,0 +1,33 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	Evaluator.evaluate on the expressions in bench/expressions.asm, one expression per line.
+*	The time includes lexing the expressions, since the evaluator reads them from the lexer.
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class EvaluatorBenchmark {
+	private IntSupplier mEvaluate;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mEvaluate = Targets.get ("evaluate", Targets.path ("bench/expressions.asm"));
+	}
+
+	@Benchmark
+	public int evaluate ()
+	{
+		return mEvaluate.getAsInt ();
+	}
+}
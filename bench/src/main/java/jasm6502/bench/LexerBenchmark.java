@@ -0,0 +1,65 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	Lexer6502 throughput.
+*	Each operation lexes a whole source file, and the number of tokens is reported as an auxiliary
+*	counter, so tokens per second can be read from the results. peekAndLex peeks every token before
+*	reading it, and shows the cost of peekNext (which saves, seeks and restores the lexer state).
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class LexerBenchmark {
+	@Param ({"test/allops.asm", "test/testprogram.asm", "example/raster.asm"})
+	public String file;
+
+	private IntSupplier mLex;
+	private IntSupplier mPeekAndLex;
+
+	/**
+	*	Counts the tokens lexed, reported per second next to the operations.
+	*/
+	@State (Scope.Thread)
+	@AuxCounters (AuxCounters.Type.OPERATIONS)
+	public static class Tokens {
+		public long tokens;
+
+		@Setup (Level.Iteration)
+		public void clear ()
+		{
+			tokens = 0;
+		}
+	}
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mLex = Targets.get ("lex", Targets.path (file));
+		mPeekAndLex = Targets.get ("peekAndLex", Targets.path (file));
+	}
+
+	@Benchmark
+	public int getNext (Tokens counter)
+	{
+		int n = mLex.getAsInt ();
+		counter.tokens += n;
+		return n;
+	}
+
+	@Benchmark
+	public int peekNextThenGetNext (Tokens counter)
+	{
+		int n = mPeekAndLex.getAsInt ();
+		counter.tokens += n;
+		return n;
+	}
+}
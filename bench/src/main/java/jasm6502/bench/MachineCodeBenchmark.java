@@ -0,0 +1,34 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	Assembler6502.constructMachineCode on twelve instructions with different addressing modes.
+*	The assembler is in pass 2, so this measures the checks and table lookups, the branch offset
+*	and the output to the image.
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class MachineCodeBenchmark {
+	private IntSupplier mConstruct;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mConstruct = Targets.get ("constructMachineCode", "");
+	}
+
+	@Benchmark
+	public int constructMachineCode ()
+	{
+		return mConstruct.getAsInt ();
+	}
+}
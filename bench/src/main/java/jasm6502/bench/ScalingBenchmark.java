@@ -0,0 +1,37 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	Assembler6502.assemble of sources generated by SourceGenerator6502, to memory.
+*	The sources grow linearly with the size, so the time should too. A time per size unit that
+*	grows with the size means something in the assembler is worse than linear.
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ScalingBenchmark {
+	@Param ({"1", "2", "4", "8", "16"})
+	public String size;
+
+	private IntSupplier mAssemble;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mAssemble = Targets.get ("assembleGenerated", size);
+	}
+
+	@Benchmark
+	public int assemble ()
+	{
+		return mAssemble.getAsInt ();
+	}
+}
@@ -0,0 +1,36 @@
+package jasm6502.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.*;
+
+/**
+*	SymbolTable.getSymbol of a global symbol, looked up from procedures nested at several depths.
+*	The lookup walks from the current namespace down to the global one.
+*
+*	@author David Schager
+*/
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class SymbolTableBenchmark {
+	@Param ({"0", "1", "4", "15"})
+	public String depth;
+
+	private IntSupplier mLookup;
+
+	@Setup
+	public void setUp () throws Exception
+	{
+		mLookup = Targets.get ("symbolLookup", depth);
+	}
+
+	@Benchmark
+	public int getSymbol ()
+	{
+		return mLookup.getAsInt ();
+	}
+}
@@ -0,0 +1,45 @@
+package jasm6502.bench;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.function.IntSupplier;
+
+/**
+*	Looks up the measured operations in BenchTargets, which lives in the default package with
+*	the assembler classes.
+*
+*	@author David Schager
+*/
+final class Targets {
+	private Targets ()
+	{
+	}
+
+	/**
+	*	Returns the jasm6502 source directory, given by system property jasm.root (default "..",
+	*	the parent of the bench directory).
+	*/
+	static String root ()
+	{
+		return System.getProperty ("jasm.root", "..");
+	}
+
+	/**
+	*	Returns the path of a file relative to the jasm6502 source directory.
+	*/
+	static String path (String name)
+	{
+		return root () + File.separator + name;
+	}
+
+	/**
+	*	Calls a factory method of BenchTargets.
+	*	@param name name of the method
+	*	@param arg argument of the method
+	*/
+	static IntSupplier get (String name, String arg) throws Exception
+	{
+		Method method = Class.forName ("BenchTargets").getMethod (name, String.class);
+		return (IntSupplier) method.invoke (null, arg);
+	}
+}
@@ -39,10 +39,9 @@ main:		ldx #<buffer
 .proc welcome
 			ldx #<msg
 			ldy #>msg
-			jsr print
+			jsr unpack
 			rts
-	msg:	.byt "WELCOME TO MINI ADVENTURE GAME ENGINE.", 13
-			.byt "TYPE N,S,E,W TO WALK AROUND, 'QUIT' TO END GAME.", 13, "13, 0
+	msg:	.ptext "WELCOME TO MINI ADVENTURE GAME ENGINE.", 13, "TYPE N,S,E,W TO WALK AROUND, 'QUIT' TO END GAME.", 13, 13
 .endproc
 
 .proc process_cmd
@@ -77,9 +76,9 @@ main:		ldx #<buffer
 .proc dont_understand
 			ldx #<msg
 			ldy #>msg
-			jsr print
+			jsr unpack
 			rts
-	msg:	.byt "I DON'T UNDERSTAND", 13, 0
+	msg:	.ptext "I DON'T UNDERSTAND", 13
 .endproc
 
 .proc action_north
@@ -127,9 +126,9 @@ main:		ldx #<buffer
 .proc cant_go
 			ldx #<msg
 			ldy #>msg
-			jsr print
+			jsr unpack
 			rts
-	msg:	.byt "YOU CANNOT GO THAT WAY.", 13, 0
+	msg:	.ptext "YOU CANNOT GO THAT WAY.", 13
 .endproc
 
 .proc action_quit
@@ -140,9 +139,9 @@ main:		ldx #<buffer
 .proc goodbye
 			ldx #<msg
 			ldy #>msg
-			jsr print
+			jsr unpack
 			rts
-	msg:	.byt "GOODBYE, HAVE A GOOD DAY!", 13, 0
+	msg:	.ptext "GOODBYE, HAVE A GOOD DAY!", 13
 .endproc
 
 .proc print_loc
@@ -157,10 +156,10 @@ main:		ldx #<buffer
 	descr:	ldx loc_vector, y
 			lda loc_vector + 1, y
 			tay
-			jsr print
+			jsr unpack
 			ldx #<msg
 			ldy #>msg
-			jsr print
+			jsr unpack
 			pla
 			sta directions
 			
@@ -196,7 +195,7 @@ main:		ldx #<buffer
 	dir_e:	.byt "E ",0
 	dir_s:	.byt "S ",0
 	dir_w:	.byt "W ",0
-	msg:	.byt "EXITS: ", 0
+	msg:	.ptext "EXITS: "
 .endproc
 
 cmdptr:				.word action_north, action_east, action_south, action_west, action_quit
@@ -206,13 +205,15 @@ cmdstr_ptr:			.word cmd_n, cmd_e, cmd_s, cmd_w, cmd_quit
 	cmd_s:			.byt "S", 0
 	cmd_w:			.byt "W", 0
 	cmd_quit:		.byt "QUIT", 0
-loc_beach:			.byt "ON THE BEACH.", 13, 0
-loc_wbeach:			.byt "WEST PART OF THE BEACH.", 13, 0
-loc_water:			.byt "IN THE WATER ON THE BEACH.", 13, 0
-loc_ocastle:		.byt "OUTSIDE THE HUGE CASTLE OF SAND.", 13, 0
-loc_icastle:		.byt "INSIDE THE HUGE CASTLE OF SAND.", 13, 0
-loc_path:			.byt "ON THE SUNLIT PATH.", 13, 0
-loc_bung:			.byt "IN YOUR NICE BUNGALOO.", 13, 0
+; location descriptions and messages are packed with one dictionary, unpack prints them
+unpack:				.ptextdict $ffd2
+loc_beach:			.ptext "ON THE BEACH.", 13
+loc_wbeach:			.ptext "WEST PART OF THE BEACH.", 13
+loc_water:			.ptext "IN THE WATER ON THE BEACH.", 13
+loc_ocastle:		.ptext "OUTSIDE THE HUGE CASTLE OF SAND.", 13
+loc_icastle:		.ptext "INSIDE THE HUGE CASTLE OF SAND.", 13
+loc_path:			.ptext "ON THE SUNLIT PATH.", 13
+loc_bung:			.ptext "IN YOUR NICE BUNGALOO.", 13
 loc_vector:			.word loc_beach, loc_wbeach, loc_water, loc_ocastle, loc_icastle, loc_path, loc_bung
 
 ; Room data (4x4 matrix)
@@ -1,4 +1,8 @@
 import java.io.IOException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.File;
+import java.util.Vector;
 
 /**
 *	jasm6502
@@ -12,18 +16,46 @@ public class jasm6502 implements SymbolConstant6502 {
 	static public final String usageMsg = 
 		"jasm6502, Portable 6502 cross assembler v0.6.1 (c) David Schager 2006\n" +
 		"usage:\n" +
-		"\tjava jasm6502 <options> <inputfile>\n\n" +
+		"\tjava jasm6502 <options> <inputfile>\n" +
+		"\tjava jasm6502 -f d64 <options> <inputfiles>\n\n" +
 		"Options:\n" + 
 		"-f <format>\n\t<format> can be:\n" +
 		"\tscreen\t- Output assembly to screen\n" +
 		"\traw\t- Output to raw binary file (default)\n" +
 		"\tc64\t- Output to Commodore 64 .prg file\n" +
+		"\tsparse\t- Output blocks between origins after a load table, without zero filled gaps\n" +
+		"\tobj\t- Output relocatable object module, for the linker\n" +
+		"\tcrt\t- Output Commodore 64 cartridge with a CHIP packet for each bank of segments\n" +
+		"\tbanks\t- Output the banks of segments one after the other to .rom file\n" +
+		"\td64\t- Output to 1541 disk image as PRG file, added to the image if it exists.\n" +
+		"\t\tSeveral input files are each assembled and written to the image in one pass\n" +
+		"\thex\t- Output Intel HEX records, without the gaps between origins\n" +
+		"\tsrec\t- Output Motorola S-records to .s19 file, without the gaps between origins\n" +
+		"\tpacked\t- Output compressed Commodore 64 .prg file that unpacks itself when run\n" +
+		"\tSeveral formats separated by comma are written in one assembly, for instance c64,raw,screen\n" +
+		"\tOption -o names the file of the first format\n" +
 		"-o <output file name>\n" +
 		"-t <translate ascii> (Translates to commodore 64 screen codes)\n" +
 		"\t<translate ascii> can be:\n" +
 		"\tupper\t- Translate to upper case\n" +
 		"\tlower\t- Translate to lower case\n" +
-		"\tnone\t- Supress translation (Default)\n";
+		"\tnone\t- Supress translation (Default)\n" +
+		"-w\tWarn when branches or indexed tables cross page boundaries\n" +
+		"-m <placement file>\tPlace segments as given in file\n" +
+		"--crt-type <type>\tCartridge hardware type in crt output (Default 0 for one bank, 19 for more)\n" +
+		"--memory-map\tPrint used and free bytes of each segment, and bytes saved by sparse output and packed text\n" +
+		"-l <listing file>\tWrite listing with addresses, bytes, cycles and source\n" +
+		"-d <debug map file>\tWrite map from addresses to source file, line and column\n" +
+		"-s <symbol file>\tExport labels in VICE monitor format\n" +
+		"-i <index file>\tExport labels as sorted binary index\n" +
+		"--stats\tPrint timing and counters of the assembly\n" +
+		"--stats-json <file>\tWrite timing and counters of the assembly as JSON\n" +
+		"-p <label>\tRun from label in the 6502 emulator and print a cycle profile\n" +
+		"-c <cycles>\tMaximum number of cycles to run when profiling (Default 100000000)\n";
+
+	/** Options that take a value */
+	private static final String[] VALUE_OPTIONS = {"-f", "-o", "-t", "-m", "--crt-type", "-l", "-d", "-s", "-i",
+		"--stats-json", "-p", "-c"};
 		
 	/**
 	*	Returns the value of an option declared on the command line.
@@ -63,6 +95,23 @@ public class jasm6502 implements SymbolConstant6502 {
 		return success;
 	}
 	
+	/**
+	*	Returns the arguments that are not options or their values, the input files.
+	*/
+	private Vector getInputFiles (String[] args)
+	{
+		Vector files = new Vector ();
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].startsWith ("-")) {
+				for (int j = 0; j < VALUE_OPTIONS.length; ++j) {
+					if (args[i].compareTo (VALUE_OPTIONS[j]) == 0) ++i;
+				}
+			}
+			else files.addElement (args[i]);
+		}
+		return files;
+	}
+	
 	/** 
 	*	Scans commandline for options and invokes the assembler.
 	*
@@ -81,8 +130,11 @@ public class jasm6502 implements SymbolConstant6502 {
 
 		// Get the output format if any, else default to raw output (plain binary without header)
 		int mode = MODE_RAW;
+		// more formats separated by comma are written in the same assembly, see addOutputs
+		String[] formats = new String [0];
 		if (hasOption (args, "-f")) {
-			String format = getOptionValue (args, "-f");
+			formats = getOptionValue (args, "-f").split (",");
+			String format = formats[0];
 			if (format.compareTo ("screen") == 0) {
 				// output to screen instead of disk
 				mode = MODE_SCREEN;
@@ -96,12 +148,46 @@ public class jasm6502 implements SymbolConstant6502 {
 				mode = MODE_C64;
 				extension = ".prg";
 			}
-			/*
+			else if (format.compareTo ("sparse") == 0) {
+				// output without the gaps between origins
+				mode = MODE_SPARSE;
+				extension = ".sparse";
+			}
 			else if (format.compareTo ("obj") == 0) {
+				// relocatable object module for the linker
 				mode = MODE_OBJECT;
 				extension = ".o";
 			}
-			*/
+			else if (format.compareTo ("crt") == 0) {
+				// commodore 64 cartridge of the segments in banks
+				mode = MODE_CRT;
+				extension = ".crt";
+			}
+			else if (format.compareTo ("banks") == 0) {
+				// segments in banks, in bank order
+				mode = MODE_BANKS;
+				extension = ".rom";
+			}
+			else if (format.compareTo ("d64") == 0) {
+				// program file in a 1541 disk image
+				mode = MODE_D64;
+				extension = ".d64";
+			}
+			else if (format.compareTo ("hex") == 0) {
+				// intel hex records for eprom programmers
+				mode = MODE_HEX;
+				extension = ".hex";
+			}
+			else if (format.compareTo ("srec") == 0) {
+				// motorola s-records for eprom programmers
+				mode = MODE_SREC;
+				extension = ".s19";
+			}
+			else if (format.compareTo ("packed") == 0) {
+				// self-extracting compressed commodore 64 prg file
+				mode = MODE_PACKED;
+				extension = ".packed.prg";
+			}
 			else {
 				System.err.println ("Error: Unknown output format.\n\n" + usageMsg);
 				System.exit (1);
@@ -155,6 +241,22 @@ public class jasm6502 implements SymbolConstant6502 {
 			System.exit (1);
 		}
 		
+		Vector inputs = getInputFiles (args);
+		if (mode == MODE_D64 && inputs.size () > 1) {
+			if (!hasOption (args, "-o")) {
+				// a disk of several programs is named after the first
+				outFileName = (String) inputs.elementAt (0);
+				int n = outFileName.lastIndexOf (".");
+				if (n >= 0) outFileName = outFileName.substring (0, n);
+				outFileName += extension;
+			}
+			if (inputs.contains (outFileName)) {
+				System.err.println ("Error: The output file cannot be one of the input files.\n\n" + usageMsg);
+				System.exit (1);
+			}
+			System.exit (assembleDisk (inputs, outFileName, translateAscii, args));
+		}
+		
 		if (hasOption (args, "-eee")) {
 			// secret test evaluator mode!
 			mode = MODE_SECRET;
@@ -168,10 +270,45 @@ public class jasm6502 implements SymbolConstant6502 {
 		*/
 		// Invoke the 6502 assembler
 		try {
-			AbstractAssembler jasm = new Assembler6502 ();
+			Assembler6502 jasm = new Assembler6502 ();
 			jasm.setMode (mode);
 			jasm.setAsciiTranslation (translateAscii);
-			System.exit (jasm.assemble (inFileName, outFileName));
+			jasm.setPageWarnings (hasOption (args, "-w"));
+			if (!addOutputs (jasm, formats, inFileName)) {
+				System.err.println ("Error: Unknown output format.\n\n" + usageMsg);
+				System.exit (1);
+			}
+			if (hasOption (args, "-m")) jasm.setPlacement (Placement6502.read (getOptionValue (args, "-m")));
+			if (hasOption (args, "--crt-type")) {
+				try {
+					jasm.setCartridgeType (Integer.parseInt (getOptionValue (args, "--crt-type")));
+				}
+				catch (NumberFormatException e) {
+					System.err.println ("Error: Malformed cartridge type.\n\n" + usageMsg);
+					System.exit (1);
+				}
+			}
+			if (hasOption (args, "-l")) jasm.setListingFile (getOptionValue (args, "-l"));
+			if (hasOption (args, "-d")) jasm.setDebugMapFile (getOptionValue (args, "-d"));
+			if (hasOption (args, "-s")) jasm.setSymbolFile (getOptionValue (args, "-s"));
+			if (hasOption (args, "-i")) jasm.setSymbolIndexFile (getOptionValue (args, "-i"));
+			Stats6502 stats = null;
+			if (hasOption (args, "--stats") || hasOption (args, "--stats-json")) {
+				stats = new Stats6502 ();
+				jasm.setStats (stats);
+			}
+			int error = jasm.assemble (inFileName, outFileName);
+			if (error == 0 && hasOption (args, "--memory-map")) printMemoryMap (jasm);
+			if (stats != null && hasOption (args, "--stats")) stats.printSummary (System.out);
+			if (stats != null && hasOption (args, "--stats-json")) {
+				PrintStream json = new PrintStream (new FileOutputStream (getOptionValue (args, "--stats-json")));
+				stats.printJson (json);
+				json.close ();
+			}
+			if (error == 0 && hasOption (args, "-p")) {
+				error = profile (jasm, getOptionValue (args, "-p"), args);
+			}
+			System.exit (error);
 		}
 		catch (IOException e) {
 			System.err.println (e.getMessage ());
@@ -179,6 +316,128 @@ public class jasm6502 implements SymbolConstant6502 {
 		System.exit (1);
 	}
 	
+	/**
+	*	Adds the output formats after the first to the assembler, with file names made from the
+	*	input file name.
+	*	@return false if a format is unknown
+	*/
+	private boolean addOutputs (Assembler6502 jasm, String[] formats, String inFileName)
+	{
+		String base = inFileName;
+		int n = base.lastIndexOf (".");
+		if (n >= 0) base = base.substring (0, n);
+		for (int i = 1; i < formats.length; ++i) {
+			if (formats[i].compareTo ("screen") == 0) jasm.addOutput (OutputSink6502.SCREEN, null);
+			else if (formats[i].compareTo ("raw") == 0) jasm.addOutput (OutputSink6502.RAW, base + ".bin");
+			else if (formats[i].compareTo ("c64") == 0) jasm.addOutput (OutputSink6502.PRG, base + ".prg");
+			else if (formats[i].compareTo ("sparse") == 0) jasm.addOutput (OutputSink6502.SPARSE, base + ".sparse");
+			else if (formats[i].compareTo ("crt") == 0) jasm.addOutput (OutputSink6502.CRT, base + ".crt");
+			else if (formats[i].compareTo ("banks") == 0) jasm.addOutput (OutputSink6502.BANKS, base + ".rom");
+			else if (formats[i].compareTo ("d64") == 0) jasm.addOutput (OutputSink6502.D64, base + ".d64");
+			else if (formats[i].compareTo ("hex") == 0) jasm.addOutput (OutputSink6502.HEX, base + ".hex");
+			else if (formats[i].compareTo ("srec") == 0) jasm.addOutput (OutputSink6502.SREC, base + ".s19");
+			else if (formats[i].compareTo ("packed") == 0) jasm.addOutput (OutputSink6502.PACKED, base + ".packed.prg");
+			else return false;
+		}
+		return true;
+	}
+
+	/**
+	*	Assembles each input file as a program, and writes the programs to one disk image in one
+	*	pass over the image. Nothing is written if any file has errors.
+	*	@return exit code
+	*/
+	private int assembleDisk (Vector inputs, String outFileName, int translateAscii, String[] args)
+	{
+		Vector images = new Vector ();
+		OutputSink6502 disk = new OutputSink6502 (OutputSink6502.D64, outFileName);
+		try {
+			for (int i = 0; i < inputs.size (); ++i) {
+				Assembler6502 jasm = new Assembler6502 ();
+				jasm.setMode (MODE_C64);
+				jasm.setAsciiTranslation (translateAscii);
+				jasm.setPageWarnings (hasOption (args, "-w"));
+				if (hasOption (args, "-m")) jasm.setPlacement (Placement6502.read (getOptionValue (args, "-m")));
+				if (jasm.assemble ((String) inputs.elementAt (i), null) != 0) return 1;
+				images.addElement (jasm.getImage ());
+			}
+			Vector names = new Vector ();
+			for (int i = 0; i < inputs.size (); ++i) names.addElement (new File ((String) inputs.elementAt (i)).getName ());
+			disk.writeDisk (names, images);
+			return 0;
+		}
+		catch (IOException e) {
+			System.err.println (e.getMessage ());
+		}
+		return 1;
+	}
+
+	/**
+	*	Prints the memory map of the segments, and the bytes a sparse output saves.
+	*/
+	private void printMemoryMap (Assembler6502 jasm)
+	{
+		if (jasm.getPlacement () != null && jasm.getPlacement ().isUsed ()) {
+			jasm.getPlacement ().printMemoryMap (System.out);
+		}
+		else System.out.println ("No segments used");
+		Image6502 image = jasm.getImage ();
+		if (image.getHoleLength () > 0) {
+			int sparse = image.getSparseLength ();
+			System.out.println ("Gaps between origins: " + image.getHoleLength () + " bytes, sparse output is " +
+				sparse + " bytes instead of " + image.getLength () + ", saves " + (image.getLength () - sparse) + " bytes");
+		}
+		TextPacker6502 text = jasm.getPackedText ();
+		if (text != null) {
+			int packed = text.getPackedLength () + text.getDecoderLength ();
+			System.out.println ("Packed text: " + text.getCount () + " strings, " + text.getTextLength () + " bytes packed to " +
+				text.getPackedLength () + " and a decoder of " + text.getDecoderLength () + " bytes with " + text.getCodeCount () +
+				" codes, " + (100 * packed / text.getTextLength ()) + "% of the text");
+		}
+	}
+
+	/**
+	*	Runs the assembled program from a label in the emulator, and prints a cycle profile.
+	*	@param jasm The assembler, after a successful assembly
+	*	@param label Label to start running from, the run stops when it returns
+	*	@param args The commandline arguments
+	*	@return exit code
+	*/
+	private int profile (Assembler6502 jasm, String label, String[] args)
+	{
+		int address = jasm.getLabelAddress (label);
+		if (address < 0) {
+			System.err.println ("Error: Cannot profile from undefined label " + label);
+			return 1;
+		}
+		long maxCycles = 100000000;
+		if (hasOption (args, "-c")) {
+			try {
+				maxCycles = Long.parseLong (getOptionValue (args, "-c"));
+			}
+			catch (NumberFormatException e) {
+				System.err.println ("Error: Malformed cycle limit.\n\n" + usageMsg);
+				return 1;
+			}
+		}
+		Cpu6502 cpu = new Cpu6502 ();
+		Profiler6502 profiler = new Profiler6502 ();
+		cpu.load (jasm.getImage ());
+		cpu.setProfiler (profiler);
+		int stop = cpu.run (address, maxCycles);
+		if (stop == Cpu6502.STOP_CYCLES) {
+			System.out.println ("Stopped after " + cpu.getCycles () + " cycles");
+		}
+		else if (stop == Cpu6502.STOP_BRK) {
+			System.out.println ("Stopped at brk, address $" + Integer.toHexString (cpu.getPC ()));
+		}
+		else if (stop == Cpu6502.STOP_ILLEGAL) {
+			System.out.println ("Stopped at illegal opcode, address $" + Integer.toHexString (cpu.getPC ()));
+		}
+		profiler.report (System.out, jasm, 20);
+		return 0;
+	}
+
 	/**
 	*	Program entry point, creates jasm6502 object and calls run method.
 	*/
@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+*	jlink6502
+*	Links object modules made by jasm6502 -f obj into a program, without assembling them again.
+*	@see Linker6502
+*	@author David Schager
+*/
+public class jlink6502 implements SymbolConstant6502 {
+	static public final String usageMsg =
+		"jlink6502, linker for jasm6502 object modules (c) David Schager 2006\n" +
+		"usage:\n" +
+		"\tjava jlink6502 <options> <object files>\n\n" +
+		"Options:\n" +
+		"-f <format>\n\t<format> can be:\n" +
+		"\traw\t- Output to raw binary file (default)\n" +
+		"\tc64\t- Output to Commodore 64 .prg file\n" +
+		"\tsparse\t- Output blocks after a load table, without the alignment padding\n" +
+		"\thex\t- Output Intel HEX records, without the alignment padding\n" +
+		"\tsrec\t- Output Motorola S-records to .s19 file, without the alignment padding\n" +
+		"-o <output file name>\t(Default is the first object file with the extension of the format)\n" +
+		"-b <address>\tAddress of the first module, $hex or decimal (Default $1000)\n" +
+		"-j <threads>\tNumber of threads that link modules (Default the number of processors)\n" +
+		"--strip\tLeave out the .procs nothing refers to, and print the bytes removed\n" +
+		"-k <symbols>\tSymbols separated by comma to keep when stripping, with what they refer to\n" +
+		"--map\tPrint the address of each module\n" +
+		"--stats\tPrint the number of modules and relocations, and the link time\n";
+
+	/** Options that take a value */
+	private static final String[] VALUE_OPTIONS = {"-f", "-o", "-b", "-j", "-k"};
+
+	/**
+	*	Returns the value of an option declared on the command line.
+	*	@param args The commandline arguments
+	*	@param option The name of the option
+	*	@return String value of option
+	*/
+	private String getOptionValue (String[] args, String option)
+	{
+		String value = "";
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].compareTo (option) == 0) {
+				if (i + 1 >= args.length) {
+					System.err.println ("Error: Option " + args[i] + " needs a value.\n\n" + usageMsg);
+					System.exit (1);
+				}
+				else value = args[i + 1];
+			}
+		}
+		return value;
+	}
+
+	/**
+	*	Returns true if the requested option is present on commandline.
+	*/
+	private boolean hasOption (String[] args, String option)
+	{
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].compareTo (option) == 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	*	Returns the arguments that are not options or their values, the object files.
+	*/
+	private Vector getObjectFiles (String[] args)
+	{
+		Vector files = new Vector ();
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].startsWith ("-")) {
+				for (int j = 0; j < VALUE_OPTIONS.length; ++j) {
+					if (args[i].compareTo (VALUE_OPTIONS[j]) == 0) ++i;
+				}
+			}
+			else files.addElement (args[i]);
+		}
+		return files;
+	}
+
+	/**
+	*	Parses a number on the command line, $hex or decimal.
+	*/
+	private int parseNumber (String s)
+	{
+		try {
+			return s.startsWith ("$") ? Integer.parseInt (s.substring (1), 16) : Integer.parseInt (s);
+		}
+		catch (NumberFormatException e) {
+			System.err.println ("Error: Malformed number " + s + ".\n\n" + usageMsg);
+			System.exit (1);
+		}
+		return 0;
+	}
+
+	/**
+	*	Scans commandline for options, reads the object files and links them.
+	*
+	*	@param args Commandline arguments
+	*	Uses exit system call with exit code 1 for errors, 0 for successful link.
+	*/
+	public void run (String[] args)
+	{
+		Vector files = getObjectFiles (args);
+		if (files.size () == 0) {
+			System.err.println (usageMsg);
+			System.exit (1);
+		}
+
+		int type = OutputSink6502.RAW;
+		String extension = ".bin";
+		if (hasOption (args, "-f")) {
+			String format = getOptionValue (args, "-f");
+			if (format.compareTo ("raw") == 0) type = OutputSink6502.RAW;
+			else if (format.compareTo ("c64") == 0) {
+				type = OutputSink6502.PRG;
+				extension = ".prg";
+			}
+			else if (format.compareTo ("sparse") == 0) {
+				type = OutputSink6502.SPARSE;
+				extension = ".sparse";
+			}
+			else if (format.compareTo ("hex") == 0) {
+				type = OutputSink6502.HEX;
+				extension = ".hex";
+			}
+			else if (format.compareTo ("srec") == 0) {
+				type = OutputSink6502.SREC;
+				extension = ".s19";
+			}
+			else {
+				System.err.println ("Error: Unknown output format.\n\n" + usageMsg);
+				System.exit (1);
+			}
+		}
+
+		String outFileName = getOptionValue (args, "-o");
+		if (outFileName.length () == 0) {
+			outFileName = (String) files.elementAt (0);
+			int n = outFileName.lastIndexOf (".");
+			if (n >= 0) outFileName = outFileName.substring (0, n);
+			outFileName += extension;
+		}
+		if (files.contains (outFileName)) {
+			System.err.println ("Error: The output file cannot be one of the object files.\n\n" + usageMsg);
+			System.exit (1);
+		}
+
+		Linker6502 linker = new Linker6502 ();
+		if (hasOption (args, "-b")) linker.setBase (parseNumber (getOptionValue (args, "-b")));
+		if (hasOption (args, "-j")) linker.setThreads (parseNumber (getOptionValue (args, "-j")));
+		linker.setStrip (hasOption (args, "--strip"));
+		if (hasOption (args, "-k")) {
+			String[] roots = getOptionValue (args, "-k").split (",");
+			for (int i = 0; i < roots.length; ++i) linker.addRoot (roots[i]);
+		}
+		OutputSink6502 output = new OutputSink6502 (type, outFileName);
+		try {
+			long time = System.nanoTime ();
+			for (int i = 0; i < files.size (); ++i) linker.addObject (ObjectFile6502.read ((String) files.elementAt (i)));
+			Vector errors = linker.link ();
+			time = System.nanoTime () - time;
+			if (errors.size () != 0) {
+				for (int i = 0; i < errors.size (); ++i) System.err.println ((String) errors.elementAt (i));
+				output.discard ();
+				System.exit (1);
+			}
+			output.write (linker.getImage ());
+			if (hasOption (args, "--map")) printMap (linker);
+			if (hasOption (args, "--strip")) printStripped (linker);
+			if (hasOption (args, "--stats")) {
+				System.out.println ("Linked " + files.size () + " modules, " + linker.getRelocationCount () +
+					" relocations and references, in " + (time / 1000000.0) + " ms");
+			}
+			System.exit (0);
+		}
+		catch (IOException e) {
+			System.err.println (e.getMessage ());
+		}
+		output.discard ();
+		System.exit (1);
+	}
+
+	/**
+	*	Prints the start and end address of each module.
+	*/
+	private void printMap (Linker6502 linker)
+	{
+		Vector objects = linker.getObjects ();
+		for (int i = 0; i < objects.size (); ++i) {
+			ObjectFile6502 object = (ObjectFile6502) objects.elementAt (i);
+			int start = linker.getAddress (i);
+			System.out.println ("$" + Integer.toHexString (start) + "-$" +
+				Integer.toHexString (start + linker.getLength (i)) + "\t" + object.getName ());
+		}
+	}
+
+	/**
+	*	Prints the procs the linker left out, and the bytes removed.
+	*/
+	private void printStripped (Linker6502 linker)
+	{
+		Vector stripped = linker.getStripped ();
+		for (int i = 0; i < stripped.size (); ++i) {
+			Object[] proc = (Object[]) stripped.elementAt (i);
+			System.out.println ("Stripped " + proc[0] + " of " + proc[1] + ", " + proc[2] + " bytes");
+		}
+		System.out.println ("Stripped " + stripped.size () + " procs, " + linker.getStrippedBytes () + " bytes removed");
+	}
+
+	/**
+	*	Program entry point, creates jlink6502 object and calls run method.
+	*/
+	public static void main (String[] args)
+	{
+		jlink6502 j = new jlink6502 ();
+		j.run (args);
+	}
+}
@@ -0,0 +1,29 @@
+; tests .align, .page/.endpage and page crossing warnings (assemble with -w)
+*=$10f0
+		ldx #0
+loop:	lda table, x
+		sta $0400, x
+		inx
+		bne loop
+		rts
+		.align 256
+		.page
+table:	.byt 1, 2, 4, 8, 16, 32, 64, 128
+		.endpage
+straddle:
+		.byt 0, 0, 0, 0
+; the table straddles $1200, so the indexed load of it warns
+		* = $11fc
+wide:	.byt 1, 2, 3, 4, 5, 6, 7, 8
+scan:	ldx #7
+@		lda wide, x
+		dex
+		bpl @-
+		rts
+; the branch at $12fe goes back to the page before
+		* = $12fb
+crossing:
+		ldx #3
+@		dex
+		bne @-
+		rts
@@ -0,0 +1,22 @@
+; cartridge with three 8K banks sharing $8000, assemble with -m test/banks.cfg -f crt
+	.segment "main"
+	.word start, start
+	.byt $c3, $c2, $cd, $38, $30
+start	ldx #1
+	stx $de00
+	jsr level1
+	sta level
+	ldx #2
+	stx $de00
+	jmp level2
+
+	.segment "level1"
+level1	lda #1
+	rts
+
+	.segment "level2"
+level2	lda #2
+	rts
+
+	.segment "vars"
+level	.res 1
@@ -0,0 +1,25 @@
+; object module with an rts dispatch table, link with --strip to leave out only unused
+	.proc main
+		ldx #0
+		lda table + 1, x
+		pha
+		lda table, x
+		pha
+		rts
+	.endproc
+
+	.proc unused
+		rts
+	.endproc
+
+	.proc first
+		lda #<(second - 1)
+		ldx #>(second - 1)
+		rts
+	.endproc
+
+	.proc second
+		rts
+	.endproc
+
+table	.word first - 1
@@ -0,0 +1,78 @@
+; routines executed by Cpu6502Test
+factor1 = $fb
+factor2 = $fc
+product = $fd
+
+*=$1000
+; 8 bit * 8 bit = 16 bit multiply, factor1 * factor2 -> product (lo), product + 1 (hi)
+mul8:	lda #0
+		sta product + 1
+		ldx #8
+mulloop:
+		lsr factor1
+		bcc mulskip
+		clc
+		adc factor2
+mulskip:
+		ror
+		ror product + 1
+		dex
+		bne mulloop
+		sta product
+		lda product + 1
+		ldx product
+		stx product + 1
+		sta product
+		rts
+
+; 2 + 10 * 2 + 9 * 3 + 2 + 6 = 57 cycles
+delay:	ldx #10
+delayloop:
+		dex
+		bne delayloop
+		rts
+
+; bcd addition 19 + 28
+bcdadd:	sed
+		clc
+		lda #$19
+		adc #$28
+		cld
+		rts
+
+; calls a subroutine and returns the sum of a table
+tabsum:	jsr clearsum
+		ldx #0
+sumloop:
+		lda table, x
+		clc
+		adc product
+		sta product
+		inx
+		cpx #4
+		bne sumloop
+		rts
+clearsum:
+		lda #0
+		sta product
+		rts
+
+; 256 * 256 iterations for timing the emulator
+spin:	ldy #0
+		ldx #0
+spinloop:
+		dex
+		bne spinloop
+		dey
+		bne spinloop
+		rts
+
+forever:
+		jmp forever
+
+stop:	brk
+
+		.align 256
+		.res 254
+; table straddles a page, so reading table, x for x >= 2 costs an extra cycle
+table:	.byt 1, 2, 3, 4
@@ -0,0 +1,14 @@
+; object module whose first proc runs on into the next, link with --strip to leave out only unused
+	.proc init
+		lda #0
+		sta $d020
+	.endproc
+
+	.proc border
+		sta $d021
+		rts
+	.endproc
+
+	.proc unused
+		rts
+	.endproc
@@ -0,0 +1,20 @@
+; code at two origins with a gap, segments packed into the gap with test/gaps.cfg
+	* = $1000
+start:	ldx #0
+@	lda sine, x
+	sta $0400, x
+	inx
+	bne @-
+	jmp irq
+
+	* = $1100
+irq:	lda colors
+	sta $d020
+	rts
+
+	.segment "tables"
+	.align 16
+sine	.byt 1, 2, 3, 4, 5, 6, 7, 8
+
+	.segment "colors"
+colors	.byt 0, 6, 14
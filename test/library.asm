@@ -0,0 +1,21 @@
+; object module of procs for test/object.asm, link with --strip to leave out clear and unused
+	.proc clear
+		lda #0
+		sta $d020
+		rts
+	.endproc
+
+	.proc print
+		jsr $ffd2
+		jmp newline
+	.endproc
+
+	.proc unused
+		jsr clear
+		rts
+	.endproc
+
+	.proc newline
+		lda #13
+		jmp $ffd2
+	.endproc
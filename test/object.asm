@@ -0,0 +1,15 @@
+; object module, assemble with -f obj, labels are exported and print is resolved by the linker
+length = end - start
+start:	ldx #0
+@	lda text, x
+	jsr print
+	inx
+	cpx #length
+	bne @-
+	lda #<text
+	ldy #>text + 1
+	jmp print + 3
+text	.byt "hello"
+vector	.word start, irq
+irq	rti
+end
@@ -0,0 +1,6 @@
+; a .page block that crosses a page boundary, assembling it fails
+*=$10fc
+		.page
+table:	.byt 1, 2, 3, 4, 5, 6, 7, 8
+		.endpage
+		rts
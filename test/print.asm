@@ -0,0 +1,4 @@
+; object module that test/object.asm calls, link with: java jlink6502 object.o print.o
+	.align 4
+print	jsr $ffd2
+	rts
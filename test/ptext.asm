@@ -0,0 +1,23 @@
+; packed text, the strings are printed into memory at $2000, see DirectiveTest.testPackedText
+	* = $1000
+start	ldx #<one
+	ldy #>one
+	jsr decode
+	ldx #<two
+	ldy #>two
+	jsr decode
+	ldx #<three
+	ldy #>three
+	jsr decode
+	rts
+
+out	sta $2000
+	inc out + 1
+	bne @f
+	inc out + 2
+@	rts
+
+decode	.ptextdict out, $fb
+one	.ptext "THE SANDS OF THE BEACH ", "THE SANDS OF THE CASTLE", 13
+two	.ptext "THE CASTLE OF SAND ON THE BEACH", 13
+three	.ptext "THE END OF THE SANDS", $c1, 13, 0
@@ -0,0 +1,27 @@
+; unrolled loops, see DirectiveTest.testRepeat
+	* = $1000
+; clear a screen row by row
+clear	lda #$20
+	ldx #0
+@	.rept 4, row
+	sta $0400 + row * $100, x
+	.endrept
+	inx
+	bne @-
+	rts
+
+; a table with nested blocks, and a value assigned in the block
+n = 0
+table	.rept 3, outer
+	.rept 2, inner
+	n = n + 1
+	.byt outer * 16 + inner, n
+	.endrept
+	.endrept
+	.rept 0
+	brk
+	.endrept
+	.rept 2
+	nop
+	.endrept
+	.byt "ok", row
@@ -0,0 +1,29 @@
+; segments placed by the default placement, or test/segments.cfg
+	.segment "zp"
+ptr	.res 2
+count	.res 1
+
+	.segment "code"
+start:	lda #<message
+	sta ptr
+	lda #>message
+	sta ptr + 1
+	ldy #0
+@	lda (ptr), y
+	beq done
+	jsr $ffd2
+	iny
+	bne @-
+done:	inc count
+	rts
+
+	.segment "data"
+message	.byt "hello", 0
+
+	.segment "bss"
+buffer	.res 256
+
+	.segment "code"
+	.align 16
+again:	jmp start
+	.word buffer
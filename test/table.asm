@@ -0,0 +1,13 @@
+; tables made by the assembler, see DirectiveTest.testTable
+	* = $1000
+i = 3
+sine	.table 256, sin(i) + 128
+cosine	.table 64, cos(i, 31, 64)
+squarelo	.table 256, lo(i * i / 4)
+squarehi	.table 256, hi(i * i / 4)
+div	.table 16, clamp(256 / max(i, 1), 0, 255)
+rev	.table 8, (i & 1) << 2 | i & 2 | (i & 4) >> 2
+addrlo	.table 25, lo($0400 + i * 40)
+	.byt lo(sine), hi(sine), min(i, 2, 7), max(i, -2), i, -min(1, 0) + 1
+	lda sine + lo(i), x
+	ldx min($c0, $1ff), y